@@ -0,0 +1,29 @@
+package ge.tastyerp.common.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDate;
+import java.util.List;
+
+/**
+ * One "chunk" event of a streamed (Server-Sent Events) fetch: the processed
+ * items of one completed date chunk plus progress counters. Chunks arrive in
+ * completion order, not date order.
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class StreamChunkDto<T> {
+
+    private LocalDate startDate;
+    private LocalDate endDate;
+    private int chunksDone;
+    private int chunksTotal;
+    /** Items delivered so far, including this chunk. */
+    private int totalCount;
+    private List<T> items;
+}
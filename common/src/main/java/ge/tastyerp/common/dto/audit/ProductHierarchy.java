@@ -1,5 +1,8 @@
 package ge.tastyerp.common.dto.audit;
 
+import ge.tastyerp.common.util.KeywordMatcher;
+import ge.tastyerp.common.util.TermDictionary;
+
 import java.util.ArrayList;
 import java.util.LinkedHashMap;
 import java.util.List;
@@ -32,6 +35,12 @@ import java.util.Set;
  *
  * Intentionally code-driven: the taxonomy is small, stable, and shared. Adding a
  * new root only means extending a list below.
+ *
+ * <h3>Compiled matching</h3>
+ * All roots are compiled into one {@link KeywordMatcher} ranked by category
+ * order, so a name is scanned once instead of once per root, and each distinct
+ * name is classified only on first sight ({@link TermDictionary}); RS.ge feeds
+ * repeat a few hundred names across every goods line.
  */
 public final class ProductHierarchy {
 
@@ -93,6 +102,23 @@ public final class ProductHierarchy {
         // on the Product Categories page (heterogeneous, no reliable keyword).
     }
 
+    /** Parents in {@link #ROOTS} order; a root ranks as its parent's index, so the first matching category wins. */
+    private static final List<String> RANKED_PARENTS = new ArrayList<>(ROOTS.keySet());
+    private static final KeywordMatcher ROOT_MATCHER;
+
+    static {
+        Map<String, Integer> ranks = new LinkedHashMap<>();
+        for (int i = 0; i < RANKED_PARENTS.size(); i++) {
+            for (String root : ROOTS.get(RANKED_PARENTS.get(i))) {
+                ranks.putIfAbsent(root, i);
+            }
+        }
+        ROOT_MATCHER = new KeywordMatcher(ranks);
+    }
+
+    /** Distinct raw names -> category; bounded so unique junk names cannot grow it forever. */
+    private static final TermDictionary<String> NAMES = new TermDictionary<>(ProductHierarchy::match, 65_536);
+
     private ProductHierarchy() {
     }
 
@@ -126,15 +152,12 @@ public final class ProductHierarchy {
         if (productName == null || productName.isBlank()) {
             return OTHER;
         }
-        String normalized = productName.trim().toLowerCase();
-        for (Map.Entry<String, List<String>> entry : ROOTS.entrySet()) {
-            for (String root : entry.getValue()) {
-                if (normalized.contains(root.toLowerCase())) {
-                    return entry.getKey();
-                }
-            }
-        }
-        return OTHER;
+        return NAMES.classify(productName);
+    }
+
+    private static String match(String productName) {
+        int rank = ROOT_MATCHER.match(productName);
+        return rank >= 0 ? RANKED_PARENTS.get(rank) : OTHER;
     }
 
     /**
@@ -1,6 +1,7 @@
 package ge.tastyerp.common.dto.audit;
 
 import com.fasterxml.jackson.annotation.JsonFormat;
+import com.fasterxml.jackson.annotation.JsonInclude;
 import ge.tastyerp.common.dto.waybill.WaybillType;
 import lombok.AllArgsConstructor;
 import lombok.Builder;
@@ -15,7 +16,10 @@ import java.time.LocalDate;
  *
  * Produced by waybill-service from RS.ge data and consumed by the Audit Control
  * inventory engine in payment-service. PURCHASE = stock in, SALE = stock out.
+ * Null fields are left out of the JSON, so projected lines
+ * ({@link ProductMovementQuery#getFields()}) carry only what was asked for.
  */
+@JsonInclude(JsonInclude.Include.NON_NULL)
 @Data
 @Builder
 @NoArgsConstructor
@@ -0,0 +1,122 @@
+package ge.tastyerp.common.dto.audit;
+
+import ge.tastyerp.common.dto.waybill.WaybillType;
+import ge.tastyerp.common.util.TinValidator;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Filter and field projection for product movements, evaluated by
+ * waybill-service next to its movement cache so callers receive only the
+ * lines and fields they use. Every criterion is optional; null or empty
+ * means "no restriction".
+ *
+ * {@code categories} and {@code products} are alternatives: a line matches
+ * when its auto-classified parent category is one of {@code categories} OR
+ * its product name is one of {@code products}. Callers that re-categorize
+ * by user override pass the overridden names in {@code products}, so lines
+ * moved into a category are not lost by the server-side filter.
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class ProductMovementQuery {
+
+    /** Every projectable {@link ProductMovementDto} field, in declaration order. */
+    public static final List<String> FIELDS = List.of(
+            "date", "type", "productName", "parentCategory", "quantityKg",
+            "unit", "amount", "waybillId", "counterpartyId");
+
+    private Set<String> categories;      // parent codes, case-insensitive
+    private Set<String> products;        // product names, trimmed and case-insensitive
+    private WaybillType type;
+    private String counterpartyId;       // compared by canonical TIN
+    private UnitClass unitClass;
+    private Set<String> fields;          // projection; null = all fields
+
+    /** True when no line is filtered out and no field dropped. */
+    public boolean isUnrestricted() {
+        return isEmpty(categories) && isEmpty(products) && type == null
+                && (counterpartyId == null || counterpartyId.isBlank()) && unitClass == null && isEmpty(fields);
+    }
+
+    /**
+     * Copy with categories upper-cased, products reduced to {@link #productKey}
+     * and the counterparty canonicalized; {@link #matches} expects this form.
+     */
+    public ProductMovementQuery normalized() {
+        return new ProductMovementQuery(
+                categories == null ? null : categories.stream()
+                        .map(c -> c.trim().toUpperCase()).collect(Collectors.toSet()),
+                products == null ? null : products.stream()
+                        .map(ProductMovementQuery::productKey).collect(Collectors.toSet()),
+                type,
+                counterpartyId == null || counterpartyId.isBlank() ? null : TinValidator.canonicalId(counterpartyId),
+                unitClass,
+                fields);
+    }
+
+    /** Whether {@code m} passes the filter; call on a {@link #normalized} query. */
+    public boolean matches(ProductMovementDto m) {
+        if (type != null && m.getType() != type) return false;
+        if (unitClass != null && UnitClass.of(m.getUnit()) != unitClass) return false;
+        if (counterpartyId != null && (m.getCounterpartyId() == null
+                || !counterpartyId.equals(TinValidator.canonicalId(m.getCounterpartyId())))) {
+            return false;
+        }
+        if (isEmpty(categories) && isEmpty(products)) return true;
+        return (!isEmpty(categories) && m.getParentCategory() != null
+                && categories.contains(m.getParentCategory().toUpperCase()))
+                || (!isEmpty(products) && m.getProductName() != null
+                && products.contains(productKey(m.getProductName())));
+    }
+
+    /** {@code m} itself when every field is kept, otherwise a copy with only the projected fields. */
+    public ProductMovementDto project(ProductMovementDto m) {
+        if (isEmpty(fields)) return m;
+        return ProductMovementDto.builder()
+                .date(fields.contains("date") ? m.getDate() : null)
+                .type(fields.contains("type") ? m.getType() : null)
+                .productName(fields.contains("productName") ? m.getProductName() : null)
+                .parentCategory(fields.contains("parentCategory") ? m.getParentCategory() : null)
+                .quantityKg(fields.contains("quantityKg") ? m.getQuantityKg() : null)
+                .unit(fields.contains("unit") ? m.getUnit() : null)
+                .amount(fields.contains("amount") ? m.getAmount() : null)
+                .waybillId(fields.contains("waybillId") ? m.getWaybillId() : null)
+                .counterpartyId(fields.contains("counterpartyId") ? m.getCounterpartyId() : null)
+                .build();
+    }
+
+    /**
+     * The query as {@code GET /api/waybills/product-movements} parameters,
+     * one entry per parameter name (repeated for multiple values).
+     */
+    public Map<String, List<String>> toParams() {
+        Map<String, List<String>> params = new LinkedHashMap<>();
+        if (!isEmpty(categories)) params.put("category", List.copyOf(categories));
+        if (!isEmpty(products)) params.put("product", List.copyOf(products));
+        if (type != null) params.put("type", List.of(type.name()));
+        if (counterpartyId != null && !counterpartyId.isBlank()) params.put("counterpartyId", List.of(counterpartyId));
+        if (unitClass != null) params.put("unitClass", List.of(unitClass.name()));
+        if (!isEmpty(fields)) params.put("fields", List.copyOf(fields));
+        return params;
+    }
+
+    /** Case-insensitive, trimmed key a product name is matched by (same as the category overrides). */
+    public static String productKey(String name) {
+        return name == null ? "" : name.trim().toLowerCase();
+    }
+
+    private static boolean isEmpty(Set<String> set) {
+        return set == null || set.isEmpty();
+    }
+}
@@ -0,0 +1,56 @@
+package ge.tastyerp.common.dto.audit;
+
+import ge.tastyerp.common.util.KeywordMatcher;
+import ge.tastyerp.common.util.TermDictionary;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Unit class of a goods line: kilograms (the basis for inventory
+ * conservation) or anything else. Shared by the Audit Control engines in
+ * payment-service and the movement filters in waybill-service, so both
+ * split lines identically.
+ *
+ * Blank/unknown units count as kg because meat lines are overwhelmingly kg
+ * and RS.ge's kg encoding is not guaranteed; only units explicitly
+ * recognised as pieces/volume/etc. are {@link #OTHER}.
+ */
+public enum UnitClass {
+    KG,
+    OTHER;
+
+    /** Unit substrings (lowercased) that mark a line as kilograms; they win over {@link #NON_KG_UNITS}. */
+    private static final List<String> KG_UNITS = List.of("კგ", "kg", "კილ", "kilo");
+
+    /** Unit substrings (lowercased) that mark a line as NOT measured in kilograms. */
+    private static final List<String> NON_KG_UNITS = List.of(
+            "ცალ",      // ცალი – pieces
+            "piece", "pcs",
+            "ლიტრ", "liter", "litre",  // volume
+            "შეკვრ",    // bundle / pack
+            "კომპლ", "pack", "set",
+            "წყვილ",    // pair
+            "გრამ", "gram"             // grams – mass but not kg; excluded to avoid unit mismatch
+    );
+
+    /** Rank 0 = a kg marker, rank 1 = a non-kg marker; the lowest rank found decides. */
+    private static final KeywordMatcher MATCHER;
+
+    static {
+        Map<String, Integer> ranks = new HashMap<>();
+        NON_KG_UNITS.forEach(u -> ranks.put(u, 1));
+        KG_UNITS.forEach(u -> ranks.put(u, 0));
+        MATCHER = new KeywordMatcher(ranks);
+    }
+
+    /** Distinct unit spellings seen on goods lines -> class (a handful in practice). */
+    private static final TermDictionary<UnitClass> UNITS =
+            new TermDictionary<>(u -> MATCHER.match(u) == 1 ? OTHER : KG, 4_096);
+
+    public static UnitClass of(String unit) {
+        if (unit == null || unit.isBlank()) return KG;
+        return UNITS.classify(unit);
+    }
+}
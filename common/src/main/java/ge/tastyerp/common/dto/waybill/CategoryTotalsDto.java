@@ -0,0 +1,27 @@
+package ge.tastyerp.common.dto.waybill;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.math.BigDecimal;
+
+/**
+ * Goods totals of one parent product category (ProductHierarchy code) over a
+ * period. Returned by waybill-service /api/waybills/category-totals.
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class CategoryTotalsDto {
+    private WaybillType type;
+    private String category;         // ProductHierarchy parent code
+    private BigDecimal quantityKg;   // sum of quantities of kilogram lines (UnitClass.KG) only
+    private BigDecimal amount;       // sum of goods line totals, all units
+    private long lineCount;          // number of goods lines, all units
+    private long nonKgLineCount;     // lines in other units (pieces, liters...), not in quantityKg
+    // false when goods of some waybills could not be loaded from RS.ge
+    private boolean complete;
+}
@@ -0,0 +1,35 @@
+package ge.tastyerp.common.dto.waybill;
+
+import com.fasterxml.jackson.annotation.JsonFormat;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDate;
+import java.util.List;
+
+/**
+ * Days whose waybills changed in the waybill store since a cursor.
+ * Returned by waybill-service /api/waybills/sales/changes; payment-service's
+ * debt ledger re-reads only these days instead of every sale.
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class WaybillChangesDto {
+    private String cursor;       // pass as ?since= on the next call
+    private boolean reset;       // the given cursor is unknown or too old: re-read everything
+    private List<DayRange> days; // changed day ranges, oldest change first; may overlap
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class DayRange {
+        @JsonFormat(pattern = "yyyy-MM-dd")
+        private LocalDate from;
+        @JsonFormat(pattern = "yyyy-MM-dd")
+        private LocalDate to;
+    }
+}
@@ -8,6 +8,7 @@ import lombok.NoArgsConstructor;
 
 import java.math.BigDecimal;
 import java.time.LocalDate;
+import java.time.LocalDateTime;
 
 /**
  * Backend-calculated VAT summary for a period (sold vs purchased).
@@ -40,5 +41,11 @@ public class WaybillVatSummaryDto {
     private BigDecimal soldVat;
     private BigDecimal purchasedVat;
     private BigDecimal netVat;
+
+    // true when RS.ge was unreachable and the summary was computed from stored data
+    private boolean stale;
+
+    @JsonFormat(pattern = "yyyy-MM-dd'T'HH:mm:ss")
+    private LocalDateTime syncedAt;
 }
 
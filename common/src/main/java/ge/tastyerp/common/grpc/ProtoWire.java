@@ -0,0 +1,204 @@
+package ge.tastyerp.common.grpc;
+
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * The subset of the protobuf wire format used by {@link WaybillStreamCodec}:
+ * varints, zigzag-encoded signed varints and length-delimited fields.
+ * Unknown fields are skipped on read, so either side can add fields first.
+ */
+final class ProtoWire {
+
+    static final int VARINT = 0;
+    static final int FIXED64 = 1;
+    static final int LEN = 2;
+    static final int FIXED32 = 5;
+
+    private ProtoWire() {
+        // Utility class - no instantiation
+    }
+
+    /**
+     * Fixed-point units of {@code value} at {@code scale} decimals, or null when
+     * the value needs more decimals or does not fit in a long (sent as text).
+     */
+    static Long toUnits(BigDecimal value, int scale) {
+        if (value.scale() > scale && value.stripTrailingZeros().scale() > scale) return null;
+        try {
+            return value.movePointRight(scale).longValueExact();
+        } catch (ArithmeticException e) {
+            return null;
+        }
+    }
+
+    /** Inverse of {@link #toUnits}, without the padding zeros of the fixed scale. */
+    static BigDecimal fromUnits(long units, int scale) {
+        BigDecimal value = BigDecimal.valueOf(units, scale).stripTrailingZeros();
+        return value.scale() < 0 ? value.setScale(0) : value;
+    }
+
+    static final class Writer {
+        private byte[] buf = new byte[256];
+        private int pos;
+
+        void reset() {
+            pos = 0;
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(buf, pos);
+        }
+
+        void uint64(int field, long value) {
+            tag(field, VARINT);
+            varint(value);
+        }
+
+        void sint64(int field, long value) {
+            tag(field, VARINT);
+            varint((value << 1) ^ (value >> 63));
+        }
+
+        /** Written only when true, the proto3 default being false. */
+        void bool(int field, boolean value) {
+            if (value) uint64(field, 1);
+        }
+
+        /** Written only when non-null, so null and "" stay distinct. */
+        void string(int field, String value) {
+            if (value == null) return;
+            byte[] b = value.getBytes(StandardCharsets.UTF_8);
+            bytes(field, b, b.length);
+        }
+
+        /** Units field when it fits the scale, text field otherwise; nothing for null. */
+        void decimal(int unitsField, int textField, BigDecimal value, int scale) {
+            if (value == null) return;
+            Long units = toUnits(value, scale);
+            if (units != null) {
+                sint64(unitsField, units);
+            } else {
+                string(textField, value.toPlainString());
+            }
+        }
+
+        void message(int field, Writer nested) {
+            bytes(field, nested.buf, nested.pos);
+        }
+
+        private void bytes(int field, byte[] b, int n) {
+            tag(field, LEN);
+            varint(n);
+            ensure(n);
+            System.arraycopy(b, 0, buf, pos, n);
+            pos += n;
+        }
+
+        private void tag(int field, int wireType) {
+            varint(((long) field << 3) | wireType);
+        }
+
+        private void varint(long v) {
+            ensure(10);
+            while ((v & ~0x7FL) != 0) {
+                buf[pos++] = (byte) ((v & 0x7F) | 0x80);
+                v >>>= 7;
+            }
+            buf[pos++] = (byte) v;
+        }
+
+        private void ensure(int extra) {
+            if (pos + extra > buf.length) {
+                buf = Arrays.copyOf(buf, Math.max(buf.length * 2, pos + extra));
+            }
+        }
+    }
+
+    static final class Reader {
+        private final byte[] buf;
+        private final int limit;
+        private int pos;
+
+        Reader(byte[] buf) {
+            this(buf, 0, buf.length);
+        }
+
+        private Reader(byte[] buf, int pos, int limit) {
+            this.buf = buf;
+            this.pos = pos;
+            this.limit = limit;
+        }
+
+        boolean hasNext() {
+            return pos < limit;
+        }
+
+        /** Next tag; field number is {@code tag >>> 3}, wire type {@code tag & 7}. */
+        int tag() {
+            return (int) varint();
+        }
+
+        long uint64() {
+            return varint();
+        }
+
+        long sint64() {
+            long v = varint();
+            return (v >>> 1) ^ -(v & 1);
+        }
+
+        boolean bool() {
+            return varint() != 0;
+        }
+
+        String string() {
+            int n = length();
+            String s = new String(buf, pos, n, StandardCharsets.UTF_8);
+            pos += n;
+            return s;
+        }
+
+        Reader message() {
+            int n = length();
+            Reader nested = new Reader(buf, pos, pos + n);
+            pos += n;
+            return nested;
+        }
+
+        void skip(int tag) {
+            switch (tag & 7) {
+                case VARINT -> varint();
+                case FIXED64 -> advance(8);
+                case LEN -> advance(length());
+                case FIXED32 -> advance(4);
+                default -> throw new IllegalArgumentException("Unsupported protobuf wire type " + (tag & 7));
+            }
+        }
+
+        private int length() {
+            long n = varint();
+            if (n < 0 || n > limit - pos) {
+                throw new IllegalArgumentException("Truncated protobuf message");
+            }
+            return (int) n;
+        }
+
+        private void advance(int n) {
+            if (n > limit - pos) throw new IllegalArgumentException("Truncated protobuf message");
+            pos += n;
+        }
+
+        private long varint() {
+            long v = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                if (pos >= limit) throw new IllegalArgumentException("Truncated protobuf message");
+                byte b = buf[pos++];
+                v |= (long) (b & 0x7F) << shift;
+                if (b >= 0) return v;
+            }
+            throw new IllegalArgumentException("Malformed protobuf varint");
+        }
+    }
+}
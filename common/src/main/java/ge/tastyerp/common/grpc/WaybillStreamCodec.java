@@ -0,0 +1,274 @@
+package ge.tastyerp.common.grpc;
+
+import ge.tastyerp.common.dto.audit.ProductMovementDto;
+import ge.tastyerp.common.dto.audit.ProductMovementQuery;
+import ge.tastyerp.common.dto.audit.UnitClass;
+import ge.tastyerp.common.dto.waybill.CustomerSalesTotalsDto;
+import ge.tastyerp.common.dto.waybill.WaybillDto;
+import ge.tastyerp.common.dto.waybill.WaybillType;
+import ge.tastyerp.common.grpc.WaybillStreamGrpc.MovementsRequest;
+import ge.tastyerp.common.grpc.WaybillStreamGrpc.WaybillsRequest;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Protobuf encoding of the {@link WaybillStreamGrpc} messages
+ * ({@code src/main/proto/waybill_stream.proto}). Kept free of gRPC classes so
+ * it can be used and tested on its own.
+ */
+public final class WaybillStreamCodec {
+
+    static final int AMOUNT_SCALE = 2;
+    static final int QUANTITY_SCALE = 3;
+
+    private WaybillStreamCodec() {
+        // Utility class - no instantiation
+    }
+
+    // ==================== REQUESTS ====================
+
+    public static byte[] encodeMovementsRequest(MovementsRequest r) {
+        ProtoWire.Writer w = new ProtoWire.Writer();
+        w.string(1, r.startDate());
+        w.string(2, r.endDate());
+        ProductMovementQuery q = r.query();
+        if (q != null) {
+            strings(w, 3, q.getCategories());
+            strings(w, 4, q.getProducts());
+            if (q.getType() != null) w.uint64(5, kind(q.getType()));
+            w.string(6, q.getCounterpartyId());
+            if (q.getUnitClass() != null) w.uint64(7, q.getUnitClass() == UnitClass.KG ? 1 : 2);
+            strings(w, 8, q.getFields());
+        }
+        return w.toByteArray();
+    }
+
+    public static MovementsRequest decodeMovementsRequest(byte[] bytes) {
+        String start = null;
+        String end = null;
+        ProductMovementQuery q = new ProductMovementQuery();
+        ProtoWire.Reader r = new ProtoWire.Reader(bytes);
+        while (r.hasNext()) {
+            int tag = r.tag();
+            switch (tag >>> 3) {
+                case 1 -> start = r.string();
+                case 2 -> end = r.string();
+                case 3 -> q.setCategories(add(q.getCategories(), r.string()));
+                case 4 -> q.setProducts(add(q.getProducts(), r.string()));
+                case 5 -> q.setType(type(r.uint64()));
+                case 6 -> q.setCounterpartyId(r.string());
+                case 7 -> {
+                    long unitClass = r.uint64();
+                    q.setUnitClass(unitClass == 1 ? UnitClass.KG : unitClass == 2 ? UnitClass.OTHER : null);
+                }
+                case 8 -> q.setFields(add(q.getFields(), r.string()));
+                default -> r.skip(tag);
+            }
+        }
+        return new MovementsRequest(start, end, q.isUnrestricted() ? null : q);
+    }
+
+    private static void strings(ProtoWire.Writer w, int field, Set<String> values) {
+        if (values == null) return;
+        for (String v : values) {
+            w.string(field, v);
+        }
+    }
+
+    private static Set<String> add(Set<String> set, String value) {
+        Set<String> out = set != null ? set : new LinkedHashSet<>();
+        out.add(value);
+        return out;
+    }
+
+    public static byte[] encodeWaybillsRequest(WaybillsRequest r) {
+        ProtoWire.Writer w = new ProtoWire.Writer();
+        w.string(1, r.customerId());
+        w.string(2, r.startDate());
+        w.string(3, r.endDate());
+        w.bool(4, r.afterCutoffOnly());
+        if (r.type() != null) w.uint64(5, kind(r.type()));
+        return w.toByteArray();
+    }
+
+    public static WaybillsRequest decodeWaybillsRequest(byte[] bytes) {
+        String customerId = null;
+        String start = null;
+        String end = null;
+        boolean afterCutoffOnly = false;
+        WaybillType type = null;
+        ProtoWire.Reader r = new ProtoWire.Reader(bytes);
+        while (r.hasNext()) {
+            int tag = r.tag();
+            switch (tag >>> 3) {
+                case 1 -> customerId = r.string();
+                case 2 -> start = r.string();
+                case 3 -> end = r.string();
+                case 4 -> afterCutoffOnly = r.bool();
+                case 5 -> type = type(r.uint64());
+                default -> r.skip(tag);
+            }
+        }
+        return new WaybillsRequest(customerId, start, end, afterCutoffOnly, type);
+    }
+
+    // ==================== BATCHES ====================
+
+    public static byte[] encodeMovements(List<ProductMovementDto> movements) {
+        ProtoWire.Writer batch = new ProtoWire.Writer();
+        ProtoWire.Writer w = new ProtoWire.Writer();
+        for (ProductMovementDto m : movements) {
+            w.reset();
+            if (m.getDate() != null) w.sint64(1, m.getDate().toEpochDay());
+            if (m.getType() != null) w.uint64(2, kind(m.getType()));
+            w.string(3, m.getProductName());
+            w.string(4, m.getParentCategory());
+            w.decimal(5, 14, m.getQuantityKg(), QUANTITY_SCALE);
+            w.string(6, m.getUnit());
+            w.decimal(7, 15, m.getAmount(), AMOUNT_SCALE);
+            w.string(8, m.getWaybillId());
+            w.string(9, m.getCounterpartyId());
+            batch.message(1, w);
+        }
+        return batch.toByteArray();
+    }
+
+    public static List<ProductMovementDto> decodeMovements(byte[] bytes) {
+        List<ProductMovementDto> out = new ArrayList<>();
+        ProtoWire.Reader batch = new ProtoWire.Reader(bytes);
+        while (batch.hasNext()) {
+            int outer = batch.tag();
+            if (outer >>> 3 != 1) {
+                batch.skip(outer);
+                continue;
+            }
+            ProductMovementDto.ProductMovementDtoBuilder m = ProductMovementDto.builder();
+            ProtoWire.Reader r = batch.message();
+            while (r.hasNext()) {
+                int tag = r.tag();
+                switch (tag >>> 3) {
+                    case 1 -> m.date(LocalDate.ofEpochDay(r.sint64()));
+                    case 2 -> m.type(type(r.uint64()));
+                    case 3 -> m.productName(r.string());
+                    case 4 -> m.parentCategory(r.string());
+                    case 5 -> m.quantityKg(ProtoWire.fromUnits(r.sint64(), QUANTITY_SCALE));
+                    case 6 -> m.unit(r.string());
+                    case 7 -> m.amount(ProtoWire.fromUnits(r.sint64(), AMOUNT_SCALE));
+                    case 8 -> m.waybillId(r.string());
+                    case 9 -> m.counterpartyId(r.string());
+                    case 14 -> m.quantityKg(new BigDecimal(r.string()));
+                    case 15 -> m.amount(new BigDecimal(r.string()));
+                    default -> r.skip(tag);
+                }
+            }
+            out.add(m.build());
+        }
+        return out;
+    }
+
+    public static byte[] encodeWaybills(List<WaybillDto> waybills) {
+        ProtoWire.Writer batch = new ProtoWire.Writer();
+        ProtoWire.Writer w = new ProtoWire.Writer();
+        for (WaybillDto wb : waybills) {
+            w.reset();
+            w.string(1, wb.getWaybillId());
+            w.string(2, wb.getCustomerId());
+            w.string(3, wb.getCustomerName());
+            w.decimal(4, 15, wb.getAmount(), AMOUNT_SCALE);
+            if (wb.getDate() != null) w.sint64(5, wb.getDate().toEpochDay());
+            if (wb.getStatus() != null) w.sint64(6, wb.getStatus());
+            w.bool(7, wb.isAfterCutoff());
+            if (wb.getType() != null) w.uint64(8, kind(wb.getType()));
+            batch.message(1, w);
+        }
+        return batch.toByteArray();
+    }
+
+    public static List<WaybillDto> decodeWaybills(byte[] bytes) {
+        List<WaybillDto> out = new ArrayList<>();
+        ProtoWire.Reader batch = new ProtoWire.Reader(bytes);
+        while (batch.hasNext()) {
+            int outer = batch.tag();
+            if (outer >>> 3 != 1) {
+                batch.skip(outer);
+                continue;
+            }
+            WaybillDto.WaybillDtoBuilder wb = WaybillDto.builder();
+            ProtoWire.Reader r = batch.message();
+            while (r.hasNext()) {
+                int tag = r.tag();
+                switch (tag >>> 3) {
+                    case 1 -> wb.waybillId(r.string());
+                    case 2 -> wb.customerId(r.string());
+                    case 3 -> wb.customerName(r.string());
+                    case 4 -> wb.amount(ProtoWire.fromUnits(r.sint64(), AMOUNT_SCALE));
+                    case 5 -> wb.date(LocalDate.ofEpochDay(r.sint64()));
+                    case 6 -> wb.status((int) r.sint64());
+                    case 7 -> wb.isAfterCutoff(r.bool());
+                    case 8 -> wb.type(type(r.uint64()));
+                    case 15 -> wb.amount(new BigDecimal(r.string()));
+                    default -> r.skip(tag);
+                }
+            }
+            out.add(wb.build());
+        }
+        return out;
+    }
+
+    public static byte[] encodeTotals(List<CustomerSalesTotalsDto> totals) {
+        ProtoWire.Writer batch = new ProtoWire.Writer();
+        ProtoWire.Writer w = new ProtoWire.Writer();
+        for (CustomerSalesTotalsDto t : totals) {
+            w.reset();
+            w.string(1, t.getCustomerId());
+            w.string(2, t.getCustomerName());
+            w.decimal(3, 15, t.getTotalSales(), AMOUNT_SCALE);
+            if (t.getSaleCount() != null) w.uint64(4, t.getSaleCount());
+            if (t.getLastSaleDate() != null) w.sint64(5, t.getLastSaleDate().toEpochDay());
+            batch.message(1, w);
+        }
+        return batch.toByteArray();
+    }
+
+    public static List<CustomerSalesTotalsDto> decodeTotals(byte[] bytes) {
+        List<CustomerSalesTotalsDto> out = new ArrayList<>();
+        ProtoWire.Reader batch = new ProtoWire.Reader(bytes);
+        while (batch.hasNext()) {
+            int outer = batch.tag();
+            if (outer >>> 3 != 1) {
+                batch.skip(outer);
+                continue;
+            }
+            CustomerSalesTotalsDto.CustomerSalesTotalsDtoBuilder t = CustomerSalesTotalsDto.builder();
+            ProtoWire.Reader r = batch.message();
+            while (r.hasNext()) {
+                int tag = r.tag();
+                switch (tag >>> 3) {
+                    case 1 -> t.customerId(r.string());
+                    case 2 -> t.customerName(r.string());
+                    case 3 -> t.totalSales(ProtoWire.fromUnits(r.sint64(), AMOUNT_SCALE));
+                    case 4 -> t.saleCount((int) r.uint64());
+                    case 5 -> t.lastSaleDate(LocalDate.ofEpochDay(r.sint64()));
+                    case 15 -> t.totalSales(new BigDecimal(r.string()));
+                    default -> r.skip(tag);
+                }
+            }
+            out.add(t.build());
+        }
+        return out;
+    }
+
+    // WaybillKind: 0 unspecified, 1 SALE, 2 PURCHASE.
+    private static int kind(WaybillType type) {
+        return type == WaybillType.SALE ? 1 : 2;
+    }
+
+    private static WaybillType type(long kind) {
+        return kind == 1 ? WaybillType.SALE : kind == 2 ? WaybillType.PURCHASE : null;
+    }
+}
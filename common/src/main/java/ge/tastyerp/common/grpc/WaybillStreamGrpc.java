@@ -0,0 +1,98 @@
+package ge.tastyerp.common.grpc;
+
+import ge.tastyerp.common.dto.audit.ProductMovementDto;
+import ge.tastyerp.common.dto.audit.ProductMovementQuery;
+import ge.tastyerp.common.dto.waybill.CustomerSalesTotalsDto;
+import ge.tastyerp.common.dto.waybill.WaybillDto;
+import ge.tastyerp.common.dto.waybill.WaybillType;
+import io.grpc.MethodDescriptor;
+import io.grpc.Status;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * The waybill-service streaming gRPC API ({@code src/main/proto/waybill_stream.proto}),
+ * encoded by {@link WaybillStreamCodec}. Each RPC is server-streaming; every
+ * message is a batch of up to {@link #BATCH_SIZE} records, so a large read
+ * never sits in one buffer on either side and the client works on the first
+ * batch while later ones are still being sent.
+ *
+ * Amounts travel as tetri and quantities as thousandths (zigzag varints, 2-5
+ * bytes each) instead of decimal text, and are rebuilt as {@code BigDecimal}
+ * without a JSON/Map round trip.
+ */
+public final class WaybillStreamGrpc {
+
+    public static final String SERVICE_NAME = "tastyerp.waybill.v1.WaybillStream";
+
+    /** Records per streamed message. */
+    public static final int BATCH_SIZE = 500;
+
+    /**
+     * Dates as yyyy-MM-dd; null or blank takes the REST endpoint's default.
+     * {@code query} (may be null) filters and projects the lines on the server.
+     */
+    public record MovementsRequest(String startDate, String endDate, ProductMovementQuery query) {
+        public MovementsRequest(String startDate, String endDate) {
+            this(startDate, endDate, null);
+        }
+    }
+
+    public record WaybillsRequest(String customerId, String startDate, String endDate,
+                                  boolean afterCutoffOnly, WaybillType type) {}
+
+    public record CustomerSalesTotalsRequest() {}
+
+    public static final MethodDescriptor<MovementsRequest, List<ProductMovementDto>> STREAM_PRODUCT_MOVEMENTS =
+            method("StreamProductMovements",
+                    marshaller(WaybillStreamCodec::encodeMovementsRequest, WaybillStreamCodec::decodeMovementsRequest),
+                    marshaller(WaybillStreamCodec::encodeMovements, WaybillStreamCodec::decodeMovements));
+
+    public static final MethodDescriptor<WaybillsRequest, List<WaybillDto>> STREAM_WAYBILLS =
+            method("StreamWaybills",
+                    marshaller(WaybillStreamCodec::encodeWaybillsRequest, WaybillStreamCodec::decodeWaybillsRequest),
+                    marshaller(WaybillStreamCodec::encodeWaybills, WaybillStreamCodec::decodeWaybills));
+
+    public static final MethodDescriptor<CustomerSalesTotalsRequest, List<CustomerSalesTotalsDto>>
+            STREAM_CUSTOMER_SALES_TOTALS = method("StreamCustomerSalesTotals",
+                    marshaller(r -> new byte[0], b -> new CustomerSalesTotalsRequest()),
+                    marshaller(WaybillStreamCodec::encodeTotals, WaybillStreamCodec::decodeTotals));
+
+    private WaybillStreamGrpc() {
+        // Utility class - no instantiation
+    }
+
+    private static <Q, R> MethodDescriptor<Q, R> method(String name, MethodDescriptor.Marshaller<Q> request,
+                                                        MethodDescriptor.Marshaller<R> response) {
+        return MethodDescriptor.<Q, R>newBuilder()
+                .setType(MethodDescriptor.MethodType.SERVER_STREAMING)
+                .setFullMethodName(MethodDescriptor.generateFullMethodName(SERVICE_NAME, name))
+                .setRequestMarshaller(request)
+                .setResponseMarshaller(response)
+                .build();
+    }
+
+    private static <T> MethodDescriptor.Marshaller<T> marshaller(Function<T, byte[]> encode,
+                                                                 Function<byte[], T> decode) {
+        return new MethodDescriptor.Marshaller<>() {
+            @Override
+            public InputStream stream(T value) {
+                return new ByteArrayInputStream(encode.apply(value));
+            }
+
+            @Override
+            public T parse(InputStream stream) {
+                try {
+                    return decode.apply(stream.readAllBytes());
+                } catch (IOException | IllegalArgumentException e) {
+                    throw Status.INTERNAL.withDescription("Invalid waybill stream message").withCause(e)
+                            .asRuntimeException();
+                }
+            }
+        };
+    }
+}
@@ -12,6 +12,8 @@ import java.util.regex.Pattern;
 public final class AmountUtils {
 
     private static final Pattern NUMERIC_PATTERN = Pattern.compile("-?\\d+(?:\\.\\d+)?");
+    private static final Pattern WHITESPACE = Pattern.compile("[\\s\\u00A0\\u202F\\u2009]+");
+    private static final Pattern THOUSANDS_SEPARATORS = Pattern.compile("[,\\u066C]");
 
     private AmountUtils() {
         // Utility class - no instantiation
@@ -38,10 +40,8 @@ public final class AmountUtils {
                     .setScale(2, RoundingMode.HALF_UP);
         }
 
-        String stringValue = value.toString()
-                // Remove various whitespace characters
-                .replaceAll("[\\s\\u00A0\\u202F\\u2009]+", "")
-                .trim();
+        // Remove various whitespace characters
+        String stringValue = WHITESPACE.matcher(value.toString()).replaceAll("").trim();
 
         // Handle comma-decimal formats:
         // - If there's a comma but no dot, treat comma as decimal separator.
@@ -49,7 +49,7 @@ public final class AmountUtils {
         if (stringValue.contains(",") && !stringValue.contains(".")) {
             stringValue = stringValue.replace(",", ".");
         } else {
-            stringValue = stringValue.replaceAll("[,\\u066C]", "");
+            stringValue = THOUSANDS_SEPARATORS.matcher(stringValue).replaceAll("");
         }
 
         Matcher matcher = NUMERIC_PATTERN.matcher(stringValue);
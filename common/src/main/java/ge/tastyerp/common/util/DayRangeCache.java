@@ -0,0 +1,247 @@
+package ge.tastyerp.common.util;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.ToLongFunction;
+
+/**
+ * Thread-safe cache of per-day values, partitioned by calendar day and a
+ * partition key (e.g. SALE / PURCHASE), that serves arbitrary date ranges.
+ *
+ * A range read is put together from the cached days; only the missing or
+ * expired days are loaded, merged into contiguous gaps so one loader call
+ * covers each gap. Entries hold futures, so concurrent reads of overlapping
+ * ranges share in-flight loads instead of fetching the same day twice, and a
+ * failed load is evicted immediately.
+ *
+ * The TTL is chosen per day when it is loaded: typically short for days that
+ * can still change (today) and long for closed history.
+ *
+ * Optionally a day that has not been read for {@code heapMillis} moves from
+ * the heap to an {@link OffHeapCache} for the rest of its TTL, and a read of
+ * it decodes it back onto the heap. Long-lived history then stays warm at
+ * the size of its compressed form instead of as live objects.
+ *
+ * Same integrity contract as {@link SimpleTtlCache}: use ONLY for data that is
+ * immutable-in-practice within the TTL window.
+ */
+public final class DayRangeCache<P, V> {
+
+    /** Loads the values of days [from, to] of one partition; days missing from the map get the empty value. */
+    @FunctionalInterface
+    public interface GapLoader<P, V> {
+        CompletableFuture<Map<LocalDate, V>> load(P partition, LocalDate from, LocalDate to);
+    }
+
+    private record Key<P>(P partition, LocalDate day) {}
+
+    private record Entry<V>(CompletableFuture<V> value, long expiresAtMillis, long heapUntilMillis) {
+
+        boolean loaded() {
+            return value.isDone() && !value.isCompletedExceptionally();
+        }
+    }
+
+    private final Map<Key<P>, Entry<V>> map = new ConcurrentHashMap<>();
+    private final ToLongFunction<LocalDate> ttlMillis;
+    private final int maxEntries;
+    private final V empty;
+    private final OffHeapCache<Key<P>, V> offHeap;
+    private final long heapMillis;
+
+    /**
+     * @param ttlMillis  TTL of a day's entry, decided when the day is loaded
+     * @param maxEntries safety bound on cached days; when exceeded, expired
+     *                   entries are purged and, if still over, the whole cache
+     *                   is cleared (as in {@link SimpleTtlCache})
+     * @param empty      value of a day the loader returned nothing for
+     */
+    public DayRangeCache(ToLongFunction<LocalDate> ttlMillis, int maxEntries, V empty) {
+        this(ttlMillis, maxEntries, empty, null, 0, 0);
+    }
+
+    /**
+     * Two-tier cache: days idle on the heap for {@code heapMillis} move to an
+     * off-heap tier of at most {@code offHeapBytes} compressed bytes. With no
+     * codec or a zero budget this is the heap-only cache.
+     *
+     * @param codec        binary form of a day's value
+     * @param offHeapBytes off-heap budget; least recently used days are dropped beyond it
+     * @param heapMillis   idle time after which a loaded day leaves the heap
+     */
+    public DayRangeCache(ToLongFunction<LocalDate> ttlMillis, int maxEntries, V empty,
+                         OffHeapCache.Codec<V> codec, long offHeapBytes, long heapMillis) {
+        this.ttlMillis = ttlMillis;
+        this.maxEntries = maxEntries;
+        this.empty = empty;
+        this.offHeap = codec != null && offHeapBytes > 0 ? new OffHeapCache<>(codec, offHeapBytes) : null;
+        this.heapMillis = heapMillis;
+    }
+
+    /** Values of days [from, to] of {@code partition}, in day order. */
+    public CompletableFuture<List<V>> get(P partition, LocalDate from, LocalDate to, GapLoader<P, V> loader) {
+        List<CompletableFuture<V>> days = new ArrayList<>();
+        List<LocalDate> missing = new ArrayList<>();
+        List<Entry<V>> owned = new ArrayList<>();
+        List<Key<P>> promoted = new ArrayList<>();
+        List<Entry<V>> promotedEntries = new ArrayList<>();
+        Map<Key<P>, Entry<V>> idle;
+
+        synchronized (this) {
+            long now = System.currentTimeMillis();
+            boolean full = false;
+            if (map.size() >= maxEntries) {
+                map.entrySet().removeIf(e -> e.getValue().expiresAtMillis() <= now);
+                full = map.size() >= maxEntries;
+                if (full && offHeap == null) {
+                    map.clear();
+                }
+            }
+            long heapUntil = offHeap != null ? now + heapMillis : Long.MAX_VALUE;
+            for (LocalDate day = from; !day.isAfter(to); day = day.plusDays(1)) {
+                Key<P> key = new Key<>(partition, day);
+                Entry<V> entry = map.get(key);
+                if (entry == null || entry.expiresAtMillis() <= now) {
+                    long offHeapExpiry = offHeap != null ? offHeap.expiresAt(key, now) : -1;
+                    if (offHeapExpiry > 0) {
+                        entry = new Entry<>(new CompletableFuture<>(), offHeapExpiry, heapUntil);
+                        promoted.add(key);
+                        promotedEntries.add(entry);
+                    } else {
+                        entry = new Entry<>(new CompletableFuture<>(), now + ttlMillis.applyAsLong(day), heapUntil);
+                        missing.add(day);
+                        owned.add(entry);
+                    }
+                    map.put(key, entry);
+                } else if (offHeap != null) {
+                    // Read again: it stays on the heap for another idle period.
+                    entry = new Entry<>(entry.value(), entry.expiresAtMillis(), heapUntil);
+                    map.put(key, entry);
+                }
+                days.add(entry.value());
+            }
+            idle = offHeap != null ? idleEntries(now, full) : Map.of();
+        }
+
+        demote(idle);
+
+        // Days found off-heap are decoded here, outside the lock; an unreadable one is loaded instead.
+        for (int k = 0; k < promoted.size(); k++) {
+            V value = offHeap.get(promoted.get(k));
+            if (value != null) {
+                promotedEntries.get(k).value().complete(value);
+            } else {
+                loadGap(partition, List.of(promoted.get(k).day()), List.of(promotedEntries.get(k)), loader);
+            }
+        }
+
+        // Load each contiguous run of missing days with one call.
+        int i = 0;
+        while (i < missing.size()) {
+            int j = i;
+            while (j + 1 < missing.size() && missing.get(j + 1).equals(missing.get(j).plusDays(1))) {
+                j++;
+            }
+            loadGap(partition, missing.subList(i, j + 1), owned.subList(i, j + 1), loader);
+            i = j + 1;
+        }
+
+        return CompletableFuture.allOf(days.toArray(new CompletableFuture[0])).thenApply(v -> {
+            List<V> out = new ArrayList<>(days.size());
+            for (CompletableFuture<V> day : days) {
+                out.add(day.join());
+            }
+            return out;
+        });
+    }
+
+    private void loadGap(P partition, List<LocalDate> gap, List<Entry<V>> entries, GapLoader<P, V> loader) {
+        CompletableFuture<Map<LocalDate, V>> loaded;
+        try {
+            loaded = loader.load(partition, gap.get(0), gap.get(gap.size() - 1));
+        } catch (RuntimeException e) {
+            loaded = CompletableFuture.failedFuture(e);
+        }
+        List<LocalDate> days = List.copyOf(gap);
+        List<Entry<V>> owned = List.copyOf(entries);
+        loaded.whenComplete((values, ex) -> {
+            for (int k = 0; k < days.size(); k++) {
+                Entry<V> entry = owned.get(k);
+                if (ex != null) {
+                    map.remove(new Key<>(partition, days.get(k)), entry);
+                    entry.value().completeExceptionally(ex);
+                } else {
+                    V value = values != null ? values.get(days.get(k)) : null;
+                    entry.value().complete(value != null ? value : empty);
+                }
+            }
+        });
+    }
+
+    /**
+     * Loaded days to move off the heap: those idle past their heap period, or
+     * every loaded day when the cache is full. Expired days are dropped.
+     */
+    private Map<Key<P>, Entry<V>> idleEntries(long now, boolean full) {
+        Map<Key<P>, Entry<V>> idle = new HashMap<>();
+        Iterator<Map.Entry<Key<P>, Entry<V>>> it = map.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Key<P>, Entry<V>> e = it.next();
+            Entry<V> entry = e.getValue();
+            if (entry.expiresAtMillis() <= now && entry.value().isDone()) {
+                it.remove();
+            } else if ((full || entry.heapUntilMillis() <= now) && entry.loaded()) {
+                idle.put(e.getKey(), entry);
+            }
+        }
+        return idle;
+    }
+
+    /**
+     * Encodes idle days off-heap (outside the lock), then drops them from the
+     * heap unless they were read meanwhile. Until then they are still served
+     * from the heap, so no read in between reloads them.
+     */
+    private void demote(Map<Key<P>, Entry<V>> idle) {
+        if (idle.isEmpty()) return;
+        long now = System.currentTimeMillis();
+        idle.forEach((key, entry) -> {
+            // Days promoted from off-heap are still there; only new ones are encoded.
+            if (offHeap.expiresAt(key, now) != entry.expiresAtMillis()) {
+                offHeap.put(key, entry.value().join(), entry.expiresAtMillis());
+            }
+        });
+        synchronized (this) {
+            idle.forEach(map::remove);
+        }
+    }
+
+    /** Drop everything (e.g. when underlying data is known to have changed). */
+    public void invalidateAll() {
+        map.clear();
+        if (offHeap != null) {
+            offHeap.clear();
+        }
+    }
+
+    /** Number of days cached on the heap across all partitions. */
+    public int size() {
+        return map.size();
+    }
+
+    /** Number of days held off-heap; 0 for a heap-only cache. */
+    public int offHeapSize() {
+        return offHeap != null ? offHeap.size() : 0;
+    }
+
+    /** Compressed bytes held off-heap; 0 for a heap-only cache. */
+    public long offHeapBytes() {
+        return offHeap != null ? offHeap.bytes() : 0;
+    }
+}
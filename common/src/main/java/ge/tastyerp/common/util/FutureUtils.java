@@ -0,0 +1,38 @@
+package ge.tastyerp.common.util;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * Helpers for the blocking edges of {@link CompletableFuture}-based code.
+ */
+public final class FutureUtils {
+
+    private FutureUtils() {
+        // Utility class - no instantiation
+    }
+
+    /**
+     * Join and rethrow the original failure instead of a {@link CompletionException}
+     * wrapper, so callers and exception handlers see e.g. ExternalServiceException
+     * exactly as the synchronous code used to throw it.
+     */
+    public static <T> T join(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            throw unwrap(e);
+        }
+    }
+
+    /** The underlying cause of a CompletionException, as an unchecked exception. */
+    public static RuntimeException unwrap(Throwable t) {
+        Throwable cause = t;
+        while (cause instanceof CompletionException && cause.getCause() != null) {
+            cause = cause.getCause();
+        }
+        if (cause instanceof RuntimeException re) return re;
+        if (cause instanceof Error err) throw err;
+        return new CompletionException(cause);
+    }
+}
@@ -0,0 +1,116 @@
+package ge.tastyerp.common.util;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Compiled multi-keyword "contains" matcher (Aho-Corasick). Every keyword
+ * carries a rank; {@link #match} scans the text once and returns the lowest
+ * rank of any keyword occurring in it, which is exactly what a loop of
+ * {@code text.contains(keyword)} over keywords sorted by rank would decide,
+ * without rescanning the text per keyword.
+ *
+ * Keywords and text are compared lowercased. Immutable and thread-safe once
+ * built.
+ */
+public final class KeywordMatcher {
+
+    /** Per state: sorted outgoing chars and their target states. */
+    private final char[][] edges;
+    private final int[][] targets;
+    private final int[] fail;
+    /** Lowest rank of any keyword ending in this state or its fail chain; MAX_VALUE when none. */
+    private final int[] rank;
+
+    /**
+     * @param keywords keyword -> rank (lower wins); blank keywords are ignored
+     */
+    public KeywordMatcher(Map<String, Integer> keywords) {
+        List<TreeMap<Character, Integer>> trie = new ArrayList<>();
+        List<Integer> ranks = new ArrayList<>();
+        trie.add(new TreeMap<>());
+        ranks.add(Integer.MAX_VALUE);
+        keywords.forEach((keyword, r) -> {
+            if (keyword == null || keyword.isEmpty()) return;
+            int state = 0;
+            for (char c : keyword.toLowerCase().toCharArray()) {
+                Integer next = trie.get(state).get(c);
+                if (next == null) {
+                    next = trie.size();
+                    trie.add(new TreeMap<>());
+                    ranks.add(Integer.MAX_VALUE);
+                    trie.get(state).put(c, next);
+                }
+                state = next;
+            }
+            ranks.set(state, Math.min(ranks.get(state), r));
+        });
+
+        int n = trie.size();
+        edges = new char[n][];
+        targets = new int[n][];
+        fail = new int[n];
+        rank = new int[n];
+        for (int s = 0; s < n; s++) {
+            TreeMap<Character, Integer> out = trie.get(s);
+            edges[s] = new char[out.size()];
+            targets[s] = new int[out.size()];
+            int i = 0;
+            for (Map.Entry<Character, Integer> e : out.entrySet()) {
+                edges[s][i] = e.getKey();
+                targets[s][i++] = e.getValue();
+            }
+            rank[s] = ranks.get(s);
+        }
+
+        // Breadth-first, so a state's fail target (always shallower) is final before its children.
+        ArrayDeque<Integer> queue = new ArrayDeque<>();
+        for (int child : targets[0]) {
+            queue.add(child);
+        }
+        while (!queue.isEmpty()) {
+            int s = queue.poll();
+            for (int i = 0; i < edges[s].length; i++) {
+                int child = targets[s][i];
+                int f = fail[s];
+                int next;
+                while ((next = step(f, edges[s][i])) < 0 && f != 0) {
+                    f = fail[f];
+                }
+                fail[child] = next >= 0 ? next : 0;
+                rank[child] = Math.min(rank[child], rank[fail[child]]);
+                queue.add(child);
+            }
+        }
+    }
+
+    /**
+     * Lowest rank of any keyword contained in {@code text}, or -1 when none is
+     * (or the text is null).
+     */
+    public int match(String text) {
+        if (text == null) return -1;
+        String lower = text.toLowerCase();
+        int best = Integer.MAX_VALUE;
+        int state = 0;
+        for (int i = 0; i < lower.length(); i++) {
+            char c = lower.charAt(i);
+            int next;
+            while ((next = step(state, c)) < 0 && state != 0) {
+                state = fail[state];
+            }
+            state = Math.max(next, 0);
+            best = Math.min(best, rank[state]);
+        }
+        return best == Integer.MAX_VALUE ? -1 : best;
+    }
+
+    private int step(int state, char c) {
+        int i = Arrays.binarySearch(edges[state], c);
+        return i >= 0 ? targets[state][i] : -1;
+    }
+}
@@ -0,0 +1,69 @@
+package ge.tastyerp.common.util;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.io.SerializedString;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Newline-delimited JSON ({@code application/x-ndjson}): one record per line,
+ * no envelope. Large internal reads use it so both ends handle one record at
+ * a time instead of building the whole response tree in memory.
+ */
+public final class Ndjson {
+
+    /** Readers only build plain maps, so no modules are needed. */
+    private static final ObjectReader MAP_READER =
+            new ObjectMapper().readerFor(new TypeReference<Map<String, Object>>() {});
+
+    private Ndjson() {
+        // Utility class - no instantiation
+    }
+
+    /**
+     * Writes each record as one line. Output goes through the generator's
+     * buffer, so the client receives data while later records are still
+     * being serialized. {@code out} is left open.
+     */
+    public static long write(ObjectMapper mapper, OutputStream out, Iterator<?> records) throws IOException {
+        // Flushing after every record would turn each line into its own socket write.
+        ObjectWriter writer = mapper.writer().without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+        long count = 0;
+        try (JsonGenerator gen = mapper.getFactory().createGenerator(out)) {
+            gen.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+            // Jackson writes the separator between root values, i.e. the line breaks.
+            gen.setRootValueSeparator(new SerializedString("\n"));
+            while (records.hasNext()) {
+                writer.writeValue(gen, records.next());
+                count++;
+            }
+            if (count > 0) {
+                gen.writeRaw('\n');
+            }
+        }
+        return count;
+    }
+
+    /** Reads records one by one as they arrive; returns how many were read. Blank lines are skipped. */
+    public static long read(InputStream in, Consumer<Map<String, Object>> consumer) throws IOException {
+        long count = 0;
+        try (MappingIterator<Map<String, Object>> it = MAP_READER.readValues(in)) {
+            while (it.hasNextValue()) {
+                consumer.accept(it.nextValue());
+                count++;
+            }
+        }
+        return count;
+    }
+}
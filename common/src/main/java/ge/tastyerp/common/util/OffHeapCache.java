@@ -0,0 +1,155 @@
+package ge.tastyerp.common.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Byte-budgeted cache that keeps values serialized and Deflate-compressed in
+ * direct {@link ByteBuffer}s, outside the Java heap. A hit decodes a fresh
+ * copy; the heap only holds one small slot record per key, so large values
+ * can stay warm without adding GC pressure.
+ *
+ * Meant as the second tier behind a heap cache ({@link DayRangeCache}), for
+ * values that are read again after minutes or hours rather than seconds.
+ * When the budget is exceeded the least recently used slots are dropped.
+ * Direct memory is returned when a dropped buffer is collected, so the
+ * budget should stay well below {@code -XX:MaxDirectMemorySize}.
+ *
+ * Same integrity contract as {@link SimpleTtlCache}: use ONLY for data that is
+ * immutable-in-practice within the TTL window.
+ */
+public final class OffHeapCache<K, V> {
+
+    /** Binary form of a value; written and read through a compressing stream. */
+    public interface Codec<V> {
+        void write(V value, DataOutput out) throws IOException;
+
+        V read(DataInput in) throws IOException;
+    }
+
+    private record Slot(ByteBuffer data, long expiresAtMillis) {}
+
+    /** Access order, so iteration starts at the least recently used slot. */
+    private final LinkedHashMap<K, Slot> slots = new LinkedHashMap<>(16, 0.75f, true);
+    private final Codec<V> codec;
+    private final long maxBytes;
+    private long bytes;
+
+    /**
+     * @param codec    binary form of the values
+     * @param maxBytes budget of compressed bytes held off-heap
+     */
+    public OffHeapCache(Codec<V> codec, long maxBytes) {
+        this.codec = codec;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Stores {@code value} until {@code expiresAtMillis}. Encoding runs outside
+     * the lock; a value the codec cannot write, or one larger than the whole
+     * budget, is simply not cached.
+     */
+    public void put(K key, V value, long expiresAtMillis) {
+        ByteBuffer data;
+        try {
+            data = encode(value);
+        } catch (IOException | RuntimeException e) {
+            remove(key);
+            return;
+        }
+        synchronized (this) {
+            Slot old = slots.remove(key);
+            if (old != null) bytes -= old.data().capacity();
+            if (data.capacity() > maxBytes) return;
+            slots.put(key, new Slot(data, expiresAtMillis));
+            bytes += data.capacity();
+            Iterator<Slot> lru = slots.values().iterator();
+            while (bytes > maxBytes && lru.hasNext()) {
+                bytes -= lru.next().data().capacity();
+                lru.remove();
+            }
+        }
+    }
+
+    /** Expiry of the live slot of {@code key}, or -1 when there is none; expired slots are dropped. */
+    public synchronized long expiresAt(K key, long now) {
+        Slot slot = slots.get(key);
+        if (slot == null) return -1;
+        if (slot.expiresAtMillis() <= now) {
+            slots.remove(key);
+            bytes -= slot.data().capacity();
+            return -1;
+        }
+        return slot.expiresAtMillis();
+    }
+
+    /** A decoded copy of the value of {@code key}, or null when absent, expired or unreadable. */
+    public V get(K key) {
+        Slot slot;
+        synchronized (this) {
+            slot = slots.get(key);
+        }
+        if (slot == null || slot.expiresAtMillis() <= System.currentTimeMillis()) return null;
+        try {
+            return decode(slot.data());
+        } catch (IOException | RuntimeException e) {
+            synchronized (this) {
+                if (slots.remove(key, slot)) bytes -= slot.data().capacity();
+            }
+            return null;
+        }
+    }
+
+    public synchronized void remove(K key) {
+        Slot slot = slots.remove(key);
+        if (slot != null) bytes -= slot.data().capacity();
+    }
+
+    /** Drop everything (e.g. when underlying data is known to have changed). */
+    public synchronized void clear() {
+        slots.clear();
+        bytes = 0;
+    }
+
+    public synchronized int size() {
+        return slots.size();
+    }
+
+    /** Compressed bytes currently held off-heap. */
+    public synchronized long bytes() {
+        return bytes;
+    }
+
+    private ByteBuffer encode(V value) throws IOException {
+        ByteArrayOutputStream raw = new ByteArrayOutputStream();
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try (DataOutputStream out = new DataOutputStream(new DeflaterOutputStream(raw, deflater))) {
+            codec.write(value, out);
+        } finally {
+            deflater.end();
+        }
+        byte[] compressed = raw.toByteArray();
+        ByteBuffer data = ByteBuffer.allocateDirect(compressed.length);
+        data.put(compressed).flip();
+        return data.asReadOnlyBuffer();
+    }
+
+    private V decode(ByteBuffer data) throws IOException {
+        byte[] compressed = new byte[data.capacity()];
+        data.duplicate().get(compressed);
+        try (DataInputStream in = new DataInputStream(new InflaterInputStream(new ByteArrayInputStream(compressed)))) {
+            return codec.read(in);
+        }
+    }
+}
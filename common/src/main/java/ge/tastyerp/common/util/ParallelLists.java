@@ -0,0 +1,103 @@
+package ge.tastyerp.common.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Order-preserving fork/join over index ranges, for CPU-bound per-record work
+ * (normalizing thousands of RS.ge rows). The range is cut into contiguous
+ * chunks, each chunk fills its own buffer on a fork/join worker, and the
+ * buffers are concatenated in chunk order, so the result is exactly what one
+ * sequential pass over {@code [0, size)} would produce.
+ */
+public final class ParallelLists {
+
+    /** Chunks per worker, so a slow chunk does not leave the other cores idle. */
+    private static final int CHUNKS_PER_WORKER = 4;
+
+    private ParallelLists() {
+        // Utility class - no instantiation
+    }
+
+    /**
+     * Processes {@code [from, to)}, appending its results to {@code out} in
+     * order. Called once per chunk, possibly concurrently, so per-call state
+     * (caches, counters) must live inside the call.
+     */
+    @FunctionalInterface
+    public interface RangeMapper<R> {
+        void map(int from, int to, List<R> out);
+    }
+
+    /**
+     * Maps {@code [0, size)} through {@code mapper} on {@code pool}. Sizes up to
+     * {@code minChunk}, or a single-worker pool, run in one call on the current
+     * thread; larger ones are split into chunks of at least {@code minChunk}.
+     */
+    public static <R> List<R> mapRanges(ForkJoinPool pool, int size, int minChunk, RangeMapper<R> mapper) {
+        int min = Math.max(1, minChunk);
+        int workers = pool.getParallelism();
+        if (size <= min || workers <= 1) {
+            List<R> out = new ArrayList<>(size);
+            mapper.map(0, size, out);
+            return out;
+        }
+        int chunk = Math.max(min, ceilDiv(size, workers * CHUNKS_PER_WORKER));
+        int chunks = ceilDiv(size, chunk);
+        List<List<R>> parts = new ArrayList<>(chunks);
+        for (int i = 0; i < chunks; i++) {
+            parts.add(null);
+        }
+        pool.invoke(new Split<>(0, chunks, chunk, size, mapper, parts));
+
+        int total = 0;
+        for (List<R> part : parts) {
+            total += part.size();
+        }
+        List<R> out = new ArrayList<>(total);
+        for (List<R> part : parts) {
+            out.addAll(part);
+        }
+        return out;
+    }
+
+    private static int ceilDiv(int a, int b) {
+        return (a + b - 1) / b;
+    }
+
+    /** Halves the chunk index range until one chunk is left, which it maps into its slot. */
+    private static final class Split<R> extends RecursiveAction {
+        private final int lo;
+        private final int hi;
+        private final int chunk;
+        private final int size;
+        private final RangeMapper<R> mapper;
+        private final List<List<R>> parts;
+
+        Split(int lo, int hi, int chunk, int size, RangeMapper<R> mapper, List<List<R>> parts) {
+            this.lo = lo;
+            this.hi = hi;
+            this.chunk = chunk;
+            this.size = size;
+            this.mapper = mapper;
+            this.parts = parts;
+        }
+
+        @Override
+        protected void compute() {
+            if (hi - lo == 1) {
+                int from = lo * chunk;
+                int to = Math.min(size, from + chunk);
+                List<R> out = new ArrayList<>(to - from);
+                mapper.map(from, to, out);
+                parts.set(lo, out);
+                return;
+            }
+            int mid = (lo + hi) >>> 1;
+            invokeAll(new Split<>(lo, mid, chunk, size, mapper, parts),
+                    new Split<>(mid, hi, chunk, size, mapper, parts));
+        }
+    }
+}
@@ -54,6 +54,11 @@ public final class SimpleTtlCache<K, V> {
         return value;
     }
 
+    /** Drop one key (e.g. a cached future that completed exceptionally). */
+    public void invalidate(K key) {
+        map.remove(key);
+    }
+
     /** Drop everything (e.g. when underlying data is known to have changed). */
     public void invalidateAll() {
         map.clear();
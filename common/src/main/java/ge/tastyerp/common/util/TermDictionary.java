@@ -0,0 +1,74 @@
+package ge.tastyerp.common.util;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * Interning dictionary for the small, highly repetitive vocabularies of goods
+ * lines (product names, units): each distinct term gets a stable small ID the
+ * first time it is seen, and its classification is computed once and kept in
+ * an array slot under that ID. Later lines with the same term cost one hash
+ * lookup and one array read instead of re-running the classifier.
+ *
+ * IDs are dense, start at 0 and never change for the life of the dictionary.
+ * The dictionary stops growing at {@code capacity} terms; further new terms
+ * get ID -1 and are classified on every call, so a flood of unique names can
+ * never exhaust the heap. The classifier must be pure (same term, same result).
+ */
+public final class TermDictionary<T> {
+
+    private final Map<String, Integer> ids = new ConcurrentHashMap<>();
+    private final Function<String, T> classifier;
+    private final int capacity;
+    /** Classification per ID; grown (copied) under the lock, published after the slot is written. */
+    private volatile Object[] values = new Object[64];
+
+    /**
+     * @param classifier computes the value of a term on its first sighting
+     * @param capacity   most distinct terms kept
+     */
+    public TermDictionary(Function<String, T> classifier, int capacity) {
+        this.classifier = classifier;
+        this.capacity = capacity;
+    }
+
+    /** Stable ID of {@code term}, interning it on first sight; -1 when the dictionary is full. */
+    public int id(String term) {
+        Integer id = ids.get(term);
+        return id != null ? id : intern(term);
+    }
+
+    /** Classification of the term with the given ID. */
+    @SuppressWarnings("unchecked")
+    public T get(int id) {
+        return (T) values[id];
+    }
+
+    /** Classification of {@code term}: memoized under its ID, or computed directly once the dictionary is full. */
+    public T classify(String term) {
+        int id = id(term);
+        return id >= 0 ? get(id) : classifier.apply(term);
+    }
+
+    public int size() {
+        return ids.size();
+    }
+
+    private synchronized int intern(String term) {
+        Integer id = ids.get(term);
+        if (id != null) return id;
+        int next = ids.size();
+        if (next >= capacity) return -1;
+        T value = classifier.apply(term);
+        Object[] slots = values;
+        if (next >= slots.length) {
+            slots = Arrays.copyOf(slots, slots.length * 2);
+        }
+        slots[next] = value;
+        values = slots;
+        ids.put(term, next);
+        return next;
+    }
+}
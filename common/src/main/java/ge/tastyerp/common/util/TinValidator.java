@@ -13,6 +13,8 @@ public final class TinValidator {
 
     private static final Pattern TIN_9_PATTERN = Pattern.compile("^\\d{9}$");
     private static final Pattern TIN_11_PATTERN = Pattern.compile("^\\d{11}$");
+    private static final Pattern SEPARATORS = Pattern.compile("[\\s\\-_.]+");
+    private static final Pattern NON_DIGITS = Pattern.compile("\\D");
 
     private TinValidator() {
         // Utility class - no instantiation
@@ -46,7 +48,7 @@ public final class TinValidator {
         if (tin == null) {
             return "";
         }
-        return tin.replaceAll("[\\s\\-_.]+", "").trim();
+        return SEPARATORS.matcher(tin).replaceAll("").trim();
     }
 
     /**
@@ -64,7 +66,7 @@ public final class TinValidator {
         if (id == null) {
             return "";
         }
-        String digits = id.replaceAll("\\D", "");
+        String digits = NON_DIGITS.matcher(id).replaceAll("");
         if (digits.isEmpty()) {
             return normalize(id);
         }
@@ -0,0 +1,69 @@
+package ge.tastyerp.common.dto.audit;
+
+import ge.tastyerp.common.dto.waybill.WaybillType;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/** Server-side movement filter, projection and its REST parameters. */
+class ProductMovementQueryTest {
+
+    private static ProductMovementDto line(WaybillType type, String name, String category, String unit, String tin) {
+        return ProductMovementDto.builder()
+                .date(LocalDate.of(2025, 6, 1)).type(type).productName(name).parentCategory(category)
+                .quantityKg(new BigDecimal("1.5")).unit(unit).amount(BigDecimal.TEN)
+                .waybillId("w1").counterpartyId(tin)
+                .build();
+    }
+
+    @Test
+    @DisplayName("Categories OR override product names; type, unit class and canonical TIN narrow further")
+    void matches() {
+        ProductMovementQuery q = ProductMovementQuery.builder()
+                .categories(Set.of("beef"))
+                .products(Set.of("  Minced MIX "))
+                .type(WaybillType.SALE)
+                .unitClass(UnitClass.KG)
+                .counterpartyId("0204900358")
+                .build().normalized();
+
+        assertTrue(q.matches(line(WaybillType.SALE, "საქონლის ხორცი", "BEEF", "კგ", "204900358")));
+        assertTrue(q.matches(line(WaybillType.SALE, "minced mix", "OTHER", null, "204900358")));
+        assertFalse(q.matches(line(WaybillType.SALE, "ღორის ხორცი", "PORK", "კგ", "204900358")));
+        assertFalse(q.matches(line(WaybillType.PURCHASE, "საქონლის ხორცი", "BEEF", "კგ", "204900358")));
+        assertFalse(q.matches(line(WaybillType.SALE, "საქონლის ხორცი", "BEEF", "ცალი", "204900358")));
+        assertFalse(q.matches(line(WaybillType.SALE, "საქონლის ხორცი", "BEEF", "კგ", "111")));
+        assertTrue(new ProductMovementQuery().isUnrestricted());
+    }
+
+    @Test
+    @DisplayName("Projection keeps only the requested fields and returns the line itself when there is none")
+    void projection() {
+        ProductMovementDto m = line(WaybillType.SALE, "x", "BEEF", "კგ", "1");
+        ProductMovementQuery q = ProductMovementQuery.builder().fields(Set.of("type", "amount")).build();
+
+        ProductMovementDto p = q.project(m);
+        assertEquals(WaybillType.SALE, p.getType());
+        assertEquals(BigDecimal.TEN, p.getAmount());
+        assertNull(p.getProductName());
+        assertNull(p.getWaybillId());
+        assertSame(m, new ProductMovementQuery().project(m));
+    }
+
+    @Test
+    @DisplayName("REST parameters repeat multi-valued criteria and omit unset ones")
+    void params() {
+        ProductMovementQuery q = ProductMovementQuery.builder()
+                .categories(Set.of("BEEF")).products(Set.of("a, b")).unitClass(UnitClass.OTHER).build();
+
+        assertEquals(Map.of("category", List.of("BEEF"), "product", List.of("a, b"), "unitClass", List.of("OTHER")),
+                q.toParams());
+    }
+}
@@ -0,0 +1,265 @@
+package ge.tastyerp.common.grpc;
+
+import ge.tastyerp.common.dto.audit.ProductMovementDto;
+import ge.tastyerp.common.dto.audit.ProductMovementQuery;
+import ge.tastyerp.common.dto.audit.UnitClass;
+import ge.tastyerp.common.dto.waybill.CustomerSalesTotalsDto;
+import ge.tastyerp.common.dto.waybill.WaybillDto;
+import ge.tastyerp.common.dto.waybill.WaybillType;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/** Hand-written protobuf codec of the waybill gRPC stream. */
+class WaybillStreamCodecTest {
+
+    @Test
+    @DisplayName("Movements round-trip with fixed-point amounts, text fallback and absent fields")
+    void movements() {
+        ProductMovementDto full = ProductMovementDto.builder()
+                .date(LocalDate.of(2025, 6, 1))
+                .type(WaybillType.PURCHASE)
+                .productName("საქონლის ხორცი")
+                .parentCategory("BEEF")
+                .quantityKg(new BigDecimal("12.345"))
+                .unit("კგ")
+                .amount(new BigDecimal("-1500.50"))
+                .waybillId("w1")
+                .counterpartyId("")
+                .build();
+        ProductMovementDto precise = ProductMovementDto.builder()
+                .quantityKg(new BigDecimal("0.12345"))
+                .amount(new BigDecimal("99999999999999999999.01"))
+                .build();
+
+        List<ProductMovementDto> back = WaybillStreamCodec.decodeMovements(
+                WaybillStreamCodec.encodeMovements(List.of(full, precise, new ProductMovementDto())));
+
+        assertEquals(3, back.size());
+        ProductMovementDto m = back.get(0);
+        assertEquals(LocalDate.of(2025, 6, 1), m.getDate());
+        assertEquals(WaybillType.PURCHASE, m.getType());
+        assertEquals("საქონლის ხორცი", m.getProductName());
+        assertEquals("კგ", m.getUnit());
+        assertEquals(new BigDecimal("12.345"), m.getQuantityKg());
+        assertEquals(new BigDecimal("-1500.5"), m.getAmount());
+        assertEquals("", m.getCounterpartyId());
+        assertEquals(new BigDecimal("0.12345"), back.get(1).getQuantityKg());
+        assertEquals(new BigDecimal("99999999999999999999.01"), back.get(1).getAmount());
+        assertEquals(new ProductMovementDto(), back.get(2));
+    }
+
+    @Test
+    @DisplayName("Whole amounts decode without a negative scale")
+    void wholeAmounts() {
+        assertEquals(3L, ProtoWire.toUnits(new BigDecimal("0.030"), 2));
+        assertEquals(new BigDecimal("1000"), ProtoWire.fromUnits(100_000, 2));
+        assertEquals(0, ProtoWire.fromUnits(100_000, 2).scale());
+        assertNull(ProtoWire.toUnits(new BigDecimal("0.001"), 2));
+    }
+
+    @Test
+    @DisplayName("Waybill summaries and sales totals round-trip")
+    void waybillsAndTotals() {
+        WaybillDto wb = WaybillDto.builder()
+                .waybillId("9").customerId("0101").customerName("შპს")
+                .amount(new BigDecimal("10.10")).date(LocalDate.of(2025, 5, 2))
+                .status(-2).isAfterCutoff(true).type(WaybillType.SALE)
+                .build();
+        WaybillDto back = WaybillStreamCodec.decodeWaybills(WaybillStreamCodec.encodeWaybills(List.of(wb))).get(0);
+        assertEquals("0101", back.getCustomerId());
+        assertEquals("შპს", back.getCustomerName());
+        assertEquals(new BigDecimal("10.1"), back.getAmount());
+        assertEquals(LocalDate.of(2025, 5, 2), back.getDate());
+        assertEquals(-2, back.getStatus());
+        assertTrue(back.isAfterCutoff());
+        assertEquals(WaybillType.SALE, back.getType());
+
+        CustomerSalesTotalsDto totals = new CustomerSalesTotalsDto("1", "A", new BigDecimal("5"), 2, null);
+        assertEquals(totals, WaybillStreamCodec.decodeTotals(WaybillStreamCodec.encodeTotals(List.of(totals))).get(0));
+    }
+
+    @Test
+    @DisplayName("Requests round-trip; unset strings stay null")
+    void requests() {
+        WaybillStreamGrpc.WaybillsRequest request =
+                new WaybillStreamGrpc.WaybillsRequest(null, "2025-06-01", null, true, WaybillType.SALE);
+        assertEquals(request, WaybillStreamCodec.decodeWaybillsRequest(WaybillStreamCodec.encodeWaybillsRequest(request)));
+
+        WaybillStreamGrpc.MovementsRequest movements = new WaybillStreamGrpc.MovementsRequest("2025-06-01", "2025-06-30");
+        assertEquals(movements,
+                WaybillStreamCodec.decodeMovementsRequest(WaybillStreamCodec.encodeMovementsRequest(movements)));
+    }
+
+    @Test
+    @DisplayName("A movements request carries its filter and projection; an empty one decodes to no query")
+    void movementsQuery() {
+        ProductMovementQuery query = ProductMovementQuery.builder()
+                .categories(Set.of("BEEF", "PORK"))
+                .products(Set.of("ფარში, შერეული"))
+                .type(WaybillType.PURCHASE)
+                .counterpartyId("204900358")
+                .unitClass(UnitClass.KG)
+                .fields(Set.of("date", "amount"))
+                .build();
+        WaybillStreamGrpc.MovementsRequest request =
+                new WaybillStreamGrpc.MovementsRequest("2025-06-01", "2025-06-30", query);
+
+        assertEquals(request,
+                WaybillStreamCodec.decodeMovementsRequest(WaybillStreamCodec.encodeMovementsRequest(request)));
+        assertNull(WaybillStreamCodec.decodeMovementsRequest(WaybillStreamCodec.encodeMovementsRequest(
+                new WaybillStreamGrpc.MovementsRequest("2025-06-01", null, new ProductMovementQuery()))).query());
+    }
+
+    @Test
+    @DisplayName("Unknown fields are skipped and truncated input is rejected")
+    void unknownAndTruncated() {
+        ProtoWire.Writer w = new ProtoWire.Writer();
+        w.string(1, "2025-06-01");
+        w.string(20, "added later");
+        w.sint64(21, -5);
+        assertEquals("2025-06-01", WaybillStreamCodec.decodeMovementsRequest(w.toByteArray()).startDate());
+
+        byte[] batch = WaybillStreamCodec.encodeMovements(List.of(
+                ProductMovementDto.builder().waybillId("w1").build()));
+        byte[] truncated = Arrays.copyOf(batch, batch.length - 1);
+        assertThrows(IllegalArgumentException.class, () -> WaybillStreamCodec.decodeMovements(truncated));
+    }
+
+    // ==================== .proto CONTRACT ====================
+
+    private static final Pattern MESSAGE = Pattern.compile("^\\s*message\\s+(\\w+)\\s*\\{");
+    private static final Pattern FIELD =
+            Pattern.compile("^\\s*(?:optional\\s+|repeated\\s+)?(\\w+)\\s+(\\w+)\\s*=\\s*(\\d+)\\s*;");
+
+    private record ProtoField(String type, String name, boolean repeated) {}
+
+    /** Message name -> field number -> declaration, read from the .proto this codec implements. */
+    private static Map<String, Map<Integer, ProtoField>> schema() throws IOException {
+        Map<String, Map<Integer, ProtoField>> messages = new HashMap<>();
+        Map<Integer, ProtoField> current = null;
+        for (String line : Files.readAllLines(Path.of("src/main/proto/waybill_stream.proto"))) {
+            Matcher m = MESSAGE.matcher(line);
+            if (m.find()) {
+                current = new HashMap<>();
+                messages.put(m.group(1), current);
+                continue;
+            }
+            m = FIELD.matcher(line);
+            if (current != null && m.find()) {
+                current.put(Integer.parseInt(m.group(3)),
+                        new ProtoField(m.group(1), m.group(2), line.trim().startsWith("repeated ")));
+            } else if (line.trim().equals("}")) {
+                current = null;
+            }
+        }
+        return messages;
+    }
+
+    /**
+     * Decodes {@code bytes} strictly by the .proto declaration of {@code message}:
+     * every field number must be declared there, its wire type must match the
+     * declared type, and varints are read zigzag or plain as that type says.
+     */
+    private static Map<String, Object> byProto(Map<String, Map<Integer, ProtoField>> schema, String message,
+                                               ProtoWire.Reader r) {
+        Map<Integer, ProtoField> fields = schema.get(message);
+        assertNotNull(fields, message + " is not declared in waybill_stream.proto");
+        Map<String, Object> out = new LinkedHashMap<>();
+        while (r.hasNext()) {
+            int tag = r.tag();
+            ProtoField f = fields.get(tag >>> 3);
+            assertNotNull(f, message + " field " + (tag >>> 3) + " is not declared in waybill_stream.proto");
+            boolean len = f.type().equals("string") || schema.containsKey(f.type());
+            assertEquals(len ? ProtoWire.LEN : ProtoWire.VARINT, tag & 7,
+                    message + "." + f.name() + " wire type does not match its declared " + f.type());
+            Object value = schema.containsKey(f.type()) ? byProto(schema, f.type(), r.message())
+                    : f.type().equals("string") ? r.string()
+                    : f.type().startsWith("sint") ? r.sint64()
+                    : r.uint64();
+            if (f.repeated()) {
+                @SuppressWarnings("unchecked")
+                List<Object> list = (List<Object>) out.computeIfAbsent(f.name(), k -> new ArrayList<>());
+                list.add(value);
+            } else {
+                assertNull(out.put(f.name(), value), message + "." + f.name() + " written twice");
+            }
+        }
+        return out;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> first(Map<String, Object> batch, String field) {
+        return ((List<Map<String, Object>>) batch.get(field)).get(0);
+    }
+
+    @Test
+    @DisplayName("Every message is written with the field numbers, wire types and varint encodings of the .proto")
+    void matchesProto() throws IOException {
+        Map<String, Map<Integer, ProtoField>> schema = schema();
+
+        ProductMovementDto movement = ProductMovementDto.builder()
+                .date(LocalDate.of(1969, 12, 31)).type(WaybillType.PURCHASE)
+                .productName("p").parentCategory("BEEF").quantityKg(new BigDecimal("-1.5")).unit("კგ")
+                .amount(new BigDecimal("2.01")).waybillId("w").counterpartyId("c")
+                .build();
+        assertEquals(Map.of("date", -1L, "type", 2L, "product_name", "p", "parent_category", "BEEF",
+                        "quantity_milli", -1500L, "unit", "კგ", "amount_tetri", 201L, "waybill_id", "w",
+                        "counterparty_id", "c"),
+                first(byProto(schema, "MovementBatch",
+                        new ProtoWire.Reader(WaybillStreamCodec.encodeMovements(List.of(movement)))), "movements"));
+        ProductMovementDto precise = ProductMovementDto.builder()
+                .quantityKg(new BigDecimal("0.0001")).amount(new BigDecimal("0.001")).build();
+        assertEquals(Map.of("quantity_text", "0.0001", "amount_text", "0.001"),
+                first(byProto(schema, "MovementBatch",
+                        new ProtoWire.Reader(WaybillStreamCodec.encodeMovements(List.of(precise)))), "movements"));
+
+        WaybillDto wb = WaybillDto.builder()
+                .waybillId("9").customerId("0101").customerName("A").amount(new BigDecimal("10.10"))
+                .date(LocalDate.of(1970, 1, 3)).status(-2).isAfterCutoff(true).type(WaybillType.SALE)
+                .build();
+        assertEquals(Map.of("waybill_id", "9", "customer_id", "0101", "customer_name", "A", "amount_tetri", 1010L,
+                        "date", 2L, "status", -2L, "after_cutoff", 1L, "type", 1L),
+                first(byProto(schema, "WaybillBatch",
+                        new ProtoWire.Reader(WaybillStreamCodec.encodeWaybills(List.of(wb)))), "waybills"));
+
+        // sale_count is a plain int32: zigzag would put 14 on the wire for 7.
+        CustomerSalesTotalsDto totals = new CustomerSalesTotalsDto("1", "A", new BigDecimal("0.001"), 7,
+                LocalDate.of(1970, 1, 2));
+        assertEquals(Map.of("customer_id", "1", "customer_name", "A", "total_sales_text", "0.001",
+                        "sale_count", 7L, "last_sale_date", 1L),
+                first(byProto(schema, "CustomerSalesTotalsBatch",
+                        new ProtoWire.Reader(WaybillStreamCodec.encodeTotals(List.of(totals)))), "totals"));
+
+        ProductMovementQuery query = ProductMovementQuery.builder()
+                .categories(Set.of("BEEF")).products(Set.of("x")).type(WaybillType.PURCHASE)
+                .counterpartyId("204900358").unitClass(UnitClass.OTHER).fields(Set.of("date"))
+                .build();
+        assertEquals(Map.of("start_date", "2025-06-01", "end_date", "2025-06-30", "categories", List.of("BEEF"),
+                        "products", List.of("x"), "type", 2L, "counterparty_id", "204900358", "unit_class", 2L,
+                        "fields", List.of("date")),
+                byProto(schema, "MovementsRequest", new ProtoWire.Reader(WaybillStreamCodec.encodeMovementsRequest(
+                        new WaybillStreamGrpc.MovementsRequest("2025-06-01", "2025-06-30", query)))));
+        assertEquals(Map.of("customer_id", "1", "start_date", "2025-06-01", "end_date", "2025-06-30",
+                        "after_cutoff_only", 1L, "type", 1L),
+                byProto(schema, "WaybillsRequest", new ProtoWire.Reader(WaybillStreamCodec.encodeWaybillsRequest(
+                        new WaybillStreamGrpc.WaybillsRequest("1", "2025-06-01", "2025-06-30", true,
+                                WaybillType.SALE)))));
+    }
+}
@@ -0,0 +1,122 @@
+package ge.tastyerp.common.util;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/** Day-partitioned range cache: gap merging, reuse across shifted ranges, sharing, failure eviction and the off-heap tier. */
+class DayRangeCacheTest {
+
+    private static final LocalDate MAR_1 = LocalDate.of(2025, 3, 1);
+
+    /** Records every gap it is asked for and answers "type:day" for each day. */
+    private final List<String> gaps = new ArrayList<>();
+
+    private CompletableFuture<Map<LocalDate, String>> load(String type, LocalDate from, LocalDate to) {
+        gaps.add(type + " " + from + ".." + to);
+        Map<LocalDate, String> out = new HashMap<>();
+        for (LocalDate d = from; !d.isAfter(to); d = d.plusDays(1)) {
+            if (d.getDayOfMonth() % 2 == 1) out.put(d, type + ":" + d.getDayOfMonth());
+        }
+        return CompletableFuture.completedFuture(out);
+    }
+
+    @Test
+    @DisplayName("Overlapping and shifted ranges only load the days they add, as merged gaps")
+    void reusesCachedDays() {
+        DayRangeCache<String, String> cache = new DayRangeCache<>(d -> 60_000, 1000, "-");
+
+        List<String> march = cache.get("SALE", MAR_1, MAR_1.plusDays(30), this::load).join();
+        assertEquals(31, march.size());
+        assertEquals("SALE:1", march.get(0));
+        assertEquals("-", march.get(1));
+
+        assertEquals(march.subList(0, 30), cache.get("SALE", MAR_1, MAR_1.plusDays(29), this::load).join());
+        cache.get("SALE", MAR_1.minusDays(2), MAR_1.plusDays(32), this::load).join();
+        cache.get("PURCHASE", MAR_1, MAR_1, this::load).join();
+
+        assertEquals(List.of(
+                "SALE 2025-03-01..2025-03-31",
+                "SALE 2025-02-27..2025-02-28",
+                "SALE 2025-04-01..2025-04-02",
+                "PURCHASE 2025-03-01..2025-03-01"), gaps);
+    }
+
+    @Test
+    @DisplayName("Expired days are reloaded while fresh ones are kept")
+    void perDayTtl() {
+        LocalDate today = MAR_1.plusDays(2);
+        DayRangeCache<String, String> cache = new DayRangeCache<>(d -> d.equals(today) ? -1 : 60_000, 1000, "-");
+
+        cache.get("SALE", MAR_1, today, this::load).join();
+        cache.get("SALE", MAR_1, today, this::load).join();
+
+        assertEquals(List.of("SALE 2025-03-01..2025-03-03", "SALE 2025-03-03..2025-03-03"), gaps);
+    }
+
+    @Test
+    @DisplayName("Concurrent reads share an in-flight gap; a failed gap is evicted and retried")
+    void sharesAndEvicts() {
+        DayRangeCache<String, String> cache = new DayRangeCache<>(d -> 60_000, 1000, "-");
+        CompletableFuture<Map<LocalDate, String>> pending = new CompletableFuture<>();
+        int[] calls = {0};
+
+        CompletableFuture<List<String>> a = cache.get("SALE", MAR_1, MAR_1.plusDays(1), (t, f, to) -> {
+            calls[0]++;
+            return pending;
+        });
+        CompletableFuture<List<String>> b = cache.get("SALE", MAR_1, MAR_1, (t, f, to) -> {
+            calls[0]++;
+            return pending;
+        });
+        assertEquals(1, calls[0]);
+
+        pending.completeExceptionally(new IllegalStateException("RS.ge down"));
+        assertTrue(a.isCompletedExceptionally());
+        assertTrue(b.isCompletedExceptionally());
+        assertEquals(0, cache.size());
+
+        assertEquals(List.of("SALE:1", "-"), cache.get("SALE", MAR_1, MAR_1.plusDays(1), this::load).join());
+    }
+
+    @Test
+    @DisplayName("Idle days move off-heap and come back decoded, without reloading")
+    void offHeapTier() {
+        OffHeapCache.Codec<String> codec = new OffHeapCache.Codec<>() {
+            @Override
+            public void write(String value, java.io.DataOutput out) throws java.io.IOException {
+                out.writeUTF(value);
+            }
+
+            @Override
+            public String read(java.io.DataInput in) throws java.io.IOException {
+                return in.readUTF();
+            }
+        };
+        // Zero heap period: every loaded day leaves the heap on the next read.
+        DayRangeCache<String, String> cache = new DayRangeCache<>(d -> 60_000, 1000, "-", codec, 1 << 20, 0);
+
+        List<String> first = cache.get("SALE", MAR_1, MAR_1.plusDays(2), this::load).join();
+        assertEquals(List.of("SALE:1", "-", "SALE:3"), first);
+        assertEquals(3, cache.size());
+
+        assertEquals(first, cache.get("SALE", MAR_1, MAR_1.plusDays(2), this::load).join());
+        assertEquals(0, cache.size());
+        assertEquals(3, cache.offHeapSize());
+        assertTrue(cache.offHeapBytes() > 0);
+
+        assertEquals(first, cache.get("SALE", MAR_1, MAR_1.plusDays(2), this::load).join());
+        assertEquals(List.of("SALE 2025-03-01..2025-03-03"), gaps);
+
+        cache.invalidateAll();
+        assertEquals(0, cache.offHeapSize());
+    }
+}
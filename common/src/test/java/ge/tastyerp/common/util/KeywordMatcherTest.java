@@ -0,0 +1,57 @@
+package ge.tastyerp.common.util;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/** Compiled keyword matching agrees with a ranked loop of {@code String.contains}. */
+class KeywordMatcherTest {
+
+    @Test
+    @DisplayName("The lowest-ranked contained keyword wins, including keywords found through fail links")
+    void lowestRank() {
+        Map<String, Integer> keywords = new LinkedHashMap<>();
+        keywords.put("საქონლის ხორცი", 0);
+        keywords.put("ქონი", 2);
+        keywords.put("she", 3);
+        keywords.put("hers", 1);
+        KeywordMatcher matcher = new KeywordMatcher(keywords);
+
+        assertEquals(0, matcher.match("საქონლის ხორცი (რბილი)"));
+        assertEquals(2, matcher.match("საქონლის ქონი"));
+        assertEquals(1, matcher.match("USHERS"));
+        assertEquals(3, matcher.match("ushe"));
+        assertEquals(-1, matcher.match("ქონ"));
+        assertEquals(-1, matcher.match(null));
+    }
+
+    @Test
+    @DisplayName("Random texts over a small alphabet match exactly like the contains loop")
+    void agreesWithContains() {
+        List<String> keywords = List.of("ab", "bab", "abc", "c", "bca", "aaa");
+        Map<String, Integer> ranked = new LinkedHashMap<>();
+        for (int i = 0; i < keywords.size(); i++) {
+            ranked.put(keywords.get(i), i);
+        }
+        KeywordMatcher matcher = new KeywordMatcher(ranked);
+        Random random = new Random(7);
+
+        for (int n = 0; n < 2_000; n++) {
+            StringBuilder text = new StringBuilder();
+            for (int i = random.nextInt(12); i > 0; i--) {
+                text.append((char) ('a' + random.nextInt(3)));
+            }
+            int expected = -1;
+            for (int i = 0; i < keywords.size() && expected < 0; i++) {
+                if (text.toString().contains(keywords.get(i))) expected = i;
+            }
+            assertEquals(expected, matcher.match(text.toString()), text.toString());
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package ge.tastyerp.common.util;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/** NDJSON writer and incremental reader. */
+class NdjsonTest {
+
+    @Test
+    @DisplayName("One record per line, and read back record by record")
+    void roundTrip() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        long written = Ndjson.write(new ObjectMapper(), out,
+                List.of(Map.of("id", "1"), Map.of("id", "2", "amount", 10)).iterator());
+
+        String text = out.toString(StandardCharsets.UTF_8);
+        assertEquals(2, written);
+        assertEquals("{\"id\":\"1\"}\n{\"id\":\"2\",\"amount\":10}\n".length(), text.length());
+        assertEquals(2, text.lines().count());
+        assertTrue(text.lines().allMatch(line -> line.startsWith("{")));
+
+        List<Map<String, Object>> read = new ArrayList<>();
+        long count = Ndjson.read(new ByteArrayInputStream(out.toByteArray()), read::add);
+        assertEquals(2, count);
+        assertEquals("2", read.get(1).get("id"));
+        assertEquals(10, read.get(1).get("amount"));
+    }
+
+    @Test
+    @DisplayName("Empty input and blank lines read as no records")
+    void empty() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertEquals(0, Ndjson.write(new ObjectMapper(), out, List.of().iterator()));
+        assertEquals(0, out.size());
+
+        List<Map<String, Object>> read = new ArrayList<>();
+        byte[] in = "\n{\"id\":\"1\"}\n\n".getBytes(StandardCharsets.UTF_8);
+        assertEquals(1, Ndjson.read(new ByteArrayInputStream(in), read::add));
+    }
+}
@@ -0,0 +1,89 @@
+package ge.tastyerp.common.util;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/** Compressed off-heap tier: round trip, byte budget with LRU eviction, expiry and unencodable values. */
+class OffHeapCacheTest {
+
+    /** A list of strings; "fail" cannot be written. */
+    private static final OffHeapCache.Codec<List<String>> CODEC = new OffHeapCache.Codec<>() {
+        @Override
+        public void write(List<String> value, DataOutput out) throws IOException {
+            out.writeInt(value.size());
+            for (String s : value) {
+                if (s.equals("fail")) throw new IOException("unencodable");
+                out.writeUTF(s);
+            }
+        }
+
+        @Override
+        public List<String> read(DataInput in) throws IOException {
+            int n = in.readInt();
+            List<String> out = new ArrayList<>(n);
+            for (int i = 0; i < n; i++) {
+                out.add(in.readUTF());
+            }
+            return out;
+        }
+    };
+
+    private static List<String> repeated(String s, int n) {
+        List<String> out = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            out.add(s + (i % 10));
+        }
+        return out;
+    }
+
+    @Test
+    @DisplayName("Values come back equal and compressed well below their raw size")
+    void roundTrip() {
+        OffHeapCache<String, List<String>> cache = new OffHeapCache<>(CODEC, 1 << 20);
+        List<String> value = repeated("საქონლის ხორცი ", 1000);
+        long far = System.currentTimeMillis() + 60_000;
+
+        cache.put("a", value, far);
+
+        assertEquals(value, cache.get("a"));
+        assertNotSame(cache.get("a"), cache.get("a"));
+        assertTrue(cache.bytes() < 30_000 / 10, "compressed to " + cache.bytes() + " bytes");
+        assertEquals(far, cache.expiresAt("a", System.currentTimeMillis()));
+    }
+
+    @Test
+    @DisplayName("The byte budget drops least recently used values; expired and unencodable ones are not served")
+    void budgetAndExpiry() {
+        OffHeapCache<String, List<String>> probe = new OffHeapCache<>(CODEC, 1 << 20);
+        long far = System.currentTimeMillis() + 60_000;
+        probe.put("x", repeated("a", 100), far);
+        long one = probe.bytes();
+
+        OffHeapCache<String, List<String>> cache = new OffHeapCache<>(CODEC, 2 * one);
+        cache.put("a", repeated("a", 100), far);
+        cache.put("b", repeated("a", 100), far);
+        assertNotNull(cache.get("a"));        // "b" is now the least recently used
+        cache.put("c", repeated("a", 100), far);
+
+        assertNotNull(cache.get("a"));
+        assertNull(cache.get("b"));
+        assertNotNull(cache.get("c"));
+        assertTrue(cache.bytes() <= 2 * one);
+
+        cache.put("old", List.of("x"), System.currentTimeMillis() - 1);
+        assertNull(cache.get("old"));
+        assertEquals(-1, cache.expiresAt("old", System.currentTimeMillis()));
+
+        cache.put("a", List.of("fail"), far);
+        assertNull(cache.get("a"));
+        assertEquals(1, cache.size());
+    }
+}
@@ -0,0 +1,70 @@
+package ge.tastyerp.common.util;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/** Order-preserving fork/join over index ranges. */
+class ParallelListsTest {
+
+    /** Fixed size, so the parallel path also runs on single-core machines. */
+    private static final ForkJoinPool POOL = new ForkJoinPool(4);
+
+    @Test
+    @DisplayName("Chunks are merged in index order, including chunks that emit several or no results")
+    void keepsOrder() {
+        List<Integer> out = ParallelLists.mapRanges(POOL, 100_003, 100, (from, to, buf) -> {
+            for (int i = from; i < to; i++) {
+                if (i % 3 == 0) continue;
+                buf.add(i);
+                if (i % 5 == 0) buf.add(-i);
+            }
+        });
+
+        List<Integer> expected = IntStream.range(0, 100_003)
+                .filter(i -> i % 3 != 0)
+                .boxed()
+                .flatMap(i -> i % 5 == 0 ? List.of(i, -i).stream() : List.of(i).stream())
+                .toList();
+        assertEquals(expected, out);
+    }
+
+    @Test
+    @DisplayName("Inputs up to minChunk run in one call on the caller's thread")
+    void smallInputIsSequential() {
+        Set<Thread> threads = ConcurrentHashMap.newKeySet();
+        List<int[]> calls = ParallelLists.mapRanges(POOL, 500, 500, (from, to, buf) -> {
+            threads.add(Thread.currentThread());
+            buf.add(new int[]{from, to});
+        });
+
+        assertEquals(1, calls.size());
+        assertArrayEquals(new int[]{0, 500}, calls.get(0));
+        assertEquals(Set.of(Thread.currentThread()), threads);
+        assertEquals(List.of(), ParallelLists.mapRanges(POOL, 0, 10, (from, to, buf) -> {
+            for (int i = from; i < to; i++) buf.add(i);
+        }));
+    }
+
+    @Test
+    @DisplayName("Large inputs are split into chunks of at least minChunk covering every index once")
+    void chunking() {
+        List<int[]> calls = ParallelLists.mapRanges(POOL, 10_000, 1_000, (from, to, buf) -> buf.add(new int[]{from, to}));
+
+        assertTrue(calls.size() > 1);
+        int next = 0;
+        for (int[] c : calls) {
+            assertEquals(next, c[0]);
+            assertTrue(c[1] - c[0] >= 1_000 || c[1] == 10_000);
+            next = c[1];
+        }
+        assertEquals(10_000, next);
+    }
+}
@@ -0,0 +1,50 @@
+package ge.tastyerp.common.util;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/** Interned IDs are dense and stable, classification runs once per term, and a full dictionary stops growing. */
+class TermDictionaryTest {
+
+    @Test
+    @DisplayName("Each distinct term is classified once under a stable dense ID")
+    void memoized() {
+        AtomicInteger calls = new AtomicInteger();
+        TermDictionary<Integer> dictionary = new TermDictionary<>(t -> {
+            calls.incrementAndGet();
+            return t.length();
+        }, 1_000);
+
+        for (int i = 0; i < 500; i++) {
+            assertEquals(("term" + i % 100).length(), dictionary.classify("term" + i % 100));
+        }
+
+        assertEquals(100, calls.get());
+        assertEquals(100, dictionary.size());
+        assertEquals(0, dictionary.id("term0"));
+        assertEquals(99, dictionary.id("term99"));
+        assertEquals(6, dictionary.get(dictionary.id("term99")));
+    }
+
+    @Test
+    @DisplayName("Past capacity new terms get ID -1 and are classified on every call")
+    void bounded() {
+        AtomicInteger calls = new AtomicInteger();
+        TermDictionary<String> dictionary = new TermDictionary<>(t -> {
+            calls.incrementAndGet();
+            return t.toUpperCase();
+        }, 2);
+        dictionary.classify("a");
+        dictionary.classify("b");
+
+        assertEquals("C", dictionary.classify("c"));
+        assertEquals("C", dictionary.classify("c"));
+        assertEquals(-1, dictionary.id("c"));
+        assertEquals(2, dictionary.size());
+        assertEquals(4, calls.get());
+    }
+}
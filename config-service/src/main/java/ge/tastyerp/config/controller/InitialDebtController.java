@@ -2,11 +2,13 @@ package ge.tastyerp.config.controller;
 
 import ge.tastyerp.common.dto.ApiResponse;
 import ge.tastyerp.common.dto.config.InitialDebtDto;
+import ge.tastyerp.config.repository.InitialDebtRepository;
 import ge.tastyerp.config.service.InitialDebtService;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.tags.Tag;
 import jakarta.validation.Valid;
 import lombok.RequiredArgsConstructor;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
@@ -27,11 +29,24 @@ public class InitialDebtController {
 
     private final InitialDebtService initialDebtService;
 
+    /**
+     * The ETag is the document's update time: a caller that sends it back in
+     * If-None-Match gets 304 until the debts are edited (payment-service polls
+     * this to keep its debt ledger current).
+     */
     @GetMapping
     @Operation(summary = "Get all initial debts")
-    public ResponseEntity<ApiResponse<List<InitialDebtDto>>> getAllDebts() {
-        List<InitialDebtDto> debts = initialDebtService.getAllDebts();
-        return ResponseEntity.ok(ApiResponse.success(debts));
+    public ResponseEntity<ApiResponse<List<InitialDebtDto>>> getAllDebts(
+            @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
+        InitialDebtRepository.Versioned debts = initialDebtService.getAllDebtsVersioned();
+        if (debts.version() == null) {
+            return ResponseEntity.ok(ApiResponse.success(debts.debts()));
+        }
+        String etag = "\"" + debts.version() + "\"";
+        if (etag.equals(ifNoneMatch)) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(etag).build();
+        }
+        return ResponseEntity.ok().eTag(etag).body(ApiResponse.success(debts.debts()));
     }
 
     @GetMapping("/{customerId}")
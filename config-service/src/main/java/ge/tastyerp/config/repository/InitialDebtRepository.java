@@ -37,15 +37,27 @@ public class InitialDebtRepository {
 
     private final Firestore firestore;
 
+    /** All initial debts with the version of the document they were read from. */
+    public record Versioned(String version, List<InitialDebtDto> debts) {}
+
     /**
      * Get all initial debts.
      */
     public List<InitialDebtDto> findAll() {
+        return findAllVersioned().debts();
+    }
+
+    /**
+     * Get all initial debts and the document's update time, from one read. The
+     * version changes with every write to the document; "none" while it does
+     * not exist, null when the read failed.
+     */
+    public Versioned findAllVersioned() {
         try {
             DocumentSnapshot snapshot = getDocument();
 
             if (!snapshot.exists()) {
-                return Collections.emptyList();
+                return new Versioned("none", Collections.emptyList());
             }
 
             List<InitialDebtDto> debts = new ArrayList<>();
@@ -68,12 +80,12 @@ public class InitialDebtRepository {
                 }
             }
 
-            return debts;
+            return new Versioned(String.valueOf(snapshot.getUpdateTime()), debts);
 
         } catch (InterruptedException | ExecutionException e) {
             log.error("Error fetching all initial debts: {}", e.getMessage());
             Thread.currentThread().interrupt();
-            return Collections.emptyList();
+            return new Versioned(null, Collections.emptyList());
         }
     }
 
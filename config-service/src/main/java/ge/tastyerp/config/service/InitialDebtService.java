@@ -35,6 +35,14 @@ public class InitialDebtService {
         return initialDebtRepository.findAll();
     }
 
+    /**
+     * Get all initial debts with their document version (for ETag checks).
+     */
+    public InitialDebtRepository.Versioned getAllDebtsVersioned() {
+        log.debug("Fetching all initial debts with version");
+        return initialDebtRepository.findAllVersioned();
+    }
+
     /**
      * Get initial debt for a specific customer.
      */
@@ -113,7 +113,7 @@ public class PaymentController {
     @Operation(summary = "Delete all bank payments (tbc/bog)")
     public ResponseEntity<ApiResponse<Object>> deleteBankPayments() {
         int deleted = paymentService.purgeBankPayments(List.of("tbc", "bog"));
-        debtService.invalidate(); // debt is computed on demand — drop the cached snapshot
+        debtService.invalidate(); // bulk delete — rebuild the debt ledger on the next read
         return ResponseEntity.ok(ApiResponse.success(
                 Map.of("deleted", deleted),
                 "Bank payments deleted"
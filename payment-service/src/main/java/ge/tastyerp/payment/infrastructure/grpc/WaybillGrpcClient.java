@@ -0,0 +1,108 @@
+package ge.tastyerp.payment.infrastructure.grpc;
+
+import ge.tastyerp.common.dto.audit.ProductMovementDto;
+import ge.tastyerp.common.dto.audit.ProductMovementQuery;
+import ge.tastyerp.common.dto.waybill.CustomerSalesTotalsDto;
+import ge.tastyerp.common.dto.waybill.WaybillDto;
+import ge.tastyerp.common.grpc.WaybillStreamGrpc;
+import io.grpc.CallOptions;
+import io.grpc.Grpc;
+import io.grpc.InsecureChannelCredentials;
+import io.grpc.ManagedChannel;
+import io.grpc.MethodDescriptor;
+import io.grpc.stub.ClientCalls;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Client of waybill-service's {@link WaybillStreamGrpc} stream, the fast path
+ * for the audit and debt reads. Records are handed over one batch at a time
+ * as they arrive. Calls throw {@link io.grpc.StatusRuntimeException} on any
+ * failure; callers fall back to the NDJSON REST endpoints.
+ */
+@Component
+public class WaybillGrpcClient {
+
+    @Value("${waybill.grpc.enabled:true}")
+    private boolean enabled;
+
+    @Value("${waybill.grpc.target:waybill-service:9091}")
+    private String target;
+
+    /** Same bound as waybill-service's async REST endpoints. */
+    @Value("${waybill.grpc.deadline-ms:600000}")
+    private long deadlineMs;
+
+    private ManagedChannel channel;
+
+    @PostConstruct
+    void start() {
+        if (enabled) {
+            channel = Grpc.newChannelBuilder(target, InsecureChannelCredentials.create()).build();
+        }
+    }
+
+    @PreDestroy
+    void stop() throws InterruptedException {
+        if (channel != null && !channel.shutdown().awaitTermination(5, TimeUnit.SECONDS)) {
+            channel.shutdownNow();
+        }
+    }
+
+    public boolean isEnabled() {
+        return channel != null;
+    }
+
+    public List<ProductMovementDto> getProductMovements(LocalDate startDate, LocalDate endDate) {
+        return getProductMovements(startDate, endDate, null);
+    }
+
+    /** Movements filtered and projected by waybill-service; {@code query} may be null. */
+    public List<ProductMovementDto> getProductMovements(LocalDate startDate, LocalDate endDate,
+                                                        ProductMovementQuery query) {
+        List<ProductMovementDto> out = new ArrayList<>();
+        forEachProductMovement(startDate, endDate, query, out::add);
+        return out;
+    }
+
+    /** Hands movements to {@code consumer} batch by batch as they arrive, without collecting them. */
+    public void forEachProductMovement(LocalDate startDate, LocalDate endDate, ProductMovementQuery query,
+                                       Consumer<ProductMovementDto> consumer) {
+        call(WaybillStreamGrpc.STREAM_PRODUCT_MOVEMENTS,
+                new WaybillStreamGrpc.MovementsRequest(String.valueOf(startDate), String.valueOf(endDate), query),
+                batch -> batch.forEach(consumer));
+    }
+
+    /** Waybill summaries (no goods), same filters as {@code GET /api/waybills}. */
+    public void forEachWaybill(WaybillStreamGrpc.WaybillsRequest request, Consumer<WaybillDto> consumer) {
+        call(WaybillStreamGrpc.STREAM_WAYBILLS, request, batch -> batch.forEach(consumer));
+    }
+
+    public List<CustomerSalesTotalsDto> getCustomerSalesTotals() {
+        List<CustomerSalesTotalsDto> out = new ArrayList<>();
+        call(WaybillStreamGrpc.STREAM_CUSTOMER_SALES_TOTALS, new WaybillStreamGrpc.CustomerSalesTotalsRequest(),
+                out::addAll);
+        return out;
+    }
+
+    private <Q, T> void call(MethodDescriptor<Q, List<T>> method, Q request, Consumer<List<T>> batches) {
+        if (channel == null) {
+            throw new IllegalStateException("waybill gRPC client is disabled");
+        }
+        // Blocking iterator: the next batch is requested only after this one is handled.
+        Iterator<List<T>> it = ClientCalls.blockingServerStreamingCall(channel, method,
+                CallOptions.DEFAULT.withDeadlineAfter(deadlineMs, TimeUnit.MILLISECONDS), request);
+        while (it.hasNext()) {
+            batches.accept(it.next());
+        }
+    }
+}
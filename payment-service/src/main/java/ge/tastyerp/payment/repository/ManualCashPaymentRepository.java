@@ -1,6 +1,7 @@
 package ge.tastyerp.payment.repository;
 
 import com.google.cloud.Timestamp;
+import com.google.cloud.firestore.DocumentSnapshot;
 import com.google.cloud.firestore.Firestore;
 import com.google.cloud.firestore.QueryDocumentSnapshot;
 import ge.tastyerp.common.dto.payment.PaymentDto;
@@ -87,6 +88,18 @@ public class ManualCashPaymentRepository {
         }
     }
 
+    /**
+     * Find one manual cash payment by document ID.
+     */
+    public Optional<PaymentDto> findById(String id) {
+        try {
+            DocumentSnapshot document = firestore.collection(COLLECTION).document(id).get().get();
+            return document.exists() ? Optional.of(documentToDto(document)) : Optional.empty();
+        } catch (InterruptedException | ExecutionException e) {
+            throw readFailure("fetch manual cash payment " + id, e);
+        }
+    }
+
     /**
      * Save a manual cash payment.
      */
@@ -129,7 +142,7 @@ public class ManualCashPaymentRepository {
         }
     }
 
-    private PaymentDto documentToDto(QueryDocumentSnapshot document) {
+    private PaymentDto documentToDto(DocumentSnapshot document) {
         Timestamp paymentDate = document.getTimestamp("paymentDate");
         LocalDate date = paymentDate != null
                 ? LocalDate.ofInstant(paymentDate.toDate().toInstant(), ZoneId.systemDefault())
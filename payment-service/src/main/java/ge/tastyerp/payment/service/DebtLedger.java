@@ -0,0 +1,183 @@
+package ge.tastyerp.payment.service;
+
+import ge.tastyerp.common.dto.payment.CustomerDebtDto;
+import ge.tastyerp.common.dto.payment.DebtOverviewDto;
+import ge.tastyerp.common.util.TinValidator;
+import ge.tastyerp.payment.service.DebtService.DebtInput;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.*;
+
+/**
+ * Materialized per-customer debt: the running sums behind
+ * {@link DebtService#aggregate}, kept so that a change of one input source is
+ * applied as a delta instead of re-reading every input.
+ *
+ * Inputs are held in keyed groups (one payment document, one day of sales,
+ * the initial-debt list), so re-putting a group replaces its contribution and
+ * removing it subtracts exactly what was added. Display names come from the
+ * first group in key order that has one, then from input order within it,
+ * which is what the full computation over the groups' inputs in key order
+ * gives; unkeyed inputs ({@link #add}) come first, in the order added.
+ *
+ * The rendered overview is kept until the next change: reading it is a memory
+ * read, rendering it is O(customers). Thread-safe.
+ */
+final class DebtLedger {
+
+    private static final class Acc {
+        BigDecimal startingDebt = BigDecimal.ZERO;
+        BigDecimal totalSales = BigDecimal.ZERO;
+        BigDecimal totalBank = BigDecimal.ZERO;
+        BigDecimal totalCash = BigDecimal.ZERO;
+        int initialCount = 0;
+        int waybillCount = 0;
+        int paymentCount = 0;
+        /** Group key -> first non-blank name of this customer in the group; "" = unkeyed inputs. */
+        final TreeMap<String, String> salesNames = new TreeMap<>();
+        final TreeMap<String, String> initialNames = new TreeMap<>();
+
+        boolean isEmpty() {
+            return initialCount == 0 && waybillCount == 0 && paymentCount == 0;
+        }
+    }
+
+    private final Set<String> excluded = new HashSet<>();
+    /** TreeMap → deterministic customer ordering regardless of input order. */
+    private final Map<String, Acc> byCustomer = new TreeMap<>();
+    /** Group key -> the inputs it currently contributes (never empty). */
+    private final Map<String, List<DebtInput>> groups = new HashMap<>();
+    private DebtOverviewDto overview;
+
+    DebtLedger(Collection<String> excludedIds) {
+        for (String id : excludedIds) {
+            excluded.add(TinValidator.canonicalId(id));
+        }
+    }
+
+    /** Add one input that is never revised individually (the full computation, or an unkeyed payment). */
+    synchronized void add(DebtInput in) {
+        if (in.amount() == null) return;
+        apply(in, 1, "");
+        overview = null;
+    }
+
+    /**
+     * Set the inputs of group {@code key}: replaces what the group contributed
+     * before, or removes it when {@code inputs} is empty. Inputs without an
+     * amount are ignored.
+     */
+    synchronized void put(String key, List<DebtInput> inputs) {
+        List<DebtInput> next = inputs.stream().filter(in -> in.amount() != null).toList();
+        List<DebtInput> old = next.isEmpty() ? groups.remove(key) : groups.put(key, next);
+        if (old == null ? next.isEmpty() : old.equals(next)) return;
+        if (old != null) old.forEach(in -> apply(in, -1, key));
+        next.forEach(in -> apply(in, 1, key));
+        overview = null;
+    }
+
+    /** Set the contribution of payment document {@code key}, or remove it when {@code in} is null. */
+    void putPayment(String key, DebtInput in) {
+        put(key, in != null ? List.of(in) : List.of());
+    }
+
+    /**
+     * The debt overview. Totals are computed over non-excluded customers from
+     * UNROUNDED sums (matching the reference), then rounded once to 2dp;
+     * per-customer fields are rounded to 2dp for display.
+     */
+    synchronized DebtOverviewDto overview() {
+        if (overview == null) {
+            overview = render();
+        }
+        return overview;
+    }
+
+    private void apply(DebtInput in, int sign, String group) {
+        String key = TinValidator.canonicalId(in.customerId());
+        Acc acc = byCustomer.computeIfAbsent(key, k -> new Acc());
+        BigDecimal amount = sign > 0 ? in.amount() : in.amount().negate();
+        switch (in.kind()) {
+            case INITIAL -> {
+                acc.startingDebt = acc.startingDebt.add(amount);
+                acc.initialCount += sign;
+                name(acc.initialNames, group, in.name(), sign);
+            }
+            case SALE -> {
+                acc.totalSales = acc.totalSales.add(amount);
+                acc.waybillCount += sign;
+                name(acc.salesNames, group, in.name(), sign);
+            }
+            case BANK_PAYMENT -> {
+                acc.totalBank = acc.totalBank.add(amount);
+                acc.paymentCount += sign;
+            }
+            case CASH_PAYMENT -> {
+                acc.totalCash = acc.totalCash.add(amount);
+                acc.paymentCount += sign;
+            }
+        }
+        // A customer exists in the full computation only while it has an input.
+        if (acc.isEmpty()) byCustomer.remove(key);
+    }
+
+    /** A group is only ever removed as a whole, so dropping its name on the first removal is exact. */
+    private static void name(TreeMap<String, String> names, String group, String name, int sign) {
+        if (sign < 0) names.remove(group);
+        else if (isName(name)) names.putIfAbsent(group, name);
+    }
+
+    private DebtOverviewDto render() {
+        List<CustomerDebtDto> customers = new ArrayList<>(byCustomer.size());
+        BigDecimal tStarting = BigDecimal.ZERO, tSales = BigDecimal.ZERO,
+                tPayments = BigDecimal.ZERO, tCash = BigDecimal.ZERO;
+
+        for (Map.Entry<String, Acc> e : byCustomer.entrySet()) {
+            String id = e.getKey();
+            Acc a = e.getValue();
+            BigDecimal totalPayments = a.totalBank.add(a.totalCash);
+            BigDecimal currentDebt = a.startingDebt.add(a.totalSales).subtract(totalPayments);
+            boolean isExcluded = excluded.contains(id);
+
+            String name = !a.salesNames.isEmpty() ? a.salesNames.firstEntry().getValue()
+                    : !a.initialNames.isEmpty() ? a.initialNames.firstEntry().getValue() : id;
+
+            customers.add(CustomerDebtDto.builder()
+                    .customerId(id)
+                    .customerName(name)
+                    .startingDebt(round(a.startingDebt))
+                    .totalSales(round(a.totalSales))
+                    .totalPayments(round(totalPayments))
+                    .totalCashPayments(round(a.totalCash))
+                    .currentDebt(round(currentDebt))
+                    .waybillCount(a.waybillCount)
+                    .paymentCount(a.paymentCount)
+                    .excluded(isExcluded)
+                    .build());
+
+            if (!isExcluded) {
+                tStarting = tStarting.add(a.startingDebt);
+                tSales = tSales.add(a.totalSales);
+                tPayments = tPayments.add(totalPayments);
+                tCash = tCash.add(a.totalCash);
+            }
+        }
+
+        return DebtOverviewDto.builder()
+                .customers(customers)
+                .totalSales(round(tSales))
+                .totalPayments(round(tPayments))
+                .totalCashPayments(round(tCash))
+                .totalOutstanding(round(tStarting.add(tSales).subtract(tPayments)))
+                .build();
+    }
+
+    private static boolean isName(String s) {
+        return s != null && !s.isBlank();
+    }
+
+    private static BigDecimal round(BigDecimal v) {
+        return (v != null ? v : BigDecimal.ZERO).setScale(2, RoundingMode.HALF_UP);
+    }
+}
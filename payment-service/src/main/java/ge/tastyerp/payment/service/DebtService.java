@@ -3,19 +3,30 @@ package ge.tastyerp.payment.service;
 import ge.tastyerp.common.dto.payment.CustomerDebtDto;
 import ge.tastyerp.common.dto.payment.DebtOverviewDto;
 import ge.tastyerp.common.dto.payment.PaymentDto;
+import ge.tastyerp.common.dto.waybill.WaybillChangesDto;
+import ge.tastyerp.common.dto.waybill.WaybillType;
 import ge.tastyerp.common.exception.ExternalServiceException;
-import ge.tastyerp.common.util.SimpleTtlCache;
+import ge.tastyerp.common.grpc.WaybillStreamGrpc;
+import ge.tastyerp.common.util.Ndjson;
 import ge.tastyerp.common.util.TinValidator;
+import ge.tastyerp.payment.infrastructure.grpc.WaybillGrpcClient;
 import ge.tastyerp.payment.repository.ManualCashPaymentRepository;
 import ge.tastyerp.payment.repository.PaymentRepository;
+import io.grpc.StatusRuntimeException;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 import org.springframework.web.client.RestTemplate;
 
 import java.math.BigDecimal;
-import java.math.RoundingMode;
 import java.time.LocalDate;
 import java.util.*;
 
@@ -28,12 +39,20 @@ import java.util.*;
  * {@link TinValidator#canonicalId} so RS.ge's leading-zero-stripped IDs merge
  * with Excel/initial-debt IDs. Every page reads this; no client recomputes.
  *
- * The whole computation is wrapped in a short TTL cache so concurrent loads
- * from different devices share ONE identical snapshot (that is what makes the
- * numbers device-consistent), while bounding Firestore reads.
- *
- * Only immutable-in-practice / freshly-read inputs are used; the shared exclude
- * set is read fresh so edits take effect on the next TTL tick.
+ * The result is a materialized {@link DebtLedger}, so every device reads the
+ * same snapshot and a read never waits on Firestore. Every input source is
+ * applied as a delta:
+ * <ul>
+ *   <li>payment saves and deletes made through this service, as they happen;</li>
+ *   <li>sales, per day: waybill-service reports the days its store changed
+ *       since a cursor, and only those days are re-read;</li>
+ *   <li>initial debts: re-read only when config-service's ETag changes.</li>
+ * </ul>
+ * An infrequent full rebuild re-reads every input, compares the live ledger
+ * against {@link #aggregate} over that fresh read customer by customer, logs
+ * any drift (e.g. a payment written outside this service) and swaps the fresh
+ * ledger in. Bulk edits and exclude-set changes ({@link #invalidate}) force a
+ * rebuild on the next read.
  */
 @Slf4j
 @Service
@@ -43,6 +62,7 @@ public class DebtService {
     private final PaymentRepository paymentRepository;
     private final ManualCashPaymentRepository manualCashPaymentRepository;
     private final RestTemplate restTemplate;
+    private final WaybillGrpcClient waybillGrpcClient;
 
     @Value("${business.cutoff-date:2025-04-29}")
     private String cutoffDateString;
@@ -53,201 +73,464 @@ public class DebtService {
     @Value("${config.service.url:http://config-service:8888}")
     private String configServiceUrl;
 
-    @Value("${debt.cache-ttl-ms:60000}")
-    private long cacheTtlMs;
+    /** Ledger group of the initial-debt list. */
+    private static final String INITIAL_KEY = "INITIAL";
+    /** Drifted customer ids listed in the drift warning. */
+    private static final int DRIFT_LOG_LIMIT = 10;
+
+    /** Current ledger; null until the first rebuild and after {@link #invalidate}. */
+    private volatile DebtLedger ledger;
+    /** Payment deltas applied while a rebuild is reading Firestore; replayed onto its result. */
+    private Map<String, DebtInput> journal;
+    /** Bumped by {@link #invalidate}; a rebuild that started before the bump is discarded. */
+    private long generation;
+    private final Object rebuildLock = new Object();
+    /** Sales change-feed cursor the ledger is current with; null = unknown. Guarded by rebuildLock. */
+    private String salesCursor;
+    /** ETag of the initial debts the ledger holds. Guarded by rebuildLock. */
+    private String initialDebtsEtag;
 
-    private volatile SimpleTtlCache<String, DebtOverviewDto> cache;
+    /**
+     * Authoritative debt overview, read from the materialized ledger. A
+     * rebuild overtaken by an invalidation is retried once; if that one is
+     * overtaken too, its fresh read is served instead of rebuilding again.
+     */
+    public DebtOverviewDto getOverview() {
+        DebtLedger local = ledger;
+        if (local != null) {
+            return local.overview();
+        }
+        Rebuilt rebuilt = rebuild();
+        if (rebuilt.ledger() == null) {
+            rebuilt = rebuild();
+        }
+        return (rebuilt.ledger() != null ? rebuilt.ledger() : rebuilt.read()).overview();
+    }
 
-    private SimpleTtlCache<String, DebtOverviewDto> cache() {
-        SimpleTtlCache<String, DebtOverviewDto> local = cache;
-        if (local == null) {
-            synchronized (this) {
-                if (cache == null) {
-                    cache = new SimpleTtlCache<>(cacheTtlMs, 2);
-                }
-                local = cache;
-            }
+    /** Drop the ledger (e.g. after the exclude set changes or a bulk delete) so the next read rebuilds. */
+    public void invalidate() {
+        synchronized (this) {
+            generation++;
+            ledger = null;
         }
-        return local;
     }
 
-    /** Authoritative debt overview, cached for a short window for cross-device consistency. */
-    public DebtOverviewDto getOverview() {
-        return cache().getOrCompute("all", this::computeFresh);
+    /** Periodic delta sync: applies initial-debt and sales changes made outside this service. */
+    @Scheduled(initialDelayString = "${debt.ledger.delta-ms:60000}",
+            fixedDelayString = "${debt.ledger.delta-ms:60000}")
+    public void scheduledDeltas() {
+        try {
+            syncDeltas();
+        } catch (RuntimeException e) {
+            log.warn("Debt ledger delta sync failed, retrying on the next run: {}", e.getMessage());
+        }
     }
 
-    /** Invalidate the cache (e.g. after the exclude set changes) so the next read is fresh. */
-    public void invalidate() {
-        cache().invalidateAll();
+    /** Infrequent full rebuild that verifies the deltas; see {@link #checkParity}. */
+    @Scheduled(initialDelayString = "${debt.ledger.parity-check-ms:3600000}",
+            fixedDelayString = "${debt.ledger.parity-check-ms:3600000}")
+    public void scheduledParityCheck() {
+        try {
+            checkParity();
+        } catch (RuntimeException e) {
+            log.warn("Debt ledger parity check failed, keeping the current ledger: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Rebuild from a fresh read of every input and compare the live ledger
+     * with {@link #aggregate} over that read, customer by customer. Pending
+     * deltas are synced first, so only changes the deltas missed count. The
+     * fresh ledger replaces the live one either way.
+     *
+     * @return canonical ids of the customers that drifted; empty when in
+     *         parity or when there was no ledger to compare
+     */
+    public List<String> checkParity() {
+        synchronized (rebuildLock) {
+            syncDeltas();
+            return rebuild().drifted();
+        }
     }
 
-    private DebtOverviewDto computeFresh() {
-        long t0 = System.currentTimeMillis();
-        LocalDate cutoff = LocalDate.parse(cutoffDateString);
-        LocalDate paymentWindowStart = cutoff.plusDays(1);
+    /**
+     * Bring the ledger up to date with initial-debt and sales changes. Nothing
+     * to do while there is no ledger (the next read rebuilds); falls back to a
+     * full rebuild when waybill-service cannot serve the cursor (restart,
+     * cursor too old, feed unreachable).
+     */
+    void syncDeltas() {
+        synchronized (rebuildLock) {
+            DebtLedger live = ledger;
+            if (live == null) return;
+
+            InitialDebts initial = fetchInitialDebts(initialDebtsEtag);
+            if (initial != null) {
+                live.put(INITIAL_KEY, initial.inputs());
+                initialDebtsEtag = initial.etag();
+            }
+
+            WaybillChangesDto changes = fetchSalesChanges(salesCursor);
+            if (changes == null || changes.isReset()) {
+                log.info("Sales change cursor {} not served, rebuilding the debt ledger", salesCursor);
+                rebuild();
+                return;
+            }
+            int days = 0;
+            LocalDate firstSaleDay = LocalDate.parse(cutoffDateString).plusDays(1); // after-cutoff sales only
+            for (WaybillChangesDto.DayRange range : merge(changes.getDays(), firstSaleDay)) {
+                // Undated sales (never seen in practice) are only picked up by a rebuild.
+                Map<String, List<DebtInput>> sales = fetchSales(range.getFrom(), range.getTo());
+                for (LocalDate d = range.getFrom(); !d.isAfter(range.getTo()); d = d.plusDays(1)) {
+                    String key = saleKey(d.toString());
+                    live.put(key, sales.getOrDefault(key, List.of()));
+                    days++;
+                }
+            }
+            salesCursor = changes.getCursor();
+            if (initial != null || days > 0) {
+                log.info("Debt ledger deltas: initial debts {}, {} sale days re-read",
+                        initial != null ? "replaced" : "unchanged", days);
+            }
+        }
+    }
 
-        List<DebtInput> inputs = new ArrayList<>();
-        inputs.addAll(fetchInitialDebts());
-        inputs.addAll(fetchSales());
-        for (PaymentDto p : paymentRepository.findByDateAfter(paymentWindowStart)) {
-            inputs.add(new DebtInput(p.getCustomerId(), null, p.getAmount(), Kind.BANK_PAYMENT));
+    /** Ranges clipped to start at {@code first}, sorted and with overlapping or adjacent ones joined. */
+    static List<WaybillChangesDto.DayRange> merge(List<WaybillChangesDto.DayRange> ranges, LocalDate first) {
+        List<WaybillChangesDto.DayRange> sorted = new ArrayList<>();
+        for (WaybillChangesDto.DayRange r : ranges != null ? ranges : List.<WaybillChangesDto.DayRange>of()) {
+            LocalDate from = r.getFrom().isBefore(first) ? first : r.getFrom();
+            if (!from.isAfter(r.getTo())) sorted.add(new WaybillChangesDto.DayRange(from, r.getTo()));
         }
-        for (PaymentDto p : manualCashPaymentRepository.findByDateAfter(paymentWindowStart)) {
-            inputs.add(new DebtInput(p.getCustomerId(), null, p.getAmount(), Kind.CASH_PAYMENT));
+        sorted.sort(Comparator.comparing(WaybillChangesDto.DayRange::getFrom));
+        List<WaybillChangesDto.DayRange> out = new ArrayList<>();
+        for (WaybillChangesDto.DayRange r : sorted) {
+            WaybillChangesDto.DayRange last = out.isEmpty() ? null : out.get(out.size() - 1);
+            if (last != null && !r.getFrom().isAfter(last.getTo().plusDays(1))) {
+                if (r.getTo().isAfter(last.getTo())) last.setTo(r.getTo());
+            } else {
+                out.add(r);
+            }
         }
+        return out;
+    }
+
+    // ==================== PAYMENT DELTAS ====================
 
-        DebtOverviewDto overview = aggregate(inputs, fetchExcluded());
-        log.info("Debt overview computed: {} customers, {} inputs, {} ms",
-                overview.getCustomers().size(), inputs.size(), System.currentTimeMillis() - t0);
-        return overview;
+    /**
+     * Apply saved payments of one collection as they will read back from
+     * Firestore (amounts are stored as doubles). Use only where the written
+     * document carries the same customer field the debt read uses.
+     */
+    public void paymentsSaved(Kind kind, List<PaymentDto> saved) {
+        LocalDate windowStart = paymentWindowStart();
+        for (PaymentDto p : saved) {
+            if (p.getId() == null) continue;
+            DebtInput in = inWindow(p, windowStart)
+                    ? new DebtInput(p.getCustomerId(), null, stored(p.getAmount()), kind) : null;
+            applyPayment(paymentKey(kind, p.getId()), in);
+        }
     }
 
-    // ==================== PURE AGGREGATION (parity-tested) ====================
+    /** Re-read one manual cash payment document after it was written and apply it. */
+    public void cashPaymentChanged(String id) {
+        LocalDate windowStart = paymentWindowStart();
+        DebtInput in = manualCashPaymentRepository.findById(id)
+                .filter(p -> inWindow(p, windowStart))
+                .map(p -> new DebtInput(p.getCustomerId(), null, p.getAmount(), Kind.CASH_PAYMENT))
+                .orElse(null);
+        applyPayment(paymentKey(Kind.CASH_PAYMENT, id), in);
+    }
 
-    public enum Kind { INITIAL, SALE, BANK_PAYMENT, CASH_PAYMENT }
+    /** Remove a deleted payment document (bank or manual) from the ledger. */
+    public void paymentDeleted(String id) {
+        applyPayment(paymentKey(Kind.BANK_PAYMENT, id), null);
+        applyPayment(paymentKey(Kind.CASH_PAYMENT, id), null);
+    }
 
-    /** One raw transaction feeding the debt calculation. */
-    public record DebtInput(String customerId, String name, BigDecimal amount, Kind kind) {}
+    private synchronized void applyPayment(String key, DebtInput in) {
+        if (ledger != null) ledger.putPayment(key, in);
+        if (journal != null) journal.put(key, in);
+    }
+
+    private static String paymentKey(Kind kind, String id) {
+        return kind + "/" + id;
+    }
+
+    private LocalDate paymentWindowStart() {
+        return LocalDate.parse(cutoffDateString).plusDays(1);
+    }
+
+    /** Same window as the Firestore query: paymentDate >= window start; undated documents never match. */
+    private static boolean inWindow(PaymentDto p, LocalDate windowStart) {
+        return p.getPaymentDate() != null && !p.getPaymentDate().isBefore(windowStart);
+    }
 
-    private static final class Acc {
-        BigDecimal startingDebt = BigDecimal.ZERO;
-        BigDecimal totalSales = BigDecimal.ZERO;
-        BigDecimal totalBank = BigDecimal.ZERO;
-        BigDecimal totalCash = BigDecimal.ZERO;
-        int waybillCount = 0;
-        int paymentCount = 0;
-        String salesName;
-        String initialName;
+    /** The amount as a read of the stored document returns it. */
+    private static BigDecimal stored(BigDecimal amount) {
+        return BigDecimal.valueOf(amount != null ? amount.doubleValue() : 0.0);
     }
 
+    // ==================== FULL REBUILD ====================
+
     /**
-     * Pure, deterministic aggregation — the byte-exact reference the parity test
-     * pins. Groups by canonical id; sums in BigDecimal; totals are computed over
-     * non-excluded customers from UNROUNDED sums (matching the reference), then
-     * rounded once to 2dp. Per-customer fields are rounded to 2dp for display.
+     * Result of a rebuild: the ledger now served (null when an invalidation
+     * overtook it), the ledger the rebuild read (kept even when discarded) and
+     * the drift found.
      */
-    static DebtOverviewDto aggregate(List<DebtInput> inputs, Collection<String> excludedIds) {
-        Set<String> excluded = new HashSet<>();
-        for (String id : excludedIds) {
-            excluded.add(TinValidator.canonicalId(id));
+    private record Rebuilt(DebtLedger ledger, DebtLedger read, List<String> drifted) {}
+
+    /** Everything a rebuild read, in the order the full computation takes it. */
+    private record Inputs(List<DebtInput> initial, String initialEtag,
+                          NavigableMap<String, List<DebtInput>> sales, String salesCursor,
+                          List<DebtInput> unkeyed, Map<String, DebtInput> payments, Set<String> excluded) {
+
+        DebtLedger ledger() {
+            DebtLedger ledger = new DebtLedger(excluded);
+            ledger.put(INITIAL_KEY, initial);
+            sales.forEach(ledger::put);
+            unkeyed.forEach(ledger::add);
+            payments.forEach(ledger::putPayment);
+            return ledger;
         }
 
-        // TreeMap → deterministic customer ordering regardless of input order.
-        Map<String, Acc> byCustomer = new TreeMap<>();
-        for (DebtInput in : inputs) {
-            if (in.amount() == null) continue;
-            String key = TinValidator.canonicalId(in.customerId());
-            Acc acc = byCustomer.computeIfAbsent(key, k -> new Acc());
-            switch (in.kind()) {
-                case INITIAL -> {
-                    acc.startingDebt = acc.startingDebt.add(in.amount());
-                    if (acc.initialName == null && isName(in.name())) acc.initialName = in.name();
-                }
-                case SALE -> {
-                    acc.totalSales = acc.totalSales.add(in.amount());
-                    acc.waybillCount++;
-                    if (acc.salesName == null && isName(in.name())) acc.salesName = in.name();
-                }
-                case BANK_PAYMENT -> {
-                    acc.totalBank = acc.totalBank.add(in.amount());
-                    acc.paymentCount++;
+        List<DebtInput> all() {
+            List<DebtInput> all = new ArrayList<>(initial);
+            sales.values().forEach(all::addAll);
+            all.addAll(unkeyed);
+            all.addAll(payments.values());
+            return all;
+        }
+
+        int size() {
+            return initial.size() + sales.values().stream().mapToInt(List::size).sum()
+                    + unkeyed.size() + payments.size();
+        }
+    }
+
+    /** Rebuild the ledger from every input and check the previous one against the fresh read. */
+    private Rebuilt rebuild() {
+        synchronized (rebuildLock) {
+            long t0 = System.currentTimeMillis();
+            long startedGeneration;
+            synchronized (this) {
+                startedGeneration = generation;
+                journal = new HashMap<>();
+            }
+            Inputs read;
+            DebtLedger fresh;
+            try {
+                read = readInputs();
+                fresh = read.ledger();
+            } catch (RuntimeException e) {
+                synchronized (this) {
+                    journal = null;
                 }
-                case CASH_PAYMENT -> {
-                    acc.totalCash = acc.totalCash.add(in.amount());
-                    acc.paymentCount++;
+                throw e;
+            }
+
+            DebtOverviewDto before;
+            synchronized (this) {
+                Map<String, DebtInput> replay = journal;
+                journal = null;
+                replay.forEach((key, in) -> {
+                    fresh.putPayment(key, in);
+                    if (in != null && in.amount() != null) read.payments().put(key, in);
+                    else read.payments().remove(key);
+                });
+                if (generation != startedGeneration) {
+                    return new Rebuilt(ledger, fresh, List.of());
                 }
+                before = ledger != null ? ledger.overview() : null;
+                ledger = fresh;
+            }
+            salesCursor = read.salesCursor();
+            initialDebtsEtag = read.initialEtag();
+
+            List<String> drifted = before != null
+                    ? verifyParity(before, aggregate(read.all(), read.excluded())) : List.of();
+            if (!drifted.isEmpty()) {
+                log.warn("Debt ledger drift: {} customers differ from a fresh read of every input {}; "
+                                + "replaced by the rebuild", drifted.size(),
+                        drifted.subList(0, Math.min(drifted.size(), DRIFT_LOG_LIMIT)));
             }
+            log.info("Debt ledger rebuilt: {} customers, {} inputs, {} ms",
+                    fresh.overview().getCustomers().size(), read.size(), System.currentTimeMillis() - t0);
+            return new Rebuilt(fresh, fresh, drifted);
         }
+    }
+
+    private Inputs readInputs() {
+        // Taken before the sales read: a change committed meanwhile is reported again by the next sync.
+        WaybillChangesDto cursor = fetchSalesChanges(null);
+        InitialDebts initial = fetchInitialDebts(null);
+        NavigableMap<String, List<DebtInput>> sales = fetchSales(null, null);
+
+        LocalDate paymentWindowStart = paymentWindowStart();
+        List<DebtInput> unkeyed = new ArrayList<>();
+        Map<String, DebtInput> payments = new HashMap<>();
+        putPayments(paymentRepository.findByDateAfter(paymentWindowStart), Kind.BANK_PAYMENT, unkeyed, payments);
+        putPayments(manualCashPaymentRepository.findByDateAfter(paymentWindowStart), Kind.CASH_PAYMENT,
+                unkeyed, payments);
+
+        return new Inputs(initial.inputs(), initial.etag(), sales, cursor != null ? cursor.getCursor() : null,
+                unkeyed, payments, fetchExcluded());
+    }
 
-        List<CustomerDebtDto> customers = new ArrayList<>(byCustomer.size());
-        BigDecimal tStarting = BigDecimal.ZERO, tSales = BigDecimal.ZERO,
-                tPayments = BigDecimal.ZERO, tCash = BigDecimal.ZERO;
-
-        for (Map.Entry<String, Acc> e : byCustomer.entrySet()) {
-            String id = e.getKey();
-            Acc a = e.getValue();
-            BigDecimal totalPayments = a.totalBank.add(a.totalCash);
-            BigDecimal currentDebt = a.startingDebt.add(a.totalSales).subtract(totalPayments);
-            boolean isExcluded = excluded.contains(id);
-
-            String name = a.salesName != null ? a.salesName
-                    : a.initialName != null ? a.initialName : id;
-
-            customers.add(CustomerDebtDto.builder()
-                    .customerId(id)
-                    .customerName(name)
-                    .startingDebt(round(a.startingDebt))
-                    .totalSales(round(a.totalSales))
-                    .totalPayments(round(totalPayments))
-                    .totalCashPayments(round(a.totalCash))
-                    .currentDebt(round(currentDebt))
-                    .waybillCount(a.waybillCount)
-                    .paymentCount(a.paymentCount)
-                    .excluded(isExcluded)
-                    .build());
-
-            if (!isExcluded) {
-                tStarting = tStarting.add(a.startingDebt);
-                tSales = tSales.add(a.totalSales);
-                tPayments = tPayments.add(totalPayments);
-                tCash = tCash.add(a.totalCash);
+    private static void putPayments(List<PaymentDto> read, Kind kind,
+                                    List<DebtInput> unkeyed, Map<String, DebtInput> payments) {
+        for (PaymentDto p : read) {
+            DebtInput in = new DebtInput(p.getCustomerId(), null, p.getAmount(), kind);
+            if (p.getId() == null) {
+                unkeyed.add(in);
+            } else if (p.getAmount() != null) {
+                payments.put(paymentKey(kind, p.getId()), in);
             }
         }
+    }
 
-        return DebtOverviewDto.builder()
-                .customers(customers)
-                .totalSales(round(tSales))
-                .totalPayments(round(tPayments))
-                .totalCashPayments(round(tCash))
-                .totalOutstanding(round(tStarting.add(tSales).subtract(tPayments)))
-                .build();
+    /**
+     * Customers whose rendered debt in the live ledger differs from
+     * {@code expected} (the full computation over a fresh read), by canonical
+     * id; "TOTAL" when only the totals differ. Empty means parity. A drift
+     * means a change reached an input without passing through the deltas
+     * (console edit, another writer, a missed feed entry).
+     */
+    static List<String> verifyParity(DebtOverviewDto live, DebtOverviewDto expected) {
+        Map<String, CustomerDebtDto> kept = byCustomer(live);
+        Map<String, CustomerDebtDto> read = byCustomer(expected);
+        Set<String> ids = new TreeSet<>(kept.keySet());
+        ids.addAll(read.keySet());
+        List<String> drifted = new ArrayList<>();
+        for (String id : ids) {
+            if (!Objects.equals(kept.get(id), read.get(id))) drifted.add(id);
+        }
+        if (drifted.isEmpty() && !(Objects.equals(live.getTotalSales(), expected.getTotalSales())
+                && Objects.equals(live.getTotalPayments(), expected.getTotalPayments())
+                && Objects.equals(live.getTotalCashPayments(), expected.getTotalCashPayments())
+                && Objects.equals(live.getTotalOutstanding(), expected.getTotalOutstanding()))) {
+            drifted.add("TOTAL");
+        }
+        return drifted;
     }
 
-    private static boolean isName(String s) {
-        return s != null && !s.isBlank();
+    private static Map<String, CustomerDebtDto> byCustomer(DebtOverviewDto overview) {
+        Map<String, CustomerDebtDto> out = new HashMap<>();
+        for (CustomerDebtDto c : overview.getCustomers()) {
+            out.put(c.getCustomerId(), c);
+        }
+        return out;
     }
 
-    private static BigDecimal round(BigDecimal v) {
-        return (v != null ? v : BigDecimal.ZERO).setScale(2, RoundingMode.HALF_UP);
+    // ==================== PURE AGGREGATION (parity-tested) ====================
+
+    public enum Kind { INITIAL, SALE, BANK_PAYMENT, CASH_PAYMENT }
+
+    /** One raw transaction feeding the debt calculation. */
+    public record DebtInput(String customerId, String name, BigDecimal amount, Kind kind) {}
+
+    /**
+     * Pure, deterministic aggregation — the byte-exact reference the parity test
+     * pins. Groups by canonical id; sums in BigDecimal; totals are computed over
+     * non-excluded customers from UNROUNDED sums (matching the reference), then
+     * rounded once to 2dp. Per-customer fields are rounded to 2dp for display.
+     * The live {@link DebtLedger} renders through the same code.
+     */
+    static DebtOverviewDto aggregate(List<DebtInput> inputs, Collection<String> excludedIds) {
+        DebtLedger ledger = new DebtLedger(excludedIds);
+        inputs.forEach(ledger::add);
+        return ledger.overview();
     }
 
     // ==================== INPUT FETCHERS ====================
 
+    /** Initial debts in config-service order, and the ETag they were served with. */
+    private record InitialDebts(List<DebtInput> inputs, String etag) {}
+
+    /** Initial debts; null when {@code etag} is given and config-service answers 304 Not Modified. */
     @SuppressWarnings("unchecked")
-    private List<DebtInput> fetchInitialDebts() {
+    private InitialDebts fetchInitialDebts(String etag) {
         try {
             String url = configServiceUrl + "/api/config/debts";
-            Map<String, Object> response = restTemplate.getForObject(url, Map.class);
+            HttpHeaders headers = new HttpHeaders();
+            if (etag != null) headers.setIfNoneMatch(etag);
+            ResponseEntity<Map> response = restTemplate.exchange(url, HttpMethod.GET, new HttpEntity<>(headers),
+                    Map.class);
+            if (HttpStatus.NOT_MODIFIED.isSameCodeAs(response.getStatusCode())) {
+                return null;
+            }
+            Map<String, Object> body = response.getBody();
             List<DebtInput> out = new ArrayList<>();
-            if (response != null && response.get("data") instanceof List) {
-                for (Map<String, Object> d : (List<Map<String, Object>>) response.get("data")) {
+            if (body != null && body.get("data") instanceof List) {
+                for (Map<String, Object> d : (List<Map<String, Object>>) body.get("data")) {
                     Object id = d.get("customerId");
                     if (id == null) continue;
                     BigDecimal amount = new BigDecimal(String.valueOf(d.getOrDefault("debt", "0")));
                     out.add(new DebtInput(String.valueOf(id), (String) d.get("name"), amount, Kind.INITIAL));
                 }
             }
-            return out;
+            return new InitialDebts(out, response.getHeaders().getETag());
         } catch (Exception e) {
             throw new ExternalServiceException("config-service", "fetch initial debts", e);
         }
     }
 
-    @SuppressWarnings("unchecked")
-    private List<DebtInput> fetchSales() {
+    /** Days of sales changed since {@code since}; null when waybill-service could not answer. */
+    private WaybillChangesDto fetchSalesChanges(String since) {
         try {
-            // Same source the legacy payments-page used: after-cutoff SALE waybills.
-            String url = waybillServiceUrl + "/api/waybills?afterCutoffOnly=true&type=SALE";
-            Map<String, Object> response = restTemplate.getForObject(url, Map.class);
-            List<DebtInput> out = new ArrayList<>();
-            if (response != null && response.get("data") instanceof List) {
-                for (Map<String, Object> wb : (List<Map<String, Object>>) response.get("data")) {
-                    Object id = wb.get("customerId");
-                    if (id == null) continue;
-                    BigDecimal amount = new BigDecimal(String.valueOf(wb.getOrDefault("amount", "0")));
-                    out.add(new DebtInput(String.valueOf(id), (String) wb.get("customerName"), amount, Kind.SALE));
-                }
+            String url = waybillServiceUrl + "/api/waybills/sales/changes" + (since != null ? "?since=" + since : "");
+            return restTemplate.getForObject(url, WaybillChangesDto.class);
+        } catch (Exception e) {
+            log.warn("Could not read the sales change feed: {}", e.getMessage());
+            return null;
+        }
+    }
+
+    /** Ledger group of one day's sales; undated ones share a group of their own. */
+    private static String saleKey(String isoDate) {
+        return "SALE/" + (isoDate != null ? isoDate : "-");
+    }
+
+    /**
+     * After-cutoff SALE waybills dated in [from, to] (every one when both are
+     * null), grouped by {@link #saleKey} in day order, stream order within a day.
+     */
+    private NavigableMap<String, List<DebtInput>> fetchSales(LocalDate from, LocalDate to) {
+        String start = from != null ? from.toString() : null;
+        String end = to != null ? to.toString() : null;
+        if (waybillGrpcClient.isEnabled()) {
+            try {
+                NavigableMap<String, List<DebtInput>> out = new TreeMap<>();
+                waybillGrpcClient.forEachWaybill(
+                        new WaybillStreamGrpc.WaybillsRequest(null, start, end, true, WaybillType.SALE), wb -> {
+                            if (wb.getCustomerId() == null) return;
+                            BigDecimal amount = wb.getAmount() != null ? wb.getAmount() : BigDecimal.ZERO;
+                            String day = wb.getDate() != null ? wb.getDate().toString() : null;
+                            out.computeIfAbsent(saleKey(day), k -> new ArrayList<>())
+                                    .add(new DebtInput(wb.getCustomerId(), wb.getCustomerName(), amount, Kind.SALE));
+                        });
+                return out;
+            } catch (StatusRuntimeException e) {
+                log.warn("gRPC sales read failed ({}), falling back to REST", e.getStatus());
             }
+        }
+        try {
+            // Same source the legacy payments-page used: after-cutoff SALE waybills.
+            // Read as NDJSON, one waybill at a time, instead of one response tree.
+            String url = waybillServiceUrl + "/api/waybills?afterCutoffOnly=true&type=SALE"
+                    + (start != null ? "&startDate=" + start + "&endDate=" + end : "");
+            NavigableMap<String, List<DebtInput>> out = new TreeMap<>();
+            restTemplate.execute(url, HttpMethod.GET,
+                    request -> request.getHeaders().setAccept(List.of(MediaType.APPLICATION_NDJSON)),
+                    response -> Ndjson.read(response.getBody(), wb -> {
+                        Object id = wb.get("customerId");
+                        if (id == null) return;
+                        BigDecimal amount = new BigDecimal(String.valueOf(wb.getOrDefault("amount", "0")));
+                        Object day = wb.get("date");
+                        out.computeIfAbsent(saleKey(day != null ? String.valueOf(day) : null), k -> new ArrayList<>())
+                                .add(new DebtInput(String.valueOf(id), (String) wb.get("customerName"), amount,
+                                        Kind.SALE));
+                    }));
             return out;
         } catch (Exception e) {
             throw new ExternalServiceException("waybill-service", "fetch sales", e);
@@ -361,12 +361,6 @@ public class ExcelProcessingService {
             pendingSaves.clear();
         }
 
-        // Debt is computed on demand (DebtService), not from a stored summary.
-        // Drop its cached snapshot so the next read reflects the new payments.
-        if (!validateOnly && !addedTransactions.isEmpty()) {
-            debtService.invalidate();
-        }
-
         // Calculate existing app total for this bank
         BigDecimal appTotal = paymentRepository.sumPaymentsBySource(normalizedBank);
 
@@ -421,6 +415,8 @@ public class ExcelProcessingService {
     private void saveBatch(String requestId, List<PaymentDto> batch) {
         try {
             paymentRepository.saveAll(batch);
+            // Debt is a materialized ledger (DebtService): apply the saved payments as a delta.
+            debtService.paymentsSaved(DebtService.Kind.BANK_PAYMENT, batch);
             for (PaymentDto payment : batch) {
                 logSaved(requestId, payment);
             }
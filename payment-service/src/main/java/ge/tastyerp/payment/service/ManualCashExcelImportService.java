@@ -44,6 +44,7 @@ public class ManualCashExcelImportService {
     private static final long MAX_FILE_SIZE = 10 * 1024 * 1024; // 10MB
 
     private final ManualCashPaymentRepository manualCashPaymentRepository;
+    private final DebtService debtService;
 
     @Value("${business.payment-cutoff-date:2025-04-29}")
     private String paymentCutoffDate;
@@ -158,7 +159,7 @@ public class ManualCashExcelImportService {
                     .uploadedAt(LocalDateTime.now())
                     .build();
 
-            manualCashPaymentRepository.save(payment);
+            debtService.paymentsSaved(DebtService.Kind.CASH_PAYMENT, List.of(manualCashPaymentRepository.save(payment)));
 
             addedTransactions.add(TransactionDetail.builder()
                     .rowIndex(rowIndex + 1)
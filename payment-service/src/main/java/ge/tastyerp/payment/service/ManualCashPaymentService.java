@@ -27,6 +27,7 @@ import java.util.stream.Collectors;
 public class ManualCashPaymentService {
 
     private final ManualCashPaymentRepository repository;
+    private final DebtService debtService;
 
     /**
      * Get all manual cash payments.
@@ -69,6 +70,7 @@ public class ManualCashPaymentService {
                 .build();
 
         PaymentDto saved = repository.save(payment);
+        debtService.paymentsSaved(DebtService.Kind.CASH_PAYMENT, List.of(saved));
         return toManualCashPaymentDto(saved);
     }
 
@@ -78,6 +80,7 @@ public class ManualCashPaymentService {
     public void deleteManualPayment(String id) {
         log.info("Deleting manual cash payment: {}", id);
         repository.delete(id);
+        debtService.paymentDeleted(id);
     }
 
     private void validateManualPayment(ManualCashPaymentDto payment) {
@@ -35,6 +35,7 @@ public class PaymentService {
 
     private final PaymentRepository paymentRepository;
     private final PaymentReconciliationService reconciliationService;
+    private final DebtService debtService;
 
     /**
      * Get all payments with optional filters.
@@ -136,7 +137,9 @@ public class PaymentService {
 
         log.info("Adding manual payment for customer: {}, amount: ₾{}", normalizedId, amount);
 
-        return paymentRepository.saveManualPayment(payment);
+        PaymentDto saved = paymentRepository.saveManualPayment(payment);
+        debtService.cashPaymentChanged(saved.getId());
+        return saved;
     }
 
     /**
@@ -175,7 +178,9 @@ public class PaymentService {
 
         log.info("Updating manual payment {} for customer: {}", id, normalizedId);
 
-        return paymentRepository.updateManualPayment(updated);
+        PaymentDto saved = paymentRepository.updateManualPayment(updated);
+        debtService.cashPaymentChanged(id);
+        return saved;
     }
 
     /**
@@ -186,6 +191,7 @@ public class PaymentService {
         if (paymentRepository.findManualPaymentById(id).isPresent()) {
             log.info("Deleting manual payment: {}", id);
             paymentRepository.deleteManualPayment(id);
+            debtService.paymentDeleted(id);
             return;
         }
 
@@ -193,6 +199,7 @@ public class PaymentService {
         if (paymentRepository.findById(id).isPresent()) {
             log.info("Deleting bank payment: {}", id);
             paymentRepository.delete(id);
+            debtService.paymentDeleted(id);
             return;
         }
 
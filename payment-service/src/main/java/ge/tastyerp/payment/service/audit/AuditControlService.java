@@ -5,21 +5,28 @@ import ge.tastyerp.common.dto.payment.CustomerDebtDto;
 import ge.tastyerp.common.dto.payment.PaymentDto;
 import ge.tastyerp.common.dto.waybill.WaybillType;
 import ge.tastyerp.common.exception.ExternalServiceException;
+import ge.tastyerp.common.util.Ndjson;
 import ge.tastyerp.common.util.TinValidator;
+import ge.tastyerp.payment.infrastructure.grpc.WaybillGrpcClient;
 import ge.tastyerp.payment.repository.AuditExceptionRepository;
 import ge.tastyerp.payment.repository.PaymentOverrideRepository;
 import ge.tastyerp.payment.repository.PaymentRepository;
 import ge.tastyerp.payment.service.DebtService;
+import io.grpc.StatusRuntimeException;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.MediaType;
 import org.springframework.stereotype.Service;
 import org.springframework.web.client.RestTemplate;
+import org.springframework.web.util.UriComponentsBuilder;
 
 import java.math.BigDecimal;
 import java.time.LocalDate;
 import java.util.*;
-import java.util.stream.Collectors;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 
 /**
  * Orchestrates the Audit Control dashboard (BOR-74).
@@ -46,6 +53,7 @@ public class AuditControlService {
 
     /** Field name matches the bean name "internalRestTemplate" for by-name resolution. */
     private final RestTemplate internalRestTemplate;
+    private final WaybillGrpcClient waybillGrpcClient;
 
     @Value("${waybill.service.url:http://waybill-service:8081}")
     private String waybillServiceUrl;
@@ -58,22 +66,27 @@ public class AuditControlService {
 
     // ==================== DASHBOARD ====================
 
+    /** Movement fields the dashboard reads (ledgers and Real Totals). */
+    private static final ProductMovementQuery DASHBOARD_FIELDS = ProductMovementQuery.builder()
+            .fields(Set.of("date", "type", "productName", "parentCategory", "quantityKg", "unit", "amount",
+                    "counterpartyId"))
+            .build();
+
+    /** Movement fields the product catalog reads. */
+    private static final ProductMovementQuery CATALOG_FIELDS = ProductMovementQuery.builder()
+            .fields(Set.of("date", "type", "productName", "parentCategory"))
+            .build();
+
     public AuditDashboardDto getDashboard(LocalDate startDate, LocalDate endDate, String productFilter) {
         log.info("Building audit dashboard {} to {} (filter={})", startDate, endDate, productFilter);
         long t0 = System.currentTimeMillis();
 
-        List<ProductMovementDto> movements = fetchProductMovements(startDate, endDate).stream()
-                .filter(m -> m.getDate() != null
-                        && !m.getDate().isBefore(startDate) && !m.getDate().isAfter(endDate))
-                .collect(Collectors.toList());
-        long tMovements = System.currentTimeMillis();
-
-        // Apply user category overrides (one category per product name); fall back
+        // Config is read first: movements are aggregated as they arrive and never held.
+        // User category overrides (one category per product name); fall back
         // to the auto-classification already set by waybill-service.
         // Deliberately fetched fresh on every request (BOR-75 integrity contract):
         // user-editable state is never cached.
         Map<String, String> overrides = fetchCategoryOverrides();
-        movements.forEach(m -> m.setParentCategory(resolveCategory(m.getProductName(), m.getParentCategory(), overrides)));
 
         Map<String, Boolean> realEntityMap = fetchRealEntityMap();
         // Overlay the shared "unreal" set (customers RS.ge documents but who are
@@ -88,8 +101,11 @@ public class AuditControlService {
         Map<String, BigDecimal> writeOffRates = fetchWriteOffRates();
         long tConfig = System.currentTimeMillis();
 
-        List<InventoryLedgerDto> ledgers = buildLedgers(movements, productFilter, writeOffRates);
-        RealTotalsDto realTotals = computeRealTotals(movements, realEntityMap);
+        // Real Totals span every category, so only the unused waybill ID is left on the server.
+        DashboardTotals totals = foldProductMovements(startDate, endDate, DASHBOARD_FIELDS,
+                () -> new DashboardTotals(overrides, productFilter, realEntityMap));
+        List<InventoryLedgerDto> ledgers = buildLedgers(totals.ledgers.values(), writeOffRates);
+        RealTotalsDto realTotals = totals.realTotals.toDto();
         long tCompute = System.currentTimeMillis();
 
         List<ReconciliationRowDto> reconciliation = buildReconciliation(realEntityMap);
@@ -102,10 +118,10 @@ public class AuditControlService {
         TargetedExpenseDto targetedExpense = computeTargetedExpense(startDate, endDate);
 
         // Micro-level pipeline profile (BOR-75): stage durations in ms.
-        log.info("Dashboard pipeline: movements={}ms config={}ms ledgers+totals={}ms reconciliation={}ms targeted={}ms total={}ms ({} movements)",
-                tMovements - t0, tConfig - tMovements, tCompute - tConfig,
+        log.info("Dashboard pipeline: config={}ms movements+ledgers+totals={}ms reconciliation={}ms targeted={}ms total={}ms ({} movements)",
+                tConfig - t0, tCompute - tConfig,
                 tRecon - tCompute, System.currentTimeMillis() - tRecon,
-                System.currentTimeMillis() - t0, movements.size());
+                System.currentTimeMillis() - t0, totals.count);
 
         return AuditDashboardDto.builder()
                 .startDate(startDate)
@@ -129,32 +145,38 @@ public class AuditControlService {
      * the Product Categories management page.
      */
     public ProductCatalogDto getProductCatalog(LocalDate startDate, LocalDate endDate) {
-        List<ProductMovementDto> movements = fetchProductMovements(startDate, endDate).stream()
-                .filter(m -> m.getDate() != null
-                        && !m.getDate().isBefore(startDate) && !m.getDate().isAfter(endDate))
-                .collect(Collectors.toList());
-
         Map<String, String> overrides = fetchCategoryOverrides();
         Map<String, BigDecimal> vatRates = fetchProductVatRates();
 
+        CatalogRows rows = foldProductMovements(startDate, endDate, CATALOG_FIELDS,
+                () -> new CatalogRows(overrides, vatRates));
+
         return ProductCatalogDto.builder()
-                .purchased(distinctRows(movements, WaybillType.PURCHASE, overrides, vatRates))
-                .sold(distinctRows(movements, WaybillType.SALE, overrides, vatRates))
+                .purchased(rows.sorted(WaybillType.PURCHASE))
+                .sold(rows.sorted(WaybillType.SALE))
                 .build();
     }
 
     /** Default VAT applied to every product unless overridden (Georgian standard). */
     private static final BigDecimal DEFAULT_VAT_PERCENT = new BigDecimal("18");
 
-    private List<ProductCatalogDto.Row> distinctRows(List<ProductMovementDto> movements,
-                                                     WaybillType type,
-                                                     Map<String, String> overrides,
-                                                     Map<String, BigDecimal> vatRates) {
-        Map<String, ProductCatalogDto.Row> byName = new LinkedHashMap<>();
-        for (ProductMovementDto m : movements) {
-            if (m.getType() != type || m.getProductName() == null) continue;
+    /** First-seen row per distinct product name and type; only the names are kept, never the movements. */
+    private static final class CatalogRows implements Consumer<ProductMovementDto> {
+        private final Map<String, String> overrides;
+        private final Map<String, BigDecimal> vatRates;
+        private final Map<WaybillType, Map<String, ProductCatalogDto.Row>> byType = new EnumMap<>(WaybillType.class);
+
+        CatalogRows(Map<String, String> overrides, Map<String, BigDecimal> vatRates) {
+            this.overrides = overrides;
+            this.vatRates = vatRates;
+        }
+
+        @Override
+        public void accept(ProductMovementDto m) {
+            if (m.getType() == null || m.getProductName() == null) return;
             String name = m.getProductName().trim();
-            if (name.isEmpty() || byName.containsKey(name)) continue;
+            Map<String, ProductCatalogDto.Row> byName = byType.computeIfAbsent(m.getType(), t -> new HashMap<>());
+            if (name.isEmpty() || byName.containsKey(name)) return;
             String key = overrideKey(name);
             boolean overridden = overrides.containsKey(key);
             String category = overridden ? overrides.get(key) : m.getParentCategory();
@@ -167,18 +189,21 @@ public class AuditControlService {
                     .vatOverridden(vatOverride != null)
                     .build());
         }
-        List<ProductCatalogDto.Row> rows = new ArrayList<>(byName.values());
-        rows.sort(Comparator.comparing(ProductCatalogDto.Row::getName));
-        return rows;
+
+        List<ProductCatalogDto.Row> sorted(WaybillType type) {
+            List<ProductCatalogDto.Row> rows = new ArrayList<>(byType.getOrDefault(type, Map.of()).values());
+            rows.sort(Comparator.comparing(ProductCatalogDto.Row::getName));
+            return rows;
+        }
     }
 
-    private String resolveCategory(String productName, String autoCategory, Map<String, String> overrides) {
+    private static String resolveCategory(String productName, String autoCategory, Map<String, String> overrides) {
         if (productName == null) return autoCategory;
         return overrides.getOrDefault(overrideKey(productName), autoCategory);
     }
 
     /** Case-insensitive, trimmed key used to match a product name to its override. */
-    private String overrideKey(String name) {
+    private static String overrideKey(String name) {
         return name == null ? "" : name.trim().toLowerCase();
     }
 
@@ -192,48 +217,49 @@ public class AuditControlService {
      */
     public List<InventoryLedgerDto> buildLedgers(List<ProductMovementDto> movements, String productFilter,
                                                  Map<String, BigDecimal> writeOffRates) {
-        Map<String, List<ProductMovementDto>> byCategory = movements.stream()
-                .filter(m -> m.getParentCategory() != null)
-                // SUPPLIES are purchase-only expenses — never part of the meat ledger.
-                .filter(m -> !ProductHierarchy.isSupplies(m.getParentCategory()))
-                .filter(m -> productFilter == null || productFilter.isBlank()
-                        || productFilter.equalsIgnoreCase(m.getParentCategory()))
-                .collect(Collectors.groupingBy(ProductMovementDto::getParentCategory));
+        Map<String, LedgerTotals> byCategory = new HashMap<>();
+        for (ProductMovementDto m : movements) {
+            String category = m.getParentCategory();
+            if (isLedgerCategory(category, productFilter)) {
+                byCategory.computeIfAbsent(category, LedgerTotals::new).add(m);
+            }
+        }
+        return buildLedgers(byCategory.values(), writeOffRates);
+    }
 
+    private List<InventoryLedgerDto> buildLedgers(Collection<LedgerTotals> categories,
+                                                  Map<String, BigDecimal> writeOffRates) {
         List<InventoryLedgerDto> ledgers = new ArrayList<>();
-        for (Map.Entry<String, List<ProductMovementDto>> entry : byCategory.entrySet()) {
-            ledgers.add(buildLedgerForCategory(entry.getKey(), entry.getValue(), writeOffRates));
+        for (LedgerTotals totals : categories) {
+            ledgers.add(buildLedgerForCategory(totals, writeOffRates));
         }
         ledgers.sort(Comparator.comparing(InventoryLedgerDto::getParentCategory));
         return ledgers;
     }
 
-    private InventoryLedgerDto buildLedgerForCategory(String category, List<ProductMovementDto> movements,
-                                                      Map<String, BigDecimal> writeOffRates) {
-        // Every inventory-bearing category carries an editable rate (BOR-79);
-        // only purchase-only SUPPLIES (never in the ledger) has none.
-        boolean applyWriteOff = ProductHierarchy.appliesWriteOff(category);
+    private static boolean isLedgerCategory(String category, String productFilter) {
+        return category != null
+                // SUPPLIES are purchase-only expenses — never part of the meat ledger.
+                && !ProductHierarchy.isSupplies(category)
+                && (productFilter == null || productFilter.isBlank() || productFilter.equalsIgnoreCase(category));
+    }
 
-        // Effective write-off percentage for this category (editable; default 28
-        // for BEEF/PORK, 0 for the rest — i.e. passthrough until the user sets one).
-        BigDecimal ratePercent = applyWriteOff
-                ? (writeOffRates != null ? writeOffRates.get(category) : null)
-                : null;
-        if (applyWriteOff && ratePercent == null) {
-            ratePercent = ProductHierarchy.defaultWriteOffPercent(category);
+    /**
+     * One category's purchased/sold kg per active day, summed movement by
+     * movement; its size is bounded by the days in range, not the lines.
+     */
+    private static final class LedgerTotals {
+        private final String category;
+        private final Map<LocalDate, BigDecimal> purchasedByDay = new HashMap<>();
+        private final Map<LocalDate, BigDecimal> soldByDay = new HashMap<>();
+        private final Set<String> childProducts = new LinkedHashSet<>();
+        private int excludedNonKgLines;
+
+        LedgerTotals(String category) {
+            this.category = category;
         }
-        // Fraction of purchased kg passed to the calculator (e.g. 28% -> 0.28).
-        BigDecimal rateFraction = ratePercent != null
-                ? ratePercent.divide(new BigDecimal("100"), 6, java.math.RoundingMode.HALF_UP)
-                : WriteOffCalculator.POSSIBLE_WRITE_OFF_RATE;
-
-        // Sum purchased/sold kg per active day.
-        Map<LocalDate, BigDecimal> purchasedByDay = new HashMap<>();
-        Map<LocalDate, BigDecimal> soldByDay = new HashMap<>();
-        Set<String> childProducts = new LinkedHashSet<>();
-        int excludedNonKgLines = 0;
 
-        for (ProductMovementDto m : movements) {
+        void add(ProductMovementDto m) {
             if (m.getProductName() != null) {
                 childProducts.add(m.getProductName());
             }
@@ -241,7 +267,7 @@ public class AuditControlService {
             // other units so they don't corrupt the running balance.
             if (!isKilogram(m.getUnit())) {
                 excludedNonKgLines++;
-                continue;
+                return;
             }
             BigDecimal qty = m.getQuantityKg() != null ? m.getQuantityKg() : BigDecimal.ZERO;
             if (m.getType() == WaybillType.PURCHASE) {
@@ -250,10 +276,32 @@ public class AuditControlService {
                 soldByDay.merge(m.getDate(), qty, BigDecimal::add);
             }
         }
+    }
 
-        if (excludedNonKgLines > 0) {
+    private InventoryLedgerDto buildLedgerForCategory(LedgerTotals totals, Map<String, BigDecimal> writeOffRates) {
+        String category = totals.category;
+        // Every inventory-bearing category carries an editable rate (BOR-79);
+        // only purchase-only SUPPLIES (never in the ledger) has none.
+        boolean applyWriteOff = ProductHierarchy.appliesWriteOff(category);
+
+        // Effective write-off percentage for this category (editable; default 28
+        // for BEEF/PORK, 0 for the rest — i.e. passthrough until the user sets one).
+        BigDecimal ratePercent = applyWriteOff
+                ? (writeOffRates != null ? writeOffRates.get(category) : null)
+                : null;
+        if (applyWriteOff && ratePercent == null) {
+            ratePercent = ProductHierarchy.defaultWriteOffPercent(category);
+        }
+        // Fraction of purchased kg passed to the calculator (e.g. 28% -> 0.28).
+        BigDecimal rateFraction = ratePercent != null
+                ? ratePercent.divide(new BigDecimal("100"), 6, java.math.RoundingMode.HALF_UP)
+                : WriteOffCalculator.POSSIBLE_WRITE_OFF_RATE;
+
+        Map<LocalDate, BigDecimal> purchasedByDay = totals.purchasedByDay;
+        Map<LocalDate, BigDecimal> soldByDay = totals.soldByDay;
+        if (totals.excludedNonKgLines > 0) {
             log.info("Category {}: excluded {} non-kg line(s) from inventory conservation",
-                    category, excludedNonKgLines);
+                    category, totals.excludedNonKgLines);
         }
 
         List<LocalDate> activeDays = new ArrayList<>(
@@ -286,7 +334,7 @@ public class AuditControlService {
 
         return InventoryLedgerDto.builder()
                 .parentCategory(category)
-                .childProducts(new ArrayList<>(childProducts))
+                .childProducts(new ArrayList<>(totals.childProducts))
                 .openingStockKg(BigDecimal.ZERO)
                 .totalPurchasedKg(totalPurchased)
                 .totalSoldKg(totalSold)
@@ -307,16 +355,22 @@ public class AuditControlService {
 
     // ==================== REAL TOTALS ====================
 
-    private RealTotalsDto computeRealTotals(List<ProductMovementDto> movements, Map<String, Boolean> realEntityMap) {
-        BigDecimal realSales = BigDecimal.ZERO, excludedSales = BigDecimal.ZERO;
-        BigDecimal realPurchases = BigDecimal.ZERO, excludedPurchases = BigDecimal.ZERO;
-        Set<String> realEntities = new HashSet<>();
-        Set<String> excludedEntities = new HashSet<>();
+    /** Real vs. excluded sales/purchase amounts and entity counts, summed movement by movement. */
+    private static final class RealTotals {
+        private final Map<String, Boolean> realEntityMap;
+        private BigDecimal realSales = BigDecimal.ZERO, excludedSales = BigDecimal.ZERO;
+        private BigDecimal realPurchases = BigDecimal.ZERO, excludedPurchases = BigDecimal.ZERO;
+        private final Set<String> realEntities = new HashSet<>();
+        private final Set<String> excludedEntities = new HashSet<>();
 
-        for (ProductMovementDto m : movements) {
+        RealTotals(Map<String, Boolean> realEntityMap) {
+            this.realEntityMap = realEntityMap;
+        }
+
+        void add(ProductMovementDto m, String category) {
             // Supplies (car parts, maintenance) are not meat trade — keep them out
             // of Real Total Sales/Purchases; they surface in their own section.
-            if (ProductHierarchy.isSupplies(m.getParentCategory())) continue;
+            if (ProductHierarchy.isSupplies(category)) return;
             BigDecimal amount = m.getAmount() != null ? m.getAmount() : BigDecimal.ZERO;
             boolean real = isReal(m.getCounterpartyId(), realEntityMap);
             String entity = m.getCounterpartyId() != null ? m.getCounterpartyId() : "UNKNOWN";
@@ -329,14 +383,45 @@ public class AuditControlService {
             }
         }
 
-        return RealTotalsDto.builder()
-                .realTotalSales(realSales)
-                .realTotalPurchases(realPurchases)
-                .excludedSales(excludedSales)
-                .excludedPurchases(excludedPurchases)
-                .realEntityCount(realEntities.size())
-                .excludedEntityCount(excludedEntities.size())
-                .build();
+        RealTotalsDto toDto() {
+            return RealTotalsDto.builder()
+                    .realTotalSales(realSales)
+                    .realTotalPurchases(realPurchases)
+                    .excludedSales(excludedSales)
+                    .excludedPurchases(excludedPurchases)
+                    .realEntityCount(realEntities.size())
+                    .excludedEntityCount(excludedEntities.size())
+                    .build();
+        }
+    }
+
+    /**
+     * Everything the dashboard derives from movements — per-category ledger
+     * sums and Real Totals — filled in one pass as movements arrive, with the
+     * user category overrides applied on the way in.
+     */
+    private static final class DashboardTotals implements Consumer<ProductMovementDto> {
+        private final Map<String, String> overrides;
+        private final String productFilter;
+        private final Map<String, LedgerTotals> ledgers = new HashMap<>();
+        private final RealTotals realTotals;
+        private long count;
+
+        DashboardTotals(Map<String, String> overrides, String productFilter, Map<String, Boolean> realEntityMap) {
+            this.overrides = overrides;
+            this.productFilter = productFilter;
+            this.realTotals = new RealTotals(realEntityMap);
+        }
+
+        @Override
+        public void accept(ProductMovementDto m) {
+            count++;
+            String category = resolveCategory(m.getProductName(), m.getParentCategory(), overrides);
+            realTotals.add(m, category);
+            if (isLedgerCategory(category, productFilter)) {
+                ledgers.computeIfAbsent(category, LedgerTotals::new).add(m);
+            }
+        }
     }
 
     // ==================== RECONCILIATION ====================
@@ -440,22 +525,53 @@ public class AuditControlService {
 
     // ==================== HELPERS ====================
 
-    @SuppressWarnings("unchecked")
-    private List<ProductMovementDto> fetchProductMovements(LocalDate startDate, LocalDate endDate) {
-        try {
-            String url = String.format("%s/api/waybills/product-movements?startDate=%s&endDate=%s",
-                    waybillServiceUrl, startDate, endDate);
-            Map<String, Object> response = internalRestTemplate.getForObject(url, Map.class);
-            if (response == null || !(response.get("data") instanceof List)) {
-                return Collections.emptyList();
+    /**
+     * Feeds every movement dated inside [startDate, endDate] to a fresh
+     * accumulator as it arrives, so no movement list is ever held and the
+     * range length is not bounded by the heap. A gRPC read that fails part
+     * way is dropped together with its accumulator and redone over REST.
+     */
+    private <A extends Consumer<ProductMovementDto>> A foldProductMovements(LocalDate startDate, LocalDate endDate,
+                                                                           ProductMovementQuery query,
+                                                                           Supplier<A> accumulator) {
+        if (waybillGrpcClient.isEnabled()) {
+            A totals = accumulator.get();
+            try {
+                // Fixed-point amounts and kg, decoded straight into DTOs.
+                waybillGrpcClient.forEachProductMovement(startDate, endDate, query,
+                        inRange(startDate, endDate, totals));
+                return totals;
+            } catch (StatusRuntimeException e) {
+                log.warn("gRPC product movements read failed ({}), falling back to REST", e.getStatus());
             }
-            List<Map<String, Object>> data = (List<Map<String, Object>>) response.get("data");
-            return data.stream().map(this::toMovement).collect(Collectors.toList());
+        }
+        try {
+            UriComponentsBuilder url = UriComponentsBuilder.fromHttpUrl(waybillServiceUrl)
+                    .path("/api/waybills/product-movements")
+                    .queryParam("startDate", startDate)
+                    .queryParam("endDate", endDate);
+            query.toParams().forEach(url::queryParam);
+            // NDJSON: each line becomes a movement as it arrives; no intermediate response tree.
+            A totals = accumulator.get();
+            Consumer<ProductMovementDto> sink = inRange(startDate, endDate, totals);
+            internalRestTemplate.execute(url.encode().build().toUri(), HttpMethod.GET,
+                    request -> request.getHeaders().setAccept(List.of(MediaType.APPLICATION_NDJSON)),
+                    response -> Ndjson.read(response.getBody(), m -> sink.accept(toMovement(m))));
+            return totals;
         } catch (Exception e) {
             throw new ExternalServiceException("waybill-service", "fetch product movements", e);
         }
     }
 
+    private static Consumer<ProductMovementDto> inRange(LocalDate startDate, LocalDate endDate,
+                                                        Consumer<ProductMovementDto> sink) {
+        return m -> {
+            if (m.getDate() != null && !m.getDate().isBefore(startDate) && !m.getDate().isAfter(endDate)) {
+                sink.accept(m);
+            }
+        };
+    }
+
     private ProductMovementDto toMovement(Map<String, Object> m) {
         return ProductMovementDto.builder()
                 .date(m.get("date") != null ? LocalDate.parse(String.valueOf(m.get("date"))) : null)
@@ -595,7 +711,7 @@ public class AuditControlService {
         return map;
     }
 
-    private boolean isReal(String id, Map<String, Boolean> realEntityMap) {
+    private static boolean isReal(String id, Map<String, Boolean> realEntityMap) {
         if (id == null) return true; // unknown counterparties default to real
         return realEntityMap.getOrDefault(TinValidator.canonicalId(id), true);
     }
@@ -605,32 +721,13 @@ public class AuditControlService {
         return new BigDecimal(String.valueOf(value));
     }
 
-    /** Unit substrings (lowercased) that mark a line as NOT measured in kilograms. */
-    private static final List<String> NON_KG_UNITS = List.of(
-            "ცალ",      // ცალი – pieces
-            "piece", "pcs",
-            "ლიტრ", "liter", "litre",  // volume
-            "შეკვრ",    // bundle / pack
-            "კომპლ", "pack", "set",
-            "წყვილ",    // pair
-            "გრამ", "gram"             // grams – mass but not kg; excluded to avoid unit mismatch
-    );
-
     /**
      * Whether a goods line's unit is kilograms (the basis for inventory
      * conservation). Blank/unknown units default to kg because meat lines are
      * overwhelmingly kg and RS.ge's kg encoding is not guaranteed; only units
      * explicitly recognised as pieces/volume/etc. are excluded.
      */
-    private boolean isKilogram(String unit) {
-        if (unit == null || unit.isBlank()) return true;
-        String u = unit.trim().toLowerCase();
-        if (u.contains("კგ") || u.contains("kg") || u.contains("კილ") || u.contains("kilo")) {
-            return true;
-        }
-        for (String nonKg : NON_KG_UNITS) {
-            if (u.contains(nonKg)) return false;
-        }
-        return true;
+    private static boolean isKilogram(String unit) {
+        return UnitClass.of(unit) == UnitClass.KG;
     }
 }
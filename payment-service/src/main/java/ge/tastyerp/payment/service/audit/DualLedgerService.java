@@ -5,18 +5,25 @@ import ge.tastyerp.common.dto.config.CategoryLedgerInputDto;
 import ge.tastyerp.common.dto.config.FormalSalesCustomerDto;
 import ge.tastyerp.common.dto.waybill.WaybillType;
 import ge.tastyerp.common.exception.ExternalServiceException;
+import ge.tastyerp.common.util.Ndjson;
 import ge.tastyerp.common.util.TinValidator;
+import ge.tastyerp.payment.infrastructure.grpc.WaybillGrpcClient;
+import io.grpc.StatusRuntimeException;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.MediaType;
 import org.springframework.stereotype.Service;
 import org.springframework.web.client.RestTemplate;
+import org.springframework.web.util.UriComponentsBuilder;
 
 import java.math.BigDecimal;
 import java.math.RoundingMode;
 import java.time.LocalDate;
 import java.util.*;
-import java.util.stream.Collectors;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 
 /**
  * Dual-ledger / shadow-cash-flow analytics (BOR-76).
@@ -51,6 +58,7 @@ public class DualLedgerService {
 
     /** Field name matches the bean name "internalRestTemplate" for by-name resolution. */
     private final RestTemplate internalRestTemplate;
+    private final WaybillGrpcClient waybillGrpcClient;
 
     @Value("${waybill.service.url:http://waybill-service:8081}")
     private String waybillServiceUrl;
@@ -63,15 +71,9 @@ public class DualLedgerService {
     public DualLedgerDto getDualLedger(LocalDate startDate, LocalDate endDate, String productFilter) {
         log.info("Building dual-ledger {} to {} (filter={})", startDate, endDate, productFilter);
 
-        List<ProductMovementDto> movements = fetchProductMovements(startDate, endDate).stream()
-                .filter(m -> m.getDate() != null
-                        && !m.getDate().isBefore(startDate) && !m.getDate().isAfter(endDate))
-                .collect(Collectors.toList());
-
-        // Apply user category overrides (fresh each request — user-editable state never cached).
+        // User category overrides (fresh each request — user-editable state never cached).
+        // Read first: they decide which lines the server-side category filter must keep.
         Map<String, String> overrides = fetchCategoryOverrides();
-        movements.forEach(m -> m.setParentCategory(
-                resolveCategory(m.getProductName(), m.getParentCategory(), overrides)));
 
         Map<String, CategoryLedgerInputDto> inputs = fetchDualLedgerInputs();
         Map<String, FormalSalesCustomerDto> formal = fetchFormalSalesCustomers();
@@ -79,8 +81,31 @@ public class DualLedgerService {
         Map<String, BigDecimal> productVatRates = fetchProductVatRates();
         Set<String> unrealCustomers = fetchUnrealCustomers();
 
-        return compute(movements, startDate, endDate, productFilter, inputs, formal,
-                writeOffPercent, productVatRates, unrealCustomers);
+        // Config comes first so movements are summed as they arrive and never held.
+        MovementTotals totals = foldProductMovements(startDate, endDate, movementQuery(productFilter, overrides),
+                () -> new MovementTotals(productFilter, overrides, formal, productVatRates, unrealCustomers));
+
+        return compute(totals, startDate, endDate, productFilter, inputs, formal, writeOffPercent);
+    }
+
+    /**
+     * What the ledger reads: every field but the waybill ID, and with a
+     * product filter only the lines of that category, either auto-classified
+     * there or moved there by an override. Lines overridden out of it are
+     * still sent and dropped after the overrides are applied.
+     */
+    static ProductMovementQuery movementQuery(String productFilter, Map<String, String> overrides) {
+        Set<String> fields = new LinkedHashSet<>(ProductMovementQuery.FIELDS);
+        fields.remove("waybillId");
+        ProductMovementQuery.ProductMovementQueryBuilder query = ProductMovementQuery.builder().fields(fields);
+        if (productFilter != null && !productFilter.isBlank()) {
+            Set<String> products = new LinkedHashSet<>();
+            overrides.forEach((product, category) -> {
+                if (productFilter.equalsIgnoreCase(category)) products.add(product);
+            });
+            query.categories(Set.of(productFilter)).products(products);
+        }
+        return query.build();
     }
 
     // ==================== PURE COMPUTATION ====================
@@ -102,63 +127,132 @@ public class DualLedgerService {
                           Map<String, BigDecimal> writeOffPercent,
                           Map<String, BigDecimal> productVatRates,
                           Set<String> unrealCustomers) {
+        MovementTotals totals = new MovementTotals(productFilter, Map.of(), formal, productVatRates, unrealCustomers);
+        movements.forEach(totals);
+        return compute(totals, startDate, endDate, productFilter, inputs, formal, writeOffPercent);
+    }
+
+    /**
+     * Sums of the ledger's movements, filled one movement at a time with the
+     * user category overrides applied on the way in. Its size is bounded by
+     * categories, formal customers and supplies products, not by lines.
+     */
+    private static final class MovementTotals implements Consumer<ProductMovementDto> {
+        private final String productFilter;
+        private final Map<String, String> overrides;
+        private final Map<String, FormalSalesCustomerDto> formal;
+        private final Map<String, BigDecimal> productVatRates;
+        private final Set<String> unrealCustomers;
+        /** Inventory-bearing categories in name order; SUPPLIES is summed per product below. */
+        private final Map<String, CategoryTotals> categories = new TreeMap<>();
+        private final Map<String, BigDecimal[]> suppliesByProduct = new LinkedHashMap<>(); // name -> [kg, amount]
+        private final Map<String, BigDecimal[]> formalByCustomer = new HashMap<>();       // canonical TIN -> [kg, ar]
+
+        MovementTotals(String productFilter, Map<String, String> overrides,
+                       Map<String, FormalSalesCustomerDto> formal, Map<String, BigDecimal> productVatRates,
+                       Set<String> unrealCustomers) {
+            this.productFilter = productFilter;
+            this.overrides = overrides;
+            this.formal = formal;
+            this.productVatRates = productVatRates;
+            this.unrealCustomers = unrealCustomers;
+        }
+
+        @Override
+        public void accept(ProductMovementDto m) {
+            String category = resolveCategory(m.getProductName(), m.getParentCategory(), overrides);
+            if (category == null) return;
+            if (productFilter != null && !productFilter.isBlank() && !productFilter.equalsIgnoreCase(category)) return;
+
+            // Part 3 input — documented sales to formal customers, across every category.
+            if (m.getType() == WaybillType.SALE && m.getCounterpartyId() != null) {
+                String canon = TinValidator.canonicalId(m.getCounterpartyId());
+                if (canon != null && formal.containsKey(canon)) {
+                    BigDecimal[] agg = formalByCustomer.computeIfAbsent(canon, k -> new BigDecimal[]{BigDecimal.ZERO, BigDecimal.ZERO});
+                    if (isKilogram(m.getUnit())) agg[0] = agg[0].add(nz(m.getQuantityKg()));
+                    agg[1] = agg[1].add(nz(m.getAmount()));
+                }
+            }
+
+            // SUPPLIES are purchase-only expenses (car maintenance, spare parts) handled in their own section.
+            if (ProductHierarchy.isSupplies(category)) {
+                if (m.getType() != WaybillType.PURCHASE) return;
+                String name = m.getProductName() != null && !m.getProductName().isBlank()
+                        ? m.getProductName().trim() : "(unnamed)";
+                BigDecimal[] agg = suppliesByProduct.computeIfAbsent(name, k -> new BigDecimal[]{BigDecimal.ZERO, BigDecimal.ZERO});
+                if (isKilogram(m.getUnit())) agg[0] = agg[0].add(nz(m.getQuantityKg()));
+                agg[1] = agg[1].add(nz(m.getAmount()));
+                return;
+            }
+
+            categories.computeIfAbsent(category, CategoryTotals::new).add(m, this);
+        }
+    }
+
+    /** Documented kg and amounts of one category. */
+    private static final class CategoryTotals {
+        private final String category;
+        private BigDecimal purKgDoc = BigDecimal.ZERO, purAmtKg = BigDecimal.ZERO, purAmtAll = BigDecimal.ZERO;
+        private BigDecimal saleKgDoc = BigDecimal.ZERO, saleAmtKg = BigDecimal.ZERO, saleAmtAll = BigDecimal.ZERO;
+        // Documented sale kg to formal / unreal customers (BOR-79): both are
+        // excluded from salesRealKg; formal kg additionally earns commission.
+        // A customer marked both formal and unreal counts once, as formal.
+        private BigDecimal unrealSaleKg = BigDecimal.ZERO, formalSaleKg = BigDecimal.ZERO;
+        private final Map<String, BigDecimal> formalKgByCustomer = new HashMap<>();
+        // Gross grouped by the line's VAT rate, so VAT respects per-product rates.
+        private final Map<BigDecimal, BigDecimal> saleGrossByRate = new HashMap<>();
+        private final Map<BigDecimal, BigDecimal> purGrossByRate = new HashMap<>();
+
+        CategoryTotals(String category) {
+            this.category = category;
+        }
 
-        List<ProductMovementDto> filtered = movements.stream()
-                .filter(m -> m.getParentCategory() != null)
-                .filter(m -> productFilter == null || productFilter.isBlank()
-                        || productFilter.equalsIgnoreCase(m.getParentCategory()))
-                .collect(Collectors.toList());
+        void add(ProductMovementDto m, MovementTotals totals) {
+            BigDecimal amount = nz(m.getAmount());
+            BigDecimal kg = nz(m.getQuantityKg());
+            boolean isKg = isKilogram(m.getUnit());
+            BigDecimal rate = vatRate(m.getProductName(), totals.productVatRates);
+            if (m.getType() == WaybillType.PURCHASE) {
+                purAmtAll = purAmtAll.add(amount);
+                purGrossByRate.merge(rate, amount, BigDecimal::add);
+                if (isKg) { purKgDoc = purKgDoc.add(kg); purAmtKg = purAmtKg.add(amount); }
+            } else if (m.getType() == WaybillType.SALE) {
+                saleAmtAll = saleAmtAll.add(amount);
+                saleGrossByRate.merge(rate, amount, BigDecimal::add);
+                if (isKg) {
+                    saleKgDoc = saleKgDoc.add(kg);
+                    saleAmtKg = saleAmtKg.add(amount);
+                    String canon = m.getCounterpartyId() != null
+                            ? TinValidator.canonicalId(m.getCounterpartyId()) : null;
+                    if (canon != null && totals.formal.containsKey(canon)) {
+                        formalSaleKg = formalSaleKg.add(kg);
+                        formalKgByCustomer.merge(canon, kg, BigDecimal::add);
+                    } else if (canon != null && totals.unrealCustomers.contains(canon)) {
+                        unrealSaleKg = unrealSaleKg.add(kg);
+                    }
+                }
+            }
+        }
+    }
 
-        Set<String> categories = new TreeSet<>();
-        filtered.forEach(m -> categories.add(m.getParentCategory()));
+    /** The pure assembly above, over movements already summed per category. */
+    private DualLedgerDto compute(MovementTotals totals,
+                                  LocalDate startDate, LocalDate endDate, String productFilter,
+                                  Map<String, CategoryLedgerInputDto> inputs,
+                                  Map<String, FormalSalesCustomerDto> formal,
+                                  Map<String, BigDecimal> writeOffPercent) {
 
         List<CategoryCashGapDto> purchaseShortages = new ArrayList<>();
         List<CategoryCashGapDto> saleSurpluses = new ArrayList<>();
         List<CategoryVatDto> vatList = new ArrayList<>();
         List<UnifiedCategoryCardDto> categoryCards = new ArrayList<>();
 
-        for (String category : categories) {
-            // SUPPLIES are purchase-only expenses handled in their own section below.
-            if (ProductHierarchy.isSupplies(category)) continue;
-
-            BigDecimal purKgDoc = BigDecimal.ZERO, purAmtKg = BigDecimal.ZERO, purAmtAll = BigDecimal.ZERO;
-            BigDecimal saleKgDoc = BigDecimal.ZERO, saleAmtKg = BigDecimal.ZERO, saleAmtAll = BigDecimal.ZERO;
-            // Documented sale kg to formal / unreal customers (BOR-79): both are
-            // excluded from salesRealKg; formal kg additionally earns commission.
-            // A customer marked both formal and unreal counts once, as formal.
-            BigDecimal unrealSaleKg = BigDecimal.ZERO, formalSaleKg = BigDecimal.ZERO;
-            Map<String, BigDecimal> formalKgByCustomer = new HashMap<>();
-            // Gross grouped by the line's VAT rate, so VAT respects per-product rates.
-            Map<BigDecimal, BigDecimal> saleGrossByRate = new HashMap<>();
-            Map<BigDecimal, BigDecimal> purGrossByRate = new HashMap<>();
-
-            for (ProductMovementDto m : filtered) {
-                if (!category.equals(m.getParentCategory())) continue;
-                BigDecimal amount = nz(m.getAmount());
-                BigDecimal kg = nz(m.getQuantityKg());
-                boolean isKg = isKilogram(m.getUnit());
-                BigDecimal rate = vatRate(m.getProductName(), productVatRates);
-                if (m.getType() == WaybillType.PURCHASE) {
-                    purAmtAll = purAmtAll.add(amount);
-                    purGrossByRate.merge(rate, amount, BigDecimal::add);
-                    if (isKg) { purKgDoc = purKgDoc.add(kg); purAmtKg = purAmtKg.add(amount); }
-                } else if (m.getType() == WaybillType.SALE) {
-                    saleAmtAll = saleAmtAll.add(amount);
-                    saleGrossByRate.merge(rate, amount, BigDecimal::add);
-                    if (isKg) {
-                        saleKgDoc = saleKgDoc.add(kg);
-                        saleAmtKg = saleAmtKg.add(amount);
-                        String canon = m.getCounterpartyId() != null
-                                ? TinValidator.canonicalId(m.getCounterpartyId()) : null;
-                        if (canon != null && formal.containsKey(canon)) {
-                            formalSaleKg = formalSaleKg.add(kg);
-                            formalKgByCustomer.merge(canon, kg, BigDecimal::add);
-                        } else if (canon != null && unrealCustomers.contains(canon)) {
-                            unrealSaleKg = unrealSaleKg.add(kg);
-                        }
-                    }
-                }
-            }
+        for (CategoryTotals t : totals.categories.values()) {
+            String category = t.category;
+            BigDecimal purKgDoc = t.purKgDoc, purAmtKg = t.purAmtKg, purAmtAll = t.purAmtAll;
+            BigDecimal saleKgDoc = t.saleKgDoc, saleAmtKg = t.saleAmtKg, saleAmtAll = t.saleAmtAll;
+            BigDecimal unrealSaleKg = t.unrealSaleKg, formalSaleKg = t.formalSaleKg;
+            Map<String, BigDecimal> formalKgByCustomer = t.formalKgByCustomer;
 
             CategoryLedgerInputDto in = inputs.get(category);
 
@@ -204,8 +298,8 @@ public class DualLedgerService {
             }
 
             // Part 4 — VAT (actual output − input), per-product rates (default 18%)
-            BigDecimal salesVat = vatByRate(saleGrossByRate);
-            BigDecimal purchaseVat = vatByRate(purGrossByRate);
+            BigDecimal salesVat = vatByRate(t.saleGrossByRate);
+            BigDecimal purchaseVat = vatByRate(t.purGrossByRate);
             BigDecimal vatPayable = money(salesVat.subtract(purchaseVat));
 
             BigDecimal projectedVatPayable = null;
@@ -286,21 +380,11 @@ public class DualLedgerService {
 
         // Supplies — purchase-only (car maintenance, spare parts), own section.
         // Aggregated per product with deductible input VAT (per the product's rate).
-        Map<String, BigDecimal[]> suppliesByProduct = new LinkedHashMap<>(); // name -> [kg, amount]
-        for (ProductMovementDto m : filtered) {
-            if (!ProductHierarchy.isSupplies(m.getParentCategory())) continue;
-            if (m.getType() != WaybillType.PURCHASE) continue;
-            String name = m.getProductName() != null && !m.getProductName().isBlank()
-                    ? m.getProductName().trim() : "(unnamed)";
-            BigDecimal[] agg = suppliesByProduct.computeIfAbsent(name, k -> new BigDecimal[]{BigDecimal.ZERO, BigDecimal.ZERO});
-            if (isKilogram(m.getUnit())) agg[0] = agg[0].add(nz(m.getQuantityKg()));
-            agg[1] = agg[1].add(nz(m.getAmount()));
-        }
         List<SuppliesLineDto> supplies = new ArrayList<>();
         BigDecimal totalSuppliesSpend = BigDecimal.ZERO, totalSuppliesInputVat = BigDecimal.ZERO;
-        for (Map.Entry<String, BigDecimal[]> e : suppliesByProduct.entrySet()) {
+        for (Map.Entry<String, BigDecimal[]> e : totals.suppliesByProduct.entrySet()) {
             BigDecimal amount = e.getValue()[1];
-            BigDecimal inputVat = vatAtRate(amount, vatRate(e.getKey(), productVatRates));
+            BigDecimal inputVat = vatAtRate(amount, vatRate(e.getKey(), totals.productVatRates));
             supplies.add(SuppliesLineDto.builder()
                     .productName(e.getKey())
                     .quantityKg(kg(e.getValue()[0]))
@@ -318,13 +402,9 @@ public class DualLedgerService {
             String canon = e.getKey();
             FormalSalesCustomerDto dto = e.getValue();
             BigDecimal rate = nz(dto.getCommissionPerKg());
-            BigDecimal kg = BigDecimal.ZERO, ar = BigDecimal.ZERO;
-            for (ProductMovementDto m : filtered) {
-                if (m.getType() != WaybillType.SALE || m.getCounterpartyId() == null) continue;
-                if (!canon.equals(TinValidator.canonicalId(m.getCounterpartyId()))) continue;
-                ar = ar.add(nz(m.getAmount()));
-                if (isKilogram(m.getUnit())) kg = kg.add(nz(m.getQuantityKg()));
-            }
+            BigDecimal[] documented = totals.formalByCustomer.get(canon);
+            BigDecimal kg = documented != null ? documented[0] : BigDecimal.ZERO;
+            BigDecimal ar = documented != null ? documented[1] : BigDecimal.ZERO;
             formalCommissions.add(FormalCommissionDto.builder()
                     .customerId(canon)
                     .customerName(dto.getCustomerName())
@@ -429,39 +509,60 @@ public class DualLedgerService {
         return v.setScale(MONEY, RoundingMode.HALF_UP);
     }
 
-    /** Unit substrings (lowercased) that mark a line as NOT measured in kilograms. */
-    private static final List<String> NON_KG_UNITS = List.of(
-            "ცალ", "piece", "pcs", "ლიტრ", "liter", "litre",
-            "შეკვრ", "კომპლ", "pack", "set", "წყვილ", "გრამ", "gram");
-
+    /** Blank/unknown units count as kg; see {@link UnitClass}. */
     private static boolean isKilogram(String unit) {
-        if (unit == null || unit.isBlank()) return true;
-        String u = unit.trim().toLowerCase();
-        if (u.contains("კგ") || u.contains("kg") || u.contains("კილ") || u.contains("kilo")) return true;
-        for (String nonKg : NON_KG_UNITS) {
-            if (u.contains(nonKg)) return false;
-        }
-        return true;
+        return UnitClass.of(unit) == UnitClass.KG;
     }
 
     // ==================== HELPERS (I/O) ====================
 
-    @SuppressWarnings("unchecked")
-    private List<ProductMovementDto> fetchProductMovements(LocalDate startDate, LocalDate endDate) {
-        try {
-            String url = String.format("%s/api/waybills/product-movements?startDate=%s&endDate=%s",
-                    waybillServiceUrl, startDate, endDate);
-            Map<String, Object> response = internalRestTemplate.getForObject(url, Map.class);
-            if (response == null || !(response.get("data") instanceof List)) {
-                return Collections.emptyList();
+    /**
+     * Feeds every movement dated inside [startDate, endDate] to a fresh
+     * accumulator as it arrives, so no movement list is ever held and the
+     * range length is not bounded by the heap. A gRPC read that fails part
+     * way is dropped together with its accumulator and redone over REST.
+     */
+    private <A extends Consumer<ProductMovementDto>> A foldProductMovements(LocalDate startDate, LocalDate endDate,
+                                                                           ProductMovementQuery query,
+                                                                           Supplier<A> accumulator) {
+        if (waybillGrpcClient.isEnabled()) {
+            A totals = accumulator.get();
+            try {
+                // Fixed-point amounts and kg, decoded straight into DTOs.
+                waybillGrpcClient.forEachProductMovement(startDate, endDate, query,
+                        inRange(startDate, endDate, totals));
+                return totals;
+            } catch (StatusRuntimeException e) {
+                log.warn("gRPC product movements read failed ({}), falling back to REST", e.getStatus());
             }
-            List<Map<String, Object>> data = (List<Map<String, Object>>) response.get("data");
-            return data.stream().map(this::toMovement).collect(Collectors.toList());
+        }
+        try {
+            UriComponentsBuilder url = UriComponentsBuilder.fromHttpUrl(waybillServiceUrl)
+                    .path("/api/waybills/product-movements")
+                    .queryParam("startDate", startDate)
+                    .queryParam("endDate", endDate);
+            query.toParams().forEach(url::queryParam);
+            // NDJSON: each line becomes a movement as it arrives; no intermediate response tree.
+            A totals = accumulator.get();
+            Consumer<ProductMovementDto> sink = inRange(startDate, endDate, totals);
+            internalRestTemplate.execute(url.encode().build().toUri(), HttpMethod.GET,
+                    request -> request.getHeaders().setAccept(List.of(MediaType.APPLICATION_NDJSON)),
+                    response -> Ndjson.read(response.getBody(), m -> sink.accept(toMovement(m))));
+            return totals;
         } catch (Exception e) {
             throw new ExternalServiceException("waybill-service", "fetch product movements", e);
         }
     }
 
+    private static Consumer<ProductMovementDto> inRange(LocalDate startDate, LocalDate endDate,
+                                                        Consumer<ProductMovementDto> sink) {
+        return m -> {
+            if (m.getDate() != null && !m.getDate().isBefore(startDate) && !m.getDate().isAfter(endDate)) {
+                sink.accept(m);
+            }
+        };
+    }
+
     private ProductMovementDto toMovement(Map<String, Object> m) {
         return ProductMovementDto.builder()
                 .date(m.get("date") != null ? LocalDate.parse(String.valueOf(m.get("date"))) : null)
@@ -612,12 +713,12 @@ public class DualLedgerService {
         return map;
     }
 
-    private String resolveCategory(String productName, String autoCategory, Map<String, String> overrides) {
+    private static String resolveCategory(String productName, String autoCategory, Map<String, String> overrides) {
         if (productName == null) return autoCategory;
         return overrides.getOrDefault(overrideKey(productName), autoCategory);
     }
 
-    private String overrideKey(String name) {
+    private static String overrideKey(String name) {
         return name == null ? "" : name.trim().toLowerCase();
     }
 
@@ -0,0 +1,278 @@
+package ge.tastyerp.payment.service;
+
+import ge.tastyerp.common.dto.payment.CustomerDebtDto;
+import ge.tastyerp.common.dto.payment.DebtOverviewDto;
+import ge.tastyerp.common.dto.payment.PaymentDto;
+import ge.tastyerp.common.dto.waybill.WaybillChangesDto;
+import ge.tastyerp.common.dto.waybill.WaybillDto;
+import ge.tastyerp.common.dto.waybill.WaybillType;
+import ge.tastyerp.common.grpc.WaybillStreamGrpc;
+import ge.tastyerp.payment.infrastructure.grpc.WaybillGrpcClient;
+import ge.tastyerp.payment.repository.ManualCashPaymentRepository;
+import ge.tastyerp.payment.repository.PaymentRepository;
+import ge.tastyerp.payment.service.DebtService.DebtInput;
+import ge.tastyerp.payment.service.DebtService.Kind;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.client.RestTemplate;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.contains;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+/** Materialized debt ledger: delta parity with the full aggregation, the service's deltas, rebuilds and parity checks. */
+class DebtLedgerTest {
+
+    private static final LocalDate IN_WINDOW = LocalDate.of(2025, 5, 10);
+
+    private PaymentRepository paymentRepository;
+    private ManualCashPaymentRepository manualRepository;
+    private RestTemplate restTemplate;
+    private WaybillGrpcClient grpc;
+    private DebtService service;
+
+    @BeforeEach
+    void setUp() {
+        paymentRepository = mock(PaymentRepository.class);
+        manualRepository = mock(ManualCashPaymentRepository.class);
+        restTemplate = mock(RestTemplate.class);
+        grpc = mock(WaybillGrpcClient.class);
+        service = new DebtService(paymentRepository, manualRepository, restTemplate, grpc);
+        ReflectionTestUtils.setField(service, "cutoffDateString", "2025-04-29");
+        ReflectionTestUtils.setField(service, "configServiceUrl", "http://config");
+        ReflectionTestUtils.setField(service, "waybillServiceUrl", "http://waybill");
+
+        initialDebts("v1", "500");
+        when(restTemplate.getForObject(contains("/excluded-customers"), eq(Map.class)))
+                .thenReturn(Map.of("data", List.of()));
+        when(restTemplate.getForObject(contains("/sales/changes"), eq(WaybillChangesDto.class)))
+                .thenReturn(new WaybillChangesDto("e:0", false, List.of()));
+        when(manualRepository.findByDateAfter(any())).thenReturn(List.of());
+    }
+
+    /** config-service: customer 204900358 owes {@code debt} at document version {@code version}. */
+    private void initialDebts(String version, String debt) {
+        String etag = "\"" + version + "\"";
+        when(restTemplate.exchange(contains("/debts"), eq(HttpMethod.GET), any(HttpEntity.class), eq(Map.class)))
+                .thenAnswer(inv -> {
+                    HttpEntity<?> request = inv.getArgument(2);
+                    if (etag.equals(request.getHeaders().getFirst(HttpHeaders.IF_NONE_MATCH))) {
+                        return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(etag).build();
+                    }
+                    return ResponseEntity.ok().eTag(etag).body(Map.of("data", List.of(
+                            Map.of("customerId", "204900358", "name", "A", "debt", debt))));
+                });
+    }
+
+    /** waybill-service over gRPC: the given sales, filtered by the request's day range. */
+    private void sales(List<WaybillDto> sales) {
+        when(grpc.isEnabled()).thenReturn(true);
+        doAnswer(inv -> {
+            WaybillStreamGrpc.WaybillsRequest r = inv.getArgument(0);
+            Consumer<WaybillDto> consumer = inv.getArgument(1);
+            sales.stream()
+                    .filter(wb -> r.startDate() == null || !wb.getDate().isBefore(LocalDate.parse(r.startDate())))
+                    .filter(wb -> r.endDate() == null || !wb.getDate().isAfter(LocalDate.parse(r.endDate())))
+                    .forEach(consumer);
+            return null;
+        }).when(grpc).forEachWaybill(any(), any());
+    }
+
+    private static WaybillDto sale(String customerId, String amount, LocalDate date) {
+        return WaybillDto.builder().customerId(customerId).customerName("A").amount(new BigDecimal(amount))
+                .date(date).build();
+    }
+
+    private static PaymentDto payment(String id, String amount, LocalDate date) {
+        return PaymentDto.builder().id(id).customerId("204900358").amount(new BigDecimal(amount))
+                .paymentDate(date).build();
+    }
+
+    private static BigDecimal debt(DebtOverviewDto overview) {
+        return overview.getCustomers().stream().filter(c -> c.getCustomerId().equals("204900358"))
+                .map(CustomerDebtDto::getCurrentDebt).findFirst().orElseThrow();
+    }
+
+    @Test
+    @DisplayName("Random payment saves, re-saves and deletes render exactly what aggregate gives for the final inputs")
+    void deltaParity() {
+        List<DebtInput> base = List.of(
+                new DebtInput("01008057492", "Nino", new BigDecimal("500.00"), Kind.INITIAL),
+                new DebtInput("1008057492", "Nino M", new BigDecimal("800.5"), Kind.SALE),
+                new DebtInput("204900358", "A", new BigDecimal("1000"), Kind.SALE),
+                new DebtInput("402297787", null, new BigDecimal("0"), Kind.INITIAL));
+        List<String> customers = List.of("01008057492", "1008057492", "204900358", "402297787", "555");
+        Set<String> excluded = Set.of("402297787");
+        Random random = new Random(11);
+
+        for (int round = 0; round < 50; round++) {
+            DebtLedger ledger = new DebtLedger(excluded);
+            base.forEach(ledger::add);
+            Map<String, DebtInput> payments = new HashMap<>();
+            for (int op = 0; op < 40; op++) {
+                String key = "doc-" + random.nextInt(12);
+                DebtInput in = random.nextInt(4) == 0 ? null : new DebtInput(
+                        customers.get(random.nextInt(customers.size())), null,
+                        BigDecimal.valueOf(random.nextInt(100_000), random.nextInt(4)),
+                        random.nextBoolean() ? Kind.BANK_PAYMENT : Kind.CASH_PAYMENT);
+                ledger.putPayment(key, in);
+                if (in != null) payments.put(key, in);
+                else payments.remove(key);
+            }
+            List<DebtInput> all = new ArrayList<>(base);
+            all.addAll(payments.values());
+
+            assertEquals(DebtService.aggregate(all, excluded), ledger.overview());
+        }
+    }
+
+    @Test
+    @DisplayName("Reads come from the ledger; saves and deletes apply as deltas without re-reading Firestore")
+    void deltas() {
+        when(paymentRepository.findByDateAfter(any())).thenReturn(List.of(payment("b1", "100", IN_WINDOW)));
+
+        DebtOverviewDto first = service.getOverview();
+        assertEquals(new BigDecimal("400.00"), debt(first));
+        assertSame(first, service.getOverview());
+
+        service.paymentsSaved(Kind.BANK_PAYMENT, List.of(payment("b2", "50.1", IN_WINDOW),
+                payment("b3", "70", LocalDate.of(2025, 4, 29))));
+        assertEquals(new BigDecimal("349.90"), debt(service.getOverview()));
+
+        service.paymentsSaved(Kind.BANK_PAYMENT, List.of(payment("b2", "60.1", IN_WINDOW)));
+        service.paymentDeleted("b1");
+        assertEquals(new BigDecimal("439.90"), debt(service.getOverview()));
+
+        verify(paymentRepository, times(1)).findByDateAfter(any());
+    }
+
+    @Test
+    @DisplayName("A parity rebuild adopts payments written elsewhere and keeps deltas applied while it was reading")
+    void rebuild() {
+        when(paymentRepository.findByDateAfter(any()))
+                .thenReturn(List.of(payment("b1", "100", IN_WINDOW)))
+                .thenAnswer(inv -> {
+                    // Saved through the service while the rebuild reads; not yet visible to its query.
+                    service.paymentsSaved(Kind.BANK_PAYMENT, List.of(payment("b3", "30", IN_WINDOW)));
+                    return List.of(payment("b1", "100", IN_WINDOW), payment("b2", "20", IN_WINDOW));
+                });
+        assertEquals(new BigDecimal("400.00"), debt(service.getOverview()));
+
+        // Only the payment written elsewhere is drift; the delta made during the read is not.
+        assertEquals(List.of("204900358"), service.checkParity());
+
+        // 500 - 100 - 20 (written elsewhere) - 30 (delta during the rebuild)
+        assertEquals(new BigDecimal("350.00"), debt(service.getOverview()));
+    }
+
+    @Test
+    @DisplayName("Parity check: deltas in step with the inputs report no drift; an input changed behind them does")
+    void parityDrift() {
+        when(paymentRepository.findByDateAfter(any())).thenReturn(List.of(payment("b1", "100", IN_WINDOW)));
+        service.getOverview();
+        service.paymentsSaved(Kind.BANK_PAYMENT, List.of(payment("b2", "40", IN_WINDOW)));
+        when(paymentRepository.findByDateAfter(any()))
+                .thenReturn(List.of(payment("b1", "100", IN_WINDOW), payment("b2", "40", IN_WINDOW)));
+
+        assertEquals(List.of(), service.checkParity());
+
+        // Console edit: b1 changed in Firestore without passing through the service.
+        when(paymentRepository.findByDateAfter(any()))
+                .thenReturn(List.of(payment("b1", "10", IN_WINDOW), payment("b2", "40", IN_WINDOW)));
+        DebtOverviewDto live = service.getOverview();
+        List<String> drifted = service.checkParity();
+
+        assertEquals(List.of("204900358"), drifted);
+        assertEquals(new BigDecimal("360.00"), debt(live));
+        assertEquals(new BigDecimal("450.00"), debt(service.getOverview()));
+    }
+
+    @Test
+    @DisplayName("Verification compares rendered customers: a changed, missing or extra customer is drift")
+    void verifyParity() {
+        List<DebtInput> inputs = List.of(
+                new DebtInput("204900358", "A", new BigDecimal("500"), Kind.INITIAL),
+                new DebtInput("402297787", "B", new BigDecimal("70"), Kind.SALE));
+        DebtOverviewDto expected = DebtService.aggregate(inputs, Set.of());
+
+        assertEquals(List.of(), DebtService.verifyParity(DebtService.aggregate(inputs, Set.of()), expected));
+        assertEquals(List.of("402297787"), DebtService.verifyParity(
+                DebtService.aggregate(List.of(inputs.get(0)), Set.of()), expected));
+        assertEquals(List.of("204900358"), DebtService.verifyParity(DebtService.aggregate(List.of(inputs.get(0),
+                new DebtInput("402297787", "B", new BigDecimal("70"), Kind.SALE),
+                new DebtInput("204900358", null, new BigDecimal("1"), Kind.CASH_PAYMENT)), Set.of()), expected));
+    }
+
+    @Test
+    @DisplayName("Delta sync: initial debts re-read only on a new ETag, sales only for the days the feed reports")
+    void salesAndInitialDeltas() {
+        LocalDate day1 = LocalDate.of(2025, 5, 10);
+        LocalDate day2 = LocalDate.of(2025, 5, 11);
+        List<WaybillDto> sales = new ArrayList<>(List.of(sale("204900358", "100", day1), sale("555", "7", day2)));
+        sales(sales);
+        when(paymentRepository.findByDateAfter(any())).thenReturn(List.of());
+        assertEquals(new BigDecimal("600.00"), debt(service.getOverview()));
+
+        service.syncDeltas();
+        verify(grpc, times(1)).forEachWaybill(any(), any());
+
+        sales.set(0, sale("204900358", "150", day1));
+        sales.add(sale("204900358", "20", day2));
+        when(restTemplate.getForObject(contains("/sales/changes?since=e:0"), eq(WaybillChangesDto.class)))
+                .thenReturn(new WaybillChangesDto("e:1", false, List.of(
+                        new WaybillChangesDto.DayRange(LocalDate.of(2025, 4, 1), day1))));
+        initialDebts("v2", "800");
+        service.syncDeltas();
+
+        // 800 + 150; day2's new sale is not reported yet
+        assertEquals(new BigDecimal("950.00"), debt(service.getOverview()));
+        verify(grpc).forEachWaybill(eq(new WaybillStreamGrpc.WaybillsRequest(null, "2025-04-30", "2025-05-10",
+                true, WaybillType.SALE)), any());
+
+        when(restTemplate.getForObject(contains("/sales/changes?since=e:1"), eq(WaybillChangesDto.class)))
+                .thenReturn(new WaybillChangesDto("e:2", false, List.of(new WaybillChangesDto.DayRange(day2, day2))));
+        service.syncDeltas();
+
+        assertEquals(new BigDecimal("970.00"), debt(service.getOverview()));
+        assertEquals(List.of(), service.checkParity());
+    }
+
+    @Test
+    @DisplayName("A sales cursor waybill-service cannot serve falls back to a full rebuild")
+    void resetRebuilds() {
+        when(paymentRepository.findByDateAfter(any())).thenReturn(List.of());
+        service.getOverview();
+        when(restTemplate.getForObject(contains("/sales/changes"), eq(WaybillChangesDto.class)))
+                .thenReturn(new WaybillChangesDto("f:0", true, List.of()));
+
+        service.syncDeltas();
+
+        verify(paymentRepository, times(2)).findByDateAfter(any());
+    }
+
+    @Test
+    @DisplayName("Invalidation forces a full rebuild on the next read")
+    void invalidate() {
+        when(paymentRepository.findByDateAfter(any())).thenReturn(List.of(payment("b1", "100", IN_WINDOW)));
+        service.getOverview();
+
+        service.invalidate();
+        service.getOverview();
+
+        verify(paymentRepository, times(2)).findByDateAfter(any());
+    }
+}
@@ -0,0 +1,50 @@
+package ge.tastyerp.payment.service;
+
+import ge.tastyerp.common.dto.payment.DebtOverviewDto;
+import ge.tastyerp.payment.infrastructure.grpc.WaybillGrpcClient;
+import ge.tastyerp.payment.repository.ManualCashPaymentRepository;
+import ge.tastyerp.payment.repository.PaymentRepository;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.ResponseEntity;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.client.RestTemplate;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+/** Debt overview reads against a ledger that keeps being invalidated. */
+class DebtServiceTest {
+
+    @Test
+    @DisplayName("An overview read retries an overtaken rebuild once, then serves its fresh read instead of looping")
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    void overviewUnderConstantInvalidation() {
+        RestTemplate rest = mock(RestTemplate.class);
+        DebtService service = new DebtService(mock(PaymentRepository.class), mock(ManualCashPaymentRepository.class),
+                rest, mock(WaybillGrpcClient.class));
+        ReflectionTestUtils.setField(service, "cutoffDateString", "2025-04-29");
+        ResponseEntity<Map> debts = ResponseEntity.ok(Map.of("data", List.of(
+                Map.of("customerId", "204900358", "name", "Company A", "debt", "100.00"))));
+        // Every rebuild is overtaken: the exclude set "changes" while it reads.
+        when(rest.exchange(anyString(), eq(HttpMethod.GET), any(HttpEntity.class), eq(Map.class)))
+                .thenAnswer(inv -> {
+                    service.invalidate();
+                    return debts;
+                });
+
+        DebtOverviewDto overview = service.getOverview();
+
+        assertEquals(0, new BigDecimal("100.00").compareTo(overview.getCustomers().get(0).getCurrentDebt()));
+        verify(rest, times(2)).exchange(anyString(), eq(HttpMethod.GET), any(HttpEntity.class), eq(Map.class));
+    }
+}
@@ -0,0 +1,172 @@
+package ge.tastyerp.payment.service.audit;
+
+import ge.tastyerp.common.dto.audit.AuditDashboardDto;
+import ge.tastyerp.common.dto.audit.ProductCatalogDto;
+import ge.tastyerp.common.dto.audit.ProductHierarchy;
+import ge.tastyerp.common.dto.audit.ProductMovementDto;
+import ge.tastyerp.common.dto.audit.RealTotalsDto;
+import ge.tastyerp.common.dto.payment.DebtOverviewDto;
+import ge.tastyerp.common.dto.waybill.WaybillType;
+import ge.tastyerp.common.util.TinValidator;
+import ge.tastyerp.payment.infrastructure.grpc.WaybillGrpcClient;
+import ge.tastyerp.payment.repository.AuditExceptionRepository;
+import ge.tastyerp.payment.repository.PaymentOverrideRepository;
+import ge.tastyerp.payment.repository.PaymentRepository;
+import ge.tastyerp.payment.service.DebtService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.client.RestTemplate;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.contains;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+/** The streamed dashboard and catalog folds against list-based computations over the same movements. */
+class AuditControlServiceTest {
+
+    private static final LocalDate START = LocalDate.of(2025, 6, 1);
+    private static final LocalDate END = LocalDate.of(2025, 6, 30);
+    private static final List<String> NAMES = List.of("საქონლის ხორცი", "ღორის ხორცი", "ღორის ქონი",
+            " ქათმის ფილე ", "საბურავი", "ცხვრის ხორცი");
+    private static final List<String> UNITS = Arrays.asList("კგ", "kg", "ცალი", null);
+    private static final List<String> COUNTERPARTIES = Arrays.asList("111", "222", "0333", "333", null);
+
+    private final Map<String, String> overrides = Map.of("ღორის ქონი", ProductHierarchy.BEEF);
+    private final Map<String, Boolean> realEntities = Map.of("222", false);
+    private final Set<String> unreal = Set.of("333");
+    private final Map<String, BigDecimal> writeOffRates = Map.of(ProductHierarchy.BEEF, new BigDecimal("20"));
+
+    private AuditControlService service;
+    private List<ProductMovementDto> movements;
+
+    @BeforeEach
+    void setUp() {
+        RestTemplate rest = mock(RestTemplate.class);
+        WaybillGrpcClient grpc = mock(WaybillGrpcClient.class);
+        DebtService debtService = mock(DebtService.class);
+        service = new AuditControlService(debtService, mock(PaymentRepository.class),
+                mock(AuditExceptionRepository.class), mock(PaymentOverrideRepository.class),
+                new WriteOffCalculator(), rest, grpc);
+        ReflectionTestUtils.setField(service, "configServiceUrl", "http://config");
+        ReflectionTestUtils.setField(service, "waybillServiceUrl", "http://waybill");
+        ReflectionTestUtils.setField(service, "targetedExpenseId", "01008026584");
+
+        when(rest.getForObject(contains("/product-categories"), eq(Map.class))).thenReturn(Map.of("data",
+                overrides.entrySet().stream().map(e -> Map.of("name", e.getKey(), "category", e.getValue())).toList()));
+        when(rest.getForObject(contains("/customers"), eq(Map.class))).thenReturn(Map.of("data",
+                realEntities.entrySet().stream()
+                        .map(e -> Map.of("identification", e.getKey(), "isRealEntity", e.getValue())).toList()));
+        when(rest.getForObject(contains("/unreal-customers"), eq(Map.class)))
+                .thenReturn(Map.of("data", List.copyOf(unreal)));
+        when(rest.getForObject(contains("/write-off-rates"), eq(Map.class))).thenReturn(Map.of("data",
+                List.of(Map.of("category", ProductHierarchy.BEEF, "percent", "20"))));
+        when(rest.getForObject(contains("/product-vat-rates"), eq(Map.class))).thenReturn(Map.of("data", List.of()));
+        when(debtService.getOverview()).thenReturn(DebtOverviewDto.builder().customers(List.of()).build());
+
+        Random random = new Random(7);
+        movements = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) {
+            String name = NAMES.get(random.nextInt(NAMES.size()));
+            movements.add(ProductMovementDto.builder()
+                    // A day either side of the range: the fold must drop them like the list path.
+                    .date(START.plusDays(random.nextInt(32) - 1))
+                    .type(random.nextBoolean() ? WaybillType.SALE : WaybillType.PURCHASE)
+                    .productName(name)
+                    .parentCategory(ProductHierarchy.classify(name.trim()))
+                    .quantityKg(BigDecimal.valueOf(random.nextInt(100_000), 3))
+                    .unit(UNITS.get(random.nextInt(UNITS.size())))
+                    .amount(BigDecimal.valueOf(random.nextInt(1_000_000), 2))
+                    .counterpartyId(COUNTERPARTIES.get(random.nextInt(COUNTERPARTIES.size())))
+                    .build());
+        }
+        when(grpc.isEnabled()).thenReturn(true);
+        doAnswer(inv -> {
+            Consumer<ProductMovementDto> sink = inv.getArgument(3);
+            movements.forEach(sink);
+            return null;
+        }).when(grpc).forEachProductMovement(any(), any(), any(), any());
+    }
+
+    /** In-range movements with the user overrides applied, as the list-based path sees them. */
+    private List<ProductMovementDto> resolved() {
+        List<ProductMovementDto> out = new ArrayList<>();
+        for (ProductMovementDto m : movements) {
+            if (m.getDate().isBefore(START) || m.getDate().isAfter(END)) continue;
+            String category = overrides.getOrDefault(m.getProductName().trim().toLowerCase(), m.getParentCategory());
+            out.add(ProductMovementDto.builder().date(m.getDate()).type(m.getType()).productName(m.getProductName())
+                    .parentCategory(category).quantityKg(m.getQuantityKg()).unit(m.getUnit()).amount(m.getAmount())
+                    .counterpartyId(m.getCounterpartyId()).build());
+        }
+        return out;
+    }
+
+    private boolean isReal(String id) {
+        if (id == null) return true;
+        String canonical = TinValidator.canonicalId(id);
+        return !unreal.contains(canonical) && realEntities.getOrDefault(canonical, true);
+    }
+
+    @Test
+    @DisplayName("Dashboard ledgers and Real Totals folded from the stream equal buildLedgers and list sums")
+    void dashboardMatchesListPath() {
+        List<ProductMovementDto> list = resolved();
+        for (String filter : Arrays.asList(null, "pork")) {
+            AuditDashboardDto dashboard = service.getDashboard(START, END, filter);
+
+            assertEquals(service.buildLedgers(list, filter, writeOffRates), dashboard.getInventoryLedgers());
+        }
+        assertFalse(service.getDashboard(START, END, null).getInventoryLedgers().isEmpty());
+
+        BigDecimal realSales = BigDecimal.ZERO, excludedSales = BigDecimal.ZERO;
+        BigDecimal realPurchases = BigDecimal.ZERO, excludedPurchases = BigDecimal.ZERO;
+        Set<String> real = new HashSet<>(), excluded = new HashSet<>();
+        for (ProductMovementDto m : list) {
+            if (ProductHierarchy.isSupplies(m.getParentCategory())) continue;
+            boolean isReal = isReal(m.getCounterpartyId());
+            (isReal ? real : excluded).add(m.getCounterpartyId() != null ? m.getCounterpartyId() : "UNKNOWN");
+            if (m.getType() == WaybillType.SALE) {
+                if (isReal) realSales = realSales.add(m.getAmount()); else excludedSales = excludedSales.add(m.getAmount());
+            } else {
+                if (isReal) realPurchases = realPurchases.add(m.getAmount());
+                else excludedPurchases = excludedPurchases.add(m.getAmount());
+            }
+        }
+        assertEquals(RealTotalsDto.builder()
+                        .realTotalSales(realSales).realTotalPurchases(realPurchases)
+                        .excludedSales(excludedSales).excludedPurchases(excludedPurchases)
+                        .realEntityCount(real.size()).excludedEntityCount(excluded.size())
+                        .build(),
+                service.getDashboard(START, END, null).getRealTotals());
+    }
+
+    @Test
+    @DisplayName("Catalog rows folded from the stream equal the distinct names of the movement list")
+    void catalogMatchesListPath() {
+        Map<WaybillType, Map<String, ProductCatalogDto.Row>> expected = new EnumMap<>(WaybillType.class);
+        for (ProductMovementDto m : movements) {
+            if (m.getDate().isBefore(START) || m.getDate().isAfter(END)) continue;
+            String name = m.getProductName().trim();
+            String key = name.toLowerCase();
+            expected.computeIfAbsent(m.getType(), t -> new TreeMap<>()).putIfAbsent(name, ProductCatalogDto.Row.builder()
+                    .name(name)
+                    .category(overrides.getOrDefault(key, m.getParentCategory()))
+                    .overridden(overrides.containsKey(key))
+                    .vatPercent(new BigDecimal("18"))
+                    .build());
+        }
+
+        ProductCatalogDto catalog = service.getProductCatalog(START, END);
+
+        assertEquals(List.copyOf(expected.get(WaybillType.PURCHASE).values()), catalog.getPurchased());
+        assertEquals(List.copyOf(expected.get(WaybillType.SALE).values()), catalog.getSold());
+    }
+}
@@ -4,14 +4,30 @@ import ge.tastyerp.common.dto.audit.*;
 import ge.tastyerp.common.dto.config.CategoryLedgerInputDto;
 import ge.tastyerp.common.dto.config.FormalSalesCustomerDto;
 import ge.tastyerp.common.dto.waybill.WaybillType;
+import ge.tastyerp.payment.infrastructure.grpc.WaybillGrpcClient;
+import io.grpc.Status;
 import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.client.ResponseExtractor;
+import org.springframework.web.client.RestTemplate;
 
+import java.io.ByteArrayInputStream;
 import java.math.BigDecimal;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDate;
 import java.util.*;
+import java.util.function.Consumer;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
 
 /**
  * Parity tests for BOR-76 dual-ledger analytics against the issue's worked
@@ -20,7 +36,7 @@ import static org.junit.jupiter.api.Assertions.assertTrue;
  */
 class DualLedgerServiceTest {
 
-    private final DualLedgerService svc = new DualLedgerService(null);
+    private final DualLedgerService svc = new DualLedgerService(null, null);
     private static final LocalDate S = LocalDate.of(2026, 6, 1);
     private static final LocalDate E = LocalDate.of(2026, 6, 30);
     private static final String CAT = ProductHierarchy.BEEF;
@@ -336,4 +352,53 @@ class DualLedgerServiceTest {
         assertEquals(a.getTotalVatPayable(), b.getTotalVatPayable());
         assertEquals(a.getTotalPurchaseShortage(), b.getTotalPurchaseShortage());
     }
+
+    @Test
+    void movementQueryKeepsOverriddenProductsAndDropsWaybillId() {
+        ProductMovementQuery q = DualLedgerService.movementQuery("BEEF",
+                Map.of("ფარში", "BEEF", "საქონლის ხორცი (სუკი)", "PORK"));
+
+        assertEquals(Set.of("BEEF"), q.getCategories());
+        assertEquals(Set.of("ფარში"), q.getProducts());
+        assertTrue(q.getFields().contains("counterpartyId"));
+        assertTrue(!q.getFields().contains("waybillId"));
+
+        ProductMovementQuery all = DualLedgerService.movementQuery(null, Map.of("ფარში", "BEEF"));
+        assertEquals(null, all.getCategories());
+        assertEquals(null, all.getProducts());
+    }
+
+    // ==================== Streaming read ====================
+
+    @Test
+    void getDualLedgerSumsStreamedMovementsAndRedoesAPartialGrpcReadOverRest() throws Exception {
+        RestTemplate rest = mock(RestTemplate.class);
+        WaybillGrpcClient grpc = mock(WaybillGrpcClient.class);
+        DualLedgerService service = new DualLedgerService(rest, grpc);
+        ReflectionTestUtils.setField(service, "waybillServiceUrl", "http://waybill-service:8081");
+
+        // gRPC delivers one in-range line, then drops the call.
+        when(grpc.isEnabled()).thenReturn(true);
+        doAnswer(inv -> {
+            inv.<Consumer<ProductMovementDto>>getArgument(3).accept(pm(WaybillType.PURCHASE, CAT, "100", "2006", null));
+            throw Status.UNAVAILABLE.asRuntimeException();
+        }).when(grpc).forEachProductMovement(eq(S), eq(E), any(), any());
+
+        // REST re-reads everything, including a line outside the range.
+        String ndjson = "{\"date\":\"2026-06-01\",\"type\":\"PURCHASE\",\"productName\":\"x\","
+                + "\"parentCategory\":\"BEEF\",\"quantityKg\":100,\"unit\":\"კგ\",\"amount\":2006}\n"
+                + "{\"date\":\"2026-07-01\",\"type\":\"PURCHASE\",\"productName\":\"x\","
+                + "\"parentCategory\":\"BEEF\",\"quantityKg\":50,\"unit\":\"კგ\",\"amount\":1000}\n";
+        when(rest.execute(any(URI.class), eq(HttpMethod.GET), any(), any())).thenAnswer(inv -> {
+            ClientHttpResponse response = mock(ClientHttpResponse.class);
+            when(response.getBody()).thenReturn(new ByteArrayInputStream(ndjson.getBytes(StandardCharsets.UTF_8)));
+            return inv.<ResponseExtractor<?>>getArgument(3).extractData(response);
+        });
+
+        DualLedgerDto r = service.getDualLedger(S, E, null);
+
+        assertEquals(1, r.getPurchaseShortages().size());
+        assertGap(r.getPurchaseShortages().get(0).getDocKg(), "100");
+        assertGap(r.getPurchaseShortages().get(0).getDocTotal(), "2006");
+    }
 }
@@ -4,9 +4,11 @@ import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 
 import org.springframework.context.annotation.ComponentScan;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 @SpringBootApplication
 @ComponentScan(basePackages = "ge.tastyerp")
+@EnableScheduling  // WaybillPrefetchScheduler
 public class WaybillServiceApplication {
 
     public static void main(String[] args) {
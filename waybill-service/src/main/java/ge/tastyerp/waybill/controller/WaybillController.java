@@ -1,33 +1,55 @@
 package ge.tastyerp.waybill.controller;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import ge.tastyerp.common.dto.ApiResponse;
 import ge.tastyerp.common.dto.audit.ProductMovementDto;
+import ge.tastyerp.common.dto.audit.ProductMovementQuery;
+import ge.tastyerp.common.dto.audit.UnitClass;
+import ge.tastyerp.common.dto.waybill.CategoryTotalsDto;
 import ge.tastyerp.common.dto.waybill.CustomerSalesTotalsDto;
+import ge.tastyerp.common.dto.waybill.WaybillChangesDto;
 import ge.tastyerp.common.dto.waybill.ProductSalesDto;
 import ge.tastyerp.common.dto.waybill.WaybillDto;
 import ge.tastyerp.common.dto.waybill.WaybillFetchRequest;
 import ge.tastyerp.common.dto.waybill.WaybillFetchResponse;
 import ge.tastyerp.common.dto.waybill.WaybillType;
 import ge.tastyerp.common.dto.waybill.WaybillVatSummaryDto;
+import ge.tastyerp.common.util.Ndjson;
 import ge.tastyerp.waybill.service.InventoryMovementService;
 import ge.tastyerp.waybill.service.ProductSalesService;
 import ge.tastyerp.waybill.service.WaybillService;
+import ge.tastyerp.waybill.service.WaybillStreamService;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.tags.Tag;
+import jakarta.servlet.http.HttpServletRequest;
 import jakarta.validation.Valid;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * REST Controller for waybill operations.
  *
  * IMPORTANT: Controllers contain NO business logic.
  * All logic is delegated to WaybillService.
+ *
+ * Endpoints that may wait on RS.ge return a CompletableFuture, so the servlet
+ * thread is released while the fetch is in progress
+ * (spring.mvc.async.request-timeout bounds the wait). The {@code /stream}
+ * variants send each RS.ge chunk as a Server-Sent Event as soon as it is ready.
+ *
+ * The large reads also answer {@code Accept: application/x-ndjson}: one record
+ * per line, no {@link ApiResponse} envelope, written while it is serialized.
  */
 @RestController
 @RequestMapping("/api/waybills")
@@ -36,9 +58,17 @@ import java.util.Map;
 @Slf4j
 public class WaybillController {
 
+    /** Set on responses served from stored data because the last RS.ge sync failed. */
+    static final String STALE_HEADER = "X-Waybill-Data-Stale";
+
+    /** Cursor of the next product-movements page; absent on the last page. */
+    static final String NEXT_CURSOR_HEADER = "X-Next-Cursor";
+
     private final WaybillService waybillService;
     private final ProductSalesService productSalesService;
     private final InventoryMovementService inventoryMovementService;
+    private final WaybillStreamService waybillStreamService;
+    private final ObjectMapper objectMapper;
 
     @PostMapping("/fetch")
     @Operation(summary = "Fetch waybills from RS.ge API")
@@ -50,6 +80,13 @@ public class WaybillController {
         return ResponseEntity.ok(ApiResponse.success(response, response.getMessage()));
     }
 
+    @PostMapping(value = "/fetch/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    @Operation(summary = "Fetch waybills from RS.ge API, streamed per chunk (SSE: chunk..., summary | error)")
+    public SseEmitter streamWaybills(@Valid @RequestBody WaybillFetchRequest request) {
+        log.info("HTTP POST /api/waybills/fetch/stream startDate={} endDate={}", request.getStartDate(), request.getEndDate());
+        return waybillStreamService.streamFetch(request, WaybillType.SALE);
+    }
+
     @PostMapping("/purchase/fetch")
     @Operation(summary = "Fetch purchase (buyer) waybills from RS.ge API")
     public ResponseEntity<ApiResponse<WaybillFetchResponse>> fetchPurchaseWaybills(
@@ -66,7 +103,29 @@ public class WaybillController {
         log.info("HTTP GET /api/waybills/sales/all");
         List<WaybillDto> waybills = waybillService.getAllSalesWaybills();
         log.info("HTTP GET /api/waybills/sales/all -> {} records", waybills.size());
-        return ResponseEntity.ok(waybills);
+        return ok(waybills);
+    }
+
+    @GetMapping(value = "/sales/all", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    @Operation(summary = "Get ALL sale waybills for aggregation, one JSON record per line")
+    public CompletableFuture<ResponseEntity<StreamingResponseBody>> streamAllSalesWaybills() {
+        log.info("HTTP GET /api/waybills/sales/all (ndjson)");
+        return waybillService.getAllSalesWaybillRowsAsync().thenApply(rows -> {
+            log.info("HTTP GET /api/waybills/sales/all (ndjson) -> {} records", rows.size());
+            return ndjson(rows.dtoIterator());
+        });
+    }
+
+    @GetMapping("/sales/changes")
+    @Operation(summary = "Get the days of after-cutoff sales changed since a cursor (debt ledger deltas)")
+    public CompletableFuture<ResponseEntity<WaybillChangesDto>> getSalesChanges(
+            @RequestParam(required = false) String since) {
+        log.info("HTTP GET /api/waybills/sales/changes since={}", since);
+        return waybillService.getSalesChangesAsync(since).thenApply(changes -> {
+            log.info("HTTP GET /api/waybills/sales/changes -> {} ranges (reset={})",
+                    changes.getDays().size(), changes.isReset());
+            return ok(changes);
+        });
     }
 
     @GetMapping("/sales/customer-totals")
@@ -75,12 +134,12 @@ public class WaybillController {
         log.info("HTTP GET /api/waybills/sales/customer-totals");
         List<CustomerSalesTotalsDto> totals = waybillService.getCustomerSalesTotals();
         log.info("HTTP GET /api/waybills/sales/customer-totals -> {} customers", totals.size());
-        return ResponseEntity.ok(totals);
+        return ok(totals);
     }
 
     @GetMapping
     @Operation(summary = "Get all waybills with optional filters (DEPRECATED - uses Firebase)")
-    public ResponseEntity<ApiResponse<List<WaybillDto>>> getAllWaybills(
+    public CompletableFuture<ResponseEntity<ApiResponse<List<WaybillDto>>>> getAllWaybills(
             @RequestParam(required = false) String customerId,
             @RequestParam(required = false) String startDate,
             @RequestParam(required = false) String endDate,
@@ -89,29 +148,119 @@ public class WaybillController {
 
         log.info("HTTP GET /api/waybills customerId={} startDate={} endDate={} afterCutoffOnly={} type={}",
                 customerId, startDate, endDate, afterCutoffOnly, type);
-        List<WaybillDto> waybills = waybillService.getWaybills(customerId, startDate, endDate, afterCutoffOnly, type);
-        log.info("HTTP GET /api/waybills -> {} records", waybills.size());
-        return ResponseEntity.ok(ApiResponse.success(waybills));
+        return waybillService.getWaybillsAsync(customerId, startDate, endDate, afterCutoffOnly, type)
+                .thenApply(waybills -> {
+                    log.info("HTTP GET /api/waybills -> {} records", waybills.size());
+                    return ok(ApiResponse.success(waybills));
+                });
+    }
+
+    @GetMapping(produces = MediaType.APPLICATION_NDJSON_VALUE)
+    @Operation(summary = "Get waybills with optional filters, one JSON record per line")
+    public CompletableFuture<ResponseEntity<StreamingResponseBody>> streamWaybills(
+            @RequestParam(required = false) String customerId,
+            @RequestParam(required = false) String startDate,
+            @RequestParam(required = false) String endDate,
+            @RequestParam(required = false) Boolean afterCutoffOnly,
+            @RequestParam(required = false) WaybillType type) {
+
+        log.info("HTTP GET /api/waybills (ndjson) customerId={} startDate={} endDate={} afterCutoffOnly={} type={}",
+                customerId, startDate, endDate, afterCutoffOnly, type);
+        return waybillService.getWaybillRowsAsync(customerId, startDate, endDate, afterCutoffOnly, type)
+                .thenApply(rows -> {
+                    log.info("HTTP GET /api/waybills (ndjson) -> {} records", rows.size());
+                    return ndjson(rows.dtoIterator());
+                });
     }
 
     @GetMapping("/product-sales")
     @Operation(summary = "Get product sales aggregated by beef/pork categories per customer")
-    public ResponseEntity<ApiResponse<List<ProductSalesDto>>> getProductSales(
+    public CompletableFuture<ResponseEntity<ApiResponse<List<ProductSalesDto>>>> getProductSales(
             @RequestParam String startDate,
             @RequestParam String endDate) {
         log.info("HTTP GET /api/waybills/product-sales startDate={} endDate={}", startDate, endDate);
-        List<ProductSalesDto> result = productSalesService.getProductSales(startDate, endDate);
-        return ResponseEntity.ok(ApiResponse.success(result));
+        return productSalesService.getProductSalesAsync(startDate, endDate)
+                .thenApply(result -> ResponseEntity.ok(ApiResponse.success(result)));
     }
 
     @GetMapping("/product-movements")
-    @Operation(summary = "Get per-line product movements (stock in/out) for inventory ledger (BOR-74)")
-    public ResponseEntity<ApiResponse<List<ProductMovementDto>>> getProductMovements(
+    @Operation(summary = "Get per-line product movements (stock in/out) for inventory ledger (BOR-74); "
+            + "optional filters, field projection and cursor paging (next page cursor in X-Next-Cursor)")
+    public CompletableFuture<ResponseEntity<ApiResponse<List<ProductMovementDto>>>> getProductMovements(
+            @RequestParam String startDate,
+            @RequestParam String endDate,
+            @RequestParam(required = false) List<String> category,
+            @RequestParam(required = false) WaybillType type,
+            @RequestParam(required = false) String counterpartyId,
+            @RequestParam(required = false) UnitClass unitClass,
+            @RequestParam(required = false) List<String> fields,
+            @RequestParam(required = false) String cursor,
+            @RequestParam(required = false) Integer limit,
+            HttpServletRequest request) {
+        log.info("HTTP GET /api/waybills/product-movements startDate={} endDate={} category={} type={} cursor={} limit={}",
+                startDate, endDate, category, type, cursor, limit);
+        ProductMovementQuery query = movementQuery(category, request, type, counterpartyId, unitClass, fields);
+        return inventoryMovementService.queryProductMovementsAsync(startDate, endDate, query, cursor, limit)
+                .thenApply(page -> withCursor(ResponseEntity.ok(), page).body(ApiResponse.success(page.movements())));
+    }
+
+    @GetMapping(value = "/product-movements", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    @Operation(summary = "Get per-line product movements, one JSON record per line (same filters as the JSON variant)")
+    public CompletableFuture<ResponseEntity<StreamingResponseBody>> streamProductMovementLines(
+            @RequestParam String startDate,
+            @RequestParam String endDate,
+            @RequestParam(required = false) List<String> category,
+            @RequestParam(required = false) WaybillType type,
+            @RequestParam(required = false) String counterpartyId,
+            @RequestParam(required = false) UnitClass unitClass,
+            @RequestParam(required = false) List<String> fields,
+            @RequestParam(required = false) String cursor,
+            @RequestParam(required = false) Integer limit,
+            HttpServletRequest request) {
+        log.info("HTTP GET /api/waybills/product-movements (ndjson) startDate={} endDate={} category={} type={} cursor={} limit={}",
+                startDate, endDate, category, type, cursor, limit);
+        ProductMovementQuery query = movementQuery(category, request, type, counterpartyId, unitClass, fields);
+        if (limit == null || limit == 0) {
+            // Unpaged: written window by window, never held whole.
+            return inventoryMovementService.iterateProductMovementsAsync(startDate, endDate, query, cursor)
+                    .thenApply(this::ndjson);
+        }
+        return inventoryMovementService.queryProductMovementsAsync(startDate, endDate, query, cursor, limit)
+                .thenApply(page -> ndjson(withCursor(ResponseEntity.ok(), page), page.movements().iterator()));
+    }
+
+    /**
+     * The movement filter of a request. Product names are read as repeated
+     * {@code product} parameters without comma splitting: RS.ge names may
+     * contain commas.
+     */
+    private static ProductMovementQuery movementQuery(List<String> category, HttpServletRequest request,
+                                                      WaybillType type, String counterpartyId,
+                                                      UnitClass unitClass, List<String> fields) {
+        String[] products = request.getParameterValues("product");
+        ProductMovementQuery query = ProductMovementQuery.builder()
+                .categories(category != null ? new LinkedHashSet<>(category) : null)
+                .products(products != null ? new LinkedHashSet<>(List.of(products)) : null)
+                .type(type)
+                .counterpartyId(counterpartyId)
+                .unitClass(unitClass)
+                .fields(fields != null ? new LinkedHashSet<>(fields) : null)
+                .build();
+        return query.isUnrestricted() ? null : query;
+    }
+
+    private static ResponseEntity.BodyBuilder withCursor(ResponseEntity.BodyBuilder builder,
+                                                         InventoryMovementService.MovementPage page) {
+        return page.nextCursor() != null ? builder.header(NEXT_CURSOR_HEADER, page.nextCursor()) : builder;
+    }
+
+    @GetMapping(value = "/product-movements/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    @Operation(summary = "Get per-line product movements, streamed per day chunk (SSE: chunk..., summary | error)")
+    public SseEmitter streamProductMovements(
             @RequestParam String startDate,
             @RequestParam String endDate) {
-        log.info("HTTP GET /api/waybills/product-movements startDate={} endDate={}", startDate, endDate);
-        List<ProductMovementDto> movements = inventoryMovementService.getProductMovements(startDate, endDate);
-        return ResponseEntity.ok(ApiResponse.success(movements));
+        log.info("HTTP GET /api/waybills/product-movements/stream startDate={} endDate={}", startDate, endDate);
+        return waybillStreamService.streamProductMovements(startDate, endDate);
     }
 
     @GetMapping("/vat")
@@ -127,4 +276,34 @@ public class WaybillController {
         return ResponseEntity.ok(ApiResponse.success(summary));
     }
 
+    @GetMapping("/category-totals")
+    @Operation(summary = "Get goods kg, amount and line count per parent product category (daily rollup)")
+    public ResponseEntity<ApiResponse<List<CategoryTotalsDto>>> getCategoryTotals(
+            @RequestParam String startDate,
+            @RequestParam String endDate,
+            @RequestParam(required = false) WaybillType type) {
+
+        log.info("HTTP GET /api/waybills/category-totals startDate={} endDate={} type={}", startDate, endDate, type);
+        return ok(ApiResponse.success(waybillService.getCategoryTotals(startDate, endDate, type)));
+    }
+
+    private <T> ResponseEntity<T> ok(T body) {
+        ResponseEntity.BodyBuilder builder = ResponseEntity.ok();
+        if (waybillService.isServingStaleData()) {
+            builder.header(STALE_HEADER, "true");
+        }
+        return builder.body(body);
+    }
+
+    private ResponseEntity<StreamingResponseBody> ndjson(Iterator<?> records) {
+        return ndjson(ResponseEntity.ok(), records);
+    }
+
+    private ResponseEntity<StreamingResponseBody> ndjson(ResponseEntity.BodyBuilder builder, Iterator<?> records) {
+        builder.contentType(MediaType.APPLICATION_NDJSON);
+        if (waybillService.isServingStaleData()) {
+            builder.header(STALE_HEADER, "true");
+        }
+        return builder.body(out -> Ndjson.write(objectMapper, out, records));
+    }
 }
@@ -0,0 +1,242 @@
+package ge.tastyerp.waybill.infrastructure.grpc;
+
+import ge.tastyerp.common.dto.audit.ProductMovementDto;
+import ge.tastyerp.common.dto.waybill.CustomerSalesTotalsDto;
+import ge.tastyerp.common.grpc.WaybillStreamGrpc;
+import ge.tastyerp.common.util.FutureUtils;
+import ge.tastyerp.waybill.service.InventoryMovementService;
+import ge.tastyerp.waybill.service.WaybillService;
+import ge.tastyerp.waybill.service.store.WaybillTable;
+import io.grpc.Grpc;
+import io.grpc.InsecureServerCredentials;
+import io.grpc.Server;
+import io.grpc.ServerServiceDefinition;
+import io.grpc.Status;
+import io.grpc.stub.ServerCallStreamObserver;
+import io.grpc.stub.ServerCalls;
+import io.grpc.stub.StreamObserver;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serves {@link WaybillStreamGrpc} (internal, plaintext) next to the REST API.
+ * Reads go through the same services as the REST endpoints; only the
+ * encoding differs. Batches are built from the result as the client's flow
+ * control allows, so a slow reader holds the result, not its encoded copy.
+ * Product movements are read one window of days at a time
+ * ({@link InventoryMovementService.MovementStream}), the next window only
+ * once the previous one is sent, so a long range is never held whole.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+@ConditionalOnProperty(name = "waybill.grpc.enabled", havingValue = "true", matchIfMissing = true)
+public class WaybillGrpcServer {
+
+    private final WaybillService waybillService;
+    private final InventoryMovementService inventoryMovementService;
+
+    @Value("${waybill.grpc.port:9091}")
+    private int port;
+
+    private Server server;
+
+    @PostConstruct
+    void start() throws IOException {
+        server = Grpc.newServerBuilderForPort(port, InsecureServerCredentials.create())
+                .addService(bindService())
+                .build()
+                .start();
+        log.info("Waybill gRPC stream listening on port {}", server.getPort());
+    }
+
+    @PreDestroy
+    void stop() throws InterruptedException {
+        if (server != null && !server.shutdown().awaitTermination(5, TimeUnit.SECONDS)) {
+            server.shutdownNow();
+        }
+    }
+
+    /** Bound port; differs from {@code waybill.grpc.port} when that is 0. */
+    int port() {
+        return server.getPort();
+    }
+
+    ServerServiceDefinition bindService() {
+        return ServerServiceDefinition.builder(WaybillStreamGrpc.SERVICE_NAME)
+                .addMethod(WaybillStreamGrpc.STREAM_PRODUCT_MOVEMENTS, ServerCalls.asyncServerStreamingCall(
+                        (request, observer) -> stream(observer, movements(request))))
+                .addMethod(WaybillStreamGrpc.STREAM_WAYBILLS, ServerCalls.asyncServerStreamingCall(
+                        (request, observer) -> stream(observer, once(waybillService
+                                .getWaybillRowsAsync(request.customerId(), request.startDate(), request.endDate(),
+                                        request.afterCutoffOnly(), request.type())
+                                .thenApply(WaybillTable.Rows::dtoIterator)))))
+                .addMethod(WaybillStreamGrpc.STREAM_CUSTOMER_SALES_TOTALS, ServerCalls.asyncServerStreamingCall(
+                        (request, observer) -> stream(observer, once(totals()))))
+                .build();
+    }
+
+    /** A result read in chunks; {@link #next} is called again only after the previous chunk completed. */
+    interface Chunks<T> {
+        boolean hasNext();
+
+        CompletableFuture<Iterator<T>> next();
+    }
+
+    private static <T> Chunks<T> once(CompletableFuture<Iterator<T>> records) {
+        return new Chunks<>() {
+            private boolean read;
+
+            @Override
+            public boolean hasNext() {
+                return !read;
+            }
+
+            @Override
+            public CompletableFuture<Iterator<T>> next() {
+                read = true;
+                return records;
+            }
+        };
+    }
+
+    /** Filtered and projected window by window, as the REST NDJSON variant. */
+    private Chunks<ProductMovementDto> movements(WaybillStreamGrpc.MovementsRequest request) {
+        try {
+            InventoryMovementService.MovementStream movements = inventoryMovementService.streamProductMovements(
+                    request.startDate(), request.endDate(), request.query(), null, 0);
+            return new Chunks<>() {
+                @Override
+                public boolean hasNext() {
+                    return movements.hasNext();
+                }
+
+                @Override
+                public CompletableFuture<Iterator<ProductMovementDto>> next() {
+                    return movements.next().thenApply(List::iterator);
+                }
+            };
+        } catch (RuntimeException e) {
+            return once(CompletableFuture.failedFuture(e));
+        }
+    }
+
+    /** Totals are aggregated synchronously on the gRPC handler thread. */
+    private CompletableFuture<Iterator<CustomerSalesTotalsDto>> totals() {
+        try {
+            return CompletableFuture.completedFuture(waybillService.getCustomerSalesTotals().iterator());
+        } catch (RuntimeException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    /**
+     * Sends {@code records} in batches of {@link WaybillStreamGrpc#BATCH_SIZE}
+     * whenever the call is ready, reading the next chunk when one is sent out,
+     * then completes; a failed read ends the call with UNAVAILABLE so the
+     * client can fall back to REST.
+     */
+    private static <T> void stream(StreamObserver<List<T>> observer, Chunks<T> records) {
+        ServerCallStreamObserver<List<T>> call = (ServerCallStreamObserver<List<T>>) observer;
+        BatchPump<T> pump = new BatchPump<>(call);
+        // Handlers can only be set before this method returns.
+        call.setOnCancelHandler(pump::cancel);
+        call.setOnReadyHandler(pump::drain);
+        pump.start(records);
+    }
+
+    /** Moves batches from the chunks to the call; runs on gRPC and service threads, hence the lock. */
+    private static final class BatchPump<T> {
+        private final ServerCallStreamObserver<List<T>> call;
+        private Chunks<T> chunks;
+        private Iterator<T> records;
+        /** A chunk is being read; drain resumes when it completes. */
+        private boolean reading;
+        private boolean done;
+
+        BatchPump(ServerCallStreamObserver<List<T>> call) {
+            this.call = call;
+        }
+
+        synchronized void start(Chunks<T> chunks) {
+            this.chunks = chunks;
+            this.records = Collections.emptyIterator();
+            drain();
+        }
+
+        synchronized void cancel() {
+            done = true;
+        }
+
+        synchronized void fail(Throwable ex) {
+            if (done) return;
+            done = true;
+            log.warn("Waybill gRPC stream failed: {}", ex.getMessage());
+            call.onError(Status.UNAVAILABLE.withDescription(ex.getMessage()).withCause(ex).asRuntimeException());
+        }
+
+        synchronized void drain() {
+            if (records == null || reading || done) return;
+            while (call.isReady()) {
+                // Batches fill across chunk boundaries; a partial one goes out only while a chunk is read.
+                List<T> batch = new ArrayList<>(WaybillStreamGrpc.BATCH_SIZE);
+                CompletableFuture<Iterator<T>> pending = null;
+                while (batch.size() < WaybillStreamGrpc.BATCH_SIZE) {
+                    if (records.hasNext()) {
+                        batch.add(records.next());
+                        continue;
+                    }
+                    if (!chunks.hasNext()) break;
+                    CompletableFuture<Iterator<T>> chunk;
+                    try {
+                        chunk = chunks.next();
+                    } catch (RuntimeException e) {
+                        chunk = CompletableFuture.failedFuture(e);
+                    }
+                    if (chunk.isDone() && !chunk.isCompletedExceptionally()) {
+                        records = chunk.join();
+                    } else {
+                        pending = chunk;
+                        break;
+                    }
+                }
+                if (!batch.isEmpty()) {
+                    call.onNext(batch);
+                }
+                if (pending != null) {
+                    reading = true;
+                    pending.whenComplete(this::resume);
+                    return;
+                }
+                if (!records.hasNext() && !chunks.hasNext()) {
+                    done = true;
+                    call.onCompleted();
+                    return;
+                }
+            }
+        }
+
+        private synchronized void resume(Iterator<T> chunk, Throwable ex) {
+            reading = false;
+            if (ex != null) {
+                fail(FutureUtils.unwrap(ex));
+                return;
+            }
+            records = chunk;
+            drain();
+        }
+    }
+}
@@ -2,24 +2,35 @@ package ge.tastyerp.waybill.service;
 
 import ge.tastyerp.common.dto.audit.ProductHierarchy;
 import ge.tastyerp.common.dto.audit.ProductMovementDto;
-import ge.tastyerp.common.dto.waybill.WaybillDto;
+import ge.tastyerp.common.dto.audit.ProductMovementQuery;
 import ge.tastyerp.common.dto.waybill.WaybillGoodDto;
 import ge.tastyerp.common.dto.waybill.WaybillType;
-import ge.tastyerp.common.util.SimpleTtlCache;
-import ge.tastyerp.waybill.service.rsge.RsGeSoapClient;
+import ge.tastyerp.common.exception.ValidationException;
+import ge.tastyerp.common.util.FutureUtils;
+import ge.tastyerp.common.util.DayRangeCache;
+import ge.tastyerp.common.util.ParallelLists;
+import ge.tastyerp.waybill.service.rsge.RsGePriority;
+import ge.tastyerp.waybill.service.store.WaybillGoodsCache;
+import ge.tastyerp.waybill.service.store.WaybillTable;
+import io.micrometer.core.instrument.MeterRegistry;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import java.math.BigDecimal;
+import java.time.LocalDate;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Objects;
+import java.util.NoSuchElementException;
+import java.util.Set;
 import java.util.concurrent.CompletableFuture;
-import java.util.stream.Collectors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Produces per-line product movements (stock in/out) from RS.ge waybills for
@@ -36,14 +47,28 @@ import java.util.stream.Collectors;
  * for a month range). Two optimizations, both parity-safe:
  * <ul>
  *   <li>SALE and PURCHASE list fetches run in parallel (they are independent
- *       RS.ge operations; each is already internally chunk-parallel).</li>
- *   <li>Results are cached per exact date range for a short TTL. RS.ge waybill
- *       history is immutable-in-practice within minutes, and the dashboard +
- *       product-catalog pages request identical ranges back-to-back — the
- *       second call is served from memory. User-editable data (category
- *       overrides etc.) is NOT cached anywhere; it is applied downstream on
- *       every request.</li>
+ *       RS.ge operations; each is already internally chunk-parallel). The
+ *       whole pipeline is composed of futures, so no thread is parked while
+ *       RS.ge works.</li>
+ *   <li>Results are cached per calendar day and type ({@link DayRangeCache}):
+ *       a request is put together from cached days and only the missing days
+ *       are built, one RS.ge list read per contiguous gap. Ranges that
+ *       overlap (dashboard 1–31 March, catalog 1–30 March) or shift by a day
+ *       share everything already built. Days the waybill store still
+ *       re-syncs (today and its trailing window) expire after
+ *       {@code open-ttl-ms}; closed history after {@code closed-ttl-ms}.
+ *       A day not read for {@code heap-idle-ms} is kept compressed off-heap
+ *       ({@link MovementListCodec}, up to {@code off-heap-mb}) for the rest
+ *       of its TTL and decoded on the next read.
+ *       User-editable data (category overrides etc.) is NOT cached anywhere;
+ *       it is applied downstream on every request. Concurrent requests share
+ *       in-flight days; a failed build is evicted immediately.</li>
  * </ul>
+ * Filtered reads ({@link MovementStream}) walk the range one window of
+ * {@code window-days} days at a time and read the next window only when the
+ * caller asks for it, so the gRPC and NDJSON writers hold one window of
+ * matches, not the range.
+ * Build phases are timed as {@code waybill.movements.build} (phase=lists|goods|total).
  */
 @Slf4j
 @Service
@@ -51,21 +76,54 @@ import java.util.stream.Collectors;
 public class InventoryMovementService {
 
     private final WaybillService waybillService;
-    private final RsGeSoapClient rsGeSoapClient;
+    private final WaybillGoodsCache goodsCache;
     private final WaybillProcessingService waybillProcessingService;
+    private final MeterRegistry meterRegistry;
 
-    /** TTL for the per-range movements cache (ms). Default 3 minutes. */
-    @Value("${audit.movements-cache-ttl-ms:180000}")
-    private long cacheTtlMs;
+    /** TTL of cached days that can still change (ms). Default 3 minutes. */
+    @Value("${audit.movements-cache.open-ttl-ms:${audit.movements-cache-ttl-ms:180000}}")
+    private long openTtlMs;
 
-    private volatile SimpleTtlCache<String, List<ProductMovementDto>> cache;
+    /** TTL of closed past days (ms). Default 6 hours. */
+    @Value("${audit.movements-cache.closed-ttl-ms:21600000}")
+    private long closedTtlMs;
 
-    private SimpleTtlCache<String, List<ProductMovementDto>> cache() {
-        SimpleTtlCache<String, List<ProductMovementDto>> local = cache;
+    /** Upper bound on (type, day) partitions cached on the heap. */
+    @Value("${audit.movements-cache.max-days:2000}")
+    private int maxDays;
+
+    /** Idle time after which a built day leaves the heap for the off-heap tier (ms). */
+    @Value("${audit.movements-cache.heap-idle-ms:180000}")
+    private long heapIdleMs;
+
+    /** Compressed off-heap budget for idle days (MB); 0 keeps every day on the heap. */
+    @Value("${audit.movements-cache.off-heap-mb:64}")
+    private long offHeapMb;
+
+    /** Days behind today the waybill store still re-fetches; those stay on the short TTL. */
+    @Value("${waybill.store.trailing-days:7}")
+    private int trailingDays;
+
+    /** Days per window of a streamed movement query; the most a reader holds at a time. */
+    @Value("${audit.movements-stream.window-days:31}")
+    private int windowDays;
+
+    /** Rows per parallel movement-building chunk; same setting as waybill normalization. */
+    @Value("${waybill.normalize.min-chunk:1024}")
+    private int minChunk;
+
+    /** Runs the parallel chunks; tests use a fixed-size pool. */
+    private ForkJoinPool pool = ForkJoinPool.commonPool();
+
+    private volatile DayRangeCache<WaybillType, List<ProductMovementDto>> cache;
+
+    private DayRangeCache<WaybillType, List<ProductMovementDto>> cache() {
+        DayRangeCache<WaybillType, List<ProductMovementDto>> local = cache;
         if (local == null) {
             synchronized (this) {
                 if (cache == null) {
-                    cache = new SimpleTtlCache<>(cacheTtlMs, 16);
+                    cache = new DayRangeCache<>(this::ttlFor, maxDays, List.of(),
+                            new MovementListCodec(), offHeapMb * 1024 * 1024, heapIdleMs);
                 }
                 local = cache;
             }
@@ -73,90 +131,388 @@ public class InventoryMovementService {
         return local;
     }
 
+    private long ttlFor(LocalDate day) {
+        return day.isBefore(LocalDate.now().minusDays(trailingDays - 1L)) ? closedTtlMs : openTtlMs;
+    }
+
     public List<ProductMovementDto> getProductMovements(String startDate, String endDate) {
-        String key = startDate + "|" + endDate;
-        return cache().getOrCompute(key, () -> fetchProductMovements(startDate, endDate));
+        return FutureUtils.join(getProductMovementsAsync(startDate, endDate));
     }
 
-    private List<ProductMovementDto> fetchProductMovements(String startDate, String endDate) {
-        log.info("Building product movements for {} to {} (cache miss)", startDate, endDate);
-        long t0 = System.currentTimeMillis();
+    /** Non-blocking {@link #getProductMovements}: sales then purchases, each in day order. */
+    public CompletableFuture<List<ProductMovementDto>> getProductMovementsAsync(String startDate, String endDate) {
+        WaybillService.DateRange range = waybillService.resolveRange(startDate, endDate, false);
+        if (range == null) {
+            return CompletableFuture.completedFuture(new ArrayList<>());
+        }
+        return getProductMovementsAsync(range.start(), range.end());
+    }
+
+    /** Movements of the resolved day range [start, end]; sales then purchases, each in day order. */
+    public CompletableFuture<List<ProductMovementDto>> getProductMovementsAsync(LocalDate start, LocalDate end) {
+        DayRangeCache<WaybillType, List<ProductMovementDto>> c = cache();
+        CompletableFuture<List<List<ProductMovementDto>>> salesF =
+                c.get(WaybillType.SALE, start, end, this::fetchProductMovements);
+        CompletableFuture<List<List<ProductMovementDto>>> purchasesF =
+                c.get(WaybillType.PURCHASE, start, end, this::fetchProductMovements);
+        return salesF.thenCombine(purchasesF, (sales, purchases) -> {
+            List<ProductMovementDto> movements = new ArrayList<>();
+            sales.forEach(movements::addAll);
+            purchases.forEach(movements::addAll);
+            return movements;
+        });
+    }
+
+    // ==================== QUERY PUSH-DOWN ====================
+
+    /** Type order of every movement listing: sales, then purchases. */
+    private static final List<WaybillType> TYPE_ORDER = List.of(WaybillType.SALE, WaybillType.PURCHASE);
+
+    /** One page of a movement query; {@code nextCursor} is null on the last page. */
+    public record MovementPage(List<ProductMovementDto> movements, String nextCursor) {}
+
+    /**
+     * {@link #getProductMovementsAsync(String, String)} filtered and projected by
+     * {@code query} (null = everything), starting after {@code cursor} (null =
+     * from the start) with at most {@code limit} lines (null or 0 = no limit).
+     */
+    public CompletableFuture<MovementPage> queryProductMovementsAsync(String startDate, String endDate,
+                                                                      ProductMovementQuery query,
+                                                                      String cursor, Integer limit) {
+        if (limit != null && limit < 0) {
+            throw new ValidationException("limit", "limit must not be negative");
+        }
+        Position after = cursor == null || cursor.isBlank() ? null : Position.parse(cursor);
+        MovementStream stream = streamProductMovements(startDate, endDate, query, after, limit != null ? limit : 0);
+        return page(stream, new ArrayList<>());
+    }
+
+    /**
+     * Query over the resolved range: the matches of every window, collected
+     * into one page. Reading stops once the page is full.
+     */
+    public CompletableFuture<MovementPage> queryProductMovementsAsync(LocalDate start, LocalDate end,
+                                                                      ProductMovementQuery query,
+                                                                      Position after, int limit) {
+        return page(new MovementStream(start, end, query, after, limit), new ArrayList<>());
+    }
+
+    /**
+     * Unpaged form of {@link #queryProductMovementsAsync(String, String, ProductMovementQuery, String, Integer)}
+     * for writers: completes once the first window is read (so a failed RS.ge
+     * read still fails the request), then yields the remaining windows one by
+     * one. The iterator blocks while a later window is read, so iterate it
+     * only on a thread that may block, e.g. a StreamingResponseBody writer.
+     */
+    public CompletableFuture<Iterator<ProductMovementDto>> iterateProductMovementsAsync(String startDate, String endDate,
+                                                                                      ProductMovementQuery query,
+                                                                                      String cursor) {
+        Position after = cursor == null || cursor.isBlank() ? null : Position.parse(cursor);
+        MovementStream stream = streamProductMovements(startDate, endDate, query, after, 0);
+        return stream.next().thenApply(first -> remaining(stream, first.iterator()));
+    }
+
+    private static Iterator<ProductMovementDto> remaining(MovementStream stream, Iterator<ProductMovementDto> first) {
+        return new Iterator<>() {
+            private Iterator<ProductMovementDto> window = first;
+
+            @Override
+            public boolean hasNext() {
+                while (!window.hasNext() && stream.hasNext()) {
+                    window = FutureUtils.join(stream.next()).iterator();
+                }
+                return window.hasNext();
+            }
+
+            @Override
+            public ProductMovementDto next() {
+                if (!hasNext()) throw new NoSuchElementException();
+                return window.next();
+            }
+        };
+    }
+
+    private static CompletableFuture<MovementPage> page(MovementStream stream, List<ProductMovementDto> out) {
+        while (stream.hasNext()) {
+            CompletableFuture<List<ProductMovementDto>> window = stream.next();
+            if (!window.isDone()) {
+                return window.thenCompose(lines -> {
+                    out.addAll(lines);
+                    return page(stream, out);
+                });
+            }
+            out.addAll(window.join());
+        }
+        return CompletableFuture.completedFuture(new MovementPage(out, stream.nextCursor()));
+    }
+
+    /**
+     * The matches of a movement query, read window by window (see
+     * {@link MovementStream}); validates the query and resolves the range.
+     */
+    public MovementStream streamProductMovements(String startDate, String endDate, ProductMovementQuery query,
+                                                 Position after, int limit) {
+        if (query != null && query.getFields() != null) {
+            for (String field : query.getFields()) {
+                if (!ProductMovementQuery.FIELDS.contains(field)) {
+                    throw new ValidationException("fields", "Unknown field '" + field + "'; expected one of "
+                            + ProductMovementQuery.FIELDS);
+                }
+            }
+        }
+        WaybillService.DateRange range = waybillService.resolveRange(startDate, endDate, false);
+        if (range == null) {
+            return new MovementStream(LocalDate.MAX, LocalDate.MIN, query, after, limit);
+        }
+        return new MovementStream(range.start(), range.end(), query, after, limit);
+    }
+
+    /**
+     * Matching, projected lines of a query in listing order (sales, then
+     * purchases, each in day order), one window of {@code window-days} days of
+     * one type per {@link #next}. Only the types the query admits are built.
+     * A window is read from the day cache (or built) when it is asked for,
+     * together with the window after it, so building the next window overlaps
+     * writing out this one; a reader holds at most those two. With a
+     * {@code limit}, the stream ends once the page is full and
+     * {@link #nextCursor} tells where the next page starts.
+     *
+     * Not thread-safe: call {@link #next} again only after the previous
+     * window completed.
+     */
+    public final class MovementStream {
+
+        private record Window(int typeIndex, LocalDate from, CompletableFuture<List<List<ProductMovementDto>>> days) {}
 
-        // SALE and PURCHASE lists are independent RS.ge calls — fetch in parallel.
-        CompletableFuture<List<WaybillDto>> salesF = CompletableFuture.supplyAsync(
-                () -> waybillService.getWaybills(null, startDate, endDate, false, WaybillType.SALE));
-        CompletableFuture<List<WaybillDto>> purchasesF = CompletableFuture.supplyAsync(
-                () -> waybillService.getWaybills(null, startDate, endDate, false, WaybillType.PURCHASE));
-        List<WaybillDto> sales = salesF.join();
-        List<WaybillDto> purchases = purchasesF.join();
-        long tLists = System.currentTimeMillis();
-        log.info("Fetched {} sale and {} purchase waybills in {} ms",
-                sales.size(), purchases.size(), tLists - t0);
-
-        // One goods lookup for both lists (keyed by waybillId).
-        List<String> waybillIds = new ArrayList<>();
-        waybillIds.addAll(idsOf(sales));
-        waybillIds.addAll(idsOf(purchases));
-        List<String> distinctIds = waybillIds.stream().distinct().collect(Collectors.toList());
-
-        Map<String, Map<String, Object>> rawGoodsMap = rsGeSoapClient.getWaybillGoodsMap(distinctIds);
-
-        Map<String, List<WaybillGoodDto>> goodsByWaybillId = new HashMap<>();
-        for (Map.Entry<String, Map<String, Object>> entry : rawGoodsMap.entrySet()) {
-            List<WaybillGoodDto> goods = waybillProcessingService.extractGoods(entry.getValue());
-            if (!goods.isEmpty()) {
-                goodsByWaybillId.put(entry.getKey(), goods);
+        private final LocalDate start;
+        private final LocalDate end;
+        private final ProductMovementQuery q;
+        private final Position after;
+        private final int limit;
+        private int typeIndex = -1;
+        /** First day of the next window of {@code typeIndex}. */
+        private LocalDate from;
+        /** Window already being read ahead; null when none is left. */
+        private Window ahead;
+        private int taken;
+        private Position last;
+        private String nextCursor;
+        private boolean full;
+
+        MovementStream(LocalDate start, LocalDate end, ProductMovementQuery query, Position after, int limit) {
+            this.start = start;
+            this.end = end;
+            this.q = query != null ? query.normalized() : new ProductMovementQuery();
+            this.after = after;
+            this.limit = limit;
+            nextType();
+        }
+
+        public boolean hasNext() {
+            return !full && (ahead != null || typeIndex < TYPE_ORDER.size());
+        }
+
+        /** Matches of the next window; empty when the window has none. */
+        public CompletableFuture<List<ProductMovementDto>> next() {
+            if (!hasNext()) {
+                return CompletableFuture.completedFuture(List.of());
+            }
+            Window window = ahead != null ? ahead : read();
+            ahead = typeIndex < TYPE_ORDER.size() ? read() : null;
+            return window.days().thenApply(days -> scan(window.typeIndex(), window.from(), days));
+        }
+
+        /** Cursor of the page after this one; null unless the stream stopped at {@code limit}. */
+        public String nextCursor() {
+            return nextCursor;
+        }
+
+        /** Starts reading the window at {@code from} and moves past it. */
+        private Window read() {
+            int t = typeIndex;
+            LocalDate windowFrom = from;
+            LocalDate windowTo = windowFrom.plusDays(Math.max(windowDays, 1) - 1L);
+            if (!windowTo.isBefore(end)) {
+                windowTo = end;
+                nextType();
+            } else {
+                from = windowTo.plusDays(1);
+            }
+            return new Window(t, windowFrom, cache().get(TYPE_ORDER.get(t), windowFrom, windowTo,
+                    InventoryMovementService.this::fetchProductMovements));
+        }
+
+        private void nextType() {
+            while (++typeIndex < TYPE_ORDER.size()) {
+                WaybillType type = TYPE_ORDER.get(typeIndex);
+                if (q.getType() != null && q.getType() != type) continue;
+                if (after != null && typeIndex < after.typeIndex()) continue;
+                from = after != null && typeIndex == after.typeIndex() && after.day().isAfter(start)
+                        ? after.day() : start;
+                if (!from.isAfter(end)) return;
+            }
+        }
+
+        private List<ProductMovementDto> scan(int t, LocalDate windowFrom, List<List<ProductMovementDto>> days) {
+            List<ProductMovementDto> out = new ArrayList<>();
+            for (int d = 0; d < days.size(); d++) {
+                LocalDate day = windowFrom.plusDays(d);
+                List<ProductMovementDto> lines = days.get(d);
+                for (int i = 0; i < lines.size(); i++) {
+                    Position pos = new Position(t, day, i);
+                    if (after != null && pos.compareTo(after) <= 0) continue;
+                    ProductMovementDto m = lines.get(i);
+                    if (!q.matches(m)) continue;
+                    if (limit > 0 && taken == limit) {
+                        // One more match exists: the page ends at the last line taken.
+                        full = true;
+                        nextCursor = last.toString();
+                        return out;
+                    }
+                    out.add(q.project(m));
+                    taken++;
+                    last = pos;
+                }
+            }
+            return out;
+        }
+    }
+
+    /**
+     * A line's place in the listing: type, the day it is filed under and its
+     * index within that day. A cursor built from it is not shifted by
+     * re-syncs of other days. Text form: {@code SALE:2025-06-01:17}.
+     */
+    public record Position(int typeIndex, LocalDate day, int index) implements Comparable<Position> {
+
+        static Position parse(String cursor) {
+            String[] parts = cursor.split(":");
+            try {
+                if (parts.length != 3) throw new IllegalArgumentException(cursor);
+                int type = TYPE_ORDER.indexOf(WaybillType.valueOf(parts[0]));
+                if (type < 0) throw new IllegalArgumentException(cursor);
+                return new Position(type, LocalDate.parse(parts[1]), Integer.parseInt(parts[2]));
+            } catch (RuntimeException e) {
+                throw new ValidationException("cursor", "Invalid cursor '" + cursor + "'");
             }
         }
+
+        @Override
+        public int compareTo(Position o) {
+            if (typeIndex != o.typeIndex) return Integer.compare(typeIndex, o.typeIndex);
+            int byDay = day.compareTo(o.day);
+            return byDay != 0 ? byDay : Integer.compare(index, o.index);
+        }
+
+        @Override
+        public String toString() {
+            return TYPE_ORDER.get(typeIndex) + ":" + day + ":" + index;
+        }
+    }
+
+    /** Builds one gap of days of one type: movements keyed by the day their waybill is filed under. */
+    private CompletableFuture<Map<LocalDate, List<ProductMovementDto>>> fetchProductMovements(
+            WaybillType type, LocalDate start, LocalDate end) {
+        log.info("Building {} product movements for {} to {} (cache miss)", type, start, end);
+        long t0 = System.currentTimeMillis();
+
+        return waybillService.getWaybillRowsAsync(type, start, end).thenCompose(rows -> {
+            long tLists = System.currentTimeMillis();
+            log.info("Fetched {} {} waybills in {} ms", rows.size(), type, tLists - t0);
+
+            WaybillTable table = rows.table();
+            Set<String> ids = new LinkedHashSet<>();
+            for (int i = 0; i < rows.size(); i++) {
+                String id = table.waybillId(rows.row(i));
+                if (id != null) ids.add(id);
+            }
+
+            return goodsCache.getGoodsMapsAsync(new ArrayList<>(ids), RsGePriority.GOODS)
+                    .thenApply(rawGoodsMap -> buildMovements(rows, rawGoodsMap, t0, tLists));
+        });
+    }
+
+    private Map<LocalDate, List<ProductMovementDto>> buildMovements(WaybillTable.Rows rows,
+                                                                    Map<String, Map<String, Object>> rawGoodsMap,
+                                                                    long t0, long tLists) {
+        Map<String, List<WaybillGoodDto>> goodsByWaybillId = waybillProcessingService.extractGoodsByWaybill(rawGoodsMap);
         long tGoods = System.currentTimeMillis();
 
-        List<ProductMovementDto> movements = new ArrayList<>();
-        movements.addAll(toMovements(sales, WaybillType.SALE, goodsByWaybillId));
-        movements.addAll(toMovements(purchases, WaybillType.PURCHASE, goodsByWaybillId));
+        Map<LocalDate, List<ProductMovementDto>> byDay = toMovements(rows, goodsByWaybillId);
 
-        log.info("Produced {} product movements (lists {} ms, goods {} ms, total {} ms)",
-                movements.size(), tLists - t0, tGoods - tLists, System.currentTimeMillis() - t0);
-        return movements;
+        long total = System.currentTimeMillis() - t0;
+        log.info("Produced {} product movements over {} days (lists {} ms, goods {} ms, total {} ms)",
+                byDay.values().stream().mapToInt(List::size).sum(), byDay.size(),
+                tLists - t0, tGoods - tLists, total);
+        recordPhase("lists", tLists - t0);
+        recordPhase("goods", tGoods - tLists);
+        recordPhase("total", total);
+        return byDay;
     }
 
-    private List<String> idsOf(List<WaybillDto> waybills) {
-        return waybills.stream()
-                .map(WaybillDto::getWaybillId)
-                .filter(Objects::nonNull)
-                .collect(Collectors.toList());
+    private void recordPhase(String phase, long millis) {
+        meterRegistry.timer("waybill.movements.build", "phase", phase).record(millis, TimeUnit.MILLISECONDS);
     }
 
-    private List<ProductMovementDto> toMovements(
-            List<WaybillDto> waybills,
-            WaybillType type,
+    /**
+     * Movements in row order within each day. Large row sets are classified
+     * in parallel chunks; each chunk groups its own rows by day and the chunks
+     * are merged in order, so every day's list matches a sequential pass.
+     */
+    private Map<LocalDate, List<ProductMovementDto>> toMovements(
+            WaybillTable.Rows rows,
             Map<String, List<WaybillGoodDto>> goodsByWaybillId) {
 
-        List<ProductMovementDto> result = new ArrayList<>();
-        for (WaybillDto waybill : waybills) {
-            List<WaybillGoodDto> goods = goodsByWaybillId.get(waybill.getWaybillId());
-            if (goods == null) continue;
-
-            String counterpartyId = type == WaybillType.PURCHASE
-                    ? waybill.getSellerTin()
-                    : waybill.getBuyerTin();
-
-            for (WaybillGoodDto good : goods) {
-                BigDecimal qty = good.getQuantity();
-                if (good.getName() == null || qty == null) continue;
-
-                result.add(ProductMovementDto.builder()
-                        .date(waybill.getDate())
-                        .type(type)
-                        .productName(good.getName())
-                        .parentCategory(ProductHierarchy.classify(good.getName()))
-                        .quantityKg(qty)
-                        .unit(good.getUnit())
-                        .amount(good.getTotalPrice() != null ? good.getTotalPrice() : BigDecimal.ZERO)
-                        .waybillId(waybill.getWaybillId())
-                        .counterpartyId(counterpartyId)
-                        .build());
-            }
+        WaybillTable table = rows.table();
+        WaybillType type = table.type();
+        List<Map<LocalDate, List<ProductMovementDto>>> chunks =
+                ParallelLists.mapRanges(pool, rows.size(), minChunk, (from, to, out) -> {
+                    Map<LocalDate, List<ProductMovementDto>> byDay = new HashMap<>();
+                    for (int i = from; i < to; i++) {
+                        addMovements(table, rows.row(i), type, goodsByWaybillId, byDay);
+                    }
+                    out.add(byDay);
+                });
+
+        if (chunks.size() == 1) {
+            return chunks.get(0);
+        }
+        Map<LocalDate, List<ProductMovementDto>> result = new HashMap<>();
+        for (Map<LocalDate, List<ProductMovementDto>> chunk : chunks) {
+            chunk.forEach((day, movements) -> result.computeIfAbsent(day, d -> new ArrayList<>()).addAll(movements));
         }
         return result;
     }
+
+    private static void addMovements(WaybillTable table, int row, WaybillType type,
+                                     Map<String, List<WaybillGoodDto>> goodsByWaybillId,
+                                     Map<LocalDate, List<ProductMovementDto>> result) {
+        String waybillId = table.waybillId(row);
+        List<WaybillGoodDto> goods = goodsByWaybillId.get(waybillId);
+        if (goods == null) return;
+
+        String counterpartyId = type == WaybillType.PURCHASE
+                ? table.sellerTin(row)
+                : table.buyerTin(row);
+        LocalDate date = table.date(row);
+        List<ProductMovementDto> day =
+                result.computeIfAbsent(LocalDate.ofEpochDay(table.epochDay(row)), d -> new ArrayList<>());
+
+        for (WaybillGoodDto good : goods) {
+            BigDecimal qty = good.getQuantity();
+            if (good.getName() == null || qty == null) continue;
+
+            day.add(ProductMovementDto.builder()
+                    .date(date)
+                    .type(type)
+                    .productName(good.getName())
+                    .parentCategory(ProductHierarchy.classify(good.getName()))
+                    .quantityKg(qty)
+                    .unit(good.getUnit())
+                    .amount(good.getTotalPrice() != null ? good.getTotalPrice() : BigDecimal.ZERO)
+                    .waybillId(waybillId)
+                    .counterpartyId(counterpartyId)
+                    .build());
+        }
+    }
 }
@@ -0,0 +1,128 @@
+package ge.tastyerp.waybill.service;
+
+import ge.tastyerp.common.dto.audit.ProductMovementDto;
+import ge.tastyerp.common.dto.waybill.WaybillType;
+import ge.tastyerp.common.util.OffHeapCache;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Binary form of one day's movement list for the off-heap cache tier.
+ *
+ * Strings are written once per list and referenced by index afterwards
+ * (product names, categories, units and counterparties repeat on almost
+ * every line), dates as epoch days and decimals as unscaled value plus
+ * scale, so a decoded list equals the original exactly, scale included.
+ */
+final class MovementListCodec implements OffHeapCache.Codec<List<ProductMovementDto>> {
+
+    private static final WaybillType[] TYPES = WaybillType.values();
+
+    /** Decimal tags: absent, unscaled value fits a long, or arbitrary size. */
+    private static final int NULL = 0;
+    private static final int LONG = 1;
+    private static final int BIG = 2;
+
+    @Override
+    public void write(List<ProductMovementDto> movements, DataOutput out) throws IOException {
+        Map<String, Integer> strings = new HashMap<>();
+        out.writeInt(movements.size());
+        for (ProductMovementDto m : movements) {
+            out.writeLong(m.getDate() != null ? m.getDate().toEpochDay() : Long.MIN_VALUE);
+            out.writeByte(m.getType() != null ? m.getType().ordinal() : -1);
+            string(out, m.getProductName(), strings);
+            string(out, m.getParentCategory(), strings);
+            decimal(out, m.getQuantityKg());
+            string(out, m.getUnit(), strings);
+            decimal(out, m.getAmount());
+            string(out, m.getWaybillId(), strings);
+            string(out, m.getCounterpartyId(), strings);
+        }
+    }
+
+    @Override
+    public List<ProductMovementDto> read(DataInput in) throws IOException {
+        List<String> strings = new ArrayList<>();
+        int n = in.readInt();
+        List<ProductMovementDto> out = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            long day = in.readLong();
+            int type = in.readByte();
+            out.add(ProductMovementDto.builder()
+                    .date(day != Long.MIN_VALUE ? LocalDate.ofEpochDay(day) : null)
+                    .type(type >= 0 ? TYPES[type] : null)
+                    .productName(string(in, strings))
+                    .parentCategory(string(in, strings))
+                    .quantityKg(decimal(in))
+                    .unit(string(in, strings))
+                    .amount(decimal(in))
+                    .waybillId(string(in, strings))
+                    .counterpartyId(string(in, strings))
+                    .build());
+        }
+        return out;
+    }
+
+    /** 0 = null, -1 = new string (text follows), k > 0 = the k-th string written so far. */
+    private static void string(DataOutput out, String value, Map<String, Integer> strings) throws IOException {
+        if (value == null) {
+            out.writeInt(0);
+            return;
+        }
+        Integer ref = strings.get(value);
+        if (ref != null) {
+            out.writeInt(ref);
+        } else {
+            strings.put(value, strings.size() + 1);
+            out.writeInt(-1);
+            out.writeUTF(value);
+        }
+    }
+
+    private static String string(DataInput in, List<String> strings) throws IOException {
+        int ref = in.readInt();
+        if (ref == 0) return null;
+        if (ref > 0) return strings.get(ref - 1);
+        String value = in.readUTF();
+        strings.add(value);
+        return value;
+    }
+
+    private static void decimal(DataOutput out, BigDecimal value) throws IOException {
+        if (value == null) {
+            out.writeByte(NULL);
+        } else if (value.unscaledValue().bitLength() < 64) {
+            out.writeByte(LONG);
+            out.writeLong(value.unscaledValue().longValue());
+            out.writeInt(value.scale());
+        } else {
+            out.writeByte(BIG);
+            byte[] unscaled = value.unscaledValue().toByteArray();
+            out.writeInt(unscaled.length);
+            out.write(unscaled);
+            out.writeInt(value.scale());
+        }
+    }
+
+    private static BigDecimal decimal(DataInput in) throws IOException {
+        return switch (in.readByte()) {
+            case NULL -> null;
+            case LONG -> BigDecimal.valueOf(in.readLong(), in.readInt());
+            case BIG -> {
+                byte[] unscaled = new byte[in.readInt()];
+                in.readFully(unscaled);
+                yield new BigDecimal(new BigInteger(unscaled), in.readInt());
+            }
+            default -> throw new IOException("Unknown decimal tag");
+        };
+    }
+}
@@ -2,17 +2,20 @@ package ge.tastyerp.waybill.service;
 
 import ge.tastyerp.common.dto.audit.ProductHierarchy;
 import ge.tastyerp.common.dto.waybill.ProductSalesDto;
-import ge.tastyerp.common.dto.waybill.WaybillDto;
 import ge.tastyerp.common.dto.waybill.WaybillGoodDto;
 import ge.tastyerp.common.dto.waybill.WaybillType;
-import ge.tastyerp.waybill.service.rsge.RsGeSoapClient;
+import ge.tastyerp.common.util.FutureUtils;
+import ge.tastyerp.waybill.service.rsge.RsGePriority;
+import ge.tastyerp.waybill.service.rsge.WaybillFieldResolver;
+import ge.tastyerp.waybill.service.store.WaybillGoodsCache;
+import ge.tastyerp.waybill.service.store.WaybillTable;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
 
 import java.math.BigDecimal;
 import java.util.*;
-import java.util.stream.Collectors;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * Aggregates waybill goods data into beef/pork kg totals per customer.
@@ -27,29 +30,42 @@ import java.util.stream.Collectors;
 public class ProductSalesService {
 
     private final WaybillService waybillService;
-    private final RsGeSoapClient rsGeSoapClient;
+    private final WaybillGoodsCache goodsCache;
     private final WaybillProcessingService waybillProcessingService;
 
     public List<ProductSalesDto> getProductSales(String startDate, String endDate) {
+        return FutureUtils.join(getProductSalesAsync(startDate, endDate));
+    }
+
+    /** Non-blocking {@link #getProductSales}: list, goods and aggregation composed as futures. */
+    public CompletableFuture<List<ProductSalesDto>> getProductSalesAsync(String startDate, String endDate) {
         log.info("Fetching product sales for date range: {} to {}", startDate, endDate);
 
         // Step 1: Fetch waybill list (gives us customer IDs and waybill IDs)
-        List<WaybillDto> waybills = waybillService.getWaybills(null, startDate, endDate, false, WaybillType.SALE);
-        log.info("Fetched {} waybills for product sales analysis", waybills.size());
-
-        // Step 2: Fetch per-waybill goods via get_waybill in parallel
-        List<String> waybillIds = waybills.stream()
-                .map(WaybillDto::getWaybillId)
-                .filter(Objects::nonNull)
-                .distinct()
-                .collect(Collectors.toList());
+        return waybillService.getWaybillRowsAsync(null, startDate, endDate, false, WaybillType.SALE)
+                .thenCompose(waybills -> {
+                    log.info("Fetched {} waybills for product sales analysis", waybills.size());
+
+                    // Step 2: Per-waybill goods (goods cache; misses go to get_waybill in parallel)
+                    WaybillTable table = waybills.table();
+                    Set<String> ids = new LinkedHashSet<>();
+                    for (int i = 0; i < waybills.size(); i++) {
+                        String id = table.waybillId(waybills.row(i));
+                        if (id != null) ids.add(id);
+                    }
+                    List<String> waybillIds = new ArrayList<>(ids);
 
-        Map<String, Map<String, Object>> rawGoodsMap = rsGeSoapClient.getWaybillGoodsMap(waybillIds);
+                    return goodsCache.getGoodsMapsAsync(waybillIds, RsGePriority.INTERACTIVE)
+                            .thenApply(rawGoodsMap -> aggregate(waybills, rawGoodsMap));
+                });
+    }
 
+    private List<ProductSalesDto> aggregate(WaybillTable.Rows waybills, Map<String, Map<String, Object>> rawGoodsMap) {
         // Step 3: Extract goods DTOs for each waybill using confirmed RS.ge field names
         Map<String, List<WaybillGoodDto>> goodsByWaybillId = new HashMap<>();
+        WaybillFieldResolver.Plans plans = WaybillFieldResolver.newPlans();
         for (Map.Entry<String, Map<String, Object>> entry : rawGoodsMap.entrySet()) {
-            List<WaybillGoodDto> goods = waybillProcessingService.extractGoods(entry.getValue());
+            List<WaybillGoodDto> goods = waybillProcessingService.extractGoods(entry.getValue(), plans);
             if (!goods.isEmpty()) {
                 goodsByWaybillId.put(entry.getKey(), goods);
             }
@@ -58,35 +74,35 @@ public class ProductSalesService {
         long totalGoodsItems = goodsByWaybillId.values().stream().mapToLong(List::size).sum();
         log.info("Extracted {} goods items across {} waybills", totalGoodsItems, goodsByWaybillId.size());
 
-        if (goodsByWaybillId.isEmpty() && !waybills.isEmpty()) {
+        if (goodsByWaybillId.isEmpty() && waybills.size() > 0) {
             log.warn("No goods data extracted from any waybill. " +
                     "Check RS.ge field names — confirmed names are W_NAME and QUANTITY_F under GOODS_LIST → GOODS.");
         }
 
-        // Step 4: Group waybills by customer and aggregate beef/pork kg
-        Map<String, List<WaybillDto>> byCustomer = waybills.stream()
-                .filter(w -> w.getCustomerId() != null)
-                .collect(Collectors.groupingBy(WaybillDto::getCustomerId));
-
+        // Step 4: Group waybills by customer (the table's posting lists) and aggregate beef/pork kg
+        WaybillTable table = waybills.table();
         List<ProductSalesDto> result = new ArrayList<>();
 
-        for (Map.Entry<String, List<WaybillDto>> entry : byCustomer.entrySet()) {
+        for (Map.Entry<String, WaybillTable.Rows> entry : waybills.byCustomer().entrySet()) {
             String customerId = entry.getKey();
-            List<WaybillDto> customerWaybills = entry.getValue();
-
-            String customerName = customerWaybills.stream()
-                    .map(WaybillDto::getCustomerName)
-                    .filter(n -> n != null && !n.isBlank())
-                    .findFirst()
-                    .orElse(customerId);
+            WaybillTable.Rows customerWaybills = entry.getValue();
+
+            String customerName = customerId;
+            for (int i = 0; i < customerWaybills.size(); i++) {
+                String name = table.customerName(customerWaybills.row(i));
+                if (name != null && !name.isBlank()) {
+                    customerName = name;
+                    break;
+                }
+            }
 
             BigDecimal beefKg = BigDecimal.ZERO;
             BigDecimal porkKg = BigDecimal.ZERO;
             Set<String> beefProductsFound = new LinkedHashSet<>();
             Set<String> porkProductsFound = new LinkedHashSet<>();
 
-            for (WaybillDto waybill : customerWaybills) {
-                List<WaybillGoodDto> goods = goodsByWaybillId.get(waybill.getWaybillId());
+            for (int i = 0; i < customerWaybills.size(); i++) {
+                List<WaybillGoodDto> goods = goodsByWaybillId.get(table.waybillId(customerWaybills.row(i)));
                 if (goods == null) continue;
 
                 for (WaybillGoodDto good : goods) {
@@ -0,0 +1,156 @@
+package ge.tastyerp.waybill.service;
+
+import ge.tastyerp.common.dto.waybill.WaybillType;
+import ge.tastyerp.common.util.FutureUtils;
+import ge.tastyerp.waybill.service.rsge.RsGePriority;
+import ge.tastyerp.waybill.service.store.WaybillGoodsCache;
+import ge.tastyerp.waybill.service.store.WaybillStore;
+import ge.tastyerp.waybill.service.store.WaybillTable;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Keeps the RS.ge ranges users open first thing in the morning warm, so the
+ * first visitor of the audit dashboard, payments or VAT page is served from
+ * the waybill store and goods cache instead of paying the cold RS.ge cost.
+ *
+ * Hot ranges:
+ * <ul>
+ *   <li>current month, SALE and PURCHASE lists plus their goods (VAT, audit)</li>
+ *   <li>previous month, likewise; closed, so refreshed less often</li>
+ *   <li>cutoff to today, SALE (payments debt aggregation)</li>
+ *   <li>trailing 30 days, SALE (the {@code getWaybills} default)</li>
+ * </ul>
+ *
+ * Every RS.ge call is queued at {@link RsGePriority#PREFETCH}, so the governor
+ * only gives it capacity interactive requests are not using. Ranges are warmed
+ * one after another and a run is skipped while the previous one is still
+ * going.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+@ConditionalOnProperty(name = "waybill.prefetch.enabled", havingValue = "true", matchIfMissing = true)
+public class WaybillPrefetchScheduler {
+
+    private final WaybillStore waybillStore;
+    private final WaybillGoodsCache goodsCache;
+    private final MeterRegistry meterRegistry;
+
+    @Value("${business.cutoff-date:2025-04-29}")
+    private String cutoffDate;
+
+    /** Refresh interval of ranges that include today (ms). */
+    @Value("${waybill.prefetch.interval-ms:300000}")
+    private long intervalMs;
+
+    /** Refresh interval of the previous month (ms). */
+    @Value("${waybill.prefetch.closed-interval-ms:3600000}")
+    private long closedIntervalMs;
+
+    /** Also fetch get_waybill goods for the current and previous month. */
+    @Value("${waybill.prefetch.goods:true}")
+    private boolean prefetchGoods;
+
+    private final AtomicBoolean running = new AtomicBoolean();
+    private final Map<String, Long> lastWarmedAt = new ConcurrentHashMap<>();
+
+    /** One warm-up target. */
+    record HotRange(String name, LocalDate start, LocalDate end, List<WaybillType> types,
+                    boolean goods, long intervalMs) {}
+
+    @Scheduled(initialDelayString = "${waybill.prefetch.initial-delay-ms:30000}",
+            fixedDelayString = "${waybill.prefetch.tick-ms:60000}")
+    public void tick() {
+        if (!running.compareAndSet(false, true)) {
+            log.debug("Waybill prefetch still running, skipping tick");
+            return;
+        }
+        boolean started = false;
+        try {
+            long now = System.currentTimeMillis();
+            CompletableFuture<Void> chain = CompletableFuture.completedFuture(null);
+            for (HotRange range : hotRanges(LocalDate.now())) {
+                Long last = lastWarmedAt.get(range.name());
+                if (last != null && now - last < range.intervalMs()) continue;
+                chain = chain.thenCompose(v -> warm(range));
+            }
+            chain.whenComplete((v, ex) -> running.set(false));
+            started = true;
+        } finally {
+            // e.g. a bad business.cutoff-date: do not leave every later tick skipped
+            if (!started) running.set(false);
+        }
+    }
+
+    List<HotRange> hotRanges(LocalDate today) {
+        LocalDate monthStart = today.withDayOfMonth(1);
+        LocalDate previousStart = monthStart.minusMonths(1);
+        List<WaybillType> both = List.of(WaybillType.SALE, WaybillType.PURCHASE);
+        List<HotRange> ranges = new ArrayList<>();
+        ranges.add(new HotRange("current-month", monthStart, today, both, prefetchGoods, intervalMs));
+        ranges.add(new HotRange("previous-month", previousStart, monthStart.minusDays(1), both, prefetchGoods,
+                closedIntervalMs));
+        LocalDate afterCutoff = LocalDate.parse(cutoffDate).plusDays(1);
+        if (!afterCutoff.isAfter(today)) {
+            ranges.add(new HotRange("cutoff-to-today", afterCutoff, today, List.of(WaybillType.SALE), false,
+                    intervalMs));
+        }
+        ranges.add(new HotRange("trailing-30-days", today.minusDays(30), today, List.of(WaybillType.SALE), false,
+                intervalMs));
+        return ranges;
+    }
+
+    /** Warms one range; never fails, so the next range still runs. */
+    private CompletableFuture<Void> warm(HotRange range) {
+        long t0 = System.nanoTime();
+        CompletableFuture<Void> all = CompletableFuture.completedFuture(null);
+        for (WaybillType type : range.types()) {
+            all = all.thenCompose(v -> waybillStore.readAsync(type, range.start(), range.end(), RsGePriority.PREFETCH)
+                    .thenCompose(snapshot -> range.goods()
+                            ? goodsCache.getGoodsMapsAsync(idsOf(snapshot.rows()), RsGePriority.PREFETCH)
+                                    .thenAccept(goods -> { })
+                            : CompletableFuture.<Void>completedFuture(null)));
+        }
+        return all.handle((v, ex) -> {
+            long nanos = System.nanoTime() - t0;
+            String outcome = ex == null ? "ok" : "error";
+            meterRegistry.timer("waybill.prefetch", "range", range.name(), "outcome", outcome)
+                    .record(nanos, TimeUnit.NANOSECONDS);
+            if (ex == null) {
+                lastWarmedAt.put(range.name(), System.currentTimeMillis());
+                log.info("Waybill prefetch warmed {} ({} to {}) in {} ms",
+                        range.name(), range.start(), range.end(), TimeUnit.NANOSECONDS.toMillis(nanos));
+            } else {
+                log.warn("Waybill prefetch of {} failed: {}", range.name(), FutureUtils.unwrap(ex).getMessage());
+            }
+            return null;
+        });
+    }
+
+    private static List<String> idsOf(WaybillTable.Rows rows) {
+        WaybillTable table = rows.table();
+        Set<String> ids = new LinkedHashSet<>();
+        for (int i = 0; i < rows.size(); i++) {
+            String id = table.waybillId(rows.row(i));
+            if (id != null) ids.add(id);
+        }
+        return new ArrayList<>(ids);
+    }
+}
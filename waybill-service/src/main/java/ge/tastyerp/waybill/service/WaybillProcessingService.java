@@ -5,7 +5,11 @@ import ge.tastyerp.common.dto.waybill.WaybillGoodDto;
 import ge.tastyerp.common.dto.waybill.WaybillType;
 import ge.tastyerp.common.util.AmountUtils;
 import ge.tastyerp.common.util.DateUtils;
+import ge.tastyerp.common.util.ParallelLists;
 import ge.tastyerp.common.util.TinValidator;
+import ge.tastyerp.waybill.service.rsge.RsGeWaybill;
+import ge.tastyerp.waybill.service.rsge.WaybillFieldResolver;
+import ge.tastyerp.waybill.service.rsge.WaybillFieldResolver.Field;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
@@ -15,6 +19,8 @@ import java.math.BigDecimal;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Service for processing and normalizing waybills from RS.ge.
@@ -24,6 +30,12 @@ import java.util.*;
  * - Extract BUYER_TIN, BUYER_NAME, FULL_AMOUNT
  * - Normalize dates to YYYY-MM-DD
  * - Mark waybills after cutoff date
+ *
+ * List rows arrive as {@link RsGeWaybill}s whose key spellings the parser
+ * already resolved. get_waybill goods trees are resolved here through
+ * {@link WaybillFieldResolver}: the key spellings of a response are learned
+ * once from its first row of each shape, so later rows do direct lookups
+ * instead of probing every variant.
  */
 @Slf4j
 @Service
@@ -33,111 +45,71 @@ public class WaybillProcessingService {
     @Value("${business.cutoff-date:2025-04-29}")
     private String cutoffDate;
 
-    // Goods container field name variants (RS.ge field names are uncertain)
-    private static final List<String> GOODS_CONTAINER_KEYS = List.of(
-            "GOODS_LIST", "goods_list", "GoodsList",
-            "GOODS_DETAILS", "goods_details",
-            "GOODS", "goods", "Goods",
-            "ITEMS", "items", "Items",
-            "PRODUCTS", "products",
-            "PRODUCT_LIST", "product_list",
-            "WAYBILL_GOODS", "waybill_goods"
-    );
-
-    private static final List<String> GOODS_NAME_KEYS = List.of(
-            "W_NAME", "w_name",        // Confirmed RS.ge field name
-            "NAME", "name", "Name",
-            "GOODS_NAME", "goods_name",
-            "PROD_NAME", "prod_name",
-            "ITEM_NAME", "item_name",
-            "PRODUCT_NAME", "product_name",
-            "DESCRIPTION", "description"
-    );
-
-    private static final List<String> GOODS_QUANTITY_KEYS = List.of(
-            "QUANTITY_F", "quantity_f",  // Confirmed RS.ge field name
-            "QUANTITY", "quantity", "Quantity",
-            "QTY", "qty",
-            "COUNT", "count",
-            "AMOUNT_KG", "amount_kg",
-            "WEIGHT", "weight"
-    );
-
-    // Inner item keys inside a goods container map (e.g. GOODS_LIST → { GOODS: [...] })
-    private static final List<String> GOODS_INNER_KEYS = List.of(
-            "GOODS", "goods", "Goods",
-            "ITEMS", "items", "Item", "ITEM",
-            "PRODUCT", "product"
-    );
-
-    // Amount field priority list (matching legacy exactly)
-    private static final List<String> AMOUNT_FIELDS = Arrays.asList(
-            "FULL_AMOUNT", "full_amount", "FullAmount", "fullAmount",
-            "TOTAL_AMOUNT", "total_amount", "totalAmount", "TotalAmount",
-            "AMOUNT_LARI", "amount_lari", "AmountLari", "amountLari",
-            "NET_AMOUNT", "net_amount", "NetAmount", "netAmount",
-            "GROSS_AMOUNT", "gross_amount", "GrossAmount", "grossAmount",
-            "AMOUNT", "amount", "Amount",
-            "SUM", "sum", "Sum",
-            "SUMA", "suma", "Suma",
-            "VALUE", "value", "Value",
-            "VALUE_LARI", "value_lari",
-            "PRICE", "price", "Price",
-            "TOTAL_PRICE", "total_price",
-            "COST", "cost", "Cost",
-            "TOTAL_COST", "total_cost"
-    );
+    private volatile LocalDate cutoff;
+
+    /** Rows per parallel normalization chunk; smaller inputs stay on the calling thread. */
+    @Value("${waybill.normalize.min-chunk:1024}")
+    private int minChunk;
+
+    /** Runs the parallel chunks; tests use a fixed-size pool. */
+    private ForkJoinPool pool = ForkJoinPool.commonPool();
 
     /**
      * Process raw waybills from RS.ge into normalized DTOs.
+     * Large responses are normalized in parallel chunks ({@link ParallelLists});
+     * the output keeps the input order, as a sequential pass would.
      */
-    public List<WaybillDto> processWaybills(List<Map<String, Object>> rawWaybills, WaybillType type) {
+    public List<WaybillDto> processWaybills(List<RsGeWaybill> rawWaybills, WaybillType type) {
         log.info("Processing {} raw waybills", rawWaybills.size());
 
-        List<WaybillDto> processed = new ArrayList<>();
-        int skippedByStatus = 0;
-
-        for (Map<String, Object> raw : rawWaybills) {
-            // Check status - skip cancelled waybills
-            Object statusObj = getField(raw, "STATUS", "status");
-            if (statusObj != null) {
-                int status = parseStatus(statusObj);
-                if (status == -1 || status == -2) {
-                    skippedByStatus++;
+        List<RsGeWaybill> rows = rawWaybills instanceof RandomAccess ? rawWaybills : new ArrayList<>(rawWaybills);
+        AtomicInteger skippedByStatus = new AtomicInteger();
+        List<WaybillDto> processed = ParallelLists.mapRanges(pool, rows.size(), minChunk, (from, to, out) -> {
+            // Learned goods spellings are per chunk: Plans is not thread-safe.
+            WaybillFieldResolver.Plans plans = WaybillFieldResolver.newPlans();
+            int skipped = 0;
+            for (int i = from; i < to; i++) {
+                RsGeWaybill raw = rows.get(i);
+                // Check status - skip cancelled waybills
+                Integer status = raw.status() != null ? parseStatus(raw.status()) : null;
+                if (status != null && (status == -1 || status == -2)) {
+                    skipped++;
                     continue;
                 }
-            }
 
-            WaybillDto dto = mapToDto(raw, type);
-            if (dto != null) {
-                processed.add(dto);
+                WaybillDto dto = mapToDto(raw, type, plans, status);
+                if (dto != null) {
+                    out.add(dto);
+                }
             }
-        }
+            skippedByStatus.addAndGet(skipped);
+        });
 
-        log.info("Processed {} waybills, skipped {} by status", processed.size(), skippedByStatus);
+        log.info("Processed {} waybills, skipped {} by status", processed.size(), skippedByStatus.get());
         return processed;
     }
 
     /**
      * Map raw waybill data to DTO.
      */
-    private WaybillDto mapToDto(Map<String, Object> raw, WaybillType type) {
-        String waybillId = getStringField(raw, "ID", "id");
+    private WaybillDto mapToDto(RsGeWaybill raw, WaybillType type,
+                                WaybillFieldResolver.Plans plans, Integer status) {
+        String waybillId = raw.id();
         if (waybillId == null) {
             waybillId = "wb_" + System.currentTimeMillis() + "_" + Math.random();
         }
 
         // Extract buyer info (RS.ge BUYER)
-        String buyerTin = getStringField(raw, "BUYER_TIN", "buyer_tin", "BuyerTin");
-        String buyerName = getStringField(raw, "BUYER_NAME", "buyer_name", "BuyerName");
+        String buyerTin = raw.buyerTin();
+        String buyerName = raw.buyerName();
 
         if (buyerTin != null) {
             buyerTin = TinValidator.normalize(buyerTin);
         }
 
         // Seller info (RS.ge SELLER)
-        String sellerTin = getStringField(raw, "SELLER_TIN", "seller_tin", "SellerTin");
-        String sellerName = getStringField(raw, "SELLER_NAME", "seller_name", "SellerName");
+        String sellerTin = raw.sellerTin();
+        String sellerName = raw.sellerName();
 
         if (sellerTin != null) {
             sellerTin = TinValidator.normalize(sellerTin);
@@ -148,31 +120,24 @@ public class WaybillProcessingService {
         String customerId = type == WaybillType.PURCHASE ? sellerTin : buyerTin;
         String customerName = type == WaybillType.PURCHASE ? sellerName : buyerName;
 
-        // Extract date - RS.ge uses various field names
-        Object dateObj = getField(raw, "CREATE_DATE", "create_date", "CreateDate",
-                "CREATEDATE", "Date", "DATE", "date",
-                "WAYBILL_DATE", "waybill_date", "WaybillDate");
-        if (dateObj != null) {
-            log.debug("Found date field with value: {} (type: {})", dateObj, dateObj.getClass().getSimpleName());
-        } else {
-            log.debug("No date field found in waybill. Available keys: {}", raw.keySet());
+        // Date - the parser already picked it from RS.ge's field name variants
+        String dateObj = raw.date();
+        if (dateObj == null) {
+            log.debug("No date field found in waybill {}", waybillId);
         }
-        LocalDate date = DateUtils.parseDate(dateObj);
+        LocalDate date = parseDate(dateObj);
 
         // Check if after cutoff
         boolean isAfterCutoff = false;
-        if (date != null) {
-            isAfterCutoff = DateUtils.isAfterCutoff(date, cutoffDate);
+        if (date != null && cutoffDate != null) {
+            isAfterCutoff = date.isAfter(cutoff());
         }
 
         // Extract amount
         BigDecimal amount = extractAmount(raw);
 
-        // Extract status
-        Object statusObj = getField(raw, "STATUS", "status");
-        Integer status = statusObj != null ? parseStatus(statusObj) : null;
-
-        List<WaybillGoodDto> goods = extractGoods(raw);
+        List<WaybillGoodDto> goods = raw.goods() != null
+                ? extractGoodsFrom(raw.goods(), plans) : Collections.emptyList();
 
         return WaybillDto.builder()
                 .waybillId(waybillId)
@@ -193,42 +158,59 @@ public class WaybillProcessingService {
     }
 
     /**
-     * Extract amount using priority field list.
+     * First non-zero amount, in the priority order the parser kept them in.
      */
-    private BigDecimal extractAmount(Map<String, Object> raw) {
-        for (String field : AMOUNT_FIELDS) {
-            Object value = raw.get(field);
-            if (value != null) {
-                BigDecimal amount = AmountUtils.parseAmount(value);
-                if (amount.compareTo(BigDecimal.ZERO) != 0) {
-                    return amount;
-                }
-            }
+    private static BigDecimal extractAmount(RsGeWaybill raw) {
+        for (String value : raw.amounts()) {
+            BigDecimal parsed = AmountUtils.parseAmount(value);
+            if (parsed.compareTo(BigDecimal.ZERO) != 0) return parsed;
         }
         return BigDecimal.ZERO;
     }
 
+    private LocalDate cutoff() {
+        LocalDate local = cutoff;
+        if (local == null) {
+            local = LocalDate.parse(cutoffDate);
+            cutoff = local;
+        }
+        return local;
+    }
+
     /**
-     * Get field with multiple possible keys.
+     * RS.ge dates are ISO date-times (yyyy-MM-ddTHH:mm:ss); read those
+     * directly. Anything else goes through {@link DateUtils#parseDate}, which
+     * returns the same date for this shape after trying other formats first.
      */
-    private Object getField(Map<String, Object> map, String... keys) {
-        for (String key : keys) {
-            Object value = map.get(key);
-            if (value != null) {
-                return value;
+    private static LocalDate parseDate(Object dateObj) {
+        if (dateObj instanceof String s && s.length() >= 11 && s.charAt(10) == 'T'
+                && s.charAt(4) == '-' && s.charAt(7) == '-'
+                && digits(s, 0, 4) && digits(s, 5, 7) && digits(s, 8, 10)
+                && !Character.isWhitespace(s.charAt(s.length() - 1)) && noLineBreaks(s)) {
+            try {
+                return LocalDate.of(Integer.parseInt(s, 0, 4, 10),
+                        Integer.parseInt(s, 5, 7, 10), Integer.parseInt(s, 8, 10, 10));
+            } catch (RuntimeException e) {
+                // invalid calendar date: let the generic parser decide
             }
         }
-        return null;
+        return DateUtils.parseDate(dateObj);
     }
 
-    /**
-     * Get string field with multiple possible keys.
-     */
-    private String getStringField(Map<String, Object> map, String... keys) {
-        Object value = getField(map, keys);
-        if (value == null) return null;
-        String str = value.toString().trim();
-        return str.isEmpty() ? null : str;
+    private static boolean digits(String s, int from, int to) {
+        for (int i = from; i < to; i++) {
+            char c = s.charAt(i);
+            if (c < '0' || c > '9') return false;
+        }
+        return true;
+    }
+
+    private static boolean noLineBreaks(String s) {
+        for (int i = 11; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029') return false;
+        }
+        return true;
     }
 
     /**
@@ -245,37 +227,60 @@ public class WaybillProcessingService {
         }
     }
 
+    /**
+     * Goods of each get_waybill response, keyed by waybill ID; waybills
+     * without goods are left out. Parallel over large ID sets like
+     * {@link #processWaybills}.
+     */
+    public Map<String, List<WaybillGoodDto>> extractGoodsByWaybill(Map<String, Map<String, Object>> rawById) {
+        List<Map.Entry<String, Map<String, Object>>> entries = new ArrayList<>(rawById.entrySet());
+        List<Map.Entry<String, List<WaybillGoodDto>>> extracted =
+                ParallelLists.mapRanges(pool, entries.size(), minChunk, (from, to, out) -> {
+                    WaybillFieldResolver.Plans plans = WaybillFieldResolver.newPlans();
+                    for (int i = from; i < to; i++) {
+                        List<WaybillGoodDto> goods = extractGoods(entries.get(i).getValue(), plans);
+                        if (!goods.isEmpty()) {
+                            out.add(Map.entry(entries.get(i).getKey(), goods));
+                        }
+                    }
+                });
+        Map<String, List<WaybillGoodDto>> byId = new HashMap<>();
+        for (Map.Entry<String, List<WaybillGoodDto>> e : extracted) {
+            byId.put(e.getKey(), e.getValue());
+        }
+        return byId;
+    }
+
     /**
      * Extract goods line items from raw waybill map.
      * Tries multiple field name variants since RS.ge field names are uncertain.
      */
-    @SuppressWarnings("unchecked")
     List<WaybillGoodDto> extractGoods(Map<String, Object> raw) {
-        Object goodsContainer = null;
-        for (String key : GOODS_CONTAINER_KEYS) {
-            goodsContainer = raw.get(key);
-            if (goodsContainer != null) {
-                log.debug("Found goods container under key '{}'", key);
-                break;
-            }
-        }
+        return extractGoods(raw, WaybillFieldResolver.newPlans());
+    }
+
+    /** Same as {@link #extractGoods(Map)}, sharing learned key spellings across a response's waybills. */
+    @SuppressWarnings("unchecked")
+    List<WaybillGoodDto> extractGoods(Map<String, Object> raw, WaybillFieldResolver.Plans plans) {
+        Object goodsContainer = plans.get(raw, Field.GOODS_CONTAINER);
 
         if (goodsContainer == null) {
             log.debug("No goods found in waybill. Available keys: {}", raw.keySet());
             return Collections.emptyList();
         }
+        return extractGoodsFrom(goodsContainer, plans);
+    }
+
+    /** Goods lines of a goods container (GOODS_LIST or one of its variants). */
+    @SuppressWarnings("unchecked")
+    private List<WaybillGoodDto> extractGoodsFrom(Object goodsContainer, WaybillFieldResolver.Plans plans) {
 
         // If container is a Map it may wrap the actual items under a nested key.
         // e.g. GOODS_LIST = { "GOODS": [ item1, item2, ... ] }
         if (goodsContainer instanceof Map) {
-            Map<String, Object> containerMap = (Map<String, Object>) goodsContainer;
-            for (String innerKey : GOODS_INNER_KEYS) {
-                Object inner = containerMap.get(innerKey);
-                if (inner != null) {
-                    log.debug("Unwrapped inner goods container under key '{}'", innerKey);
-                    goodsContainer = inner;
-                    break;
-                }
+            Object inner = plans.get((Map<String, Object>) goodsContainer, Field.GOODS_INNER);
+            if (inner != null) {
+                goodsContainer = inner;
             }
         }
 
@@ -295,11 +300,11 @@ public class WaybillProcessingService {
             if (!(item instanceof Map)) continue;
             Map<String, Object> itemMap = (Map<String, Object>) item;
 
-            String name = getStringField(itemMap, GOODS_NAME_KEYS.toArray(new String[0]));
-            BigDecimal quantity = extractDecimalByKeys(itemMap, GOODS_QUANTITY_KEYS);
-            String unit = getStringField(itemMap, "UNIT", "unit", "Unit", "UNIT_NAME", "unit_name");
-            BigDecimal unitPrice = extractDecimalByKeys(itemMap, List.of("UNIT_PRICE", "unit_price", "PRICE", "price"));
-            BigDecimal totalPrice = extractDecimalByKeys(itemMap, List.of("TOTAL_PRICE", "total_price", "SUM", "sum", "AMOUNT", "amount"));
+            String name = plans.getString(itemMap, Field.GOODS_NAME);
+            BigDecimal quantity = extractDecimal(itemMap, plans, Field.GOODS_QUANTITY);
+            String unit = plans.getString(itemMap, Field.GOODS_UNIT);
+            BigDecimal unitPrice = extractDecimal(itemMap, plans, Field.GOODS_UNIT_PRICE);
+            BigDecimal totalPrice = extractDecimal(itemMap, plans, Field.GOODS_TOTAL_PRICE);
 
             goods.add(WaybillGoodDto.builder()
                     .name(name)
@@ -314,16 +319,11 @@ public class WaybillProcessingService {
     }
 
     /**
-     * Extract BigDecimal value by trying multiple field name keys.
+     * Extract a BigDecimal field.
      * Returns null if no key found (not ZERO, to distinguish "not present" from "zero").
      */
-    private BigDecimal extractDecimalByKeys(Map<String, Object> map, List<String> keys) {
-        for (String key : keys) {
-            Object val = map.get(key);
-            if (val != null) {
-                return AmountUtils.parseAmount(val);
-            }
-        }
-        return null;
+    private BigDecimal extractDecimal(Map<String, Object> map, WaybillFieldResolver.Plans plans, Field field) {
+        Object val = plans.get(map, field);
+        return val != null ? AmountUtils.parseAmount(val) : null;
     }
 }
@@ -1,6 +1,8 @@
 package ge.tastyerp.waybill.service;
 
+import ge.tastyerp.common.dto.waybill.CategoryTotalsDto;
 import ge.tastyerp.common.dto.waybill.CustomerSalesTotalsDto;
+import ge.tastyerp.common.dto.waybill.WaybillChangesDto;
 import ge.tastyerp.common.dto.waybill.WaybillDto;
 import ge.tastyerp.common.dto.waybill.WaybillFetchRequest;
 import ge.tastyerp.common.dto.waybill.WaybillFetchResponse;
@@ -8,8 +10,14 @@ import ge.tastyerp.common.dto.waybill.WaybillType;
 import ge.tastyerp.common.dto.waybill.WaybillVatSummaryDto;
 import ge.tastyerp.common.exception.ResourceNotFoundException;
 import ge.tastyerp.common.util.DateUtils;
+import ge.tastyerp.common.util.FutureUtils;
 import ge.tastyerp.common.util.TinValidator;
+import ge.tastyerp.waybill.service.rsge.RsGePriority;
 import ge.tastyerp.waybill.service.rsge.RsGeSoapClient;
+import ge.tastyerp.waybill.service.rsge.RsGeWaybill;
+import ge.tastyerp.waybill.service.store.WaybillRollup;
+import ge.tastyerp.waybill.service.store.WaybillStore;
+import ge.tastyerp.waybill.service.store.WaybillTable;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
@@ -17,12 +25,17 @@ import org.springframework.stereotype.Service;
 
 import java.math.BigDecimal;
 import java.math.RoundingMode;
+import java.time.Instant;
 import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * Service for waybill management.
@@ -40,6 +53,8 @@ public class WaybillService {
 
     private final RsGeSoapClient rsGeSoapClient;
     private final WaybillProcessingService processingService;
+    private final WaybillStore waybillStore;
+    private final WaybillRollup waybillRollup;
 
     @Value("${business.cutoff-date:2025-04-29}")
     private String cutoffDate;
@@ -59,7 +74,7 @@ public class WaybillService {
         }
 
         // Call RS.ge SOAP API
-        List<Map<String, Object>> rawWaybills = rsGeSoapClient.getWaybills(
+        List<RsGeWaybill> rawWaybills = rsGeSoapClient.getWaybills(
                 request.getStartDate(),
                 request.getEndDate()
         );
@@ -104,7 +119,7 @@ public class WaybillService {
                     "dateRange", "endDate must be on or after startDate");
         }
 
-        List<Map<String, Object>> rawWaybills = rsGeSoapClient.getBuyerWaybills(
+        List<RsGeWaybill> rawWaybills = rsGeSoapClient.getBuyerWaybills(
                 request.getStartDate(),
                 request.getEndDate()
         );
@@ -135,75 +150,237 @@ public class WaybillService {
     }
 
     /**
-     * Get ALL sale waybills from RS.ge for aggregation.
-     * Fetches from cutoff date to today.
+     * Get ALL sale waybills for aggregation (cutoff date to today).
+     * Served from the local waybill store, which only re-fetches the open
+     * trailing window from RS.ge instead of replaying 300+ days per call.
      * This method is used by payment-service aggregation.
      */
     public List<WaybillDto> getAllSalesWaybills() {
         LocalDate startDate = LocalDate.parse(cutoffDate).plusDays(1); // After cutoff
         LocalDate endDate = LocalDate.now();
 
-        log.info("Fetching ALL sales waybills for aggregation: {} to {}", startDate, endDate);
+        log.info("Reading ALL sales waybills for aggregation: {} to {}", startDate, endDate);
 
         try {
-            List<Map<String, Object>> rawWaybills = rsGeSoapClient.getWaybills(startDate, endDate);
-            log.info("RS.ge returned {} raw sale waybills for aggregation", rawWaybills.size());
-
-            List<WaybillDto> processed = processingService.processWaybills(rawWaybills, WaybillType.SALE);
-            log.info("Processed {} sale waybills for aggregation (after status filtering)", processed.size());
-
-            return processed;
+            WaybillStore.Snapshot snapshot = waybillStore.read(WaybillType.SALE, startDate, endDate);
+            log.info("Waybill store returned {} sale waybills for aggregation (stale={})",
+                    snapshot.rows().size(), snapshot.stale());
+            return snapshot.waybills();
         } catch (Exception e) {
             log.error("Error fetching all sales waybills for aggregation: {}", e.getMessage(), e);
             throw new RuntimeException("Failed to fetch sales waybills from RS.ge", e);
         }
     }
 
+    /** {@link #getAllSalesWaybills} as table rows, for callers that stream them out. */
+    public CompletableFuture<WaybillTable.Rows> getAllSalesWaybillRowsAsync() {
+        LocalDate startDate = LocalDate.parse(cutoffDate).plusDays(1); // After cutoff
+        return getWaybillRowsAsync(WaybillType.SALE, startDate, LocalDate.now());
+    }
+
+    /**
+     * Days of after-cutoff sales the store changed since {@code since} (a
+     * cursor from an earlier call; null for a fresh one). Syncs the range
+     * like {@link #getAllSalesWaybillRowsAsync} first, so the answer includes
+     * the latest RS.ge state.
+     */
+    public CompletableFuture<WaybillChangesDto> getSalesChangesAsync(String since) {
+        return getAllSalesWaybillRowsAsync().thenApply(rows -> {
+            WaybillStore.Changes changes = waybillStore.changesSince(WaybillType.SALE, since);
+            return WaybillChangesDto.builder()
+                    .cursor(changes.cursor())
+                    .reset(changes.reset())
+                    .days(changes.days().stream()
+                            .map(c -> new WaybillChangesDto.DayRange(c.from(), c.to()))
+                            .toList())
+                    .build();
+        });
+    }
+
+    /** True when the last RS.ge sync failed and reads are being served from older stored data. */
+    public boolean isServingStaleData() {
+        return waybillStore.isServingStale();
+    }
+
     /**
      * Get pre-aggregated sales totals per customer for debt aggregation.
-     * Fetches all sales from RS.ge (same as getAllSalesWaybills) then aggregates
-     * in memory to return ~50 small CustomerSalesTotalsDto objects instead of
-     * thousands of raw WaybillDto objects — avoids timeout in payment-service.
+     * Reads all sales (same range as getAllSalesWaybills) and aggregates the
+     * store's columns directly to return ~50 small CustomerSalesTotalsDto
+     * objects instead of thousands of WaybillDto objects — avoids timeout in
+     * payment-service.
      */
     public List<CustomerSalesTotalsDto> getCustomerSalesTotals() {
         log.info("Fetching and aggregating customer sales totals for debt aggregation");
 
-        List<WaybillDto> waybills = getAllSalesWaybills();
+        LocalDate startDate = LocalDate.parse(cutoffDate).plusDays(1); // After cutoff
+        WaybillRollup.Totals totals;
+        try {
+            totals = FutureUtils.join(waybillRollup.readAsync(WaybillType.SALE, startDate, LocalDate.now(), false));
+        } catch (Exception e) {
+            log.error("Error fetching all sales waybills for aggregation: {}", e.getMessage(), e);
+            throw new RuntimeException("Failed to fetch sales waybills from RS.ge", e);
+        }
 
+        // Days in order, counterparties of a day in order of their first waybill:
+        // customers keep the order of their first waybill.
         Map<String, CustomerSalesTotalsDto> byCustomer = new LinkedHashMap<>();
-        for (WaybillDto w : waybills) {
-            String tin = w.getBuyerTin() != null ? w.getBuyerTin() : w.getCustomerId();
-            if (tin == null) continue;
-
-            CustomerSalesTotalsDto dto = byCustomer.computeIfAbsent(tin, id ->
-                CustomerSalesTotalsDto.builder()
-                    .customerId(id)
-                    .customerName(w.getBuyerName() != null ? w.getBuyerName() : w.getCustomerName())
-                    .totalSales(BigDecimal.ZERO)
-                    .saleCount(0)
-                    .build()
-            );
-
-            dto.setTotalSales(dto.getTotalSales().add(w.getAmount() != null ? w.getAmount() : BigDecimal.ZERO));
-            dto.setSaleCount(dto.getSaleCount() + 1);
-            if (w.getDate() != null && (dto.getLastSaleDate() == null || w.getDate().isAfter(dto.getLastSaleDate()))) {
-                dto.setLastSaleDate(w.getDate());
+        Map<String, Long> tetri = new HashMap<>();
+        int waybills = 0;
+        for (int i = 0; i < totals.days().size(); i++) {
+            WaybillRollup.Day day = totals.days().get(i);
+            waybills += day.waybills();
+            LocalDate date = totals.date(i);
+            for (Map.Entry<String, WaybillRollup.Counterparty> e : day.counterparties().entrySet()) {
+                WaybillRollup.Counterparty c = e.getValue();
+                CustomerSalesTotalsDto dto = byCustomer.computeIfAbsent(e.getKey(), id -> CustomerSalesTotalsDto.builder()
+                        .customerId(id)
+                        .customerName(c.name())
+                        .saleCount(0)
+                        .build());
+                dto.setSaleCount(dto.getSaleCount() + c.count());
+                if (c.dated()) {
+                    dto.setLastSaleDate(date);
+                }
+                tetri.merge(e.getKey(), c.grossTetri(), Long::sum);
             }
         }
 
         List<CustomerSalesTotalsDto> result = new ArrayList<>(byCustomer.values());
-        log.info("Aggregated sales for {} customers from {} waybills", result.size(), waybills.size());
+        for (CustomerSalesTotalsDto dto : result) {
+            dto.setTotalSales(BigDecimal.valueOf(tetri.get(dto.getCustomerId()), 2));
+        }
+        log.info("Aggregated sales for {} customers from {} waybills", result.size(), waybills);
+        return result;
+    }
+
+    /**
+     * Goods totals per parent product category over [startDate, endDate],
+     * from the daily rollup (closed days are never re-read).
+     */
+    public List<CategoryTotalsDto> getCategoryTotals(String startDate, String endDate, WaybillType type) {
+        LocalDate start = (startDate == null || startDate.isBlank()) ? null : DateUtils.parseDate(startDate);
+        LocalDate end = (endDate == null || endDate.isBlank()) ? null : DateUtils.parseDate(endDate);
+        if (start == null || end == null) {
+            throw new ge.tastyerp.common.exception.ValidationException("dateRange", "startDate and endDate are required (yyyy-MM-dd)");
+        }
+        if (end.isBefore(start)) {
+            throw new ge.tastyerp.common.exception.ValidationException("dateRange", "endDate must be on or after startDate");
+        }
+        WaybillType t = type != null ? type : WaybillType.SALE;
+
+        WaybillRollup.Totals totals;
+        try {
+            totals = FutureUtils.join(waybillRollup.readAsync(t, start, end, true));
+        } catch (Exception e) {
+            log.error("Failed to read {} waybills for category totals: {}", t, e.getMessage(), e);
+            throw new ge.tastyerp.common.exception.ExternalServiceException("RS.ge", "Failed to fetch waybills: " + e.getMessage());
+        }
+
+        Map<String, long[]> sums = new TreeMap<>();
+        for (WaybillRollup.Day day : totals.days()) {
+            day.categories().forEach((category, c) -> {
+                long[] sum = sums.computeIfAbsent(category, k -> new long[4]);
+                sum[0] += c.kgMilli();
+                sum[1] += c.amountTetri();
+                sum[2] += c.lines();
+                sum[3] += c.nonKgLines();
+            });
+        }
+        List<CategoryTotalsDto> result = new ArrayList<>(sums.size());
+        sums.forEach((category, sum) -> result.add(CategoryTotalsDto.builder()
+                .type(t)
+                .category(category)
+                .quantityKg(BigDecimal.valueOf(sum[0], 3))
+                .amount(BigDecimal.valueOf(sum[1], 2))
+                .lineCount(sum[2])
+                .nonKgLineCount(sum[3])
+                .complete(totals.goodsComplete())
+                .build()));
         return result;
     }
 
     /**
      * Get waybills with optional filters.
-     * REFACTORED: Now fetches directly from RS.ge instead of Firebase.
+     * Served from the local waybill store (synced incrementally from RS.ge).
      */
     public List<WaybillDto> getWaybills(String customerId, String startDate, String endDate, Boolean afterCutoffOnly, WaybillType type) {
-        log.info("Fetching waybills from RS.ge with filters: customerId={}, start={}, end={}, afterCutoff={}, type={}",
+        return FutureUtils.join(getWaybillsAsync(customerId, startDate, endDate, afterCutoffOnly, type));
+    }
+
+    /**
+     * Non-blocking {@link #getWaybills}: completes when the store read (and any
+     * RS.ge sync it needs) is done, without holding a thread meanwhile.
+     */
+    public CompletableFuture<List<WaybillDto>> getWaybillsAsync(String customerId, String startDate, String endDate,
+                                                               Boolean afterCutoffOnly, WaybillType type) {
+        return getWaybillRowsAsync(customerId, startDate, endDate, afterCutoffOnly, type)
+                .thenApply(WaybillTable.Rows::toDtos);
+    }
+
+    /**
+     * {@link #getWaybillsAsync} without building DTOs: the matching rows of
+     * the store's table, for callers that aggregate.
+     */
+    public CompletableFuture<WaybillTable.Rows> getWaybillRowsAsync(String customerId, String startDate,
+                                                                    String endDate, Boolean afterCutoffOnly,
+                                                                    WaybillType type) {
+        log.info("Fetching waybills with filters: customerId={}, start={}, end={}, afterCutoff={}, type={}",
                 customerId, startDate, endDate, afterCutoffOnly, type);
 
+        DateRange range = resolveRange(startDate, endDate, afterCutoffOnly);
+        if (range == null) {
+            return CompletableFuture.completedFuture(
+                    WaybillTable.empty(type != null ? type : WaybillType.SALE).all());
+        }
+
+        // Customer filter: the table's customer is the buyer for SALE and the seller for PURCHASE
+        String normalizedCustomerId = (customerId == null || customerId.isBlank()) ? null : TinValidator.normalize(customerId);
+
+        // Default to Sales if type is SALE or null
+        WaybillType effectiveType = type != null ? type : WaybillType.SALE;
+
+        // A drill-down outside the stored range: ask RS.ge for this customer only instead of syncing everyone.
+        if (normalizedCustomerId != null && rsGeSoapClient.isCounterpartyPushdownEnabled()
+                && !waybillStore.covers(effectiveType, range.start(), range.end())) {
+            return getCustomerRowsFromRsGeAsync(effectiveType, normalizedCustomerId, range);
+        }
+
+        return getWaybillRowsAsync(effectiveType, range.start(), range.end())
+                .thenApply(rows -> normalizedCustomerId == null ? rows : rows.forCustomer(normalizedCustomerId));
+    }
+
+    /**
+     * One customer's rows straight from RS.ge with the TIN sent as a filter.
+     * The posting-list filter still runs, so the result is the same if RS.ge
+     * ignores the parameter. Not committed to the store: it holds full days only.
+     */
+    private CompletableFuture<WaybillTable.Rows> getCustomerRowsFromRsGeAsync(WaybillType type, String customerId,
+                                                                             DateRange range) {
+        log.info("Fetching {} waybills of customer {} from RS.ge: {} to {}",
+                type, customerId, range.start(), range.end());
+        CompletableFuture<List<RsGeWaybill>> raw = type == WaybillType.PURCHASE
+                ? rsGeSoapClient.getBuyerWaybillsAsync(range.start(), range.end(), RsGePriority.INTERACTIVE, customerId)
+                : rsGeSoapClient.getWaybillsAsync(range.start(), range.end(), RsGePriority.INTERACTIVE, customerId);
+        return raw.thenApply(list -> WaybillTable.empty(type)
+                .replaceDays(range.start(), range.end(), processingService.processWaybills(list, type))
+                .all()
+                .forCustomer(customerId));
+    }
+
+    /** All rows of {@code type} filed under a day in [start, end], from the local waybill store. */
+    public CompletableFuture<WaybillTable.Rows> getWaybillRowsAsync(WaybillType type, LocalDate start, LocalDate end) {
+        return waybillStore.readAsync(type, start, end, RsGePriority.INTERACTIVE).thenApply(WaybillStore.Snapshot::rows);
+    }
+
+    /** Effective day range of a waybill query. */
+    public record DateRange(LocalDate start, LocalDate end) {}
+
+    /**
+     * The [start, end] a waybill query covers once defaults and the cutoff are
+     * applied: no end means today; no start means 30 days back, or the day
+     * after the cutoff when {@code afterCutoffOnly}. Null when the range is empty.
+     */
+    public DateRange resolveRange(String startDate, String endDate, Boolean afterCutoffOnly) {
         LocalDate start = (startDate == null || startDate.isBlank()) ? null : DateUtils.parseDate(startDate);
         LocalDate end = (endDate == null || endDate.isBlank()) ? LocalDate.now() : DateUtils.parseDate(endDate);
 
@@ -224,30 +401,7 @@ public class WaybillService {
         }
 
         // Safety: don't fetch if start > end
-        if (start.isAfter(end)) {
-            return java.util.Collections.emptyList();
-        }
-
-        List<Map<String, Object>> rawWaybills;
-        if (type == WaybillType.PURCHASE) {
-            rawWaybills = rsGeSoapClient.getBuyerWaybills(start, end);
-        } else {
-            // Default to Sales if type is SALE or null
-            rawWaybills = rsGeSoapClient.getWaybills(start, end);
-        }
-
-        List<WaybillDto> processed = processingService.processWaybills(rawWaybills, type != null ? type : WaybillType.SALE);
-
-        // Filter in memory
-        String normalizedCustomerId = (customerId == null || customerId.isBlank()) ? null : TinValidator.normalize(customerId);
-
-        return processed.stream()
-                .filter(w -> {
-                    if (normalizedCustomerId == null) return true;
-                    if (type == WaybillType.PURCHASE) return normalizedCustomerId.equals(w.getSellerTin());
-                    return normalizedCustomerId.equals(w.getBuyerTin());
-                })
-                .collect(java.util.stream.Collectors.toList());
+        return start.isAfter(end) ? null : new DateRange(start, end);
     }
 
     /**
@@ -269,45 +423,41 @@ public class WaybillService {
             throw new ge.tastyerp.common.exception.ValidationException("dateRange", "endDate must be on or after startDate");
         }
 
-        // NEW ARCHITECTURE: Fetch waybills directly from RS.ge SOAP API (NOT from Firebase)
-        log.info("Fetching waybills from RS.ge for VAT calculation: {} to {}", start, end);
+        // Served from the daily rollup: closed days are frozen, only open days are re-read from the store.
+        log.info("Reading waybill rollup for VAT calculation: {} to {}", start, end);
+
+        WaybillRollup.Totals sales;
+        WaybillRollup.Totals purchases;
 
-        List<Map<String, Object>> rawSales;
-        List<Map<String, Object>> rawPurchases;
+        // Both reads run concurrently; the joins below only collect them.
+        CompletableFuture<WaybillRollup.Totals> salesF = waybillRollup.readAsync(WaybillType.SALE, start, end, false);
+        CompletableFuture<WaybillRollup.Totals> purchasesF =
+                waybillRollup.readAsync(WaybillType.PURCHASE, start, end, false);
 
         try {
-            rawSales = rsGeSoapClient.getWaybills(start, end);
-            log.info("RS.ge returned {} raw sales waybills", rawSales != null ? rawSales.size() : "null");
+            sales = FutureUtils.join(salesF);
         } catch (Exception e) {
             log.error("Failed to fetch sales waybills from RS.ge: {}", e.getMessage(), e);
             throw new ge.tastyerp.common.exception.ExternalServiceException("RS.ge", "Failed to fetch sales waybills: " + e.getMessage());
         }
 
         try {
-            rawPurchases = rsGeSoapClient.getBuyerWaybills(start, end);
-            log.info("RS.ge returned {} raw purchase waybills", rawPurchases != null ? rawPurchases.size() : "null");
+            purchases = FutureUtils.join(purchasesF);
         } catch (Exception e) {
             log.error("Failed to fetch purchase waybills from RS.ge: {}", e.getMessage(), e);
             throw new ge.tastyerp.common.exception.ExternalServiceException("RS.ge", "Failed to fetch purchase waybills: " + e.getMessage());
         }
 
-        List<WaybillDto> sales = processingService.processWaybills(rawSales, WaybillType.SALE);
-        List<WaybillDto> purchases = processingService.processWaybills(rawPurchases, WaybillType.PURCHASE);
-
-        // Apply afterCutoffOnly filter if requested
-        if (afterCutoffOnly != null && afterCutoffOnly) {
-            sales = sales.stream().filter(WaybillDto::isAfterCutoff).collect(java.util.stream.Collectors.toList());
-            purchases = purchases.stream().filter(WaybillDto::isAfterCutoff).collect(java.util.stream.Collectors.toList());
-        }
+        boolean cutoffOnly = afterCutoffOnly != null && afterCutoffOnly;
+        VatSide sold = VatSide.of(sales, cutoffOnly);
+        VatSide purchased = VatSide.of(purchases, cutoffOnly);
 
-        log.info("Fetched from RS.ge for VAT: {} sales, {} purchases", sales.size(), purchases.size());
-
-        BigDecimal soldGross = sumPositiveAmounts(sales);
-        BigDecimal purchasedGross = sumPositiveAmounts(purchases);
+        BigDecimal soldGross = BigDecimal.valueOf(sold.positiveTetri(), 2);
+        BigDecimal purchasedGross = BigDecimal.valueOf(purchased.positiveTetri(), 2);
 
         log.info("=== VAT CALCULATION DETAILS ===");
-        log.info("Sales waybills count: {}", sales.size());
-        log.info("Purchase waybills count: {}", purchases.size());
+        log.info("Sales waybills count: {}", sold.waybills());
+        log.info("Purchase waybills count: {}", purchased.waybills());
         log.info("Sales gross amount (sum): {}", soldGross);
         log.info("Purchase gross amount (sum): {}", purchasedGross);
 
@@ -320,47 +470,41 @@ public class WaybillService {
         log.info("NET VAT (sales - purchases): {}", netVat);
         log.info("=== END VAT CALCULATION ===");
 
-        long soldPositiveCount = countPositiveAmounts(sales);
-        long purchasedPositiveCount = countPositiveAmounts(purchases);
-
         return WaybillVatSummaryDto.builder()
                 .startDate(start)
                 .endDate(end)
                 .cutoffDate(cutoffDate)
-                .soldWaybillCount(sales.size())
-                .purchasedWaybillCount(purchases.size())
-                .soldPositiveAmountCount(soldPositiveCount)
-                .purchasedPositiveAmountCount(purchasedPositiveCount)
+                .soldWaybillCount(sold.waybills())
+                .purchasedWaybillCount(purchased.waybills())
+                .soldPositiveAmountCount(sold.positive())
+                .purchasedPositiveAmountCount(purchased.positive())
                 .soldGross(soldGross)
                 .purchasedGross(purchasedGross)
                 .soldVat(soldVat)
                 .purchasedVat(purchasedVat)
                 .netVat(netVat)
+                .stale(sales.stale() || purchases.stale())
+                .syncedAt(toLocalDateTime(Math.min(sales.syncedAtMillis(), purchases.syncedAtMillis())))
                 .build();
     }
 
-    private BigDecimal sumPositiveAmounts(List<WaybillDto> waybills) {
-        if (waybills == null || waybills.isEmpty()) return BigDecimal.ZERO.setScale(2, RoundingMode.HALF_UP);
-        BigDecimal sum = BigDecimal.ZERO;
-        for (WaybillDto wb : waybills) {
-            BigDecimal amount = wb != null ? wb.getAmount() : null;
-            if (amount != null && amount.compareTo(BigDecimal.ZERO) > 0) {
-                sum = sum.add(amount);
+    /** One side of the VAT summary summed over the rollup days; positive = amounts > 0 only. */
+    private record VatSide(long waybills, long positive, long positiveTetri) {
+        static VatSide of(WaybillRollup.Totals totals, boolean cutoffOnly) {
+            long waybills = 0;
+            long positive = 0;
+            long tetri = 0;
+            for (WaybillRollup.Day day : totals.days()) {
+                waybills += cutoffOnly ? day.cutoffWaybills() : day.waybills();
+                positive += cutoffOnly ? day.cutoffPositive() : day.positive();
+                tetri += cutoffOnly ? day.cutoffPositiveTetri() : day.positiveTetri();
             }
+            return new VatSide(waybills, positive, tetri);
         }
-        return sum.setScale(2, RoundingMode.HALF_UP);
     }
 
-    private long countPositiveAmounts(List<WaybillDto> waybills) {
-        if (waybills == null || waybills.isEmpty()) return 0;
-        long count = 0;
-        for (WaybillDto wb : waybills) {
-            BigDecimal amount = wb != null ? wb.getAmount() : null;
-            if (amount != null && amount.compareTo(BigDecimal.ZERO) > 0) {
-                count++;
-            }
-        }
-        return count;
+    private static LocalDateTime toLocalDateTime(long epochMillis) {
+        return LocalDateTime.ofInstant(Instant.ofEpochMilli(epochMillis), ZoneId.systemDefault());
     }
 
     private BigDecimal vatFromGross(BigDecimal gross) {
@@ -0,0 +1,188 @@
+package ge.tastyerp.waybill.service;
+
+import ge.tastyerp.common.dto.ApiResponse;
+import ge.tastyerp.common.dto.StreamChunkDto;
+import ge.tastyerp.common.dto.waybill.WaybillDto;
+import ge.tastyerp.common.dto.waybill.WaybillFetchRequest;
+import ge.tastyerp.common.dto.waybill.WaybillFetchResponse;
+import ge.tastyerp.common.dto.waybill.WaybillType;
+import ge.tastyerp.common.exception.ValidationException;
+import ge.tastyerp.common.util.FutureUtils;
+import ge.tastyerp.waybill.service.rsge.RsGePriority;
+import ge.tastyerp.waybill.service.rsge.RsGeSoapClient;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Streaming variants of the long RS.ge reads, sent as Server-Sent Events.
+ *
+ * A 12-month fetch is ~100 RS.ge chunks (plus one get_waybill per waybill for
+ * movements) and the blocking endpoints answer only after the slowest one.
+ * Here every chunk is processed and sent as soon as it completes:
+ * <ul>
+ *   <li>{@code chunk} - {@link StreamChunkDto} with the chunk's items and
+ *       progress counters; chunks arrive in completion order</li>
+ *   <li>{@code summary} - last event on success, a {@link WaybillFetchResponse}
+ *       with the same counts and message as the blocking endpoint; its
+ *       {@code waybills} are left out since every row was already sent</li>
+ *   <li>{@code error} - last event on failure, an {@link ApiResponse} error</li>
+ * </ul>
+ * If the client goes away the remaining chunks are still fetched (they warm
+ * the planner and caches) but nothing more is sent.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class WaybillStreamService {
+
+    private final RsGeSoapClient rsGeSoapClient;
+    private final WaybillProcessingService processingService;
+    private final WaybillService waybillService;
+    private final InventoryMovementService inventoryMovementService;
+
+    @Value("${business.cutoff-date:2025-04-29}")
+    private String cutoffDate;
+
+    /** Emitter timeout; same bound as the other async endpoints. */
+    @Value("${spring.mvc.async.request-timeout:600000}")
+    private long timeoutMs;
+
+    /** Days per product-movements chunk. */
+    @Value("${waybill.stream.movement-chunk-days:7}")
+    private int movementChunkDays;
+
+    /** Streaming {@link WaybillService#fetchWaybillsFromRsGe} (SALE) or its PURCHASE counterpart. */
+    public SseEmitter streamFetch(WaybillFetchRequest request, WaybillType type) {
+        LocalDate start = request.getStartDate();
+        LocalDate end = request.getEndDate();
+        if (start != null && end != null && end.isBefore(start)) {
+            throw new ValidationException("dateRange", "endDate must be on or after startDate");
+        }
+
+        EventStream stream = new EventStream(new SseEmitter(timeoutMs));
+        RsGeSoapClient.ChunkListener listener = (s, e, raw, chunksTotal) -> {
+            List<WaybillDto> processed = processingService.processWaybills(raw, type);
+            int afterCutoff = (int) processed.stream().filter(WaybillDto::isAfterCutoff).count();
+            stream.chunk(s, e, chunksTotal, processed, afterCutoff);
+        };
+        CompletableFuture<Void> fetch = type == WaybillType.PURCHASE
+                ? rsGeSoapClient.streamBuyerWaybillsAsync(start, end, RsGePriority.INTERACTIVE, listener)
+                : rsGeSoapClient.streamWaybillsAsync(start, end, RsGePriority.INTERACTIVE, listener);
+        String noun = type == WaybillType.PURCHASE ? "purchase waybills" : "waybills";
+        fetch.whenComplete((v, ex) -> stream.finish(ex, (total, afterCutoff) -> String.format(
+                "%d %s fetched from RS.ge. %d after cutoff date.", total, noun, afterCutoff)));
+        return stream.emitter;
+    }
+
+    /** Streaming {@link InventoryMovementService#getProductMovementsAsync}, one event per day chunk. */
+    public SseEmitter streamProductMovements(String startDate, String endDate) {
+        WaybillService.DateRange range = waybillService.resolveRange(startDate, endDate, false);
+        EventStream stream = new EventStream(new SseEmitter(timeoutMs));
+        List<CompletableFuture<Void>> chunks = new ArrayList<>();
+        if (range != null) {
+            List<LocalDate[]> windows = new ArrayList<>();
+            for (LocalDate s = range.start(); !s.isAfter(range.end()); s = s.plusDays(movementChunkDays)) {
+                LocalDate e = s.plusDays(movementChunkDays - 1L);
+                windows.add(new LocalDate[]{s, e.isAfter(range.end()) ? range.end() : e});
+            }
+            LocalDate cutoff = LocalDate.parse(cutoffDate);
+            for (LocalDate[] w : windows) {
+                chunks.add(inventoryMovementService.getProductMovementsAsync(w[0], w[1]).thenAccept(movements -> {
+                    int afterCutoff = (int) movements.stream()
+                            .filter(m -> m.getDate() != null && m.getDate().isAfter(cutoff))
+                            .count();
+                    stream.chunk(w[0], w[1], windows.size(), movements, afterCutoff);
+                }));
+            }
+        }
+        CompletableFuture.allOf(chunks.toArray(new CompletableFuture[0]))
+                .whenComplete((v, ex) -> stream.finish(ex, (total, afterCutoff) -> String.format(
+                        "%d product movements built from RS.ge. %d after cutoff date.", total, afterCutoff)));
+        return stream.emitter;
+    }
+
+    @FunctionalInterface
+    private interface SummaryMessage {
+        String format(int totalCount, int afterCutoffCount);
+    }
+
+    /**
+     * Serializes sends to one emitter (chunks complete on different RS.ge
+     * threads) and keeps the counters consistent with the order events go out.
+     */
+    private static final class EventStream {
+        final SseEmitter emitter;
+        private int chunksDone;
+        private int totalCount;
+        private int afterCutoffCount;
+        private boolean closed;
+
+        EventStream(SseEmitter emitter) {
+            this.emitter = emitter;
+            emitter.onTimeout(() -> {
+                close();
+                emitter.complete();
+            });
+            emitter.onError(ex -> close());
+            emitter.onCompletion(this::close);
+        }
+
+        private synchronized void close() {
+            closed = true;
+        }
+
+        synchronized void chunk(LocalDate start, LocalDate end, int chunksTotal, List<?> items, int afterCutoff) {
+            chunksDone++;
+            totalCount += items.size();
+            afterCutoffCount += afterCutoff;
+            send("chunk", StreamChunkDto.<Object>builder()
+                    .startDate(start)
+                    .endDate(end)
+                    .chunksDone(chunksDone)
+                    .chunksTotal(Math.max(chunksTotal, chunksDone))
+                    .totalCount(totalCount)
+                    .items(new ArrayList<>(items))
+                    .build());
+        }
+
+        synchronized void finish(Throwable ex, SummaryMessage message) {
+            if (ex != null) {
+                String error = FutureUtils.unwrap(ex).getMessage();
+                log.warn("Streamed fetch failed after {} chunks: {}", chunksDone, error);
+                send("error", ApiResponse.error(error));
+            } else {
+                send("summary", WaybillFetchResponse.builder()
+                        .success(true)
+                        .message(message.format(totalCount, afterCutoffCount))
+                        .totalCount(totalCount)
+                        .afterCutoffCount(afterCutoffCount)
+                        .build());
+            }
+            if (!closed) {
+                closed = true;
+                emitter.complete();
+            }
+        }
+
+        private void send(String name, Object data) {
+            if (closed) return;
+            try {
+                emitter.send(SseEmitter.event().name(name).data(data, MediaType.APPLICATION_JSON));
+            } catch (IOException | IllegalStateException e) {
+                // Client disconnected; the rest of the fetch finishes without a listener.
+                log.debug("SSE client gone, dropping '{}' event: {}", name, e.getMessage());
+                closed = true;
+            }
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package ge.tastyerp.waybill.service.rsge;
+
+import java.time.LocalDate;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Plans date-range chunks for RS.ge list operations from what earlier
+ * fetches taught us, instead of blind 72h windows.
+ *
+ * Per operation it learns:
+ * <ul>
+ *   <li>waybill density per day (raw list size, including -1/-2);</li>
+ *   <li>the largest result RS.ge has returned (known to fit) and the smallest
+ *       range it rejected with -1064 (known not to fit);</li>
+ *   <li>a width limit, if a range was rejected although its count is below
+ *       a size that already succeeded (the limit is then on days, not rows).</li>
+ * </ul>
+ * Chunks are sized to a target row count below the smallest rejected size,
+ * growing by {@code growth} past the largest success so the estimate keeps
+ * converging on RS.ge's real limit. Until anything is known the legacy
+ * fixed-width windows are used.
+ */
+final class RsGeChunkPlanner {
+
+    /** Inclusive day range. */
+    record Window(LocalDate start, LocalDate end) {
+        long days() {
+            return ChronoUnit.DAYS.between(start, end) + 1;
+        }
+    }
+
+    private static final int MAX_TRACKED_DAYS = 1500;
+
+    private final int fallbackDays;
+    private final double fillRatio;
+    private final double growth;
+    private final Map<String, OpStats> stats = new HashMap<>();
+
+    RsGeChunkPlanner(int fallbackDays, double fillRatio, double growth) {
+        this.fallbackDays = fallbackDays;
+        this.fillRatio = fillRatio;
+        this.growth = growth;
+    }
+
+    private static final class OpStats {
+        final TreeMap<LocalDate, Integer> dayCounts = new TreeMap<>();
+        int maxOkCount;
+        int minFailCount = Integer.MAX_VALUE;
+        long minFailDays = Long.MAX_VALUE;
+    }
+
+    /** True when RS.ge is expected to answer -1064 for the whole range, so the full call can be skipped. */
+    synchronized boolean knownTooLarge(String operation, LocalDate start, LocalDate end) {
+        OpStats s = stats.get(operation);
+        if (s == null) return false;
+        if (new Window(start, end).days() >= s.minFailDays) return true;
+        double est = estimate(s, start, end);
+        return est >= 0 && s.minFailCount != Integer.MAX_VALUE && est >= s.minFailCount * fillRatio;
+    }
+
+    /** Contiguous chunks covering [start, end], each expected to stay under RS.ge's limit. */
+    synchronized List<Window> plan(String operation, LocalDate start, LocalDate end) {
+        OpStats s = stats.get(operation);
+        double target = s != null ? target(s) : -1;
+        long maxWidth = s != null && s.minFailDays != Long.MAX_VALUE ? Math.max(1, s.minFailDays - 1) : Long.MAX_VALUE;
+        double mean = s != null ? meanDensity(s) : -1;
+
+        List<Window> windows = new ArrayList<>();
+        LocalDate cur = start;
+        while (!cur.isAfter(end)) {
+            LocalDate chunkEnd;
+            if (target < 0 || mean < 0) {
+                chunkEnd = cur.plusDays(Math.min(fallbackDays, maxWidth) - 1);
+            } else {
+                chunkEnd = cur;
+                double acc = density(s, cur, mean);
+                while (chunkEnd.isBefore(end)) {
+                    LocalDate next = chunkEnd.plusDays(1);
+                    if (ChronoUnit.DAYS.between(cur, next) + 1 > maxWidth) break;
+                    double d = density(s, next, mean);
+                    if (acc + d > target) break;
+                    acc += d;
+                    chunkEnd = next;
+                }
+            }
+            if (chunkEnd.isAfter(end)) chunkEnd = end;
+            windows.add(new Window(cur, chunkEnd));
+            cur = chunkEnd.plusDays(1);
+        }
+        return windows;
+    }
+
+    /** A range RS.ge answered in full: learn per-day density and that this size fits. */
+    synchronized void recordSuccess(String operation, LocalDate start, LocalDate end,
+                                    List<RsGeWaybill> waybills) {
+        OpStats s = stats.computeIfAbsent(operation, op -> new OpStats());
+        Map<LocalDate, Integer> counts = new HashMap<>();
+        for (LocalDate d = start; !d.isAfter(end); d = d.plusDays(1)) {
+            counts.put(d, 0);
+        }
+        for (RsGeWaybill wb : waybills) {
+            LocalDate day = dayOf(wb);
+            if (day != null && counts.containsKey(day)) {
+                counts.merge(day, 1, Integer::sum);
+            }
+        }
+        s.dayCounts.putAll(counts);
+        while (s.dayCounts.size() > MAX_TRACKED_DAYS) {
+            s.dayCounts.pollFirstEntry();
+        }
+        s.maxOkCount = Math.max(s.maxOkCount, waybills.size());
+    }
+
+    /** RS.ge rejected [start, end] with -1064; {@code count} is its true size once fetched in pieces. */
+    synchronized void recordTooLarge(String operation, LocalDate start, LocalDate end, int count) {
+        OpStats s = stats.computeIfAbsent(operation, op -> new OpStats());
+        if (count <= s.maxOkCount) {
+            // A bigger result already went through, so this range failed on width.
+            s.minFailDays = Math.min(s.minFailDays, new Window(start, end).days());
+        } else {
+            s.minFailCount = Math.min(s.minFailCount, count);
+        }
+    }
+
+    private double target(OpStats s) {
+        if (s.maxOkCount <= 0) return -1;
+        double ceiling = s.minFailCount == Integer.MAX_VALUE ? Double.MAX_VALUE : s.minFailCount * fillRatio;
+        return Math.max(1, Math.min(ceiling, s.maxOkCount * growth));
+    }
+
+    /** Estimated raw row count of [start, end]; -1 when nothing is known. */
+    private static double estimate(OpStats s, LocalDate start, LocalDate end) {
+        double mean = meanDensity(s);
+        if (mean < 0) return -1;
+        double est = 0;
+        for (LocalDate d = start; !d.isAfter(end); d = d.plusDays(1)) {
+            est += density(s, d, mean);
+        }
+        return est;
+    }
+
+    private static double density(OpStats s, LocalDate day, double mean) {
+        Integer known = s.dayCounts.get(day);
+        return known != null ? known : mean;
+    }
+
+    private static double meanDensity(OpStats s) {
+        if (s.dayCounts.isEmpty()) return -1;
+        long sum = 0;
+        for (int c : s.dayCounts.values()) sum += c;
+        return (double) sum / s.dayCounts.size();
+    }
+
+    private static LocalDate dayOf(RsGeWaybill wb) {
+        String date = wb.date() != null ? wb.date().trim() : null;
+        if (date == null || date.length() < 10) return null;
+        try {
+            return LocalDate.parse(date.substring(0, 10));
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+}
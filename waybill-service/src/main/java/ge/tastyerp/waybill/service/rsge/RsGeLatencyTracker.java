@@ -0,0 +1,63 @@
+package ge.tastyerp.waybill.service.rsge;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Recent RS.ge response latencies per SOAP operation.
+ *
+ * Keeps the last {@code window} successful samples of each operation in a
+ * ring buffer and answers percentile queries over them. Used to decide when
+ * a chunk has run long enough to be worth hedging.
+ */
+final class RsGeLatencyTracker {
+
+    private final int window;
+    private final int minSamples;
+    private final Map<String, Ring> rings = new ConcurrentHashMap<>();
+
+    RsGeLatencyTracker(int window, int minSamples) {
+        this.window = window;
+        this.minSamples = minSamples;
+    }
+
+    void record(String operation, long millis) {
+        rings.computeIfAbsent(operation, op -> new Ring(window)).add(millis);
+    }
+
+    /** The given percentile (0..100) in ms, or -1 while fewer than minSamples are known. */
+    long percentileMillis(String operation, double percentile) {
+        Ring ring = rings.get(operation);
+        if (ring == null) return -1;
+        long[] samples = ring.snapshot();
+        if (samples.length < minSamples) return -1;
+        Arrays.sort(samples);
+        int idx = (int) Math.ceil(percentile / 100.0 * samples.length) - 1;
+        return samples[Math.max(0, Math.min(samples.length - 1, idx))];
+    }
+
+    long p95Millis(String operation) {
+        return percentileMillis(operation, 95);
+    }
+
+    private static final class Ring {
+        private final long[] values;
+        private int next;
+        private int size;
+
+        Ring(int capacity) {
+            values = new long[capacity];
+        }
+
+        synchronized void add(long v) {
+            values[next] = v;
+            next = (next + 1) % values.length;
+            if (size < values.length) size++;
+        }
+
+        synchronized long[] snapshot() {
+            return Arrays.copyOf(values, size);
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package ge.tastyerp.waybill.service.rsge;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.stereotype.Component;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Micrometer meters for the RS.ge pipeline, exposed on /actuator/metrics.
+ *
+ * <ul>
+ *   <li>{@code rsge.soap.call} — wall time per SOAP call incl. body transfer
+ *       (tags: operation, outcome), with percentile histogram;</li>
+ *   <li>{@code rsge.soap.parse} — CPU time spent parsing a response (the
+ *       parser reads while the body streams in, so wall time would mostly be
+ *       network);</li>
+ *   <li>{@code rsge.soap.response.bytes} — body size (tags: operation,
+ *       form=wire|decoded);</li>
+ *   <li>{@code rsge.soap.status} — RS.ge status codes (e.g. -1064, -101);</li>
+ *   <li>{@code rsge.waybills.extracted} — rows per list response;</li>
+ *   <li>{@code rsge.chunks}, {@code rsge.chunk.splits} (level=range|chunk|predicted),
+ *       {@code rsge.chunk.retries}, {@code rsge.chunk.hedges};</li>
+ *   <li>{@code rsge.governor.wait} and the {@code rsge.governor.limit},
+ *       {@code rsge.governor.inflight} and {@code rsge.governor.queued}
+ *       (per priority) gauges — the request queue that replaced the old
+ *       chunk executors.</li>
+ * </ul>
+ */
+@Component
+public class RsGeMetrics {
+
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+    private final MeterRegistry registry;
+
+    public RsGeMetrics(MeterRegistry registry, RsGeRequestGovernor governor) {
+        this.registry = registry;
+        Gauge.builder("rsge.governor.limit", governor, RsGeRequestGovernor::currentLimit)
+                .description("Adaptive RS.ge in-flight limit").register(registry);
+        Gauge.builder("rsge.governor.inflight", governor, RsGeRequestGovernor::inFlight)
+                .description("RS.ge requests holding a permit").register(registry);
+        for (RsGePriority priority : RsGePriority.values()) {
+            Gauge.builder("rsge.governor.queued", governor, g -> g.queued(priority))
+                    .tag("priority", tag(priority))
+                    .description("RS.ge requests waiting for a permit").register(registry);
+        }
+    }
+
+    void call(String operation, RsGeRequestGovernor.Outcome outcome, long nanos) {
+        Timer.builder("rsge.soap.call")
+                .description("RS.ge SOAP call time, request to last body byte")
+                .tags("operation", operation, "outcome", outcome.name().toLowerCase())
+                .publishPercentileHistogram()
+                .register(registry)
+                .record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    void governorWait(RsGePriority priority, long nanos) {
+        Timer.builder("rsge.governor.wait")
+                .description("Time an RS.ge request waited for a governor permit")
+                .tag("priority", tag(priority))
+                .publishPercentileHistogram()
+                .register(registry)
+                .record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    /** Thread CPU time at this point, for {@link #parse}; -1 when the JVM cannot measure it. */
+    static long cpuNanos() {
+        return THREADS.isCurrentThreadCpuTimeSupported() ? THREADS.getCurrentThreadCpuTime() : -1;
+    }
+
+    void parse(String operation, long cpuStartNanos) {
+        if (cpuStartNanos < 0) return;
+        Timer.builder("rsge.soap.parse")
+                .description("CPU time spent parsing an RS.ge response")
+                .tag("operation", operation)
+                .publishPercentileHistogram()
+                .register(registry)
+                .record(cpuNanos() - cpuStartNanos, TimeUnit.NANOSECONDS);
+    }
+
+    void responseBytes(String operation, long wire, long decoded) {
+        bytes(operation, "wire", wire);
+        bytes(operation, "decoded", decoded);
+    }
+
+    private void bytes(String operation, String form, long bytes) {
+        DistributionSummary.builder("rsge.soap.response.bytes")
+                .baseUnit("bytes")
+                .tags("operation", operation, "form", form)
+                .publishPercentileHistogram()
+                .register(registry)
+                .record(bytes);
+    }
+
+    void status(String operation, int status) {
+        counter("rsge.soap.status", "operation", operation, "status", Integer.toString(status)).increment();
+    }
+
+    void extracted(String operation, int waybills) {
+        DistributionSummary.builder("rsge.waybills.extracted")
+                .description("Waybills extracted per RS.ge list response")
+                .tag("operation", operation)
+                .register(registry)
+                .record(waybills);
+    }
+
+    void chunks(String operation, int chunks) {
+        counter("rsge.chunks", "operation", operation).increment(chunks);
+    }
+
+    /** A -1064 split: the requested range, a chunk bisected, or a range known to be too large. */
+    void split(String operation, String level) {
+        counter("rsge.chunk.splits", "operation", operation, "level", level).increment();
+    }
+
+    void retry(String operation) {
+        counter("rsge.chunk.retries", "operation", operation).increment();
+    }
+
+    void hedge(String operation) {
+        counter("rsge.chunk.hedges", "operation", operation).increment();
+    }
+
+    private Counter counter(String name, String... tags) {
+        return Counter.builder(name).tags(tags).register(registry);
+    }
+
+    private static String tag(RsGePriority priority) {
+        return priority.name().toLowerCase();
+    }
+}
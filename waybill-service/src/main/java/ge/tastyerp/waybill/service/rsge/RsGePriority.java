@@ -0,0 +1,14 @@
+package ge.tastyerp.waybill.service.rsge;
+
+/**
+ * Queueing class of an RS.ge request at the {@link RsGeRequestGovernor}.
+ * Lower ordinal is served first.
+ */
+public enum RsGePriority {
+    /** A user is waiting on the response (list fetches, VAT, drill-downs). */
+    INTERACTIVE,
+    /** Bulk per-waybill get_waybill goods lookups for the audit pipeline. */
+    GOODS,
+    /** Background warm-up; only uses capacity nobody else wants. */
+    PREFETCH
+}
@@ -0,0 +1,91 @@
+package ge.tastyerp.waybill.service.rsge;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * Runs {@link RsGeReplayServer} inside waybill-service for offline benchmarks.
+ * Enable with {@code rsge.replay.enabled=true} and point {@code rsge.endpoint}
+ * at {@code http://127.0.0.1:<rsge.replay.port>/}.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "rsge.replay.enabled", havingValue = "true")
+public class RsGeReplayLauncher {
+
+    @Value("${rsge.replay.dir:${rsge.record.dir:./data/rsge-recordings}}")
+    private String dir;
+
+    @Value("${rsge.replay.port:8099}")
+    private int port;
+
+    /** Rows above which a list call is answered with -1064. */
+    @Value("${rsge.replay.max-list-size:1000}")
+    private int maxListSize;
+
+    /** none | fixed | uniform | lognormal */
+    @Value("${rsge.replay.latency:lognormal}")
+    private String latency;
+
+    /** fixed: the delay; uniform: the minimum; lognormal: the median. */
+    @Value("${rsge.replay.latency-ms:800}")
+    private long latencyMs;
+
+    /** uniform: the maximum; lognormal: the p95. */
+    @Value("${rsge.replay.latency-max-ms:6000}")
+    private long latencyMaxMs;
+
+    @Value("${rsge.replay.per-row-micros:500}")
+    private long perRowMicros;
+
+    @Value("${rsge.replay.http-500-rate:0.0}")
+    private double http500Rate;
+
+    @Value("${rsge.replay.stall-rate:0.0}")
+    private double stallRate;
+
+    @Value("${rsge.replay.stall-ms:180000}")
+    private long stallMs;
+
+    private RsGeReplayServer server;
+
+    @PostConstruct
+    void start() throws IOException {
+        server = new RsGeReplayServer(RsGeReplayServer.Options.builder()
+                .dir(Path.of(dir))
+                .port(port)
+                .maxListSize(maxListSize)
+                .latency(latencyModel())
+                .perRowMicros(perRowMicros)
+                .http500Rate(http500Rate)
+                .stallRate(stallRate)
+                .stallMillis(stallMs)
+                .seed(System.nanoTime())
+                .build()).start();
+    }
+
+    @PreDestroy
+    void stop() {
+        if (server != null) {
+            log.info("RS.ge replay server counters: {}", server.counters());
+            server.close();
+        }
+    }
+
+    private RsGeReplayServer.Latency latencyModel() {
+        return switch (latency.trim().toLowerCase()) {
+            case "none" -> RsGeReplayServer.Latency.none();
+            case "fixed" -> RsGeReplayServer.Latency.fixed(latencyMs);
+            case "uniform" -> RsGeReplayServer.Latency.uniform(latencyMs, latencyMaxMs);
+            case "lognormal" -> RsGeReplayServer.Latency.logNormal(latencyMs, latencyMaxMs);
+            default -> throw new IllegalArgumentException("Unknown rsge.replay.latency: " + latency);
+        };
+    }
+}
@@ -0,0 +1,446 @@
+package ge.tastyerp.waybill.service.rsge;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import lombok.Builder;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Offline stand-in for the RS.ge WayBillService, serving fixtures written by
+ * {@link RsGeResponseRecorder}. Point {@code rsge.endpoint} at {@link #endpoint()}
+ * to benchmark chunking, goods fetching, parsing and caching without the live
+ * service or real credentials.
+ *
+ * List operations answer any date range from the union of the recorded
+ * waybills, so the client's chunk planner is exercised like against RS.ge:
+ * <ul>
+ *   <li>more than {@code maxListSize} rows → status -1064;</li>
+ *   <li>blank {@code seller_un_id} (when {@code requireSellerId}) → status -101;</li>
+ *   <li>{@code listErrorStatus} set → every list call answers that status (an RS.ge error);</li>
+ *   <li>{@code buyer_tin}, {@code seller_tin} and {@code statuses} filter the rows
+ *       before the size limit is applied;</li>
+ *   <li>{@code get_waybill} returns the recorded response, or the list row without goods.</li>
+ * </ul>
+ * Each request waits {@code latency} plus {@code perRowMicros} per returned row;
+ * a share of requests stall without answering or fail with HTTP 500.
+ * gzip is used when the client asks for it.
+ *
+ * Embeddable ({@code new RsGeReplayServer(options).start()}) or started inside
+ * waybill-service by {@link RsGeReplayLauncher}.
+ */
+@Slf4j
+public final class RsGeReplayServer implements AutoCloseable {
+
+    private static final String[] LIST_OPERATIONS = {"get_waybills", "get_buyer_waybills"};
+
+    /** Replay behaviour; everything but {@code dir} has a neutral default. */
+    @Getter
+    @Builder
+    public static final class Options {
+        private final Path dir;
+        @Builder.Default private final int port = 0;
+        @Builder.Default private final int maxListSize = 1000;
+        @Builder.Default private final boolean requireSellerId = true;
+        /** Non-zero: answer every list call with this status and no rows. */
+        @Builder.Default private final int listErrorStatus = 0;
+        @Builder.Default private final Latency latency = Latency.none();
+        @Builder.Default private final long perRowMicros = 0;
+        @Builder.Default private final double http500Rate = 0;
+        @Builder.Default private final double stallRate = 0;
+        @Builder.Default private final long stallMillis = 180_000;
+        @Builder.Default private final long seed = 42;
+    }
+
+    /** Response time distribution, in milliseconds. */
+    @FunctionalInterface
+    public interface Latency {
+        long sampleMillis(Random random);
+
+        static Latency none() {
+            return r -> 0;
+        }
+
+        static Latency fixed(long millis) {
+            return r -> millis;
+        }
+
+        static Latency uniform(long minMillis, long maxMillis) {
+            return r -> minMillis + (long) (r.nextDouble() * Math.max(0, maxMillis - minMillis));
+        }
+
+        /** Long-tailed, like RS.ge: half the requests under {@code median}, 95% under {@code p95}. */
+        static Latency logNormal(long medianMillis, long p95Millis) {
+            double mu = Math.log(Math.max(1, medianMillis));
+            double sigma = Math.max(0, Math.log(Math.max(medianMillis, p95Millis)) - mu) / 1.645;
+            return r -> Math.round(Math.exp(mu + sigma * r.nextGaussian()));
+        }
+    }
+
+    private final Options options;
+    private final Random random;
+    private final XMLInputFactory xmlInputFactory;
+
+    /** A pre-serialized WAYBILL element and the fields list requests can filter on. */
+    private record ListRow(byte[] xml, String buyerTin, String sellerTin, String status) {}
+
+    /** Operation → CREATE_DATE day → list rows. */
+    private final Map<String, NavigableMap<LocalDate, List<ListRow>>> rowsByDay = new HashMap<>();
+    /** get_waybill: waybill id → recorded response, or a WAYBILL element built from the list row. */
+    private final Map<String, byte[]> recordedWaybills = new HashMap<>();
+    private final Map<String, byte[]> listRowsById = new HashMap<>();
+
+    private final Map<String, AtomicLong> counters = new ConcurrentHashMap<>();
+
+    private HttpServer server;
+    private ExecutorService executor;
+
+    public RsGeReplayServer(Options options) throws IOException {
+        this.options = options;
+        this.random = new Random(options.getSeed());
+        XMLInputFactory f = XMLInputFactory.newFactory();
+        f.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        f.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        this.xmlInputFactory = f;
+        load();
+    }
+
+    public synchronized RsGeReplayServer start() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", options.getPort()), 0);
+        // Stalls and latency sleep on the handler thread, so one thread per open request.
+        executor = Executors.newCachedThreadPool();
+        server.setExecutor(executor);
+        server.createContext("/", this::handle);
+        server.start();
+        log.info("RS.ge replay server listening on {} ({} list rows, {} recorded waybills)",
+                endpoint(), listRowsById.size(), recordedWaybills.size());
+        return this;
+    }
+
+    public URI endpoint() {
+        return URI.create("http://127.0.0.1:" + server.getAddress().getPort() + "/");
+    }
+
+    /** Requests per operation, plus "status:-1064", "status:-101", "http:500" and "stall" counts. */
+    public Map<String, Long> counters() {
+        Map<String, Long> out = new TreeMap<>();
+        counters.forEach((k, v) -> out.put(k, v.get()));
+        return out;
+    }
+
+    @Override
+    public synchronized void close() {
+        if (server != null) {
+            server.stop(0);
+            executor.shutdownNow();
+            server = null;
+        }
+    }
+
+    // ==================== FIXTURES ====================
+
+    private void load() throws IOException {
+        Path dir = options.getDir();
+        RsGeResponseParser parser = new RsGeResponseParser();
+        for (String operation : LIST_OPERATIONS) {
+            // Oldest recording first, so a later one's status or amount replaces what it recorded earlier.
+            Map<String, Map<String, Object>> byId = new LinkedHashMap<>();
+            for (Path file : byRecordingTime(xmlFiles(dir.resolve(operation)))) {
+                try (InputStream in = Files.newInputStream(file)) {
+                    for (Map<String, Object> wb : parser.parseWaybillMaps(in, operation)) {
+                        String id = RsGeResponseParser.firstNonBlank(wb, "ID", "id");
+                        if (id != null) byId.put(id, wb);
+                    }
+                }
+            }
+            NavigableMap<LocalDate, List<ListRow>> days = new TreeMap<>();
+            for (Map.Entry<String, Map<String, Object>> entry : byId.entrySet()) {
+                LocalDate day = dayOf(entry.getValue());
+                if (day == null) continue;
+                Map<String, Object> wb = entry.getValue();
+                byte[] row = element("WAYBILL", wb);
+                days.computeIfAbsent(day, d -> new ArrayList<>()).add(new ListRow(row,
+                        RsGeResponseParser.firstNonBlank(wb, "BUYER_TIN", "buyer_tin"),
+                        RsGeResponseParser.firstNonBlank(wb, "SELLER_TIN", "seller_tin"),
+                        RsGeResponseParser.firstNonBlank(wb, "STATUS", "status")));
+                listRowsById.putIfAbsent(entry.getKey(), row);
+            }
+            rowsByDay.put(operation, days);
+        }
+        for (Path file : xmlFiles(dir.resolve("get_waybill"))) {
+            String name = file.getFileName().toString();
+            recordedWaybills.put(name.substring(0, name.length() - ".xml".length()), Files.readAllBytes(file));
+        }
+    }
+
+    private static List<Path> xmlFiles(Path dir) throws IOException {
+        if (!Files.isDirectory(dir)) return List.of();
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.filter(p -> p.toString().endsWith(".xml")).sorted().toList();
+        }
+    }
+
+    /** Files by last-modified time (the recorder writes each one atomically), then by name. */
+    private static List<Path> byRecordingTime(List<Path> files) throws IOException {
+        Map<Path, Long> modified = new HashMap<>();
+        for (Path file : files) {
+            modified.put(file, Files.getLastModifiedTime(file).toMillis());
+        }
+        List<Path> sorted = new ArrayList<>(files);
+        sorted.sort(Comparator.comparing((Path f) -> modified.get(f)).thenComparing(Comparator.naturalOrder()));
+        return sorted;
+    }
+
+    private static LocalDate dayOf(Map<String, Object> wb) {
+        String date = RsGeResponseParser.firstNonBlank(wb, "CREATE_DATE", "create_date");
+        if (date == null || date.length() < 10) return null;
+        try {
+            return LocalDate.parse(date.substring(0, 10));
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    // ==================== HTTP ====================
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            String operation;
+            Map<String, String> params;
+            try (InputStream in = exchange.getRequestBody()) {
+                params = new HashMap<>();
+                operation = parseRequest(in, params);
+            } catch (XMLStreamException e) {
+                send(exchange, 400, fault("Malformed request: " + e.getMessage()));
+                return;
+            }
+            count(operation);
+
+            if (chance(options.getStallRate())) {
+                count("stall");
+                sleep(options.getStallMillis());
+                return;
+            }
+            Response response = respond(operation, params);
+            sleep(options.getLatency().sampleMillis(random)
+                    + TimeUnit.MICROSECONDS.toMillis(options.getPerRowMicros() * response.rows));
+            if (chance(options.getHttp500Rate())) {
+                count("http:500");
+                send(exchange, 500, fault("Server was unable to process request."));
+                return;
+            }
+            send(exchange, 200, response.body);
+        } catch (RuntimeException e) {
+            log.warn("RS.ge replay server failed a request: {}", e.toString());
+        }
+    }
+
+    private record Response(byte[] body, int rows) {}
+
+    private Response respond(String operation, Map<String, String> params) {
+        if ("get_waybill".equals(operation)) {
+            String id = params.getOrDefault("waybill_id", "");
+            byte[] recorded = recordedWaybills.get(id);
+            if (recorded != null) return new Response(recorded, 1);
+            byte[] row = listRowsById.get(id);
+            return new Response(envelope(operation, row != null ? row : new byte[0]), row != null ? 1 : 0);
+        }
+
+        NavigableMap<LocalDate, List<ListRow>> days = rowsByDay.get(operation);
+        if (days == null) {
+            return new Response(fault("Unsupported operation " + operation), 0);
+        }
+        if (options.isRequireSellerId() && params.getOrDefault("seller_un_id", "").isBlank()) {
+            count("status:-101");
+            return new Response(status(operation, -101), 0);
+        }
+        if (options.getListErrorStatus() != 0) {
+            count("status:" + options.getListErrorStatus());
+            return new Response(status(operation, options.getListErrorStatus()), 0);
+        }
+        LocalDate from = LocalDate.parse(params.get("create_date_s").substring(0, 10));
+        LocalDate toExclusive = LocalDate.parse(params.get("create_date_e").substring(0, 10));
+        String buyerTin = params.getOrDefault("buyer_tin", "");
+        String sellerTin = params.getOrDefault("seller_tin", "");
+        List<String> statuses = Stream.of(params.getOrDefault("statuses", "").split(","))
+                .map(String::trim).filter(st -> !st.isEmpty()).toList();
+        List<ListRow> matching = new ArrayList<>();
+        for (List<ListRow> day : days.subMap(from, true, toExclusive, false).values()) {
+            for (ListRow row : day) {
+                if (!buyerTin.isBlank() && !buyerTin.equals(row.buyerTin())) continue;
+                if (!sellerTin.isBlank() && !sellerTin.equals(row.sellerTin())) continue;
+                if (!statuses.isEmpty() && !statuses.contains(row.status())) continue;
+                matching.add(row);
+            }
+        }
+        int rows = matching.size();
+        if (rows > options.getMaxListSize()) {
+            count("status:-1064");
+            return new Response(status(operation, -1064), 0);
+        }
+
+        ByteArrayOutputStream list = new ByteArrayOutputStream(rows * 512 + 32);
+        list.writeBytes(utf8("<WAYBILL_LIST>"));
+        matching.forEach(row -> list.writeBytes(row.xml()));
+        list.writeBytes(utf8("</WAYBILL_LIST>"));
+        return new Response(envelope(operation, list.toByteArray()), rows);
+    }
+
+    /** Operation name and its direct child elements, from a SOAP request body. */
+    private String parseRequest(InputStream in, Map<String, String> params) throws XMLStreamException {
+        XMLStreamReader reader = xmlInputFactory.createXMLStreamReader(in);
+        try {
+            String operation = null;
+            int depth = 0;
+            int operationDepth = -1;
+            boolean inBody = false;
+            String param = null;
+            StringBuilder text = new StringBuilder();
+            while (reader.hasNext()) {
+                int event = reader.next();
+                if (event == XMLStreamConstants.START_ELEMENT) {
+                    depth++;
+                    String name = reader.getLocalName();
+                    if ("Body".equals(name)) {
+                        inBody = true;
+                    } else if (inBody && operation == null) {
+                        operation = name;
+                        operationDepth = depth;
+                    } else if (depth == operationDepth + 1) {
+                        param = name;
+                        text.setLength(0);
+                    }
+                } else if (event == XMLStreamConstants.CHARACTERS && param != null) {
+                    text.append(reader.getText());
+                } else if (event == XMLStreamConstants.END_ELEMENT) {
+                    if (param != null && depth == operationDepth + 1) {
+                        params.put(param, text.toString());
+                        param = null;
+                    }
+                    depth--;
+                }
+            }
+            if (operation == null) throw new XMLStreamException("no operation in SOAP body");
+            return operation;
+        } finally {
+            reader.close();
+        }
+    }
+
+    private static void send(HttpExchange exchange, int status, byte[] body) throws IOException {
+        String acceptEncoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+        byte[] payload = body;
+        if (acceptEncoding != null && acceptEncoding.contains("gzip")) {
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream(body.length / 4 + 64);
+            try (GZIPOutputStream gzip = new GZIPOutputStream(compressed)) {
+                gzip.write(body);
+            }
+            payload = compressed.toByteArray();
+            exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+        }
+        exchange.getResponseHeaders().set("Content-Type", "text/xml; charset=utf-8");
+        exchange.sendResponseHeaders(status, payload.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(payload);
+        }
+    }
+
+    private boolean chance(double rate) {
+        return rate > 0 && random.nextDouble() < rate;
+    }
+
+    private void count(String key) {
+        counters.computeIfAbsent(key, k -> new AtomicLong()).incrementAndGet();
+    }
+
+    private static void sleep(long millis) {
+        if (millis <= 0) return;
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // ==================== XML ====================
+
+    private static byte[] envelope(String operation, byte[] result) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(result.length + 384);
+        out.writeBytes(utf8("<?xml version=\"1.0\" encoding=\"utf-8\"?>"
+                + "<soap:Envelope xmlns:soap=\"http://schemas.xmlsoap.org/soap/envelope/\"><soap:Body>"
+                + "<" + operation + "Response xmlns=\"http://tempuri.org/\"><" + operation + "Result>"));
+        out.writeBytes(result);
+        out.writeBytes(utf8("</" + operation + "Result></" + operation + "Response></soap:Body></soap:Envelope>"));
+        return out.toByteArray();
+    }
+
+    private static byte[] status(String operation, int status) {
+        return envelope(operation, utf8("<STATUS>" + status + "</STATUS>"));
+    }
+
+    private static byte[] fault(String message) {
+        return utf8("<?xml version=\"1.0\" encoding=\"utf-8\"?>"
+                + "<soap:Envelope xmlns:soap=\"http://schemas.xmlsoap.org/soap/envelope/\"><soap:Body>"
+                + "<soap:Fault><faultcode>soap:Server</faultcode><faultstring>" + escape(message)
+                + "</faultstring></soap:Fault></soap:Body></soap:Envelope>");
+    }
+
+    private static byte[] element(String name, Object value) {
+        StringBuilder sb = new StringBuilder(512);
+        appendElement(sb, name, value);
+        return utf8(sb.toString());
+    }
+
+    private static void appendElement(StringBuilder sb, String name, Object value) {
+        if (value instanceof List<?> list) {
+            for (Object item : list) appendElement(sb, name, item);
+            return;
+        }
+        sb.append('<').append(name).append('>');
+        if (value instanceof Map<?, ?> map) {
+            map.forEach((k, v) -> appendElement(sb, String.valueOf(k), v));
+        } else if (value != null) {
+            sb.append(escape(value.toString()));
+        }
+        sb.append("</").append(name).append('>');
+    }
+
+    private static String escape(String s) {
+        return s.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;");
+    }
+
+    private static byte[] utf8(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,211 @@
+package ge.tastyerp.waybill.service.rsge;
+
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Single gate in front of every RS.ge SOAP request.
+ *
+ * Owns the global in-flight limit across all callers (list chunks, goods
+ * lookups, background prefetch), so concurrent dashboard loads can no longer
+ * multiply connections and tip RS.ge into connect timeouts. The limit adapts
+ * AIMD-style:
+ * <ul>
+ *   <li>success under the latency target → additive increase (about +1 per
+ *       {@code limit} successes);</li>
+ *   <li>HTTP 500, timeout, connection failure or a success slower than the
+ *       target → multiplicative decrease, at most once per cooldown so one
+ *       burst of failures does not collapse the limit to the floor.</li>
+ * </ul>
+ * Waiters are granted permits strictly by {@link RsGePriority}, FIFO within a
+ * class. Acquisition is a {@link CompletableFuture} so both blocking and
+ * composed callers can use it.
+ */
+@Slf4j
+@Component
+public class RsGeRequestGovernor {
+
+    /** How a permitted request ended; drives the limit adaptation. */
+    public enum Outcome {
+        /** RS.ge answered normally. */
+        SUCCESS,
+        /** HTTP 500, timeout or connection failure: RS.ge is struggling. */
+        OVERLOAD,
+        /** Failed for a reason unrelated to RS.ge load (bad input, parse error). */
+        FAILURE,
+        /** Permit returned without being used. */
+        UNUSED
+    }
+
+    @Value("${rsge.governor.initial-limit:6}")
+    private int initialLimit;
+
+    @Value("${rsge.governor.min-limit:2}")
+    private int minLimit;
+
+    @Value("${rsge.governor.max-limit:16}")
+    private int maxLimit;
+
+    @Value("${rsge.governor.latency-target-ms:20000}")
+    private long latencyTargetMs;
+
+    @Value("${rsge.governor.decrease-ratio:0.7}")
+    private double decreaseRatio;
+
+    @Value("${rsge.governor.decrease-cooldown-ms:2000}")
+    private long decreaseCooldownMs;
+
+    private record Waiter(RsGePriority priority, long seq, CompletableFuture<Permit> future) {}
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final PriorityQueue<Waiter> queue = new PriorityQueue<>(
+            Comparator.comparingInt((Waiter w) -> w.priority().ordinal()).thenComparingLong(Waiter::seq));
+    private double limit;
+    private int inFlight;
+    private long seq;
+    private long lastDecreaseNanos;
+
+    @PostConstruct
+    void init() {
+        limit = Math.max(minLimit, Math.min(maxLimit, initialLimit));
+        lastDecreaseNanos = System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(decreaseCooldownMs);
+    }
+
+    /** Completes when a permit is granted. The caller MUST release it exactly once. */
+    public CompletableFuture<Permit> acquire(RsGePriority priority) {
+        lock.lock();
+        try {
+            if (queue.isEmpty() && inFlight < (int) limit) {
+                inFlight++;
+                return CompletableFuture.completedFuture(new Permit());
+            }
+            CompletableFuture<Permit> future = new CompletableFuture<>();
+            queue.add(new Waiter(priority, seq++, future));
+            return future;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Current adaptive in-flight limit. */
+    public int currentLimit() {
+        lock.lock();
+        try {
+            return (int) limit;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int inFlight() {
+        lock.lock();
+        try {
+            return inFlight;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int queued() {
+        lock.lock();
+        try {
+            return queue.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Waiters of one priority class. */
+    public int queued(RsGePriority priority) {
+        lock.lock();
+        try {
+            int n = 0;
+            for (Waiter w : queue) {
+                if (w.priority() == priority) n++;
+            }
+            return n;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** One granted slot. Latency is measured from grant to release. */
+    public final class Permit {
+        private final long grantedAtNanos = System.nanoTime();
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        public void release(Outcome outcome) {
+            if (released.compareAndSet(false, true)) {
+                onRelease(outcome, System.nanoTime() - grantedAtNanos);
+            }
+        }
+    }
+
+    private void onRelease(Outcome outcome, long latencyNanos) {
+        List<Waiter> granted = new ArrayList<>();
+        lock.lock();
+        try {
+            inFlight--;
+            adapt(outcome, latencyNanos);
+            while (!queue.isEmpty() && inFlight < (int) limit) {
+                Waiter w = queue.poll();
+                if (w.future().isDone()) continue;
+                inFlight++;
+                granted.add(w);
+            }
+        } finally {
+            lock.unlock();
+        }
+        // Complete outside the lock: dependents of the future may run inline.
+        for (Waiter w : granted) {
+            Permit permit = new Permit();
+            if (!w.future().complete(permit)) {
+                permit.release(Outcome.UNUSED);
+            }
+        }
+    }
+
+    /** Called under lock. */
+    private void adapt(Outcome outcome, long latencyNanos) {
+        boolean slow = TimeUnit.NANOSECONDS.toMillis(latencyNanos) > latencyTargetMs;
+        switch (outcome) {
+            case SUCCESS -> {
+                if (slow) {
+                    decrease("slow response " + TimeUnit.NANOSECONDS.toMillis(latencyNanos) + " ms");
+                } else {
+                    limit = Math.min(maxLimit, limit + 1.0 / limit);
+                }
+            }
+            case OVERLOAD -> decrease("overload signal");
+            case FAILURE, UNUSED -> {
+                // not a load signal
+            }
+        }
+    }
+
+    /** Called under lock. */
+    private void decrease(String reason) {
+        long now = System.nanoTime();
+        if (now - lastDecreaseNanos < TimeUnit.MILLISECONDS.toNanos(decreaseCooldownMs)) {
+            return;
+        }
+        lastDecreaseNanos = now;
+        double before = limit;
+        limit = Math.max(minLimit, limit * decreaseRatio);
+        if ((int) before != (int) limit) {
+            log.warn("RS.ge governor: limit {} -> {} ({}; inFlight={}, queued={})",
+                    (int) before, (int) limit, reason, inFlight, queue.size());
+        }
+    }
+}
@@ -0,0 +1,337 @@
+package ge.tastyerp.waybill.service.rsge;
+
+import ge.tastyerp.common.exception.ExternalServiceException;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.InputStream;
+import java.io.Reader;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Single-pass StAX parser for RS.ge SOAP responses.
+ *
+ * Replaces the old DOM → nested HashMap → BFS pipeline. The response is read
+ * once; every element subtree that looks like a waybill (an ID plus at least
+ * one waybill-ish field) is emitted as a flat field map the moment its end tag
+ * is reached, at any depth, exactly like the old deep traversal: a waybill
+ * nested inside another candidate is emitted too, and duplicate IDs (RS.ge
+ * sometimes returns the same waybill shallow and detailed, or embeds one in
+ * the other) are resolved on the fly with {@link #chooseRicherWaybill}.
+ * Emitted maps stay attached to their parent by reference, so a candidate's
+ * nested content is whatever it was in the document, independent of element
+ * order, and a wrapper only holds references to maps kept anyway.
+ *
+ * Value shapes match the old nodeToMap output: leaf elements become String
+ * values, elements with children become maps, and repeated sibling elements
+ * become lists. List calls then reduce each de-duplicated waybill map to a
+ * typed {@link RsGeWaybill} and let the maps go with the response; only the
+ * replay server ({@link #parseWaybillMaps}) and get_waybill trees keep them.
+ *
+ * Thread-safe: the factory is configured once and readers are per call.
+ */
+final class RsGeResponseParser {
+
+    private static final String[] ID_KEYS = {"ID", "id", "waybill_id", "waybillId"};
+
+    private static final String[] CANDIDATE_KEYS = {
+            "FULL_AMOUNT", "full_amount",
+            "TOTAL_AMOUNT", "total_amount",
+            "GROSS_AMOUNT", "gross_amount",
+            "NET_AMOUNT", "net_amount",
+            "AMOUNT_LARI", "amount_lari",
+            "AMOUNT", "amount",
+            "BUYER_TIN", "buyer_tin",
+            "SELLER_TIN", "seller_tin",
+            "STATUS", "status",
+            "CREATE_DATE", "create_date"
+    };
+
+    private static final String[] SCORE_AMOUNT_KEYS = {
+            "FULL_AMOUNT", "full_amount",
+            "TOTAL_AMOUNT", "total_amount",
+            "GROSS_AMOUNT", "gross_amount",
+            "NET_AMOUNT", "net_amount",
+            "AMOUNT_LARI", "amount_lari",
+            "AMOUNT", "amount",
+            "SUM", "sum",
+            "SUMA", "suma",
+            "VALUE", "value",
+            "VALUE_LARI", "value_lari"
+    };
+
+    private static final String[] SCORE_DATE_KEYS = {
+            "CREATE_DATE", "create_date", "WAYBILL_DATE", "waybill_date", "DATE", "date"
+    };
+
+    /** Parsed list operation (get_waybills / get_buyer_waybills). */
+    record WaybillListResult(int statusCode, List<RsGeWaybill> waybills, boolean resultFound) {}
+
+    /** Parsed single-object operation (get_waybill): the full Result subtree. */
+    record TreeResult(int statusCode, Map<String, Object> result, boolean resultFound) {}
+
+    private final XMLInputFactory factory;
+
+    RsGeResponseParser() {
+        XMLInputFactory f = XMLInputFactory.newFactory();
+        // Hardening: RS.ge never sends DTDs; refuse them and any external entity.
+        f.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        f.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        f.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, true);
+        f.setProperty(XMLInputFactory.IS_COALESCING, true);
+        this.factory = f;
+    }
+
+    /**
+     * Stream a list response and emit de-duplicated waybills in document
+     * order of first appearance.
+     */
+    WaybillListResult parseWaybillList(Reader xml, String operation) {
+        return parseWaybillList(() -> factory.createXMLStreamReader(xml), operation);
+    }
+
+    /**
+     * Same as {@link #parseWaybillList(Reader, String)}, reading raw bytes (the
+     * encoding comes from the XML declaration). Used on the live HTTP body, so
+     * parsing proceeds while the rest of the response is still arriving.
+     */
+    WaybillListResult parseWaybillList(InputStream xml, String operation) {
+        return parseWaybillList(() -> factory.createXMLStreamReader(xml), operation);
+    }
+
+    private WaybillListResult parseWaybillList(Source source, String operation) {
+        Map<String, Map<String, Object>> byId = new LinkedHashMap<>();
+        ParseOutcome outcome = parse(source, operation, byId);
+        WaybillFieldResolver.Plans plans = WaybillFieldResolver.newPlans();
+        List<RsGeWaybill> waybills = new ArrayList<>(byId.size());
+        for (Map<String, Object> raw : byId.values()) {
+            waybills.add(RsGeWaybill.of(raw, plans));
+        }
+        return new WaybillListResult(statusCode(outcome.root), waybills, outcome.resultFound);
+    }
+
+    /**
+     * The de-duplicated waybill field maps of a list response, for the replay
+     * server, which writes them back out as XML.
+     */
+    List<Map<String, Object>> parseWaybillMaps(InputStream xml, String operation) {
+        Map<String, Map<String, Object>> byId = new LinkedHashMap<>();
+        parse(() -> factory.createXMLStreamReader(xml), operation, byId);
+        return new ArrayList<>(byId.values());
+    }
+
+    /**
+     * Parse a small single-object response into a tree (same shape as the old
+     * nodeToMap output). Used for get_waybill, whose goods lines must stay
+     * nested under WAYBILL → GOODS_LIST.
+     */
+    TreeResult parseTree(Reader xml, String operation) {
+        return parseTree(() -> factory.createXMLStreamReader(xml), operation);
+    }
+
+    TreeResult parseTree(InputStream xml, String operation) {
+        return parseTree(() -> factory.createXMLStreamReader(xml), operation);
+    }
+
+    private TreeResult parseTree(Source source, String operation) {
+        ParseOutcome outcome = parse(source, operation, null);
+        return new TreeResult(statusCode(outcome.root), outcome.root, outcome.resultFound);
+    }
+
+    /** Opens the StAX reader over a character or byte input. */
+    @FunctionalInterface
+    private interface Source {
+        XMLStreamReader open() throws XMLStreamException;
+    }
+
+    private record ParseOutcome(Map<String, Object> root, boolean resultFound) {}
+
+    /** One open element. Its map is created lazily on the first child element. */
+    private static final class Frame {
+        final String name;
+        Map<String, Object> map;
+        StringBuilder text;
+
+        Frame(String name) {
+            this.name = name;
+        }
+    }
+
+    /**
+     * @param byId when non-null, waybill candidates are also emitted here (de-duplicated
+     *             by ID); when null only the Result subtree is built.
+     */
+    private ParseOutcome parse(Source source, String operation, Map<String, Map<String, Object>> byId) {
+        String resultElement = operation + "Result";
+        XMLStreamReader reader = null;
+        try {
+            reader = source.open();
+            ArrayDeque<Frame> stack = new ArrayDeque<>();
+            Map<String, Object> root = null;
+            boolean inFault = false;
+            StringBuilder faultText = null;
+
+            while (reader.hasNext()) {
+                int event = reader.next();
+                switch (event) {
+                    case XMLStreamConstants.START_ELEMENT -> {
+                        String name = reader.getLocalName();
+                        if (!stack.isEmpty()) {
+                            Frame parent = stack.peek();
+                            if (parent.map == null) parent.map = new HashMap<>();
+                            stack.push(new Frame(name));
+                        } else if (root == null && resultElement.equals(name)) {
+                            stack.push(new Frame(name));
+                        } else if ("faultstring".equals(name)) {
+                            inFault = true;
+                            faultText = new StringBuilder();
+                        }
+                    }
+                    case XMLStreamConstants.CHARACTERS, XMLStreamConstants.CDATA -> {
+                        if (inFault) {
+                            faultText.append(reader.getText());
+                        } else if (!stack.isEmpty()) {
+                            Frame top = stack.peek();
+                            if (top.map == null) {
+                                if (top.text == null) top.text = new StringBuilder();
+                                top.text.append(reader.getText());
+                            }
+                        }
+                    }
+                    case XMLStreamConstants.END_ELEMENT -> {
+                        if (inFault) {
+                            throw new ExternalServiceException("RS.ge", faultText.toString());
+                        }
+                        if (stack.isEmpty()) break;
+                        Frame done = stack.pop();
+                        if (done.map != null && byId != null && isWaybillCandidate(done.map)) {
+                            emit(byId, done.map);
+                        }
+                        if (stack.isEmpty()) {
+                            root = done.map != null ? done.map : new HashMap<>();
+                            break;
+                        }
+                        attach(stack.peek().map, done.name,
+                                done.map != null ? done.map : (done.text != null ? done.text.toString() : ""));
+                    }
+                    default -> {
+                        // comments, processing instructions, whitespace outside elements
+                    }
+                }
+            }
+            return root != null ? new ParseOutcome(root, true) : new ParseOutcome(new HashMap<>(), false);
+        } catch (XMLStreamException e) {
+            throw new ExternalServiceException("RS.ge", "Malformed SOAP response: " + e.getMessage(), e);
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (XMLStreamException ignored) {
+                    // nothing useful to do
+                }
+            }
+        }
+    }
+
+    /** Same duplicate-sibling semantics as the old nodeToMap: second occurrence turns the value into a list. */
+    @SuppressWarnings("unchecked")
+    private static void attach(Map<String, Object> parent, String name, Object value) {
+        Object existing = parent.get(name);
+        if (existing == null) {
+            parent.put(name, value);
+        } else if (existing instanceof List) {
+            ((List<Object>) existing).add(value);
+        } else {
+            List<Object> list = new ArrayList<>();
+            list.add(existing);
+            list.add(value);
+            parent.put(name, list);
+        }
+    }
+
+    private static void emit(Map<String, Map<String, Object>> byId, Map<String, Object> waybill) {
+        String id = firstNonBlank(waybill, ID_KEYS);
+        if (id == null) {
+            id = "unknown_" + byId.size();
+        }
+        Map<String, Object> existing = byId.get(id);
+        byId.put(id, existing == null ? waybill : chooseRicherWaybill(existing, waybill));
+    }
+
+    static boolean isWaybillCandidate(Map<String, Object> map) {
+        // Must have an ID and at least one waybill-ish field
+        if (firstNonBlank(map, ID_KEYS) == null) return false;
+        for (String key : CANDIDATE_KEYS) {
+            if (map.containsKey(key)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * RS.ge responses can contain the same waybill object multiple times (sometimes shallow, sometimes detailed).
+     * Prefer the "richer" map so VAT calculations don't drop nested/embedded waybills whose amounts only appear
+     * in the deeper representation.
+     */
+    static Map<String, Object> chooseRicherWaybill(Map<String, Object> a, Map<String, Object> b) {
+        int scoreA = waybillCompletenessScore(a);
+        int scoreB = waybillCompletenessScore(b);
+        if (scoreB > scoreA) return b;
+        if (scoreA > scoreB) return a;
+
+        // Tie-breaker: keep the larger map (more fields)
+        int sizeA = a != null ? a.size() : 0;
+        int sizeB = b != null ? b.size() : 0;
+        return sizeB > sizeA ? b : a;
+    }
+
+    private static int waybillCompletenessScore(Map<String, Object> map) {
+        if (map == null || map.isEmpty()) return 0;
+        int score = 0;
+
+        // Amount presence is critical for VAT; weight it heavily.
+        if (firstNonBlank(map, SCORE_AMOUNT_KEYS) != null) score += 20;
+        if (firstNonBlank(map, SCORE_DATE_KEYS) != null) score += 8;
+        if (firstNonBlank(map, "BUYER_TIN", "buyer_tin") != null) score += 3;
+        if (firstNonBlank(map, "SELLER_TIN", "seller_tin") != null) score += 3;
+        if (firstNonBlank(map, "STATUS", "status") != null) score += 1;
+
+        // Slight preference for maps with more fields overall.
+        score += Math.min(map.size(), 50) / 5;
+        return score;
+    }
+
+    /** Status code from STATUS or RESULT → STATUS of the Result element (0 when absent). */
+    static int statusCode(Map<String, Object> result) {
+        Object status = result.get("STATUS");
+        if (status == null) {
+            status = result.get("RESULT");
+            if (status instanceof Map) {
+                status = ((Map<?, ?>) status).get("STATUS");
+            }
+        }
+        if (status == null) return 0;
+
+        try {
+            return Integer.parseInt(status.toString().trim());
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    static String firstNonBlank(Map<String, Object> map, String... keys) {
+        for (String k : keys) {
+            Object v = map.get(k);
+            if (v == null) continue;
+            String s = v.toString().trim();
+            if (!s.isEmpty()) return s;
+        }
+        return null;
+    }
+}
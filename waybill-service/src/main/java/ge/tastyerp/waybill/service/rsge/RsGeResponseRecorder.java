@@ -0,0 +1,167 @@
+package ge.tastyerp.waybill.service.rsge;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Writes anonymised copies of live RS.ge responses to disk, as fixtures for
+ * {@link RsGeReplayServer}.
+ *
+ * Layout: {@code <dir>/<operation>/<from>_<to>.xml} for list operations and
+ * {@code <dir>/get_waybill/<id>.xml} for single waybills. Names, addresses,
+ * drivers, vehicles and comments are replaced by pseudonyms and TINs by other
+ * digits of the same length. Pseudonyms come from an HMAC keyed by a secret
+ * salt, so the same party maps to the same pseudonym across recordings and
+ * per-customer aggregation still works.
+ *
+ * The salt must live OUTSIDE the fixture directory: TINs are only 9 or 11
+ * digits, so anyone holding fixtures and salt can brute-force them back.
+ * The recorder refuses a salt inside {@code dir} and any {@code .salt} file
+ * left there by older versions.
+ */
+@Slf4j
+final class RsGeResponseRecorder {
+
+    /** Numeric identifiers of parties: pseudonymised digit for digit. */
+    private static final Set<String> TIN_FIELDS = Set.of(
+            "BUYER_TIN", "SELLER_TIN", "DRIVER_TIN", "TRANSPORTER_TIN", "RECEPTION_TIN", "TIN");
+
+    /** Free-text fields that may identify a person or company. */
+    private static final Set<String> TEXT_FIELDS = Set.of(
+            "BUYER_NAME", "SELLER_NAME", "DRIVER_NAME", "TRANSPORTER_NAME", "RECEPTION_NAME", "RECEIVER_INFO",
+            "START_ADDRESS", "END_ADDRESS", "CAR_NUMBER", "TRAILER", "COMMENT", "NAME", "FULL_NAME");
+
+    private static final Pattern ELEMENT = Pattern.compile(
+            "<(?:\\w+:)?(\\w+)>([^<]*)</(?:\\w+:)?\\1>", Pattern.CASE_INSENSITIVE);
+
+    private final Path dir;
+    private final Mac mac;
+
+    /**
+     * @param dir      fixture directory (shareable)
+     * @param saltFile HMAC salt, created on first use; must not be inside {@code dir}
+     */
+    RsGeResponseRecorder(Path dir, Path saltFile) throws IOException {
+        this.dir = dir;
+        Path fixtures = dir.toAbsolutePath().normalize();
+        if (saltFile.toAbsolutePath().normalize().startsWith(fixtures)) {
+            throw new IOException("Recorder salt " + saltFile + " is inside the fixture directory " + dir
+                    + "; keep it outside (rsge.record.salt-file)");
+        }
+        if (Files.exists(dir.resolve(".salt"))) {
+            throw new IOException("Found a salt file in the fixture directory " + dir.resolve(".salt")
+                    + "; move it to rsge.record.salt-file before recording or sharing fixtures");
+        }
+        Files.createDirectories(dir);
+        this.mac = hmac(loadOrCreateSalt(saltFile));
+    }
+
+    /** Record one response; never fails the call it was taken from. */
+    void record(String operation, Map<String, String> params, byte[] body) {
+        try {
+            Path target = target(operation, params);
+            if (target == null) return;
+            Files.createDirectories(target.getParent());
+            Path tmp = target.resolveSibling(target.getFileName() + ".tmp");
+            Files.writeString(tmp, anonymise(new String(body, StandardCharsets.UTF_8)), StandardCharsets.UTF_8);
+            Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException | RuntimeException e) {
+            log.warn("RS.ge recorder could not write operation={}: {}", operation, e.getMessage());
+        }
+    }
+
+    private Path target(String operation, Map<String, String> params) {
+        Path opDir = dir.resolve(operation);
+        String id = params.get("waybill_id");
+        if (id != null) {
+            return opDir.resolve(safe(id) + ".xml");
+        }
+        // A counterparty-filtered list is a subset; do not let it overwrite the full range's fixture.
+        if (!params.getOrDefault("buyer_tin", "").isBlank() || !params.getOrDefault("seller_tin", "").isBlank()) {
+            return null;
+        }
+        String from = params.get("create_date_s");
+        String to = params.get("create_date_e");
+        if (from == null || to == null) return null;
+        return opDir.resolve(safe(from) + "_" + safe(to) + ".xml");
+    }
+
+    String anonymise(String xml) {
+        Matcher m = ELEMENT.matcher(xml);
+        StringBuilder out = new StringBuilder(xml.length());
+        while (m.find()) {
+            String field = m.group(1).toUpperCase();
+            String value = m.group(2);
+            String replacement;
+            if (value.isBlank()) {
+                replacement = m.group();
+            } else if (TIN_FIELDS.contains(field)) {
+                replacement = m.group().replace(">" + value + "<", ">" + pseudoDigits(value.trim()) + "<");
+            } else if (TEXT_FIELDS.contains(field)) {
+                replacement = m.group().replace(">" + value + "<", ">" + field + "-" + pseudoHex(value.trim()) + "<");
+            } else {
+                replacement = m.group();
+            }
+            m.appendReplacement(out, Matcher.quoteReplacement(replacement));
+        }
+        m.appendTail(out);
+        return out.toString();
+    }
+
+    private synchronized byte[] digest(String value) {
+        return mac.doFinal(value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private String pseudoDigits(String value) {
+        byte[] h = digest(value);
+        StringBuilder sb = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            sb.append(Character.isDigit(c) ? (char) ('0' + (h[i % h.length] & 0xFF) % 10) : c);
+        }
+        return sb.toString();
+    }
+
+    private String pseudoHex(String value) {
+        return HexFormat.of().formatHex(digest(value), 0, 5);
+    }
+
+    private static String safe(String s) {
+        return s.replaceAll("[^A-Za-z0-9_-]", "-");
+    }
+
+    private static byte[] loadOrCreateSalt(Path file) throws IOException {
+        if (Files.exists(file)) {
+            return Files.readAllBytes(file);
+        }
+        byte[] salt = new byte[32];
+        new SecureRandom().nextBytes(salt);
+        if (file.getParent() != null) Files.createDirectories(file.getParent());
+        Files.write(file, salt);
+        return salt;
+    }
+
+    private static Mac hmac(byte[] key) {
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(new SecretKeySpec(key, "HmacSHA256"));
+            return mac;
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("HmacSHA256 unavailable", e);
+        }
+    }
+}
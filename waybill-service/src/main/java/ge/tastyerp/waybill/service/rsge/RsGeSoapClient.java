@@ -1,30 +1,38 @@
 package ge.tastyerp.waybill.service.rsge;
 
 import ge.tastyerp.common.exception.ExternalServiceException;
+import ge.tastyerp.common.util.FutureUtils;
+import lombok.RequiredArgsConstructor;
+import jakarta.annotation.PostConstruct;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
-import org.w3c.dom.Document;
-import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
-import org.xml.sax.InputSource;
-
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import java.io.StringReader;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
 import java.net.URI;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
 import java.time.Duration;
 import java.time.LocalDate;
 import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoUnit;
 import java.util.*;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
+import java.util.zip.GZIPInputStream;
 
 /**
  * SOAP Client for RS.ge Waybill Service.
@@ -32,22 +40,40 @@ import java.util.stream.Collectors;
  * This is the Spring Boot equivalent of the legacy TypeScript soapClient.ts.
  * Implements the EXACT same retry logic:
  * - -101 → missing seller_un_id → retry with seller ID
- * - -1064 → date range too large → split into 72h chunks
+ * - -1064 → date range too large → split into chunks ({@link RsGeChunkPlanner}
+ *   sizes them from learned density; 72h windows until it knows better)
+ * - any other status but 0/1 → the call fails with ExternalServiceException (never an empty list)
  *
  * Improvements:
+ * - Fully asynchronous: every operation has a CompletableFuture variant built
+ *   on HttpClient.sendAsync; the blocking methods just join it
  * - Parallel fetching for chunks
  * - Robust XML escaping
+ * - Zero-copy transport: envelopes are written from pre-encoded byte templates
+ *   ({@link RsGeSoapEnvelope}), responses are requested gzipped and the body
+ *   stream is parsed ({@link RsGeResponseParser}) while it is still arriving
+ * - Calls, parse CPU, bytes, statuses, chunking, retries, hedges and the
+ *   governor queue are published as Micrometer meters ({@link RsGeMetrics})
+ * - Optional recording of anonymised responses ({@link RsGeResponseRecorder})
+ *   as fixtures for the offline {@link RsGeReplayServer}
+ * - Every request passes the shared {@link RsGeRequestGovernor} (adaptive global
+ *   concurrency limit, queued by {@link RsGePriority})
+ * - Chunks running past the operation's p95 are hedged; failed chunks are
+ *   retried with jittered exponential backoff on a timer, not a sleeping thread
  */
 @Slf4j
 @Component
+@RequiredArgsConstructor
 public class RsGeSoapClient {
 
-    private static final String NS = "http://tempuri.org/";
     private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss");
     
-    // Legacy logic used 72 hours
+    // Legacy logic used 72 hours; now the chunk planner's width until it has learned density
     private static final int CHUNK_DAYS = 3; 
 
+    private final RsGeRequestGovernor governor;
+    private final RsGeMetrics metrics;
+
     @Value("${rsge.endpoint}")
     private String endpoint;
 
@@ -69,135 +95,297 @@ public class RsGeSoapClient {
     @Value("${rsge.debug-response-snippet-length:0}")
     private int debugResponseSnippetLength;
 
+    /** Ask RS.ge for gzip-compressed responses (decompressed while parsing). */
+    @Value("${rsge.gzip:true}")
+    private boolean gzipEnabled;
+
+    /** Save anonymised copies of successful responses under {@code rsge.record.dir}. */
+    @Value("${rsge.record.enabled:false}")
+    private boolean recordEnabled;
+
+    @Value("${rsge.record.dir:./data/rsge-recordings}")
+    private String recordDir;
+
+    /** Pseudonym salt; kept outside {@code rsge.record.dir} so fixtures can be shared without it. */
+    @Value("${rsge.record.salt-file:./data/rsge-recorder.salt}")
+    private String recordSaltFile;
+
+    @Value("${rsge.hedge.enabled:true}")
+    private boolean hedgeEnabled;
+
+    /** Share of a fetch's chunks that may be duplicated. */
+    @Value("${rsge.hedge.budget-ratio:0.1}")
+    private double hedgeBudgetRatio;
+
+    @Value("${rsge.hedge.min-delay-ms:1000}")
+    private long hedgeMinDelayMs;
+
+    @Value("${rsge.retry.max-attempts:3}")
+    private int retryMaxAttempts;
+
+    @Value("${rsge.retry.base-delay-ms:1000}")
+    private long retryBaseDelayMs;
+
+    @Value("${rsge.retry.max-delay-ms:15000}")
+    private long retryMaxDelayMs;
+
+    /** Send counterparty TIN and status filters with list calls instead of only filtering the response. */
+    @Value("${rsge.pushdown.enabled:true}")
+    private boolean pushdownEnabled;
+
+    /**
+     * RS.ge {@code statuses} list of the statuses we keep (everything but -1/-2); blank = no status filter.
+     * Sent only with a counterparty filter: full lists feed the store, VAT and debt, which must see every
+     * status RS.ge may add and drop -1/-2 themselves.
+     */
+    @Value("${rsge.pushdown.statuses:,0,1,2,8,}")
+    private String pushdownStatuses;
+
+    private final RsGeResponseParser responseParser = new RsGeResponseParser();
+
+    /** Learns per-day density and RS.ge's -1064 limit; fill chunks to 85% of it, probe 1.5x past the largest success. */
+    private final RsGeChunkPlanner chunkPlanner = new RsGeChunkPlanner(CHUNK_DAYS, 0.85, 1.5);
+
+    /** Successful response times per operation (last 256, p95 needs at least 20). */
+    private final RsGeLatencyTracker latencyTracker = new RsGeLatencyTracker(256, 20);
+
     // Force HTTP/1.1 to avoid RS.ge's SETTINGS_MAX_CONCURRENT_STREAMS limit.
     // HTTP/2 multiplexes all parallel chunk requests as streams on ONE connection;
     // RS.ge rejects them with "too many concurrent streams". HTTP/1.1 uses separate
     // connections, bypassing the limit entirely.
     // Connect timeout raised to 60s: when too many chunks fired in parallel,
     // RS.ge's connection queue can take >30s to accept a new connection.
+    // All calls go through sendAsync: no thread is parked while RS.ge works,
+    // so pending chunks and goods lookups cost a future each, not a thread.
+    // Response bodies are parsed on the client's executor as they stream in,
+    // so at most the governor's limit of threads are busy reading at once.
     private final HttpClient httpClient = HttpClient.newBuilder()
             .connectTimeout(Duration.ofSeconds(60))
             .version(HttpClient.Version.HTTP_1_1)
             .build();
 
-    /**
-     * Bounded thread pool for parallel date-range chunk fetching.
-     * 8 threads = at most 8 simultaneous RS.ge connections.
-     * Without this, all ~113 chunks fire at once via ForkJoinPool,
-     * overwhelming RS.ge and causing HttpConnectTimeoutException.
-     */
-    private final ExecutorService chunkExecutor = Executors.newFixedThreadPool(8,
-            r -> {
-                Thread t = new Thread(r, "rsge-chunk");
-                t.setDaemon(true);
-                return t;
-            });
+    private RsGeResponseRecorder recorder;
 
-    /** Thread pool for parallel per-waybill goods fetching (product-sales endpoint). */
-    private final ExecutorService goodsFetchExecutor = Executors.newFixedThreadPool(10,
-            r -> {
-                Thread t = new Thread(r, "goods-fetch");
-                t.setDaemon(true);
-                return t;
-            });
+    @PostConstruct
+    void init() {
+        if (!recordEnabled) return;
+        try {
+            recorder = new RsGeResponseRecorder(Path.of(recordDir), Path.of(recordSaltFile));
+            log.warn("RS.ge response recording is ON: anonymised responses go to {}", recordDir);
+        } catch (IOException e) {
+            log.warn("RS.ge response recording disabled; cannot use {}: {}", recordDir, e.getMessage());
+        }
+    }
 
     /**
      * Get waybills from RS.ge.
      * Automatically handles date range chunking if needed.
      */
-    public List<Map<String, Object>> getWaybills(LocalDate startDate, LocalDate endDate) {
-        log.info("Fetching waybills from RS.ge: {} to {}", startDate, endDate);
+    public List<RsGeWaybill> getWaybills(LocalDate startDate, LocalDate endDate) {
+        return getWaybills(startDate, endDate, RsGePriority.INTERACTIVE);
+    }
 
-        String startStr = startDate.atStartOfDay().format(DATE_FORMAT);
-        String endStr = endDate.plusDays(1).atStartOfDay().format(DATE_FORMAT);
+    public List<RsGeWaybill> getWaybills(LocalDate startDate, LocalDate endDate, RsGePriority priority) {
+        return FutureUtils.join(getWaybillsAsync(startDate, endDate, priority));
+    }
 
-        Map<String, String> params = new HashMap<>();
-        params.put("create_date_s", startStr);
-        params.put("create_date_e", endStr);
+    /** Non-blocking {@link #getWaybills}; fails with ExternalServiceException. */
+    public CompletableFuture<List<RsGeWaybill>> getWaybillsAsync(LocalDate startDate, LocalDate endDate,
+                                                                        RsGePriority priority) {
+        return getWaybillsAsync(startDate, endDate, priority, null);
+    }
 
-        try {
-            return callSoapWithRetry("get_waybills", params);
-        } catch (Exception e) {
-            log.error("Failed to fetch waybills: {}", e.getMessage());
-            throw new ExternalServiceException("RS.ge", e.getMessage(), e);
-        }
+    /**
+     * {@link #getWaybillsAsync} of one buyer. With pushdown enabled RS.ge
+     * filters by {@code buyerTin}; otherwise (or if RS.ge ignores it) the
+     * caller still gets every buyer and must filter itself.
+     */
+    public CompletableFuture<List<RsGeWaybill>> getWaybillsAsync(LocalDate startDate, LocalDate endDate,
+                                                                        RsGePriority priority, String buyerTin) {
+        log.info("Fetching waybills from RS.ge: {} to {}", startDate, endDate);
+        return callSoapWithRetry("get_waybills", listParams("get_waybills", startDate, endDate, buyerTin), priority)
+                .exceptionally(e -> {
+                    log.error("Failed to fetch waybills: {}", FutureUtils.unwrap(e).getMessage());
+                    throw toExternal(e);
+                });
     }
 
     /**
      * Get buyer waybills from RS.ge (purchase waybills from our perspective).
      * Operation name matches legacy: get_buyer_waybills.
      */
-    public List<Map<String, Object>> getBuyerWaybills(LocalDate startDate, LocalDate endDate) {
+    public List<RsGeWaybill> getBuyerWaybills(LocalDate startDate, LocalDate endDate) {
+        return getBuyerWaybills(startDate, endDate, RsGePriority.INTERACTIVE);
+    }
+
+    public List<RsGeWaybill> getBuyerWaybills(LocalDate startDate, LocalDate endDate, RsGePriority priority) {
+        return FutureUtils.join(getBuyerWaybillsAsync(startDate, endDate, priority));
+    }
+
+    /** Non-blocking {@link #getBuyerWaybills}; fails with ExternalServiceException. */
+    public CompletableFuture<List<RsGeWaybill>> getBuyerWaybillsAsync(LocalDate startDate, LocalDate endDate,
+                                                                             RsGePriority priority) {
+        return getBuyerWaybillsAsync(startDate, endDate, priority, null);
+    }
+
+    /** {@link #getBuyerWaybillsAsync} of one seller; see {@link #getWaybillsAsync(LocalDate, LocalDate, RsGePriority, String)}. */
+    public CompletableFuture<List<RsGeWaybill>> getBuyerWaybillsAsync(LocalDate startDate, LocalDate endDate,
+                                                                             RsGePriority priority, String sellerTin) {
         log.info("Fetching buyer waybills from RS.ge: {} to {}", startDate, endDate);
+        return callSoapWithRetry("get_buyer_waybills",
+                listParams("get_buyer_waybills", startDate, endDate, sellerTin), priority)
+                .exceptionally(e -> {
+                    log.error("Failed to fetch buyer waybills: {}", FutureUtils.unwrap(e).getMessage());
+                    throw toExternal(e);
+                });
+    }
 
-        String startStr = startDate.atStartOfDay().format(DATE_FORMAT);
-        String endStr = endDate.plusDays(1).atStartOfDay().format(DATE_FORMAT);
+    /**
+     * Receives the chunks of a streamed list fetch as they complete. Called
+     * from RS.ge response threads, possibly concurrently and in any order.
+     */
+    @FunctionalInterface
+    public interface ChunkListener {
+        void onChunk(LocalDate start, LocalDate end, List<RsGeWaybill> waybills, int chunksTotal);
+    }
 
-        Map<String, String> params = new HashMap<>();
-        params.put("create_date_s", startStr);
-        params.put("create_date_e", endStr);
+    /**
+     * Streaming {@link #getWaybillsAsync}: the range is split into planner
+     * chunks up front and each chunk is handed to {@code listener} as soon as
+     * it arrives, instead of after the slowest one. Completes once every chunk
+     * has been delivered; fails with ExternalServiceException.
+     */
+    public CompletableFuture<Void> streamWaybillsAsync(LocalDate startDate, LocalDate endDate,
+                                                       RsGePriority priority, ChunkListener listener) {
+        log.info("Streaming waybills from RS.ge: {} to {}", startDate, endDate);
+        return streamList("get_waybills", startDate, endDate, priority, listener);
+    }
 
-        try {
-            return callSoapWithRetry("get_buyer_waybills", params);
-        } catch (Exception e) {
-            log.error("Failed to fetch buyer waybills: {}", e.getMessage());
-            throw new ExternalServiceException("RS.ge", e.getMessage(), e);
+    /** Streaming {@link #getBuyerWaybillsAsync}; see {@link #streamWaybillsAsync}. */
+    public CompletableFuture<Void> streamBuyerWaybillsAsync(LocalDate startDate, LocalDate endDate,
+                                                            RsGePriority priority, ChunkListener listener) {
+        log.info("Streaming buyer waybills from RS.ge: {} to {}", startDate, endDate);
+        return streamList("get_buyer_waybills", startDate, endDate, priority, listener);
+    }
+
+    private CompletableFuture<Void> streamList(String operation, LocalDate startDate, LocalDate endDate,
+                                               RsGePriority priority, ChunkListener listener) {
+        Map<String, String> params = listParams(operation, startDate, endDate, null);
+        String sellerId = addCredentials(params);
+        CompletableFuture<Void> done;
+        // Without a configured seller id only the full call detects -101, so deliver it as one chunk.
+        if (sellerId.isBlank() || chunkPlanner.plan(planKey(operation, params), startDate, endDate).size() == 1) {
+            done = callSoapWithRetry(operation, params, priority)
+                    .thenAccept(all -> listener.onChunk(startDate, endDate, all, 1));
+        } else {
+            done = fetchInChunks(operation, params, priority, listener).thenAccept(all -> { });
         }
+        return done.exceptionally(e -> {
+            log.error("Failed to stream {}: {}", operation, FutureUtils.unwrap(e).getMessage());
+            throw toExternal(e);
+        });
+    }
+
+    /** True when list calls can be narrowed to one counterparty on the RS.ge side. */
+    public boolean isCounterpartyPushdownEnabled() {
+        return pushdownEnabled;
     }
+
+    /**
+     * Date range plus, with pushdown and a counterparty, that counterparty
+     * (buyer for get_waybills, seller for get_buyer_waybills) and the status
+     * filter. Full lists are never status-filtered.
+     */
+    private Map<String, String> listParams(String operation, LocalDate startDate, LocalDate endDate,
+                                           String counterpartyTin) {
+        Map<String, String> params = new HashMap<>();
+        params.put("create_date_s", startDate.atStartOfDay().format(DATE_FORMAT));
+        params.put("create_date_e", endDate.plusDays(1).atStartOfDay().format(DATE_FORMAT));
+        if (pushdownEnabled && counterpartyTin != null && !counterpartyTin.isBlank()) {
+            params.put("get_buyer_waybills".equals(operation) ? "seller_tin" : "buyer_tin", counterpartyTin);
+            if (pushdownStatuses != null && !pushdownStatuses.isBlank()) {
+                params.put("statuses", pushdownStatuses.trim());
+            }
+        }
+        return params;
+    }
+
+    /**
+     * Chunk planner key. A counterparty-filtered list is far sparser than the
+     * full one, so its calls learn separately instead of skewing the
+     * densities the full-list chunking relies on.
+     */
+    private static String planKey(String operation, Map<String, String> params) {
+        return params.containsKey("buyer_tin") || params.containsKey("seller_tin")
+                ? operation + "[counterparty]" : operation;
+    }
+
+    private static ExternalServiceException toExternal(Throwable t) {
+        RuntimeException cause = FutureUtils.unwrap(t);
+        if (cause instanceof ExternalServiceException ese) return ese;
+        return new ExternalServiceException("RS.ge", cause.getMessage(), cause);
+    }
+
     /**
      * Fetch goods data for multiple waybill IDs in parallel using the get_waybill endpoint.
      *
      * Returns a map of waybillId → raw WAYBILL map (already navigated past the result wrapper).
      * Missing or failed waybills are omitted from the result.
      */
-    @SuppressWarnings("unchecked")
     public Map<String, Map<String, Object>> getWaybillGoodsMap(List<String> waybillIds) {
+        return getWaybillGoodsMap(waybillIds, RsGePriority.INTERACTIVE);
+    }
+
+    public Map<String, Map<String, Object>> getWaybillGoodsMap(List<String> waybillIds, RsGePriority priority) {
+        return FutureUtils.join(getWaybillGoodsMapAsync(waybillIds, priority));
+    }
+
+    /** Non-blocking {@link #getWaybillGoodsMap}; never fails, failed lookups are just omitted. */
+    public CompletableFuture<Map<String, Map<String, Object>>> getWaybillGoodsMapAsync(List<String> waybillIds,
+                                                                                      RsGePriority priority) {
         if (waybillIds == null || waybillIds.isEmpty()) {
-            return Map.of();
+            return CompletableFuture.completedFuture(Map.of());
         }
 
         List<String> distinctIds = waybillIds.stream().distinct().collect(Collectors.toList());
-        log.info("Fetching goods for {} waybills via get_waybill (parallel, pool=10)", distinctIds.size());
-
-        List<CompletableFuture<Map.Entry<String, Map<String, Object>>>> futures = distinctIds.stream()
-                .map(id -> CompletableFuture.supplyAsync(() -> {
-                    Map<String, Object> waybillMap = fetchSingleWaybillMap(id);
-                    return waybillMap != null
-                            ? Map.entry(id, waybillMap)
-                            : Map.<String, Map<String, Object>>entry(id, Map.of());
-                }, goodsFetchExecutor))
+        log.info("Fetching goods for {} waybills via get_waybill (priority={}, governor limit={})",
+                distinctIds.size(), priority, governor.currentLimit());
+
+        List<CompletableFuture<Map<String, Object>>> futures = distinctIds.stream()
+                .map(id -> fetchSingleWaybillMap(id, priority))
                 .collect(Collectors.toList());
 
-        Map<String, Map<String, Object>> result = new HashMap<>();
-        for (CompletableFuture<Map.Entry<String, Map<String, Object>>> future : futures) {
-            try {
-                Map.Entry<String, Map<String, Object>> entry = future.join();
-                if (!entry.getValue().isEmpty()) {
-                    result.put(entry.getKey(), entry.getValue());
+        return CompletableFuture.allOf(futures.toArray(CompletableFuture[]::new)).thenApply(v -> {
+            Map<String, Map<String, Object>> result = new HashMap<>();
+            for (int i = 0; i < distinctIds.size(); i++) {
+                Map<String, Object> waybillMap = futures.get(i).join();
+                if (waybillMap != null && !waybillMap.isEmpty()) {
+                    result.put(distinctIds.get(i), waybillMap);
                 }
-            } catch (Exception e) {
-                log.warn("Goods fetch future failed: {}", e.getMessage());
             }
-        }
-
-        log.info("Goods fetch complete: {}/{} waybills returned data", result.size(), distinctIds.size());
-        return result;
+            log.info("Goods fetch complete: {}/{} waybills returned data", result.size(), distinctIds.size());
+            return result;
+        });
     }
 
     /**
      * Fetch the WAYBILL map for a single waybill ID using get_waybill SOAP operation.
-     * Returns the inner WAYBILL map (navigated past result wrapper), or null on failure.
+     * Completes with the inner WAYBILL map (navigated past result wrapper), or null on failure.
      */
     @SuppressWarnings("unchecked")
-    private Map<String, Object> fetchSingleWaybillMap(String waybillId) {
-        try {
-            Map<String, String> params = new HashMap<>();
-            params.put("su", username);
-            params.put("sp", password);
-            params.put("waybill_id", waybillId);
+    private CompletableFuture<Map<String, Object>> fetchSingleWaybillMap(String waybillId, RsGePriority priority) {
+        Map<String, String> params = new HashMap<>();
+        params.put("su", username);
+        params.put("sp", password);
+        params.put("waybill_id", waybillId);
 
-            String response = sendSoapRequest("get_waybill", params);
-            Map<String, Object> result = parseSoapResponse(response, "get_waybill");
+        return sendSoapRequest("get_waybill", params, priority, null,
+                (body, head) -> {
+                    RsGeResponseParser.TreeResult tree = responseParser.parseTree(body, "get_waybill");
+                    metrics.status("get_waybill", tree.statusCode());
+                    return tree;
+                }).thenApply(tree -> {
+            Map<String, Object> result = tree.result();
 
             // Navigate past RESULT wrapper if present
             Object inner = result.get("RESULT");
@@ -213,17 +401,68 @@ public class RsGeSoapClient {
 
             log.debug("get_waybill response for id={} has no WAYBILL key; keys={}", waybillId, result.keySet());
             return null;
-        } catch (Exception e) {
-            log.warn("Failed to fetch goods for waybill id={}: {}", waybillId, e.getMessage());
+        }).exceptionally(e -> {
+            log.warn("Failed to fetch goods for waybill id={}: {}", waybillId, FutureUtils.unwrap(e).getMessage());
             return null;
-        }
+        });
     }
 
     /**
      * Call SOAP operation with retry logic.
      */
-    private List<Map<String, Object>> callSoapWithRetry(String operation, Map<String, String> params) throws Exception {
-        // Add credentials
+    private CompletableFuture<List<RsGeWaybill>> callSoapWithRetry(String operation, Map<String, String> params,
+                                                                          RsGePriority priority) {
+        String sellerId = addCredentials(params);
+
+        LocalDate rangeStart = rangeStart(params);
+        LocalDate rangeEnd = rangeEndInclusive(params);
+        String planKey = planKey(operation, params);
+
+        // Skip the doomed full-range call when earlier fetches show RS.ge will answer -1064.
+        // Only with a configured seller id: the full call is also where -101 is detected.
+        if (!sellerId.isBlank() && chunkPlanner.knownTooLarge(planKey, rangeStart, rangeEnd)) {
+            log.info("RS.ge operation={} {} to {} known to exceed the -1064 limit; chunking directly",
+                    operation, rangeStart, rangeEnd);
+            metrics.split(operation, "predicted");
+            return fetchInChunks(operation, params, priority, null);
+        }
+
+        // Build and send request (do NOT log credentials)
+        log.info("RS.ge SOAP call operation={} create_date_s={} create_date_e={}",
+                operation, params.get("create_date_s"), params.get("create_date_e"));
+        return sendSoapRequest(operation, params, priority, null, listReader(operation)).thenCompose(result -> {
+            // Check status code
+            int statusCode = result.statusCode();
+            log.info("RS.ge SOAP operation={} status={}", operation, statusCode);
+
+            // Handle -101: missing seller_un_id (retry once with a fallback seller id)
+            if (statusCode == -101) {
+                return retryWithFallbackSeller(operation, params, priority);
+            }
+
+            // Handle -1064: date range too large - split into chunks
+            if (statusCode == -1064) {
+                log.info("Date range too large, splitting into chunks");
+                metrics.split(operation, "range");
+                return fetchInChunks(operation, params, priority, null).thenApply(chunked -> {
+                    chunkPlanner.recordTooLarge(planKey, rangeStart, rangeEnd, chunked.size());
+                    return chunked;
+                });
+            }
+
+            requireSuccess(operation, statusCode, rangeStart, rangeEnd);
+            List<RsGeWaybill> extracted = result.waybills();
+            chunkPlanner.recordSuccess(planKey, rangeStart, rangeEnd, extracted);
+            log.info("RS.ge SOAP operation={} extractedWaybills={}", operation, extracted.size());
+            if (debugEnabled) {
+                logDebugSamples(operation, extracted);
+            }
+            return CompletableFuture.completedFuture(extracted);
+        });
+    }
+
+    /** Adds credentials to {@code params}; returns the seller id ("" when not configured). */
+    private String addCredentials(Map<String, String> params) {
         params.put("su", username);
         params.put("sp", password);
 
@@ -233,130 +472,195 @@ public class RsGeSoapClient {
             sellerId = username.split(":")[1];
         }
         params.put("seller_un_id", sellerId);
+        return sellerId;
+    }
 
-        // Build and send request (do NOT log credentials)
-        log.info("RS.ge SOAP call operation={} create_date_s={} create_date_e={}",
-                operation, params.get("create_date_s"), params.get("create_date_e"));
-        String response = sendSoapRequest(operation, params);
-
-        // Parse response
-        Map<String, Object> result = parseSoapResponse(response, operation);
-
-        // Check status code
-        int statusCode = getStatusCode(result);
-        log.info("RS.ge SOAP operation={} status={}", operation, statusCode);
-
-        // Handle -101: missing seller_un_id (retry once with a fallback seller id)
-        if (statusCode == -101) {
-            String existingSellerUnId = params.get("seller_un_id");
-            if (existingSellerUnId == null || existingSellerUnId.isBlank()) {
-                String fallbackSellerId = username != null ? username.trim() : "";
-                if (!fallbackSellerId.isBlank()) {
-                    log.warn("RS.ge returned -101; retrying with fallback seller_un_id");
-                    params.put("seller_un_id", fallbackSellerId);
-                    String retryResponse = sendSoapRequest(operation, params);
-                    Map<String, Object> retryResult = parseSoapResponse(retryResponse, operation);
-                    int retryStatus = getStatusCode(retryResult);
-                    if (retryStatus == -101) {
+    private CompletableFuture<List<RsGeWaybill>> retryWithFallbackSeller(String operation,
+                                                                                Map<String, String> params,
+                                                                                RsGePriority priority) {
+        String existingSellerUnId = params.get("seller_un_id");
+        if (existingSellerUnId == null || existingSellerUnId.isBlank()) {
+            String fallbackSellerId = username != null ? username.trim() : "";
+            if (!fallbackSellerId.isBlank()) {
+                log.warn("RS.ge returned -101; retrying with fallback seller_un_id");
+                params.put("seller_un_id", fallbackSellerId);
+                return sendSoapRequest(operation, params, priority, null, listReader(operation)).thenApply(retryResult -> {
+                    if (retryResult.statusCode() == -101) {
                         throw new ExternalServiceException("RS.ge", "Missing seller credentials");
                     }
-                    List<Map<String, Object>> extracted = extractWaybillsDeep(retryResult);
+                    requireSuccess(operation, retryResult.statusCode(), rangeStart(params), rangeEndInclusive(params));
+                    List<RsGeWaybill> extracted = retryResult.waybills();
                     log.info("RS.ge SOAP operation={} extractedWaybills={} (after -101 retry)", operation, extracted.size());
                     if (debugEnabled) {
                         logDebugSamples(operation, extracted);
                     }
                     return extracted;
-                }
+                });
             }
-
-            log.warn("RS.ge returned -101, seller_un_id might be missing");
-            throw new ExternalServiceException("RS.ge", "Missing seller credentials");
-        }
-
-        // Handle -1064: date range too large - split into chunks
-        if (statusCode == -1064) {
-            log.info("Date range too large, splitting into chunks");
-            return fetchInChunks(operation, params);
         }
 
-        // Extract waybills (legacy-compatible deep traversal)
-        List<Map<String, Object>> extracted = extractWaybillsDeep(result);
-        log.info("RS.ge SOAP operation={} extractedWaybills={}", operation, extracted.size());
-        if (debugEnabled) {
-            if (extracted.isEmpty()) {
-                log.debug("RS.ge SOAP operation={} resultKeys={}", operation, result.keySet());
-            }
-            logDebugSamples(operation, extracted);
-        }
-        return extracted;
+        log.warn("RS.ge returned -101, seller_un_id might be missing");
+        return CompletableFuture.failedFuture(new ExternalServiceException("RS.ge", "Missing seller credentials"));
     }
 
     /**
-     * Fetch waybills in 72-hour chunks with bounded concurrency and per-chunk retry.
+     * Fetch waybills in planner-sized chunks with hedging and retry.
+     *
+     * All chunks are issued at once as futures; each one waits for a governor
+     * permit, so the number of simultaneous RS.ge connections follows the
+     * adaptive global limit. Without a cap, all ~113 chunks would hit RS.ge at
+     * once and its connection queue causes HttpConnectTimeoutException.
      *
-     * Uses chunkExecutor (8 threads) instead of ForkJoinPool.commonPool() to cap
-     * simultaneous RS.ge connections. Without this, all ~113 chunks fire at once
-     * and RS.ge's connection queue causes HttpConnectTimeoutException on many chunks.
+     * The slowest chunk bounds the whole fetch, so a chunk still running past
+     * the operation's p95 gets one duplicate request and the first response
+     * wins. At most {@code rsge.hedge.budget-ratio} of the chunks are hedged,
+     * so a uniformly slow RS.ge is not hit with twice the load.
+     *
+     * A non-null {@code listener} gets each chunk as soon as it completes.
      */
-    private List<Map<String, Object>> fetchInChunks(String operation, Map<String, String> originalParams) {
-        LocalDate startInclusive = LocalDate.parse(originalParams.get("create_date_s").substring(0, 10));
-        LocalDate endExclusive = LocalDate.parse(originalParams.get("create_date_e").substring(0, 10));
-
-        if (!endExclusive.isAfter(startInclusive)) {
-            return List.of();
+    private CompletableFuture<List<RsGeWaybill>> fetchInChunks(String operation,
+                                                                      Map<String, String> originalParams,
+                                                                      RsGePriority priority,
+                                                                      ChunkListener listener) {
+        LocalDate startInclusive = rangeStart(originalParams);
+        LocalDate endInclusive = rangeEndInclusive(originalParams);
+
+        if (endInclusive.isBefore(startInclusive)) {
+            return CompletableFuture.completedFuture(List.of());
         }
 
-        LocalDate endInclusive = endExclusive.minusDays(1);
-
-        List<CompletableFuture<List<Map<String, Object>>>> futures = new ArrayList<>();
+        List<RsGeChunkPlanner.Window> windows =
+                chunkPlanner.plan(planKey(operation, originalParams), startInclusive, endInclusive);
+        int chunkCount = windows.size();
+        log.info("RS.ge operation={} {} to {} planned as {} chunks", operation, startInclusive, endInclusive, chunkCount);
+        metrics.chunks(operation, chunkCount);
+        AtomicInteger hedgeBudget = new AtomicInteger(
+                hedgeEnabled ? (int) Math.max(1, Math.ceil(chunkCount * hedgeBudgetRatio)) : 0);
+        AtomicInteger hedgesSent = new AtomicInteger();
+
+        List<CompletableFuture<List<RsGeWaybill>>> futures = new ArrayList<>();
+        for (RsGeChunkPlanner.Window w : windows) {
+            CompletableFuture<List<RsGeWaybill>> chunk = new CompletableFuture<>();
+            fetchChunkAttempt(operation, originalParams, w.start(), w.end(), priority,
+                    hedgeBudget, hedgesSent, 1, chunk);
+            if (listener != null) {
+                chunk = chunk.thenApply(list -> {
+                    listener.onChunk(w.start(), w.end(), list, chunkCount);
+                    return list;
+                });
+            }
+            futures.add(chunk);
+        }
 
-        LocalDate chunkStart = startInclusive;
-        while (!chunkStart.isAfter(endInclusive)) {
-            LocalDate chunkEndInclusive = chunkStart.plusDays(CHUNK_DAYS - 1L);
-            if (chunkEndInclusive.isAfter(endInclusive)) {
-                chunkEndInclusive = endInclusive;
+        // Collect in chunk order once all are done
+        return CompletableFuture.allOf(futures.toArray(CompletableFuture[]::new)).thenApply(v -> {
+            List<RsGeWaybill> all = futures.stream()
+                    .map(CompletableFuture::join)
+                    .flatMap(List::stream)
+                    .collect(Collectors.toList());
+            if (hedgesSent.get() > 0) {
+                log.info("RS.ge operation={} {} chunks, {} hedged", operation, chunkCount, hedgesSent.get());
             }
+            return all;
+        });
+    }
 
-            final LocalDate s = chunkStart;
-            final LocalDate e = chunkEndInclusive;
-
-            // Use chunkExecutor (bounded 8 threads) to cap RS.ge connection concurrency
-            futures.add(CompletableFuture.supplyAsync(() -> {
-                try {
-                    return fetchChunk(operation, originalParams, s, e);
-                } catch (Exception ex) {
-                    // Retry once after a brief pause (connect timeout or transient RS.ge error)
-                    log.warn("Chunk {} to {} failed ({}), retrying in 3s...", s, e, ex.getMessage());
-                    try {
-                        Thread.sleep(3000);
-                    } catch (InterruptedException ie) {
-                        Thread.currentThread().interrupt();
-                        throw new RuntimeException(ie);
+    /**
+     * One attempt at a chunk. On failure the next attempt is scheduled after a
+     * jittered exponential backoff via a delayed executor, so nothing waits
+     * on a sleeping thread.
+     */
+    private void fetchChunkAttempt(String operation, Map<String, String> originalParams,
+                                   LocalDate s, LocalDate e, RsGePriority priority,
+                                   AtomicInteger hedgeBudget, AtomicInteger hedgesSent,
+                                   int attempt, CompletableFuture<List<RsGeWaybill>> result) {
+        fetchChunkHedged(operation, originalParams, s, e, priority, hedgeBudget, hedgesSent)
+                .whenComplete((chunk, ex) -> {
+                    if (ex == null) {
+                        result.complete(chunk);
+                        return;
                     }
-                    try {
-                        return fetchChunk(operation, originalParams, s, e);
-                    } catch (Exception ex2) {
-                        log.error("Chunk {} to {} failed after retry: {}", s, e, ex2.getMessage());
-                        throw new RuntimeException("Chunk failed: " + s + " to " + e, ex2);
+                    Throwable cause = FutureUtils.unwrap(ex);
+                    if (attempt >= retryMaxAttempts) {
+                        log.error("Chunk {} to {} failed after {} attempts: {}", s, e, attempt, cause.getMessage());
+                        result.completeExceptionally(new RuntimeException("Chunk failed: " + s + " to " + e, cause));
+                        return;
                     }
-                }
-            }, chunkExecutor));
+                    long delay = backoffMillis(attempt);
+                    log.warn("Chunk {} to {} failed ({}), retrying in {} ms...", s, e, cause.getMessage(), delay);
+                    metrics.retry(operation);
+                    CompletableFuture.delayedExecutor(delay, TimeUnit.MILLISECONDS)
+                            .execute(() -> fetchChunkAttempt(operation, originalParams, s, e, priority,
+                                    hedgeBudget, hedgesSent, attempt + 1, result));
+                });
+    }
 
-            chunkStart = chunkEndInclusive.plusDays(1);
+    /**
+     * Send a chunk; if it is still running after the p95 of its operation
+     * (counted from when its request actually went out) and the fetch still
+     * has hedge budget, send a duplicate. Completes with the first success, or
+     * with the last error once every copy has failed. The losing copy finishes
+     * in the background and its result is dropped.
+     */
+    private CompletableFuture<List<RsGeWaybill>> fetchChunkHedged(
+            String operation, Map<String, String> originalParams, LocalDate s, LocalDate e,
+            RsGePriority priority, AtomicInteger hedgeBudget, AtomicInteger hedgesSent) {
+        CompletableFuture<List<RsGeWaybill>> winner = new CompletableFuture<>();
+        AtomicInteger running = new AtomicInteger(1);
+        BiConsumer<List<RsGeWaybill>, Throwable> settle = (chunk, ex) -> {
+            if (ex == null) {
+                winner.complete(chunk);
+            } else if (running.decrementAndGet() == 0) {
+                winner.completeExceptionally(ex);
+            }
+        };
+
+        Runnable onSent = () -> scheduleHedge(operation, originalParams, s, e, priority,
+                hedgeBudget, hedgesSent, winner, running, settle);
+        fetchChunk(operation, originalParams, s, e, priority, onSent).whenComplete(settle);
+        return winner;
+    }
+
+    private void scheduleHedge(String operation, Map<String, String> originalParams, LocalDate s, LocalDate e,
+                               RsGePriority priority, AtomicInteger hedgeBudget, AtomicInteger hedgesSent,
+                               CompletableFuture<List<RsGeWaybill>> winner, AtomicInteger running,
+                               BiConsumer<List<RsGeWaybill>, Throwable> settle) {
+        long p95 = latencyTracker.p95Millis(operation);
+        if (p95 < 0 || hedgeBudget.get() <= 0) {
+            return;
         }
+        long hedgeAfter = Math.max(p95, hedgeMinDelayMs);
+        CompletableFuture.delayedExecutor(hedgeAfter, TimeUnit.MILLISECONDS).execute(() -> {
+            if (winner.isDone() || hedgeBudget.getAndUpdate(n -> n > 0 ? n - 1 : 0) <= 0) {
+                return;
+            }
+            // Only join while the primary is still outstanding.
+            if (running.getAndUpdate(n -> n == 0 ? 0 : n + 1) == 0) {
+                return;
+            }
+            hedgesSent.incrementAndGet();
+            metrics.hedge(operation);
+            log.debug("Hedging chunk {} to {} after {} ms (p95 {} ms)", s, e, hedgeAfter, p95);
+            fetchChunk(operation, originalParams, s, e, priority, null).whenComplete(settle);
+        });
+    }
 
-        // Wait for all and collect results
-        return futures.stream()
-                .map(CompletableFuture::join)
-                .flatMap(List::stream)
-                .collect(Collectors.toList());
+    /** base * 2^(attempt-1), capped, with ±50% jitter so retries of a failed burst spread out. */
+    private long backoffMillis(int attempt) {
+        long exp = retryBaseDelayMs << Math.min(attempt - 1, 20);
+        long capped = Math.min(retryMaxDelayMs, exp);
+        return (long) (capped * ThreadLocalRandom.current().nextDouble(0.5, 1.5));
     }
 
     /**
      * Fetch a single date-range chunk from RS.ge.
+     *
+     * If RS.ge still answers -1064 the chunk is bisected and both halves are
+     * fetched concurrently, and the planner learns the chunk's true size.
      */
-    private List<Map<String, Object>> fetchChunk(String operation, Map<String, String> originalParams,
-                                                  LocalDate s, LocalDate e) throws Exception {
+    private CompletableFuture<List<RsGeWaybill>> fetchChunk(String operation, Map<String, String> originalParams,
+                                                                   LocalDate s, LocalDate e, RsGePriority priority,
+                                                                   Runnable onSent) {
         Map<String, String> chunkParams = new HashMap<>(originalParams);
         chunkParams.put("create_date_s", s.atStartOfDay().format(DATE_FORMAT));
         // RS.ge uses an exclusive end timestamp (legacy behavior used endDate+1).
@@ -364,390 +668,241 @@ public class RsGeSoapClient {
 
         log.debug("Fetching chunk: {} to {}", s, e);
 
-        String response = sendSoapRequest(operation, chunkParams);
-        Map<String, Object> result = parseSoapResponse(response, operation);
-        int statusCode = getStatusCode(result);
-        if (statusCode != 0 && statusCode != 1) {
-            log.warn("RS.ge SOAP operation={} chunk {}..{} status={}", operation, s, e, statusCode);
-        }
-        List<Map<String, Object>> extracted = extractWaybillsDeep(result);
-        if (debugEnabled) {
-            logDebugSamples(operation, extracted);
-        }
-        return extracted;
+        return sendSoapRequest(operation, chunkParams, priority, onSent, listReader(operation)).thenCompose(result -> {
+            int statusCode = result.statusCode();
+            if (statusCode == -1064) {
+                if (!e.isAfter(s)) {
+                    throw new ExternalServiceException("RS.ge",
+                            "Range too large (-1064) for a single day " + s + " in " + operation);
+                }
+                LocalDate mid = s.plusDays(ChronoUnit.DAYS.between(s, e) / 2);
+                log.info("RS.ge SOAP operation={} chunk {}..{} still too large; bisecting at {}", operation, s, e, mid);
+                metrics.split(operation, "chunk");
+                CompletableFuture<List<RsGeWaybill>> left =
+                        fetchChunk(operation, originalParams, s, mid, priority, null);
+                CompletableFuture<List<RsGeWaybill>> right =
+                        fetchChunk(operation, originalParams, mid.plusDays(1), e, priority, null);
+                return left.thenCombine(right, (l, r) -> {
+                    List<RsGeWaybill> halves = new ArrayList<>(l);
+                    halves.addAll(r);
+                    chunkPlanner.recordTooLarge(planKey(operation, originalParams), s, e, halves.size());
+                    return halves;
+                });
+            }
+            requireSuccess(operation, statusCode, s, e);
+            List<RsGeWaybill> extracted = result.waybills();
+            chunkPlanner.recordSuccess(planKey(operation, originalParams), s, e, extracted);
+            if (debugEnabled) {
+                logDebugSamples(operation, extracted);
+            }
+            return CompletableFuture.completedFuture(extracted);
+        });
     }
 
     /**
-     * Send SOAP request to RS.ge.
+     * A list answer with any status but 0/1 is an error, not an empty range:
+     * fail instead of returning no waybills, so callers that replace stored
+     * days with the result (the waybill store) keep what they had.
      */
-    private String sendSoapRequest(String operation, Map<String, String> params) throws Exception {
-        String soapBody = buildSoapEnvelope(operation, params);
-
-        HttpRequest request = HttpRequest.newBuilder()
-                .uri(URI.create(endpoint))
-                .header("Content-Type", "text/xml; charset=utf-8")
-                .header("SOAPAction", "\"" + NS + operation + "\"")
-                .timeout(Duration.ofSeconds(timeoutSeconds))
-                .POST(HttpRequest.BodyPublishers.ofString(soapBody))
-                .build();
-
-        HttpResponse<String> response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
-
-        if (response.statusCode() != 200 && response.statusCode() != 500) {
-            throw new ExternalServiceException("RS.ge",
-                    "HTTP " + response.statusCode() + ": " + response.body());
-        }
-
-        if (debugEnabled && debugResponseSnippetLength > 0 && response.statusCode() == 500) {
-            log.debug("RS.ge SOAP operation={} HTTP 500 response snippet={}",
-                    operation, snippet(response.body(), debugResponseSnippetLength));
-        }
-
-        return response.body();
+    private static void requireSuccess(String operation, int statusCode, LocalDate s, LocalDate e) {
+        if (statusCode == 0 || statusCode == 1) return;
+        log.warn("RS.ge SOAP operation={} {}..{} status={}", operation, s, e, statusCode);
+        throw new ExternalServiceException("RS.ge",
+                "Status " + statusCode + " for " + operation + " " + s + " to " + e);
     }
 
-    /**
-     * Build SOAP envelope.
-     */
-    private String buildSoapEnvelope(String operation, Map<String, String> params) {
-        StringBuilder body = new StringBuilder();
-        for (Map.Entry<String, String> entry : params.entrySet()) {
-            body.append(String.format("<%s>%s</%s>",
-                    entry.getKey(), xmlEscape(entry.getValue()), entry.getKey()));
-        }
-
-        return """
-                <?xml version="1.0" encoding="utf-8"?>
-                <soap:Envelope xmlns:xsi="http://www.w3.org/2001/XMLSchema-instance"
-                               xmlns:xsd="http://www.w3.org/2001/XMLSchema"
-                               xmlns:soap="http://schemas.xmlsoap.org/soap/envelope/">
-                  <soap:Body>
-                    <%s xmlns="%s">
-                      %s
-                    </%s>
-                  </soap:Body>
-                </soap:Envelope>
-                """.formatted(operation, NS, body.toString(), operation);
+    private static LocalDate rangeStart(Map<String, String> params) {
+        return LocalDate.parse(params.get("create_date_s").substring(0, 10));
     }
 
-    /**
-     * Parse SOAP response.
-     */
-    private Map<String, Object> parseSoapResponse(String xml, String operation) throws Exception {
-        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-        hardenXmlFactory(factory);
-        factory.setNamespaceAware(false);
-        DocumentBuilder builder = factory.newDocumentBuilder();
-        Document doc = builder.parse(new InputSource(new StringReader(xml)));
-
-        // Check for SOAP Fault
-        NodeList faults = doc.getElementsByTagName("faultstring");
-        if (faults.getLength() > 0) {
-            throw new ExternalServiceException("RS.ge", faults.item(0).getTextContent());
-        }
-
-        // Find result node
-        NodeList results = doc.getElementsByTagName(operation + "Result");
-        if (results.getLength() == 0) {
-            if (debugEnabled && debugResponseSnippetLength > 0) {
-                log.debug("RS.ge SOAP operation={} missing Result node; xml snippet={}",
-                        operation, snippet(xml, debugResponseSnippetLength));
-            }
-            return new HashMap<>();
-        }
-
-        return nodeToMap(results.item(0));
+    /** RS.ge's create_date_e is exclusive (start of the day after the range). */
+    private static LocalDate rangeEndInclusive(Map<String, String> params) {
+        return LocalDate.parse(params.get("create_date_e").substring(0, 10)).minusDays(1);
     }
 
-    private void hardenXmlFactory(DocumentBuilderFactory factory) {
-        try {
-            factory.setFeature("http://apache.org/xml/features/disallow-doctype-decl", true);
-            factory.setFeature("http://xml.org/sax/features/external-general-entities", false);
-            factory.setFeature("http://xml.org/sax/features/external-parameter-entities", false);
-            factory.setFeature("http://apache.org/xml/features/nonvalidating/load-external-dtd", false);
-            factory.setXIncludeAware(false);
-            factory.setExpandEntityReferences(false);
-        } catch (Exception e) {
-            // Best-effort hardening; keep parsing if the XML implementation does not support these features.
-            log.warn("XML parser hardening not fully supported: {}", e.getMessage());
-        }
+    /** Consumes a response body; {@code head} returns its captured start for debug logging. */
+    @FunctionalInterface
+    private interface BodyReader<T> {
+        T read(InputStream body, Supplier<String> head);
     }
 
     /**
-     * Convert XML node to Map.
-     */
-    private Map<String, Object> nodeToMap(Node node) {
-        Map<String, Object> map = new HashMap<>();
-        NodeList children = node.getChildNodes();
-
-        for (int i = 0; i < children.getLength(); i++) {
-            Node child = children.item(i);
-            if (child.getNodeType() != Node.ELEMENT_NODE) continue;
-
-            String name = child.getNodeName();
-            NodeList grandchildren = child.getChildNodes();
-
-            if (grandchildren.getLength() == 1 && grandchildren.item(0).getNodeType() == Node.TEXT_NODE) {
-                // Simple value
-                map.put(name, child.getTextContent());
-            } else {
-                // Complex value or array
-                Object existing = map.get(name);
-                Map<String, Object> childMap = nodeToMap(child);
-
-                if (existing instanceof List) {
-                    @SuppressWarnings("unchecked")
-                    List<Map<String, Object>> list = (List<Map<String, Object>>) existing;
-                    list.add(childMap);
-                } else if (existing != null) {
-                    List<Object> list = new ArrayList<>();
-                    list.add(existing);
-                    list.add(childMap);
-                    map.put(name, list);
-                } else {
-                    map.put(name, childMap);
-                }
-            }
-        }
-
-        return map;
-    }
-
-    /**
-     * Get status code from result.
+     * Send SOAP request to RS.ge once a governor permit for {@code priority} is granted,
+     * and hand the (decompressed) response stream to {@code reader} as soon as the
+     * headers arrive. {@code onSent} (optional) runs when the request actually goes out.
+     *
+     * The permit is held until the body has been read, so the governor and the
+     * latency tracker see the full transfer. HTTP 500, timeouts and connection
+     * failures (also mid-body) are reported as overload so the governor backs
+     * off; other failures do not move the limit.
      */
-    private int getStatusCode(Map<String, Object> result) {
-        Object status = result.get("STATUS");
-        if (status == null) {
-            status = result.get("RESULT");
-            if (status instanceof Map) {
-                status = ((Map<?, ?>) status).get("STATUS");
-            }
-        }
-        if (status == null) return 0;
-
-        try {
-            return Integer.parseInt(status.toString());
-        } catch (NumberFormatException e) {
-            return 0;
+    private <T> CompletableFuture<T> sendSoapRequest(String operation, Map<String, String> params,
+                                                     RsGePriority priority, Runnable onSent, BodyReader<T> reader) {
+        HttpRequest.Builder builder = HttpRequest.newBuilder()
+                .uri(URI.create(endpoint))
+                .header("Content-Type", "text/xml; charset=utf-8")
+                .header("SOAPAction", RsGeSoapEnvelope.soapAction(operation))
+                .timeout(Duration.ofSeconds(timeoutSeconds))
+                .POST(HttpRequest.BodyPublishers.ofByteArray(RsGeSoapEnvelope.encode(operation, params)));
+        if (gzipEnabled) {
+            builder.header("Accept-Encoding", "gzip");
         }
-    }
+        HttpRequest request = builder.build();
 
-    /**
-     * Extract waybills from result.
-     */
-    @SuppressWarnings("unchecked")
-    private List<Map<String, Object>> extractWaybillsDeep(Map<String, Object> root) {
-        Object unwrapped = unwrapResult(root);
-
-        Map<String, Map<String, Object>> byId = new LinkedHashMap<>();
-        ArrayDeque<Object> queue = new ArrayDeque<>();
-        Set<Object> visited = Collections.newSetFromMap(new IdentityHashMap<>());
-        queue.add(unwrapped);
-
-        while (!queue.isEmpty()) {
-            Object cur = queue.poll();
-            if (cur == null) continue;
-
-            if (cur instanceof List<?> list) {
-                for (Object item : list) {
-                    if (item instanceof Map || item instanceof List) {
-                        queue.add(item);
-                    }
-                }
-                continue;
+        long queuedAt = System.nanoTime();
+        return governor.acquire(priority).thenCompose(permit -> {
+            metrics.governorWait(priority, System.nanoTime() - queuedAt);
+            if (onSent != null) {
+                onSent.run();
             }
-
-            if (!(cur instanceof Map<?, ?>)) {
-                continue;
+            long sentAt = System.nanoTime();
+            CompletableFuture<HttpResponse<InputStream>> call;
+            try {
+                call = httpClient.sendAsync(request, HttpResponse.BodyHandlers.ofInputStream());
+            } catch (RuntimeException e) {
+                permit.release(RsGeRequestGovernor.Outcome.FAILURE);
+                return CompletableFuture.failedFuture(e);
             }
+            AtomicInteger status = new AtomicInteger();
+            return call.thenApply(response -> {
+                status.set(response.statusCode());
+                return readBody(operation, params, response, reader);
+            }).whenComplete((result, ex) -> {
+                RsGeRequestGovernor.Outcome outcome;
+                if (status.get() == 500 || (ex != null && isTransportFailure(ex))) {
+                    outcome = RsGeRequestGovernor.Outcome.OVERLOAD;
+                } else if (ex != null && status.get() == 0) {
+                    outcome = RsGeRequestGovernor.Outcome.FAILURE;
+                } else {
+                    outcome = RsGeRequestGovernor.Outcome.SUCCESS;
+                    latencyTracker.record(operation, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - sentAt));
+                }
+                permit.release(outcome);
+                metrics.call(operation, outcome, System.nanoTime() - sentAt);
+            });
+        });
+    }
 
-            if (!visited.add(cur)) {
-                continue;
+    private <T> T readBody(String operation, Map<String, String> params,
+                           HttpResponse<InputStream> response, BodyReader<T> reader) {
+        int status = response.statusCode();
+        boolean captureHead = debugEnabled && debugResponseSnippetLength > 0;
+        boolean record = recorder != null && status == 200;
+        try (BodyCapture wire = new BodyCapture(response.body(), 0, false);
+             BodyCapture body = new BodyCapture(decode(response, wire),
+                     captureHead ? debugResponseSnippetLength : 0, record)) {
+            if (status != 200 && status != 500) {
+                throw new ExternalServiceException("RS.ge",
+                        "HTTP " + status + ": " + new String(body.readNBytes(4096), StandardCharsets.UTF_8));
             }
-
-            @SuppressWarnings("unchecked")
-            Map<String, Object> map = (Map<String, Object>) cur;
-
-            if (isWaybillCandidate(map)) {
-                String id = firstNonBlank(map, "ID", "id", "waybill_id", "waybillId");
-                if (id == null) {
-                    id = "unknown_" + byId.size();
+            long cpuStart = RsGeMetrics.cpuNanos();
+            try {
+                T result = reader.read(body, body::head);
+                metrics.parse(operation, cpuStart);
+                if (record) {
+                    body.transferTo(OutputStream.nullOutputStream());
+                    recorder.record(operation, params, body.all());
                 }
-                Map<String, Object> existing = byId.get(id);
-                if (existing == null) {
-                    byId.put(id, map);
-                } else {
-                    byId.put(id, chooseRicherWaybill(existing, map));
+                return result;
+            } finally {
+                metrics.responseBytes(operation, wire.count(), body.count());
+                if (captureHead && status == 500) {
+                    log.debug("RS.ge SOAP operation={} HTTP 500 response snippet={}", operation, body.head());
                 }
             }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
 
-            // Container patterns (legacy semantics)
-            pushContainer(queue, map.get("WAYBILL_LIST"));
-            pushContainer(queue, map.get("WAYBILL"));
-            pushContainer(queue, map.get("BUYER_WAYBILL"));
-            pushContainer(queue, map.get("PURCHASE_WAYBILL"));
+    private static InputStream decode(HttpResponse<?> response, InputStream raw) throws IOException {
+        String encoding = response.headers().firstValue("Content-Encoding").orElse("");
+        return "gzip".equalsIgnoreCase(encoding.trim()) ? new GZIPInputStream(raw, 64 * 1024) : raw;
+    }
 
-            // Traverse children
-            for (Object value : map.values()) {
-                if (value instanceof Map || value instanceof List) {
-                    queue.add(value);
-                }
-            }
+    /** Timeout, refused or reset connection (also while streaming the body): a load signal, unlike a bad request. */
+    private static boolean isTransportFailure(Throwable ex) {
+        for (Throwable t = ex; t != null; t = t.getCause()) {
+            if (t instanceof IOException) return true;
         }
+        return false;
+    }
 
-        return new ArrayList<>(byId.values());
+    private BodyReader<RsGeResponseParser.WaybillListResult> listReader(String operation) {
+        return (body, head) -> {
+            RsGeResponseParser.WaybillListResult result = responseParser.parseWaybillList(body, operation);
+            metrics.status(operation, result.statusCode());
+            metrics.extracted(operation, result.waybills().size());
+            if (!result.resultFound() && debugEnabled && debugResponseSnippetLength > 0) {
+                log.debug("RS.ge SOAP operation={} missing Result node; xml snippet={}", operation, head.get());
+            }
+            return result;
+        };
     }
 
     /**
-     * RS.ge responses can contain the same waybill object multiple times (sometimes shallow, sometimes detailed).
-     * Prefer the "richer" map so VAT calculations don't drop nested/embedded waybills whose amounts only appear
-     * in the deeper representation.
+     * Passes a stream through, counting its bytes and keeping its first
+     * {@code limit} bytes for debug snippets and, when recording, a copy of
+     * everything read.
      */
-    private Map<String, Object> chooseRicherWaybill(Map<String, Object> a, Map<String, Object> b) {
-        int scoreA = waybillCompletenessScore(a);
-        int scoreB = waybillCompletenessScore(b);
-        if (scoreB > scoreA) return b;
-        if (scoreA > scoreB) return a;
-
-        // Tie-breaker: keep the larger map (more fields)
-        int sizeA = a != null ? a.size() : 0;
-        int sizeB = b != null ? b.size() : 0;
-        return sizeB > sizeA ? b : a;
-    }
-
-    private int waybillCompletenessScore(Map<String, Object> map) {
-        if (map == null || map.isEmpty()) return 0;
-        int score = 0;
-
-        // Amount presence is critical for VAT; weight it heavily.
-        if (hasNonBlank(map,
-                "FULL_AMOUNT", "full_amount",
-                "TOTAL_AMOUNT", "total_amount",
-                "GROSS_AMOUNT", "gross_amount",
-                "NET_AMOUNT", "net_amount",
-                "AMOUNT_LARI", "amount_lari",
-                "AMOUNT", "amount",
-                "SUM", "sum",
-                "SUMA", "suma",
-                "VALUE", "value",
-                "VALUE_LARI", "value_lari")) {
-            score += 20;
+    private static final class BodyCapture extends FilterInputStream {
+        private final byte[] head;
+        private int captured;
+        private long count;
+        private final ByteArrayOutputStream all;
+
+        BodyCapture(InputStream in, int limit, boolean keepAll) {
+            super(in);
+            this.head = new byte[Math.max(limit, 0)];
+            this.all = keepAll ? new ByteArrayOutputStream() : null;
         }
 
-        if (hasNonBlank(map, "CREATE_DATE", "create_date", "WAYBILL_DATE", "waybill_date", "DATE", "date")) {
-            score += 8;
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                count++;
+                if (captured < head.length) head[captured++] = (byte) b;
+                if (all != null) all.write(b);
+            }
+            return b;
         }
 
-        if (hasNonBlank(map, "BUYER_TIN", "buyer_tin")) score += 3;
-        if (hasNonBlank(map, "SELLER_TIN", "seller_tin")) score += 3;
-        if (hasNonBlank(map, "STATUS", "status")) score += 1;
-
-        // Slight preference for maps with more fields overall.
-        score += Math.min(map.size(), 50) / 5;
-        return score;
-    }
-
-    private boolean hasNonBlank(Map<String, Object> map, String... keys) {
-        for (String k : keys) {
-            Object v = map.get(k);
-            if (v == null) continue;
-            String s = v.toString().trim();
-            if (!s.isEmpty()) return true;
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                count += n;
+                if (captured < head.length) {
+                    int keep = Math.min(n, head.length - captured);
+                    System.arraycopy(b, off, head, captured, keep);
+                    captured += keep;
+                }
+                if (all != null) all.write(b, off, n);
+            }
+            return n;
         }
-        return false;
-    }
 
-    private Object unwrapResult(Map<String, Object> result) {
-        // Many RS.ge responses include RESULT wrapper node
-        Object inner = result.get("RESULT");
-        if (inner instanceof Map) {
-            return inner;
+        long count() {
+            return count;
         }
-        return result;
-    }
 
-    private void pushContainer(ArrayDeque<Object> queue, Object candidate) {
-        if (candidate == null) return;
-        if (candidate instanceof Map<?, ?> map) {
-            // WAYBILL_LIST commonly wraps WAYBILL array
-            Object inner = ((Map<?, ?>) map).get("WAYBILL");
-            queue.add(inner != null ? inner : map);
-            return;
+        byte[] all() {
+            return all != null ? all.toByteArray() : new byte[0];
         }
-        queue.add(candidate);
-    }
-
-    private boolean isWaybillCandidate(Map<String, Object> map) {
-        // Must have an ID and at least one waybill-ish field
-        boolean hasId = firstNonBlank(map, "ID", "id", "waybill_id", "waybillId") != null;
-        if (!hasId) return false;
-
-        return map.containsKey("FULL_AMOUNT") || map.containsKey("full_amount")
-                || map.containsKey("TOTAL_AMOUNT") || map.containsKey("total_amount")
-                || map.containsKey("GROSS_AMOUNT") || map.containsKey("gross_amount")
-                || map.containsKey("NET_AMOUNT") || map.containsKey("net_amount")
-                || map.containsKey("AMOUNT_LARI") || map.containsKey("amount_lari")
-                || map.containsKey("AMOUNT") || map.containsKey("amount")
-                || map.containsKey("BUYER_TIN") || map.containsKey("buyer_tin")
-                || map.containsKey("SELLER_TIN") || map.containsKey("seller_tin")
-                || map.containsKey("STATUS") || map.containsKey("status")
-                || map.containsKey("CREATE_DATE") || map.containsKey("create_date");
-    }
-
-    private String firstNonBlank(Map<String, Object> map, String... keys) {
-        for (String k : keys) {
-            Object v = map.get(k);
-            if (v == null) continue;
-            String s = v.toString().trim();
-            if (!s.isEmpty()) return s;
+
+        String head() {
+            String s = new String(head, 0, captured, StandardCharsets.UTF_8).replace("\r", " ").replace("\n", " ").trim();
+            return captured == head.length && captured > 0 ? s + "..." : s;
         }
-        return null;
     }
 
-    private void logDebugSamples(String operation, List<Map<String, Object>> waybills) {
+    private void logDebugSamples(String operation, List<RsGeWaybill> waybills) {
         int limit = Math.min(Math.max(debugSampleCount, 0), waybills.size());
         for (int i = 0; i < limit; i++) {
-            Map<String, Object> wb = waybills.get(i);
-            String id = firstNonBlank(wb, "ID", "id", "waybill_id", "waybillId");
-            Object date = wb.getOrDefault("CREATE_DATE", wb.getOrDefault("create_date", null));
-            Object status = wb.getOrDefault("STATUS", wb.getOrDefault("status", null));
-            Object amount = wb.getOrDefault("FULL_AMOUNT", wb.getOrDefault("full_amount", wb.getOrDefault("TOTAL_AMOUNT", null)));
-            Object buyerTin = wb.getOrDefault("BUYER_TIN", wb.getOrDefault("buyer_tin", null));
-            Object sellerTin = wb.getOrDefault("SELLER_TIN", wb.getOrDefault("seller_tin", null));
-            log.debug("RS.ge sample op={} idx={} id={} date={} status={} amount={} buyerTin={} sellerTin={}",
-                    operation, i, id, date, status, amount, buyerTin, sellerTin);
-        }
-    }
-
-    private String snippet(String input, int maxLen) {
-        if (input == null) return "";
-        String s = input.replace("\r", " ").replace("\n", " ").trim();
-        if (maxLen <= 0 || s.length() <= maxLen) return s;
-        return s.substring(0, maxLen) + "...";
-    }
-
-    /**
-     * Robust XML escaping.
-     */
-    private String xmlEscape(String str) {
-        if (str == null) return "";
-        StringBuilder sb = new StringBuilder();
-        for (char c : str.toCharArray()) {
-            switch (c) {
-                case '&' -> sb.append("&amp;");
-                case '<' -> sb.append("&lt;");
-                case '>' -> sb.append("&gt;");
-                case '"' -> sb.append("&quot;");
-                case '\'' -> sb.append("&apos;");
-                default -> {
-                    // Filter out invalid XML control characters (0x00-0x08, 0x0B, 0x0C, 0x0E-0x1F)
-                    if ((c >= 0x20) || c == 0x09 || c == 0x0A || c == 0x0D) {
-                        sb.append(c);
-                    }
-                }
-            }
+            RsGeWaybill wb = waybills.get(i);
+            log.debug("RS.ge sample op={} idx={} id={} date={} status={} amounts={} buyerTin={} sellerTin={}",
+                    operation, i, wb.id(), wb.date(), wb.status(), wb.amounts(), wb.buyerTin(), wb.sellerTin());
         }
-        return sb.toString();
     }
 }
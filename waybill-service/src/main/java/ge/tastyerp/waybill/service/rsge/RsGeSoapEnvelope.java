@@ -0,0 +1,153 @@
+package ge.tastyerp.waybill.service.rsge;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Writes RS.ge SOAP request envelopes straight to UTF-8 bytes.
+ *
+ * Everything except the parameter values is constant: the envelope head and
+ * tail per operation and the {@code <name>}/{@code </name>} pair per parameter
+ * are encoded once and cached, so a request only escapes and encodes its
+ * values into a buffer that is handed to the HTTP client as is.
+ */
+final class RsGeSoapEnvelope {
+
+    private static final String NS = "http://tempuri.org/";
+
+    private static final String HEAD = "<?xml version=\"1.0\" encoding=\"utf-8\"?>"
+            + "<soap:Envelope xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\""
+            + " xmlns:xsd=\"http://www.w3.org/2001/XMLSchema\""
+            + " xmlns:soap=\"http://schemas.xmlsoap.org/soap/envelope/\">"
+            + "<soap:Body>";
+
+    private static final String TAIL = "</soap:Body></soap:Envelope>";
+
+    /** Pre-encoded envelope around one operation's parameters. */
+    private record Template(byte[] prefix, byte[] suffix) {}
+
+    /** Pre-encoded open and close tag of one parameter. */
+    private record Tags(byte[] open, byte[] close) {}
+
+    private static final Map<String, Template> TEMPLATES = new ConcurrentHashMap<>();
+    private static final Map<String, Tags> TAGS = new ConcurrentHashMap<>();
+
+    private RsGeSoapEnvelope() {
+    }
+
+    /** SOAPAction header value for {@code operation}. */
+    static String soapAction(String operation) {
+        return "\"" + NS + operation + "\"";
+    }
+
+    static byte[] encode(String operation, Map<String, String> params) {
+        Template template = TEMPLATES.computeIfAbsent(operation, op -> new Template(
+                utf8(HEAD + "<" + op + " xmlns=\"" + NS + "\">"),
+                utf8("</" + op + ">" + TAIL)));
+
+        Buffer out = new Buffer(template.prefix.length + template.suffix.length + 64 * params.size());
+        out.write(template.prefix);
+        for (Map.Entry<String, String> entry : params.entrySet()) {
+            Tags tags = TAGS.computeIfAbsent(entry.getKey(), name -> new Tags(
+                    utf8("<" + name + ">"), utf8("</" + name + ">")));
+            out.write(tags.open);
+            out.writeEscaped(entry.getValue());
+            out.write(tags.close);
+        }
+        out.write(template.suffix);
+        return out.toByteArray();
+    }
+
+    private static byte[] utf8(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /** Unsynchronized growable byte buffer with an XML-escaping UTF-8 writer. */
+    private static final class Buffer {
+        private byte[] bytes;
+        private int size;
+
+        Buffer(int capacity) {
+            bytes = new byte[capacity];
+        }
+
+        void write(byte[] b) {
+            ensure(b.length);
+            System.arraycopy(b, 0, bytes, size, b.length);
+            size += b.length;
+        }
+
+        /**
+         * Robust XML escaping, encoded as it goes: the five markup characters
+         * become entities and invalid XML control characters (0x00-0x08, 0x0B,
+         * 0x0C, 0x0E-0x1F) are dropped.
+         */
+        void writeEscaped(String value) {
+            if (value == null) return;
+            int len = value.length();
+            for (int i = 0; i < len; i++) {
+                char c = value.charAt(i);
+                switch (c) {
+                    case '&' -> ascii("&amp;");
+                    case '<' -> ascii("&lt;");
+                    case '>' -> ascii("&gt;");
+                    case '"' -> ascii("&quot;");
+                    case '\'' -> ascii("&apos;");
+                    default -> {
+                        if (c < 0x80) {
+                            if (c >= 0x20 || c == 0x09 || c == 0x0A || c == 0x0D) {
+                                ensure(1);
+                                bytes[size++] = (byte) c;
+                            }
+                        } else if (Character.isHighSurrogate(c) && i + 1 < len
+                                && Character.isLowSurrogate(value.charAt(i + 1))) {
+                            codePoint(Character.toCodePoint(c, value.charAt(++i)));
+                        } else if (Character.isSurrogate(c)) {
+                            codePoint('?');
+                        } else {
+                            codePoint(c);
+                        }
+                    }
+                }
+            }
+        }
+
+        private void ascii(String s) {
+            ensure(s.length());
+            for (int i = 0; i < s.length(); i++) {
+                bytes[size++] = (byte) s.charAt(i);
+            }
+        }
+
+        private void codePoint(int cp) {
+            ensure(4);
+            if (cp < 0x80) {
+                bytes[size++] = (byte) cp;
+            } else if (cp < 0x800) {
+                bytes[size++] = (byte) (0xC0 | (cp >> 6));
+                bytes[size++] = (byte) (0x80 | (cp & 0x3F));
+            } else if (cp < 0x10000) {
+                bytes[size++] = (byte) (0xE0 | (cp >> 12));
+                bytes[size++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+                bytes[size++] = (byte) (0x80 | (cp & 0x3F));
+            } else {
+                bytes[size++] = (byte) (0xF0 | (cp >> 18));
+                bytes[size++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+                bytes[size++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+                bytes[size++] = (byte) (0x80 | (cp & 0x3F));
+            }
+        }
+
+        private void ensure(int extra) {
+            if (size + extra > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, size + extra));
+            }
+        }
+
+        byte[] toByteArray() {
+            return size == bytes.length ? bytes : Arrays.copyOf(bytes, size);
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package ge.tastyerp.waybill.service.rsge;
+
+import ge.tastyerp.waybill.service.rsge.WaybillFieldResolver.Field;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * One row of an RS.ge list response (get_waybills / get_buyer_waybills),
+ * reduced to the fields normalization reads. Key spellings are resolved once
+ * when the response is parsed ({@link WaybillFieldResolver}), so the parsed
+ * field maps can be dropped with the response instead of living on through
+ * chunking, hedging and processing.
+ *
+ * Text fields are trimmed, null when missing or blank. {@code status} and
+ * {@code date} keep RS.ge's text as sent. {@code amounts} are the amount
+ * values in priority order; the first non-zero one is the waybill's amount.
+ * {@code goods} is the raw goods container on the rare list row that carries
+ * one, else null.
+ */
+public record RsGeWaybill(String id, String status, String buyerTin, String buyerName,
+                          String sellerTin, String sellerName, String date,
+                          List<String> amounts, Object goods) {
+
+    /** Resolves one parsed field map; {@code plans} carries the spellings learned from earlier rows. */
+    public static RsGeWaybill of(Map<String, Object> raw, WaybillFieldResolver.Plans plans) {
+        Object status = plans.get(raw, Field.STATUS);
+        Object date = plans.get(raw, Field.DATE);
+        List<String> amounts = plans.candidates(raw, Field.AMOUNT).stream().map(Object::toString).toList();
+        return new RsGeWaybill(plans.getString(raw, Field.ID),
+                status != null ? status.toString() : null,
+                plans.getString(raw, Field.BUYER_TIN), plans.getString(raw, Field.BUYER_NAME),
+                plans.getString(raw, Field.SELLER_TIN), plans.getString(raw, Field.SELLER_NAME),
+                date != null ? date.toString() : null,
+                amounts, plans.get(raw, Field.GOODS_CONTAINER));
+    }
+
+    /** {@link #of(Map, WaybillFieldResolver.Plans)} for a single row. */
+    public static RsGeWaybill of(Map<String, Object> raw) {
+        return of(raw, WaybillFieldResolver.newPlans());
+    }
+}
@@ -0,0 +1,220 @@
+package ge.tastyerp.waybill.service.rsge;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Resolves logical waybill fields against the key spellings RS.ge may use.
+ *
+ * Each {@link Field} is an ordered list of alias groups (e.g. FULL_AMOUNT /
+ * full_amount / FullAmount / fullAmount), in the same priority order the
+ * legacy probe used. RS.ge uses one spelling per response, so a {@link Plans}
+ * learns, per row shape (key count) and from the first row that asks for a
+ * field, which spelling of each group is present and which groups are absent.
+ * Later rows of that shape do one direct lookup per present group and skip
+ * absent ones. A row that misses a learned spelling, or yields nothing from
+ * the learned groups, is resolved by the legacy probe. Only a row of the same
+ * key count whose learned spellings all hit but which also carries a
+ * higher-priority alias the first row lacked can resolve differently.
+ *
+ * A Plans is meant for one response (or one batch of goods lines) and is not
+ * thread-safe.
+ */
+public final class WaybillFieldResolver {
+
+    private static final int ABSENT = -1;
+
+    /** Logical fields and their alias groups, in legacy probe order. */
+    public enum Field {
+        ID(g("ID", "id")),
+        STATUS(g("STATUS", "status")),
+        BUYER_TIN(g("BUYER_TIN", "buyer_tin", "BuyerTin")),
+        BUYER_NAME(g("BUYER_NAME", "buyer_name", "BuyerName")),
+        SELLER_TIN(g("SELLER_TIN", "seller_tin", "SellerTin")),
+        SELLER_NAME(g("SELLER_NAME", "seller_name", "SellerName")),
+        DATE(g("CREATE_DATE", "create_date", "CreateDate", "CREATEDATE"),
+                g("Date", "DATE", "date"),
+                g("WAYBILL_DATE", "waybill_date", "WaybillDate")),
+        // Amount field priority list (matching legacy exactly)
+        AMOUNT(g("FULL_AMOUNT", "full_amount", "FullAmount", "fullAmount"),
+                g("TOTAL_AMOUNT", "total_amount", "totalAmount", "TotalAmount"),
+                g("AMOUNT_LARI", "amount_lari", "AmountLari", "amountLari"),
+                g("NET_AMOUNT", "net_amount", "NetAmount", "netAmount"),
+                g("GROSS_AMOUNT", "gross_amount", "GrossAmount", "grossAmount"),
+                g("AMOUNT", "amount", "Amount"),
+                g("SUM", "sum", "Sum"),
+                g("SUMA", "suma", "Suma"),
+                g("VALUE", "value", "Value"),
+                g("VALUE_LARI", "value_lari"),
+                g("PRICE", "price", "Price"),
+                g("TOTAL_PRICE", "total_price"),
+                g("COST", "cost", "Cost"),
+                g("TOTAL_COST", "total_cost")),
+        // Goods container field name variants (RS.ge field names are uncertain)
+        GOODS_CONTAINER(g("GOODS_LIST", "goods_list", "GoodsList"),
+                g("GOODS_DETAILS", "goods_details"),
+                g("GOODS", "goods", "Goods"),
+                g("ITEMS", "items", "Items"),
+                g("PRODUCTS", "products"),
+                g("PRODUCT_LIST", "product_list"),
+                g("WAYBILL_GOODS", "waybill_goods")),
+        // Inner item keys inside a goods container map (e.g. GOODS_LIST → { GOODS: [...] })
+        GOODS_INNER(g("GOODS", "goods", "Goods"),
+                g("ITEMS", "items"),
+                g("Item", "ITEM"),
+                g("PRODUCT", "product")),
+        GOODS_NAME(g("W_NAME", "w_name"),        // Confirmed RS.ge field name
+                g("NAME", "name", "Name"),
+                g("GOODS_NAME", "goods_name"),
+                g("PROD_NAME", "prod_name"),
+                g("ITEM_NAME", "item_name"),
+                g("PRODUCT_NAME", "product_name"),
+                g("DESCRIPTION", "description")),
+        GOODS_QUANTITY(g("QUANTITY_F", "quantity_f"),  // Confirmed RS.ge field name
+                g("QUANTITY", "quantity", "Quantity"),
+                g("QTY", "qty"),
+                g("COUNT", "count"),
+                g("AMOUNT_KG", "amount_kg"),
+                g("WEIGHT", "weight")),
+        GOODS_UNIT(g("UNIT", "unit", "Unit"),
+                g("UNIT_NAME", "unit_name")),
+        GOODS_UNIT_PRICE(g("UNIT_PRICE", "unit_price"),
+                g("PRICE", "price")),
+        GOODS_TOTAL_PRICE(g("TOTAL_PRICE", "total_price"),
+                g("SUM", "sum"),
+                g("AMOUNT", "amount"));
+
+        private final String[][] groups;
+
+        Field(String[]... groups) {
+            this.groups = groups;
+        }
+
+        private static String[] g(String... spellings) {
+            return spellings;
+        }
+    }
+
+    private static final Field[] FIELDS = Field.values();
+
+    /**
+     * Learned spellings for one row shape: per field, per group, a spelling
+     * index or ABSENT. Fields are learned on first use, so waybill rows and
+     * goods lines that happen to share a key count do not disturb each other.
+     */
+    private static final class Plan {
+        final int[][] spelling = new int[FIELDS.length][];
+
+        int[] learned(Map<String, Object> row, Field field) {
+            int[] learned = spelling[field.ordinal()];
+            if (learned == null) {
+                learned = new int[field.groups.length];
+                for (int gi = 0; gi < field.groups.length; gi++) {
+                    learned[gi] = ABSENT;
+                    String[] spellings = field.groups[gi];
+                    for (int si = 0; si < spellings.length; si++) {
+                        if (row.containsKey(spellings[si])) {
+                            learned[gi] = si;
+                            break;
+                        }
+                    }
+                }
+                spelling[field.ordinal()] = learned;
+            }
+            return learned;
+        }
+    }
+
+    /** Plans learned from the rows of one response, by row key count. */
+    public static final class Plans {
+        private final Map<Integer, Plan> bySize = new HashMap<>();
+
+        private Plan planFor(Map<String, Object> row) {
+            return bySize.computeIfAbsent(row.size(), size -> new Plan());
+        }
+
+        /** First non-null value of {@code field}, in legacy priority order. */
+        public Object get(Map<String, Object> row, Field field) {
+            return first(row, field, Function.identity());
+        }
+
+        /** String value of {@code field}, trimmed; null when missing or blank. */
+        public String getString(Map<String, Object> row, Field field) {
+            Object value = get(row, field);
+            if (value == null) return null;
+            String str = value.toString().trim();
+            return str.isEmpty() ? null : str;
+        }
+
+        /**
+         * First non-null result of {@code convert} over the field's values in
+         * priority order (e.g. the first non-zero amount).
+         */
+        public <R> R first(Map<String, Object> row, Field field, Function<Object, R> convert) {
+            int[] learned = planFor(row).learned(row, field);
+            String[][] groups = field.groups;
+            for (int gi = 0; gi < groups.length; gi++) {
+                int si = learned[gi];
+                if (si == ABSENT) continue;
+                Object value = row.get(groups[gi][si]);
+                if (value == null) {
+                    // This row does not follow the plan: resolve it the legacy way.
+                    return probe(row, field, convert);
+                }
+                R result = convert.apply(value);
+                if (result != null) return result;
+            }
+            // Nothing usable in the learned groups; a group absent when the plan
+            // was learned may still be present in this row.
+            for (int gi = 0; gi < groups.length; gi++) {
+                if (learned[gi] != ABSENT) continue;
+                for (String key : groups[gi]) {
+                    Object value = row.get(key);
+                    if (value != null) {
+                        R result = convert.apply(value);
+                        if (result != null) return result;
+                    }
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Every value {@link #first} tries for {@code field}, in the order it
+         * tries them (a value may repeat when the row falls back to the probe),
+         * so the choice among them can be made later.
+         */
+        public List<Object> candidates(Map<String, Object> row, Field field) {
+            List<Object> out = new ArrayList<>(2);
+            first(row, field, value -> {
+                out.add(value);
+                return null;
+            });
+            return out;
+        }
+
+        /** Legacy probe: every spelling of every group, in priority order. */
+        private static <R> R probe(Map<String, Object> row, Field field, Function<Object, R> convert) {
+            for (String[] spellings : field.groups) {
+                for (String key : spellings) {
+                    Object value = row.get(key);
+                    if (value != null) {
+                        R result = convert.apply(value);
+                        if (result != null) return result;
+                    }
+                }
+            }
+            return null;
+        }
+    }
+
+    private WaybillFieldResolver() {
+    }
+
+    public static Plans newPlans() {
+        return new Plans();
+    }
+}
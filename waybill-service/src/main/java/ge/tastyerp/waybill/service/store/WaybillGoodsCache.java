@@ -0,0 +1,281 @@
+package ge.tastyerp.waybill.service.store;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import ge.tastyerp.common.util.FutureUtils;
+import ge.tastyerp.waybill.service.rsge.RsGePriority;
+import ge.tastyerp.waybill.service.rsge.RsGeSoapClient;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Disk-backed cache of raw get_waybill results (the WAYBILL map including
+ * GOODS_LIST), keyed by waybill ID.
+ *
+ * Invalidation follows the waybill status in the cached response: closed
+ * (2) and deleted/cancelled (-1/-2) waybills can no longer change on RS.ge,
+ * so they are kept forever and persisted; anything else (saved, active,
+ * sent to transporter) is re-fetched once {@code open-ttl-ms} has passed and
+ * lives only in memory.
+ *
+ * Concurrent callers asking for the same ID share one in-flight lookup, so
+ * the audit page and product sales loading the same month cost one
+ * get_waybill per waybill, not two.
+ *
+ * Persistence is an append-only NDJSON file (one closed entry per line, last
+ * line wins), compacted on load when it has grown well past the live set.
+ */
+@Slf4j
+@Component
+public class WaybillGoodsCache {
+
+    /** RS.ge statuses after which goods lines cannot change. */
+    private static final Set<Integer> CLOSED_STATUSES = Set.of(2, -1, -2);
+
+    private final RsGeSoapClient rsGeSoapClient;
+    private final ObjectMapper objectMapper;
+
+    @Value("${waybill.goods-cache.enabled:true}")
+    private boolean enabled;
+
+    @Value("${waybill.store.dir:data/waybill-store}")
+    private String storeDir;
+
+    @Value("${waybill.goods-cache.open-ttl-ms:600000}")
+    private long openTtlMs;
+
+    private record Entry(Map<String, Object> waybill, boolean closed, long fetchedAt) {}
+
+    /** One line of the goods file. */
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    static class StoredGoods {
+        private String id;
+        private long fetchedAt;
+        private Map<String, Object> waybill;
+    }
+
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private final Map<String, CompletableFuture<Map<String, Object>>> inFlight = new ConcurrentHashMap<>();
+    private final Object fileLock = new Object();
+    private volatile boolean loaded;
+
+    public WaybillGoodsCache(RsGeSoapClient rsGeSoapClient, ObjectMapper objectMapper) {
+        this.rsGeSoapClient = rsGeSoapClient;
+        this.objectMapper = objectMapper;
+    }
+
+    /**
+     * Same contract as {@link RsGeSoapClient#getWaybillGoodsMap(List, RsGePriority)}:
+     * waybillId → raw WAYBILL map, failed or missing waybills omitted.
+     */
+    public Map<String, Map<String, Object>> getGoodsMaps(List<String> waybillIds, RsGePriority priority) {
+        return FutureUtils.join(getGoodsMapsAsync(waybillIds, priority));
+    }
+
+    /** Non-blocking {@link #getGoodsMaps}; never fails, failed lookups are just omitted. */
+    public CompletableFuture<Map<String, Map<String, Object>>> getGoodsMapsAsync(List<String> waybillIds,
+                                                                                RsGePriority priority) {
+        if (waybillIds == null || waybillIds.isEmpty()) {
+            return CompletableFuture.completedFuture(Map.of());
+        }
+        if (!enabled) {
+            return rsGeSoapClient.getWaybillGoodsMapAsync(waybillIds, priority);
+        }
+        loadIfNeeded();
+
+        long now = System.currentTimeMillis();
+        Map<String, Map<String, Object>> cachedHits = new HashMap<>();
+        Map<String, CompletableFuture<Map<String, Object>>> waiting = new HashMap<>();
+        Map<String, CompletableFuture<Map<String, Object>>> owned = new HashMap<>();
+
+        for (String id : waybillIds) {
+            if (id == null || cachedHits.containsKey(id) || waiting.containsKey(id)) continue;
+            Entry e = entries.get(id);
+            if (e != null && (e.closed() || now - e.fetchedAt() < openTtlMs)) {
+                cachedHits.put(id, e.waybill());
+                continue;
+            }
+            CompletableFuture<Map<String, Object>> mine = new CompletableFuture<>();
+            CompletableFuture<Map<String, Object>> existing = inFlight.putIfAbsent(id, mine);
+            if (existing == null) {
+                owned.put(id, mine);
+                waiting.put(id, mine);
+            } else {
+                waiting.put(id, existing);
+            }
+        }
+
+        log.info("Goods cache: {} from cache, {} to fetch, {} joining in-flight lookups",
+                cachedHits.size(), owned.size(), waiting.size() - owned.size());
+        if (!owned.isEmpty()) {
+            fetchOwned(owned, priority);
+        }
+
+        return CompletableFuture.allOf(waiting.values().toArray(CompletableFuture[]::new)).thenApply(v -> {
+            Map<String, Map<String, Object>> result = new HashMap<>(cachedHits);
+            for (Map.Entry<String, CompletableFuture<Map<String, Object>>> w : waiting.entrySet()) {
+                Map<String, Object> waybill = w.getValue().join();
+                if (waybill != null) {
+                    result.put(w.getKey(), waybill);
+                }
+            }
+            return result;
+        });
+    }
+
+    /** Fetch the IDs this caller owns and complete their shared futures (null = not available). */
+    private void fetchOwned(Map<String, CompletableFuture<Map<String, Object>>> owned, RsGePriority priority) {
+        CompletableFuture<Map<String, Map<String, Object>>> lookup;
+        try {
+            lookup = rsGeSoapClient.getWaybillGoodsMapAsync(new ArrayList<>(owned.keySet()), priority);
+        } catch (RuntimeException e) {
+            lookup = CompletableFuture.failedFuture(e);
+        }
+        lookup.whenComplete((fetched, ex) -> {
+            Map<String, Map<String, Object>> got = fetched != null ? fetched : Map.of();
+            try {
+                if (ex != null) {
+                    log.warn("Goods cache: batch lookup of {} waybills failed: {}",
+                            owned.size(), FutureUtils.unwrap(ex).getMessage());
+                }
+                long now = System.currentTimeMillis();
+                List<StoredGoods> toPersist = new ArrayList<>();
+                for (Map.Entry<String, Map<String, Object>> f : got.entrySet()) {
+                    boolean closed = isClosed(f.getValue());
+                    entries.put(f.getKey(), new Entry(f.getValue(), closed, now));
+                    if (closed) {
+                        toPersist.add(new StoredGoods(f.getKey(), now, f.getValue()));
+                    }
+                }
+                append(toPersist);
+            } finally {
+                // Always release waiters, even on failure; they simply get no goods for these IDs.
+                for (Map.Entry<String, CompletableFuture<Map<String, Object>>> o : owned.entrySet()) {
+                    inFlight.remove(o.getKey(), o.getValue());
+                    o.getValue().complete(got.get(o.getKey()));
+                }
+            }
+        });
+    }
+
+    static boolean isClosed(Map<String, Object> waybill) {
+        Object status = waybill.get("STATUS");
+        if (status == null) return false;
+        try {
+            return CLOSED_STATUSES.contains(Integer.parseInt(status.toString().trim()));
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    // ==================== PERSISTENCE ====================
+
+    private Path file() {
+        return Path.of(storeDir, "goods.ndjson");
+    }
+
+    private void loadIfNeeded() {
+        if (loaded) return;
+        synchronized (fileLock) {
+            if (loaded) return;
+            try {
+                readFile();
+            } finally {
+                loaded = true;
+            }
+        }
+    }
+
+    /** Called under fileLock. A missing or unreadable file just means "start empty". */
+    private void readFile() {
+        Path file = file();
+        if (!Files.exists(file)) return;
+        int lines = 0;
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isBlank()) continue;
+                lines++;
+                try {
+                    StoredGoods g = objectMapper.readValue(line, StoredGoods.class);
+                    if (g.getId() != null && g.getWaybill() != null) {
+                        entries.put(g.getId(), new Entry(g.getWaybill(), true, g.getFetchedAt()));
+                    }
+                } catch (IOException e) {
+                    // A torn last line after a crash; everything before it is intact.
+                    log.warn("Goods cache: skipping unreadable line {} in {}", lines, file);
+                }
+            }
+        } catch (IOException e) {
+            log.warn("Goods cache file {} unreadable, starting empty: {}", file, e.getMessage());
+            return;
+        }
+        log.info("Goods cache loaded {} closed waybills from {}", entries.size(), file);
+        if (lines > 2 * entries.size() + 100) {
+            compact();
+        }
+    }
+
+    /** Called under fileLock. Rewrites the file with one line per live entry. */
+    private void compact() {
+        Path file = file();
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (BufferedWriter writer = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+            for (Map.Entry<String, Entry> e : entries.entrySet()) {
+                if (!e.getValue().closed()) continue;
+                writer.write(objectMapper.writeValueAsString(
+                        new StoredGoods(e.getKey(), e.getValue().fetchedAt(), e.getValue().waybill())));
+                writer.newLine();
+            }
+        } catch (IOException e) {
+            log.warn("Goods cache could not compact {}: {}", file, e.getMessage());
+            return;
+        }
+        try {
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            log.warn("Goods cache could not replace {}: {}", file, e.getMessage());
+        }
+    }
+
+    private void append(List<StoredGoods> goods) {
+        if (goods.isEmpty()) return;
+        Path file = file();
+        synchronized (fileLock) {
+            try {
+                Files.createDirectories(file.getParent());
+                try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8,
+                        StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+                    for (StoredGoods g : goods) {
+                        writer.write(objectMapper.writeValueAsString(g));
+                        writer.newLine();
+                    }
+                }
+            } catch (IOException e) {
+                // The in-memory entries are still valid; we only lose them on restart.
+                log.warn("Goods cache could not append to {}: {}", file, e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,415 @@
+package ge.tastyerp.waybill.service.store;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import ge.tastyerp.common.dto.audit.ProductHierarchy;
+import ge.tastyerp.common.dto.audit.UnitClass;
+import ge.tastyerp.common.dto.waybill.WaybillGoodDto;
+import ge.tastyerp.common.dto.waybill.WaybillType;
+import ge.tastyerp.waybill.service.WaybillProcessingService;
+import ge.tastyerp.waybill.service.rsge.RsGePriority;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Daily rollup of the {@link WaybillStore}: per type and day the VAT gross,
+ * the totals per counterparty and, on request, the goods totals per parent
+ * product category ({@link ProductHierarchy}).
+ *
+ * A day the store has closed ({@link WaybillStore.Snapshot#closedThrough()})
+ * is not re-fetched from RS.ge, so its rollup is frozen: kept in memory,
+ * persisted and served without reading the store again. Only a snapshot
+ * that is not stale freezes days. Closed days can still change in the store
+ * (a backfill, a store rebuilt from scratch), so every read first asks the
+ * store which days changed since the cursor the frozen days are current
+ * with ({@link WaybillStore#changesSince}) and unfreezes them; a reset
+ * unfreezes every day of the type. Open days (today and the trailing window)
+ * are rebuilt from the store's rows on every read. A range therefore costs
+ * one map lookup per frozen day plus one store read of the days not frozen
+ * yet, usually just the open tail.
+ *
+ * The category part needs get_waybill goods ({@link WaybillGoodsCache}), so
+ * it is built only for reads that ask for it, and a day's categories are
+ * frozen only once the goods of every waybill of that day were available.
+ *
+ * Persistence is one JSON file next to the store partitions, holding the
+ * frozen days and their store cursor, rewritten atomically whenever days
+ * are frozen or unfrozen.
+ */
+@Slf4j
+@Component
+public class WaybillRollup {
+
+    /** One counterparty's waybills on a day; {@code dated} = at least one of them carries a date. */
+    public record Counterparty(String name, long grossTetri, int count, boolean dated) {}
+
+    /**
+     * Goods lines of one category on a day. {@code kgMilli} sums only the lines
+     * measured in kilograms ({@link UnitClass#KG}), in 1/1000 kg; {@code nonKgLines}
+     * counts the other lines, whose amounts are still in {@code amountTetri}.
+     */
+    public record Category(long kgMilli, long amountTetri, int lines, int nonKgLines) {}
+
+    /**
+     * One day of one type. Counterparties keep the order of their first
+     * waybill; {@code categories} is null when goods were not rolled up.
+     */
+    public record Day(int waybills, int positive, long positiveTetri,
+                      int cutoffWaybills, int cutoffPositive, long cutoffPositiveTetri,
+                      Map<String, Counterparty> counterparties,
+                      Map<String, Category> categories) {
+
+        Day withoutCategories() {
+            return categories == null ? this : new Day(waybills, positive, positiveTetri,
+                    cutoffWaybills, cutoffPositive, cutoffPositiveTetri, counterparties, null);
+        }
+    }
+
+    /**
+     * Result of a rollup read: one {@link Day} per day of [start, start + days.size()).
+     * {@code goodsComplete} is false when goods of some waybills were missing.
+     */
+    public record Totals(LocalDate start, List<Day> days, boolean stale, long syncedAtMillis,
+                         boolean goodsComplete) {
+        public LocalDate date(int i) {
+            return start.plusDays(i);
+        }
+    }
+
+    /**
+     * On-disk form: frozen days per type, keyed by epoch day, and the store
+     * cursor they are current with. Categories of a file older than
+     * {@link #FORMAT} are dropped on load and rebuilt; days of a type without
+     * a cursor are unfrozen on the first read.
+     */
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    static class StoredRollup {
+        private int version;
+        private Map<WaybillType, Map<Integer, Day>> days;
+        private Map<WaybillType, String> cursors;
+    }
+
+    /** 2: {@link Category#kgMilli()} counts kilogram lines only. */
+    static final int FORMAT = 2;
+
+    private final WaybillStore waybillStore;
+    private final WaybillGoodsCache goodsCache;
+    private final WaybillProcessingService processingService;
+    private final ObjectMapper objectMapper;
+
+    @Value("${waybill.rollup.enabled:true}")
+    private boolean enabled;
+
+    @Value("${waybill.store.dir:data/waybill-store}")
+    private String storeDir;
+
+    private final Map<WaybillType, Map<Integer, Day>> frozen = new EnumMap<>(WaybillType.class);
+    /** Store change cursor per type the frozen days are current with. Changed under {@link #fileLock}. */
+    private final Map<WaybillType, String> cursors = new EnumMap<>(WaybillType.class);
+    private final Object fileLock = new Object();
+    private volatile boolean loaded;
+
+    public WaybillRollup(WaybillStore waybillStore, WaybillGoodsCache goodsCache,
+                         WaybillProcessingService processingService, ObjectMapper objectMapper) {
+        this.waybillStore = waybillStore;
+        this.goodsCache = goodsCache;
+        this.processingService = processingService;
+        this.objectMapper = objectMapper;
+        for (WaybillType type : WaybillType.values()) {
+            frozen.put(type, new ConcurrentHashMap<>());
+        }
+    }
+
+    /**
+     * Rollup of [start, end] (end capped at today). Frozen days are served
+     * as they are; the others are rebuilt from one store read spanning them,
+     * with goods when {@code categories} is set.
+     */
+    public CompletableFuture<Totals> readAsync(WaybillType type, LocalDate start, LocalDate end,
+                                               boolean categories) {
+        LocalDate today = LocalDate.now();
+        LocalDate last = end.isAfter(today) ? today : end;
+        int from = (int) start.toEpochDay();
+        int to = (int) last.toEpochDay();
+        if (from > to) {
+            return CompletableFuture.completedFuture(
+                    new Totals(start, List.of(), false, System.currentTimeMillis(), true));
+        }
+        loadIfNeeded();
+        String cursor = enabled ? unfreezeChanged(type) : null;
+
+        Map<Integer, Day> days = frozen.get(type);
+        int firstMissing = Integer.MAX_VALUE;
+        int lastMissing = Integer.MIN_VALUE;
+        for (int d = from; d <= to; d++) {
+            if (!usable(enabled ? days.get(d) : null, categories)) {
+                firstMissing = Math.min(firstMissing, d);
+                lastMissing = d;
+            }
+        }
+        if (firstMissing == Integer.MAX_VALUE) {
+            // Closed days cannot change: they are as current as a sync right now.
+            return CompletableFuture.completedFuture(new Totals(start, collect(days, Map.of(), from, to),
+                    false, System.currentTimeMillis(), true));
+        }
+
+        int readFrom = firstMissing;
+        int readTo = lastMissing;
+        return waybillStore.readAsync(type, LocalDate.ofEpochDay(readFrom), LocalDate.ofEpochDay(readTo),
+                RsGePriority.INTERACTIVE).thenCompose(snapshot -> {
+                    WaybillTable.Rows rows = snapshot.rows();
+                    if (!categories) {
+                        Map<Integer, Day> built = build(rows, readFrom, readTo, null);
+                        return CompletableFuture.completedFuture(
+                                finish(type, cursor, snapshot, built, from, to, true));
+                    }
+                    Set<String> ids = new LinkedHashSet<>();
+                    for (int i = 0; i < rows.size(); i++) {
+                        String id = rows.table().waybillId(rows.row(i));
+                        if (id != null) ids.add(id);
+                    }
+                    return goodsCache.getGoodsMapsAsync(new ArrayList<>(ids), RsGePriority.INTERACTIVE)
+                            .thenApply(raw -> {
+                                Map<Integer, Day> built = build(rows, readFrom, readTo, raw);
+                                return finish(type, cursor, snapshot, built, from, to,
+                                        raw.keySet().containsAll(ids));
+                            });
+                });
+    }
+
+    private static boolean usable(Day day, boolean categories) {
+        return day != null && (!categories || day.categories() != null);
+    }
+
+    /**
+     * Unfreezes the days the store changed since {@link #cursors} (all of the
+     * type on a reset) and returns the cursor the remaining frozen days are
+     * now current with. Taken before the store read, so the snapshot that
+     * follows is at least as new as that cursor.
+     */
+    private String unfreezeChanged(WaybillType type) {
+        synchronized (fileLock) {
+            WaybillStore.Changes changes = waybillStore.changesSince(type, cursors.get(type));
+            Map<Integer, Day> days = frozen.get(type);
+            int before = days.size();
+            if (changes.reset()) {
+                days.clear();
+            } else {
+                for (WaybillStore.Change c : changes.days()) {
+                    for (int d = (int) c.from().toEpochDay(); d <= (int) c.to().toEpochDay(); d++) {
+                        days.remove(d);
+                    }
+                }
+            }
+            cursors.put(type, changes.cursor());
+            if (days.size() < before) {
+                log.info("Waybill rollup unfroze {} {} days changed in the store", before - days.size(), type);
+                persist();
+            }
+            return changes.cursor();
+        }
+    }
+
+    /**
+     * Freezes the closed days just built, unless the snapshot is stale or a
+     * read that started later already moved the type past {@code cursor}
+     * (the snapshot may predate changes that read unfroze), then assembles
+     * the requested range.
+     */
+    private Totals finish(WaybillType type, String cursor, WaybillStore.Snapshot snapshot,
+                          Map<Integer, Day> built, int from, int to, boolean goodsComplete) {
+        Map<Integer, Day> days = frozen.get(type);
+        LocalDate closedThrough = snapshot.closedThrough();
+        if (enabled && !snapshot.stale() && closedThrough != null) {
+            int closed = (int) closedThrough.toEpochDay();
+            synchronized (fileLock) {
+                if (Objects.equals(cursor, cursors.get(type))) {
+                    boolean changed = false;
+                    for (Map.Entry<Integer, Day> e : built.entrySet()) {
+                        if (e.getKey() > closed) continue;
+                        Day existing = days.get(e.getKey());
+                        Day day = goodsComplete ? e.getValue() : e.getValue().withoutCategories();
+                        if (existing == null || (existing.categories() == null && day.categories() != null)) {
+                            days.put(e.getKey(), day);
+                            changed = true;
+                        }
+                    }
+                    if (changed) {
+                        persist();
+                    }
+                }
+            }
+        }
+        return new Totals(LocalDate.ofEpochDay(from), collect(days, built, from, to),
+                snapshot.stale(), snapshot.syncedAtMillis(), goodsComplete);
+    }
+
+    private static List<Day> collect(Map<Integer, Day> days, Map<Integer, Day> built, int from, int to) {
+        List<Day> out = new ArrayList<>(to - from + 1);
+        for (int d = from; d <= to; d++) {
+            Day day = built.get(d);
+            out.add(day != null ? day : days.get(d));
+        }
+        return out;
+    }
+
+    /**
+     * One {@link Day} per day of [from, to] from the store rows (which are in
+     * day order); categories from {@code rawGoods} when it is not null.
+     */
+    private Map<Integer, Day> build(WaybillTable.Rows rows, int from, int to,
+                                    Map<String, Map<String, Object>> rawGoods) {
+        Map<String, List<WaybillGoodDto>> goods = rawGoods != null
+                ? processingService.extractGoodsByWaybill(rawGoods) : null;
+        WaybillTable table = rows.table();
+        Map<Integer, Day> out = new HashMap<>();
+        int i = 0;
+        for (int d = from; d <= to; d++) {
+            DayBuilder b = new DayBuilder(goods != null);
+            while (i < rows.size() && table.epochDay(rows.row(i)) <= d) {
+                int row = rows.row(i++);
+                if (table.epochDay(row) == d) {
+                    b.add(table, row, goods);
+                }
+            }
+            out.put(d, b.build());
+        }
+        return out;
+    }
+
+    /** Accumulates one day; counterparties in order of their first waybill. */
+    private static final class DayBuilder {
+        private int waybills;
+        private int positive;
+        private long positiveTetri;
+        private int cutoffWaybills;
+        private int cutoffPositive;
+        private long cutoffPositiveTetri;
+        private final Map<String, Counterparty> counterparties = new LinkedHashMap<>();
+        private final Map<String, Category> categories;
+
+        DayBuilder(boolean withCategories) {
+            this.categories = withCategories ? new LinkedHashMap<>() : null;
+        }
+
+        void add(WaybillTable table, int row, Map<String, List<WaybillGoodDto>> goods) {
+            long tetri = table.amountTetri(row);
+            waybills++;
+            if (tetri > 0) {
+                positive++;
+                positiveTetri += tetri;
+            }
+            if (table.isAfterCutoff(row)) {
+                cutoffWaybills++;
+                if (tetri > 0) {
+                    cutoffPositive++;
+                    cutoffPositiveTetri += tetri;
+                }
+            }
+
+            String customerId = table.customerId(row);
+            if (customerId != null) {
+                boolean dated = table.date(row) != null;
+                counterparties.merge(customerId, new Counterparty(table.customerName(row), tetri, 1, dated),
+                        (a, b) -> new Counterparty(a.name(), a.grossTetri() + b.grossTetri(), a.count() + 1,
+                                a.dated() || b.dated()));
+            }
+
+            if (categories == null) return;
+            List<WaybillGoodDto> lines = goods.get(table.waybillId(row));
+            if (lines == null) return;
+            for (WaybillGoodDto good : lines) {
+                if (good.getName() == null || good.getQuantity() == null) continue;
+                boolean kg = UnitClass.of(good.getUnit()) == UnitClass.KG;
+                Category line = new Category(kg ? units(good.getQuantity(), 3) : 0,
+                        units(good.getTotalPrice(), 2), 1, kg ? 0 : 1);
+                categories.merge(ProductHierarchy.classify(good.getName()), line,
+                        (a, b) -> new Category(a.kgMilli() + b.kgMilli(), a.amountTetri() + b.amountTetri(),
+                                a.lines() + b.lines(), a.nonKgLines() + b.nonKgLines()));
+            }
+        }
+
+        Day build() {
+            return new Day(waybills, positive, positiveTetri, cutoffWaybills, cutoffPositive, cutoffPositiveTetri,
+                    counterparties, categories);
+        }
+    }
+
+    private static long units(BigDecimal value, int scale) {
+        return value == null ? 0 : value.setScale(scale, RoundingMode.HALF_UP).unscaledValue().longValue();
+    }
+
+    // ==================== PERSISTENCE ====================
+
+    private Path file() {
+        return Path.of(storeDir, "rollup.json");
+    }
+
+    /** A missing or unreadable file just means "start empty"; days are rebuilt from the store. */
+    private void loadIfNeeded() {
+        if (loaded || !enabled) return;
+        synchronized (fileLock) {
+            if (loaded) return;
+            loaded = true;
+            Path file = file();
+            if (!Files.exists(file)) return;
+            try {
+                StoredRollup stored = objectMapper.readValue(file.toFile(), StoredRollup.class);
+                if (stored.getCursors() != null) cursors.putAll(stored.getCursors());
+                if (stored.getDays() == null) return;
+                int count = 0;
+                for (Map.Entry<WaybillType, Map<Integer, Day>> e : stored.getDays().entrySet()) {
+                    Map<Integer, Day> days = frozen.get(e.getKey());
+                    e.getValue().forEach((d, day) ->
+                            days.put(d, stored.getVersion() < FORMAT ? day.withoutCategories() : day));
+                    count += e.getValue().size();
+                }
+                log.info("Waybill rollup loaded {} frozen days from {}", count, file);
+            } catch (IOException e) {
+                log.warn("Waybill rollup file {} unreadable, starting empty: {}", file, e.getMessage());
+            }
+        }
+    }
+
+    private void persist() {
+        Path file = file();
+        synchronized (fileLock) {
+            Map<WaybillType, Map<Integer, Day>> copy = new EnumMap<>(WaybillType.class);
+            frozen.forEach((type, days) -> copy.put(type, new TreeMap<>(days)));
+            try {
+                Files.createDirectories(file.getParent());
+                Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+                objectMapper.writeValue(tmp.toFile(), new StoredRollup(FORMAT, copy, new EnumMap<>(cursors)));
+                Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e) {
+                // The frozen days are still valid in memory; we only rebuild them on restart.
+                log.warn("Waybill rollup could not persist {}: {}", file, e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,584 @@
+package ge.tastyerp.waybill.service.store;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import ge.tastyerp.common.dto.waybill.WaybillDto;
+import ge.tastyerp.common.dto.waybill.WaybillType;
+import ge.tastyerp.common.util.FutureUtils;
+import ge.tastyerp.waybill.service.WaybillProcessingService;
+import ge.tastyerp.waybill.service.rsge.RsGePriority;
+import ge.tastyerp.waybill.service.rsge.RsGeSoapClient;
+import ge.tastyerp.waybill.service.rsge.RsGeWaybill;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+
+/**
+ * Embedded, file-backed store of processed RS.ge waybills with incremental
+ * watermark sync.
+ *
+ * One partition per RS.ge list operation (get_waybills = SALE,
+ * get_buyer_waybills = PURCHASE). Each partition holds a contiguous covered
+ * day range [coveredFrom, coveredTo] and a watermark: the calendar day of the
+ * last forward sync. Days that were younger than {@code trailing-days} at that
+ * sync are still "open" (status can change, e.g. -1/-2 cancellations) and are
+ * re-fetched once {@code sync-interval-ms} has passed; older days are closed
+ * and served from the store forever. A sync replaces every day in its window
+ * wholesale, so a waybill cancelled since the last sync simply disappears
+ * (processWaybills already drops -1/-2).
+ *
+ * Each partition's rows live in an immutable columnar {@link WaybillTable};
+ * a read returns a day range of it and DTOs are built only for what a caller
+ * actually returns.
+ *
+ * If RS.ge fails while the requested range is already covered, the stored
+ * data is returned with {@link Snapshot#stale()} set instead of failing the
+ * page. If the range is not covered the error propagates as before.
+ *
+ * Every commit logs the days whose rows actually changed; {@link #changesSince}
+ * serves that log to readers that keep their own aggregate (payment-service's
+ * debt ledger, the rollup), so they re-read a few days instead of the whole
+ * range. The log and its cursor epoch are persisted with the partition, so
+ * a cursor stays valid across restarts.
+ *
+ * Persistence is one directory per partition: a small meta.json (coverage,
+ * watermark) plus one JSON segment per calendar month of covered days. A
+ * commit rewrites, atomically, only the segments holding days whose rows
+ * changed and the meta file, so refreshing the open days does not rewrite
+ * years of closed history. Readers never block on a sync: tables are copy-on-write. Syncs of
+ * one partition run one after another as a chain of futures, so no thread
+ * waits for RS.ge while another sync is in progress. A read whose range is
+ * covered and fresh does not join the chain at all, so an interactive page
+ * never waits behind a background (PREFETCH) refresh it does not need.
+ */
+@Slf4j
+@Component
+public class WaybillStore {
+
+    /**
+     * Result of a store read. {@code stale} = RS.ge was unreachable and older
+     * data was served. {@code closedThrough} = last day of the snapshot's
+     * partition that will never be re-fetched (null when none is).
+     */
+    public record Snapshot(WaybillTable.Rows rows, boolean stale, long syncedAtMillis, LocalDate closedThrough) {
+        /** The rows as DTOs; builds new objects on every call. */
+        public List<WaybillDto> waybills() {
+            return rows.toDtos();
+        }
+    }
+
+    private final RsGeSoapClient rsGeSoapClient;
+    private final WaybillProcessingService processingService;
+    private final ObjectMapper objectMapper;
+
+    @Value("${waybill.store.enabled:true}")
+    private boolean enabled;
+
+    @Value("${waybill.store.dir:data/waybill-store}")
+    private String storeDir;
+
+    @Value("${waybill.store.trailing-days:7}")
+    private int trailingDays;
+
+    @Value("${waybill.store.sync-interval-ms:60000}")
+    private long syncIntervalMs;
+
+    /** Changes kept per partition for {@link #changesSince}; an older cursor gets a reset. */
+    private static final int CHANGE_LOG_SIZE = 1024;
+
+    private final Map<WaybillType, Partition> partitions = new LinkedHashMap<>();
+
+    public WaybillStore(RsGeSoapClient rsGeSoapClient,
+                        WaybillProcessingService processingService,
+                        ObjectMapper objectMapper) {
+        this.rsGeSoapClient = rsGeSoapClient;
+        this.processingService = processingService;
+        this.objectMapper = objectMapper;
+        partitions.put(WaybillType.SALE, new Partition(WaybillType.SALE, "get_waybills"));
+        partitions.put(WaybillType.PURCHASE, new Partition(WaybillType.PURCHASE, "get_buyer_waybills"));
+    }
+
+    /**
+     * Waybills of the given type whose date falls in [start, end], syncing
+     * from RS.ge first when the range is not covered or touches open days.
+     */
+    public Snapshot read(WaybillType type, LocalDate start, LocalDate end) {
+        return FutureUtils.join(readAsync(type, start, end, RsGePriority.INTERACTIVE));
+    }
+
+    /** Non-blocking {@link #read}; RS.ge calls of the sync are queued at {@code priority}. */
+    public CompletableFuture<Snapshot> readAsync(WaybillType type, LocalDate start, LocalDate end,
+                                                 RsGePriority priority) {
+        if (!enabled) {
+            return fetch(type, start, end, priority)
+                    .thenApply(list -> new Snapshot(WaybillTable.empty(type).replaceDays(start, end, list).all(),
+                            false, System.currentTimeMillis(), null));
+        }
+        Partition p = partitions.get(type);
+        // Covered and fresh: answer from the committed table instead of queueing behind
+        // whatever sync (e.g. a PREFETCH refresh) the partition is running.
+        p.loadIfNeeded();
+        State committed = p.state;
+        if (isFresh(committed, start, end)) {
+            return CompletableFuture.completedFuture(new Snapshot(committed.table.between(start, end), false,
+                    committed.lastSyncAt, committed.closedThrough(trailingDays)));
+        }
+        return p.serialize(() -> ensureSynced(p, start, end, priority)).handle((v, ex) -> {
+            boolean stale = false;
+            if (ex != null) {
+                RuntimeException e = FutureUtils.unwrap(ex);
+                State s = p.state;
+                if (s.coveredFrom == null || start.isBefore(s.coveredFrom) || end.isAfter(s.coveredTo)) {
+                    throw e;
+                }
+                log.warn("RS.ge sync for {} failed; serving stored data as of watermark {}: {}",
+                        p.operation, s.watermark, e.getMessage());
+                p.lastSyncFailed = true;
+                stale = true;
+            }
+            State s = p.state;
+            return new Snapshot(s.table.between(start, end), stale, s.lastSyncAt, s.closedThrough(trailingDays));
+        });
+    }
+
+    /**
+     * True when [start, end] (up to today) lies inside what the partition has
+     * already stored, so a read costs at most a refresh of the open days.
+     */
+    public boolean covers(WaybillType type, LocalDate start, LocalDate end) {
+        if (!enabled) return false;
+        Partition p = partitions.get(type);
+        p.loadIfNeeded();
+        State s = p.state;
+        LocalDate today = LocalDate.now();
+        LocalDate last = end.isAfter(today) ? today : end;
+        return s.coveredFrom != null && !start.isBefore(s.coveredFrom) && !last.isAfter(s.coveredTo);
+    }
+
+    /**
+     * True when serving [start, end] from {@code s} needs no RS.ge call: the
+     * range (up to today) is covered and either closed or refreshed within
+     * {@code sync-interval-ms}.
+     */
+    private boolean isFresh(State s, LocalDate start, LocalDate requestedEnd) {
+        LocalDate today = LocalDate.now();
+        LocalDate end = requestedEnd.isAfter(today) ? today : requestedEnd;
+        if (start.isAfter(end)) return true;
+        if (s.coveredFrom == null || start.isBefore(s.coveredFrom) || end.isAfter(s.coveredTo)) return false;
+        LocalDate openFrom = max(s.coveredFrom, s.watermark.minusDays(trailingDays - 1L));
+        return end.isBefore(openFrom) || System.currentTimeMillis() - s.lastSyncAt < syncIntervalMs;
+    }
+
+    /** Days [from, to] whose rows a sync changed; {@code seq} orders the change log of a partition. */
+    public record Change(long seq, LocalDate from, LocalDate to) {}
+
+    /**
+     * Result of {@link #changesSince}. {@code cursor} = pass it to the next
+     * call. {@code reset} = the given cursor cannot be served (first call,
+     * store files lost or replaced, or older than the retained log): re-read
+     * everything instead.
+     */
+    public record Changes(String cursor, boolean reset, List<Change> days) {}
+
+    /**
+     * Days of {@code type} whose rows changed in syncs committed after
+     * {@code cursor}, so a reader that keeps its own aggregate re-reads only
+     * those days instead of the whole range. Does not sync; read the range
+     * first for the log to include the latest RS.ge state.
+     */
+    public Changes changesSince(WaybillType type, String cursor) {
+        if (!enabled) return new Changes(null, true, List.of());
+        Partition p = partitions.get(type);
+        p.loadIfNeeded();
+        return p.since(cursor);
+    }
+
+    /** True when the most recent sync attempt of any partition failed (data may be behind RS.ge). */
+    public boolean isServingStale() {
+        return partitions.values().stream().anyMatch(p -> p.lastSyncFailed);
+    }
+
+    /** Runs as one link of the partition's sync chain, so it sees every earlier commit. */
+    private CompletableFuture<Void> ensureSynced(Partition p, LocalDate start, LocalDate requestedEnd,
+                                                 RsGePriority priority) {
+        LocalDate today = LocalDate.now();
+        LocalDate end = requestedEnd.isAfter(today) ? today : requestedEnd;
+        if (start.isAfter(end)) return CompletableFuture.completedFuture(null);
+
+        p.loadIfNeeded();
+        State s = p.state;
+
+        if (s.coveredFrom == null) {
+            return fetch(p.type, start, end, priority).thenAccept(fetched ->
+                    p.commit(p.state.table.replaceDays(start, end, fetched), start, end,
+                            start, end, today, System.currentTimeMillis()));
+        }
+
+        CompletableFuture<Void> backfill = CompletableFuture.completedFuture(null);
+        if (start.isBefore(s.coveredFrom)) {
+            LocalDate backfillEnd = s.coveredFrom.minusDays(1);
+            backfill = fetch(p.type, start, backfillEnd, priority).thenAccept(fetched -> {
+                State cur = p.state;
+                // A backfill only adds closed history; it does not count as a refresh of open days.
+                p.commit(cur.table.replaceDays(start, backfillEnd, fetched), start, backfillEnd,
+                        start, cur.coveredTo, cur.watermark, cur.lastSyncAt);
+            });
+        }
+
+        return backfill.thenCompose(v -> {
+            State cur = p.state;
+            if (isFresh(cur, start, end)) {
+                return CompletableFuture.<Void>completedFuture(null);
+            }
+            // Days still open at the last forward sync (younger than trailing-days then).
+            LocalDate openFrom = max(cur.coveredFrom, cur.watermark.minusDays(trailingDays - 1L));
+            boolean extend = end.isAfter(cur.coveredTo);
+            boolean refresh = !end.isBefore(openFrom)
+                    && System.currentTimeMillis() - cur.lastSyncAt >= syncIntervalMs;
+            LocalDate from = refresh ? openFrom : cur.coveredTo.plusDays(1);
+            LocalDate to = extend ? end : cur.coveredTo;
+            return fetch(p.type, from, to, priority).thenAccept(fetched ->
+                    p.commit(p.state.table.replaceDays(from, to, fetched), from, to,
+                            p.state.coveredFrom, to, today, System.currentTimeMillis()));
+        }).thenRun(() -> p.lastSyncFailed = false);
+    }
+
+    private CompletableFuture<List<WaybillDto>> fetch(WaybillType type, LocalDate start, LocalDate end,
+                                                      RsGePriority priority) {
+        log.info("Waybill store sync {} {} to {}", type, start, end);
+        CompletableFuture<List<RsGeWaybill>> raw = type == WaybillType.PURCHASE
+                ? rsGeSoapClient.getBuyerWaybillsAsync(start, end, priority)
+                : rsGeSoapClient.getWaybillsAsync(start, end, priority);
+        return raw.thenApply(list -> processingService.processWaybills(list, type));
+    }
+
+    private static LocalDate max(LocalDate a, LocalDate b) {
+        return a.isAfter(b) ? a : b;
+    }
+
+    // ==================== PARTITION STATE ====================
+
+    /** Immutable partition snapshot; replaced wholesale on commit. */
+    private record State(WaybillTable table,
+                         LocalDate coveredFrom, LocalDate coveredTo,
+                         LocalDate watermark, long lastSyncAt) {
+        static State empty(WaybillType type) {
+            return new State(WaybillTable.empty(type), null, null, null, 0L);
+        }
+
+        /** Last covered day older than the open window of the last forward sync; null when none. */
+        LocalDate closedThrough(int trailingDays) {
+            if (coveredFrom == null || watermark == null) return null;
+            LocalDate last = watermark.minusDays(trailingDays);
+            if (last.isAfter(coveredTo)) last = coveredTo;
+            return last.isBefore(coveredFrom) ? null : last;
+        }
+    }
+
+    /**
+     * Days of [from, to] whose rows differ between two tables, as contiguous
+     * ranges (seq unset). Rows are compared on the fields a reader aggregates,
+     * not on processing timestamps, so a refresh that fetched the same data
+     * logs nothing. A day whose rows only came back in another order counts
+     * as changed.
+     */
+    static List<Change> changedDays(WaybillTable before, WaybillTable after, LocalDate from, LocalDate to) {
+        List<Change> out = new ArrayList<>();
+        LocalDate runFrom = null;
+        for (LocalDate d = from; !d.isAfter(to); d = d.plusDays(1)) {
+            boolean changed = !sameRows(before.between(d, d), after.between(d, d));
+            if (changed && runFrom == null) {
+                runFrom = d;
+            } else if (!changed && runFrom != null) {
+                out.add(new Change(0, runFrom, d.minusDays(1)));
+                runFrom = null;
+            }
+        }
+        if (runFrom != null) out.add(new Change(0, runFrom, to));
+        return out;
+    }
+
+    private static boolean sameRows(WaybillTable.Rows a, WaybillTable.Rows b) {
+        if (a.size() != b.size()) return false;
+        WaybillTable ta = a.table();
+        WaybillTable tb = b.table();
+        for (int i = 0; i < a.size(); i++) {
+            int ra = a.row(i);
+            int rb = b.row(i);
+            if (!Objects.equals(ta.waybillId(ra), tb.waybillId(rb))
+                    || ta.hasAmount(ra) != tb.hasAmount(rb)
+                    || ta.amountTetri(ra) != tb.amountTetri(rb)
+                    || !Objects.equals(ta.status(ra), tb.status(rb))
+                    || ta.isAfterCutoff(ra) != tb.isAfterCutoff(rb)
+                    || !Objects.equals(ta.customerId(ra), tb.customerId(rb))
+                    || !Objects.equals(ta.customerName(ra), tb.customerName(rb))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** On-disk form of a partition's coverage (meta.json). */
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    static class StoredMeta {
+        private String operation;
+        private LocalDate coveredFrom;
+        private LocalDate coveredTo;
+        private LocalDate watermark;
+        private long lastSyncAt;
+        private String epoch;
+        private long seq;
+        private List<Change> changes;
+    }
+
+    /** On-disk form of one month of a partition's rows (yyyy-MM.json). */
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    static class StoredSegment {
+        private String month;
+        private List<WaybillDto> waybills;
+        /** Waybill id -> day it is filed under, for rows not filed under their own date. */
+        private Map<String, LocalDate> filedUnder;
+    }
+
+    /** Single-file form of a partition written by earlier versions; read once and migrated. */
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    static class StoredPartition {
+        private String operation;
+        private LocalDate coveredFrom;
+        private LocalDate coveredTo;
+        private LocalDate watermark;
+        private long lastSyncAt;
+        private List<WaybillDto> waybills;
+    }
+
+    private final class Partition {
+        final WaybillType type;
+        final String operation;
+        volatile State state;
+        volatile boolean lastSyncFailed;
+        boolean loaded;
+        /** Distinguishes this partition's change cursors from those of a store that was lost or replaced. */
+        private String epoch = Long.toString(System.currentTimeMillis(), 36);
+        /** Number of the last logged change; {@link #changes} keeps the most recent ones. */
+        private long seq;
+        private final ArrayDeque<Change> changes = new ArrayDeque<>();
+        /** Months whose segment a failed persist did not write; retried on the next commit. */
+        private final Set<YearMonth> unsaved = new TreeSet<>();
+        /** Tail of the sync chain; each sync starts when the previous one has finished. */
+        private CompletableFuture<Void> tail = CompletableFuture.completedFuture(null);
+
+        Partition(WaybillType type, String operation) {
+            this.type = type;
+            this.operation = operation;
+            this.state = State.empty(type);
+        }
+
+        Path dir() {
+            return Path.of(storeDir, operation);
+        }
+
+        Path legacyFile() {
+            return Path.of(storeDir, operation + ".json");
+        }
+
+        /** Queue a sync step behind the previous one; a failed step does not block later ones. */
+        synchronized CompletableFuture<Void> serialize(Supplier<CompletableFuture<Void>> step) {
+            CompletableFuture<Void> next = tail.handle((v, ex) -> null).thenCompose(x -> {
+                try {
+                    return step.get();
+                } catch (RuntimeException e) {
+                    return CompletableFuture.failedFuture(e);
+                }
+            });
+            tail = next;
+            return next;
+        }
+
+        /**
+         * Called from the sync chain and from {@link #covers}, so a restart
+         * answers from the persisted partition before its first sync. A missing
+         * or unreadable file just means "start empty".
+         */
+        synchronized void loadIfNeeded() {
+            if (loaded) return;
+            loaded = true;
+            Path meta = dir().resolve("meta.json");
+            try {
+                if (!Files.exists(meta)) {
+                    loadLegacy();
+                    return;
+                }
+                StoredMeta stored = objectMapper.readValue(meta.toFile(), StoredMeta.class);
+                if (stored.getCoveredFrom() == null) return;
+                List<WaybillDto> waybills = new ArrayList<>();
+                Map<String, LocalDate> filedUnder = new HashMap<>();
+                try (DirectoryStream<Path> segments = Files.newDirectoryStream(dir(), "????-??.json")) {
+                    for (Path segment : segments) {
+                        StoredSegment seg = objectMapper.readValue(segment.toFile(), StoredSegment.class);
+                        waybills.addAll(seg.getWaybills());
+                        if (seg.getFiledUnder() != null) filedUnder.putAll(seg.getFiledUnder());
+                    }
+                }
+                WaybillTable table = WaybillTable.empty(type).replaceDays(
+                        stored.getCoveredFrom(), stored.getCoveredTo(), waybills,
+                        w -> filedUnder.getOrDefault(w.getWaybillId(), w.getDate()));
+                state = new State(table, stored.getCoveredFrom(), stored.getCoveredTo(),
+                        stored.getWatermark(), stored.getLastSyncAt());
+                if (stored.getEpoch() != null) {
+                    epoch = stored.getEpoch();
+                    seq = stored.getSeq();
+                    if (stored.getChanges() != null) changes.addAll(stored.getChanges());
+                }
+                log.info("Waybill store loaded {}: {} waybills covering {} to {} (watermark {})",
+                        operation, waybills.size(), stored.getCoveredFrom(),
+                        stored.getCoveredTo(), stored.getWatermark());
+            } catch (IOException | RuntimeException e) {
+                log.warn("Waybill store {} unreadable, starting empty: {}", dir(), e.getMessage());
+            }
+        }
+
+        /** Read the single-file layout, rewrite it as segments, then delete it. */
+        private void loadLegacy() throws IOException {
+            Path file = legacyFile();
+            if (!Files.exists(file)) return;
+            StoredPartition stored = objectMapper.readValue(file.toFile(), StoredPartition.class);
+            if (stored.getCoveredFrom() == null || stored.getWaybills() == null) return;
+            WaybillTable table = WaybillTable.empty(type).replaceDays(
+                    stored.getCoveredFrom(), stored.getCoveredTo(), stored.getWaybills());
+            state = new State(table, stored.getCoveredFrom(), stored.getCoveredTo(),
+                    stored.getWatermark(), stored.getLastSyncAt());
+            log.info("Waybill store migrating {}: {} waybills covering {} to {}",
+                    file, stored.getWaybills().size(), stored.getCoveredFrom(), stored.getCoveredTo());
+            if (persist(state, List.of(new Change(0, state.coveredFrom, state.coveredTo)))) {
+                Files.deleteIfExists(file);
+            }
+        }
+
+        /**
+         * Called from the sync chain: publish the new state, log the days of
+         * [replacedFrom, replacedTo] whose rows changed, then persist it.
+         */
+        void commit(WaybillTable table, LocalDate replacedFrom, LocalDate replacedTo,
+                    LocalDate coveredFrom, LocalDate coveredTo, LocalDate watermark, long lastSyncAt) {
+            State next = new State(table, coveredFrom, coveredTo, watermark, lastSyncAt);
+            List<Change> changed = changedDays(state.table, table, replacedFrom, replacedTo);
+            synchronized (this) {
+                state = next;
+                for (Change c : changed) {
+                    changes.addLast(new Change(++seq, c.from(), c.to()));
+                    if (changes.size() > CHANGE_LOG_SIZE) changes.removeFirst();
+                }
+            }
+            persist(next, changed);
+        }
+
+        /** See {@link WaybillStore#changesSince}. */
+        synchronized Changes since(String cursor) {
+            String current = epoch + ":" + seq;
+            long after = parseCursor(cursor);
+            // Unknown cursor (other process, garbage) or older than the retained log: the caller re-reads everything.
+            long oldest = changes.isEmpty() ? seq + 1 : changes.peekFirst().seq();
+            if (after < 0 || after > seq || after + 1 < oldest) {
+                return new Changes(current, true, List.of());
+            }
+            List<Change> out = new ArrayList<>();
+            for (Change c : changes) {
+                if (c.seq() > after) out.add(c);
+            }
+            return new Changes(current, false, out);
+        }
+
+        private long parseCursor(String cursor) {
+            if (cursor == null || !cursor.startsWith(epoch + ":")) return -1;
+            try {
+                return Long.parseLong(cursor.substring(epoch.length() + 1));
+            } catch (NumberFormatException e) {
+                return -1;
+            }
+        }
+
+        /**
+         * Write the segments of every month touched by {@code changed} (plus
+         * any a failed earlier persist left behind), then meta.json. Returns
+         * false when a write failed; the in-memory state is still valid, only
+         * warm-start on restart lags until the next commit retries it.
+         */
+        private boolean persist(State s, List<Change> changed) {
+            for (Change c : changed) {
+                for (YearMonth m = YearMonth.from(c.from()); !m.isAfter(YearMonth.from(c.to())); m = m.plusMonths(1)) {
+                    unsaved.add(m);
+                }
+            }
+            try {
+                Files.createDirectories(dir());
+                for (var it = unsaved.iterator(); it.hasNext(); ) {
+                    YearMonth m = it.next();
+                    Path segment = dir().resolve(m + ".json");
+                    WaybillTable.Rows rows = s.table.between(m.atDay(1), m.atEndOfMonth());
+                    if (rows.size() == 0) {
+                        Files.deleteIfExists(segment);
+                    } else {
+                        writeAtomically(segment, new StoredSegment(m.toString(), rows.toDtos(), filedUnder(rows)));
+                    }
+                    it.remove();
+                }
+                StoredMeta meta;
+                synchronized (this) {
+                    meta = new StoredMeta(operation, s.coveredFrom, s.coveredTo, s.watermark, s.lastSyncAt,
+                            epoch, seq, new ArrayList<>(changes));
+                }
+                writeAtomically(dir().resolve("meta.json"), meta);
+                return true;
+            } catch (IOException e) {
+                log.warn("Waybill store could not persist {}: {}", dir(), e.getMessage());
+                return false;
+            }
+        }
+
+        private static Map<String, LocalDate> filedUnder(WaybillTable.Rows rows) {
+            Map<String, LocalDate> out = new HashMap<>();
+            WaybillTable t = rows.table();
+            for (int i = 0; i < rows.size(); i++) {
+                int row = rows.row(i);
+                LocalDate date = t.date(row);
+                if (t.waybillId(row) != null && (date == null || date.toEpochDay() != t.epochDay(row))) {
+                    out.put(t.waybillId(row), LocalDate.ofEpochDay(t.epochDay(row)));
+                }
+            }
+            return out.isEmpty() ? null : out;
+        }
+
+        private void writeAtomically(Path file, Object value) throws IOException {
+            Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+            objectMapper.writeValue(tmp.toFile(), value);
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+    }
+}
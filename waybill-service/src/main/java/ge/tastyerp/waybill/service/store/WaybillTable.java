@@ -0,0 +1,564 @@
+package ge.tastyerp.waybill.service.store;
+
+import ge.tastyerp.common.dto.waybill.WaybillDto;
+import ge.tastyerp.common.dto.waybill.WaybillGoodDto;
+import ge.tastyerp.common.dto.waybill.WaybillType;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.function.Function;
+
+/**
+ * Immutable, column-oriented set of processed waybills of one type.
+ *
+ * Rows are sorted by day (stable, so RS.ge order is kept within a day) and
+ * stored as primitive columns: amounts as long tetri, dates as epoch days,
+ * statuses as bytes. TINs and names are dictionary-encoded into int codes;
+ * a derived table starts from a copy of its parent's dictionary, so copied
+ * rows keep their codes and a sync only encodes strings it has not seen. A posting list per
+ * customer (buyer for SALE, seller for PURCHASE) holds that customer's rows
+ * in ascending order, so day-range and per-customer reads cost O(log n +
+ * matches). DTOs are only materialized at the edges ({@link Rows#toDtos()}).
+ *
+ * Replacing days ({@link #replaceDays}) builds a new table and leaves this
+ * one untouched; readers holding a table never see it change.
+ */
+public final class WaybillTable {
+
+    private static final int NULL = -1;
+    private static final long NO_AMOUNT = Long.MIN_VALUE;
+    private static final byte NO_STATUS = Byte.MIN_VALUE;
+    private static final long NO_TIME = Long.MIN_VALUE;
+
+    private final WaybillType type;
+    private final int size;
+    private final String[] ids;
+    /** Day the row is filed under: its date clamped into the window that returned it (the window start when undated). */
+    private final int[] days;
+    /** Rows whose DTO date is null (filed under their window start). */
+    private final BitSet undated;
+    /** Dated rows filed under another day → their date as epoch day; only rows dated outside their window. */
+    private final Map<Integer, Integer> refiled;
+    private final long[] tetri;
+    private final byte[] statuses;
+    /** RS.ge statuses that do not fit a byte; practically never used. */
+    private final Map<Integer, Integer> wideStatuses;
+    private final BitSet afterCutoff;
+    private final int[] buyerTins;
+    private final int[] buyerNames;
+    private final int[] sellerTins;
+    private final int[] sellerNames;
+    /** {@code createdAt} wall-clock time as seconds, read as if it were UTC. */
+    private final long[] createdAt;
+    /** Goods per row; null when no row carries goods, which is the normal case for list calls. */
+    private final List<WaybillGoodDto>[] goods;
+    private final Dictionary dict;
+    /** Customer code → that customer's rows, ascending. */
+    private final Map<Integer, int[]> postings;
+
+    private WaybillTable(Builder b) {
+        this.type = b.type;
+        this.size = b.size;
+        this.ids = Arrays.copyOf(b.ids, size);
+        this.days = Arrays.copyOf(b.days, size);
+        this.undated = b.undated;
+        this.refiled = b.refiled;
+        this.tetri = Arrays.copyOf(b.tetri, size);
+        this.statuses = Arrays.copyOf(b.statuses, size);
+        this.wideStatuses = b.wideStatuses;
+        this.afterCutoff = b.afterCutoff;
+        this.buyerTins = Arrays.copyOf(b.buyerTins, size);
+        this.buyerNames = Arrays.copyOf(b.buyerNames, size);
+        this.sellerTins = Arrays.copyOf(b.sellerTins, size);
+        this.sellerNames = Arrays.copyOf(b.sellerNames, size);
+        this.createdAt = Arrays.copyOf(b.createdAt, size);
+        this.goods = b.goods != null ? Arrays.copyOf(b.goods, size) : null;
+        this.dict = b.dict;
+        this.postings = buildPostings();
+    }
+
+    public static WaybillTable empty(WaybillType type) {
+        return new Builder(type, new Dictionary(), 0).build();
+    }
+
+    public WaybillType type() {
+        return type;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Copy of this table with every day in [from, to] replaced by
+     * {@code fetched}. Waybills without a date are filed under {@code from}
+     * so they live and die with the window that returned them; a waybill
+     * dated outside the window (RS.ge filters on create date, the resolved
+     * date may be another field) is filed under the nearest window day for
+     * the same reason, so rows stay sorted by day and a later fetch of its
+     * own date cannot duplicate it. Within a day a repeated waybill id keeps
+     * its first position and its last value.
+     */
+    public WaybillTable replaceDays(LocalDate from, LocalDate to, List<WaybillDto> fetched) {
+        return replaceDays(from, to, fetched, WaybillDto::getDate);
+    }
+
+    /**
+     * {@link #replaceDays(LocalDate, LocalDate, List)} filing each waybill
+     * under {@code filedDay} instead of its date; used to reload rows whose
+     * filing day was persisted.
+     */
+    WaybillTable replaceDays(LocalDate from, LocalDate to, List<WaybillDto> fetched,
+                             Function<WaybillDto, LocalDate> filedDay) {
+        int fromDay = (int) from.toEpochDay();
+        int toDay = (int) to.toEpochDay();
+        int lo = lowerBound(fromDay);
+        int hi = lowerBound(toDay + 1);
+
+        List<Filed> sorted = new ArrayList<>(fetched.size());
+        for (WaybillDto w : fetched) {
+            LocalDate d = filedDay.apply(w);
+            int day = d != null ? (int) d.toEpochDay() : fromDay;
+            sorted.add(new Filed(Math.max(fromDay, Math.min(toDay, day)), w));
+        }
+        sorted.sort(Comparator.comparingInt(Filed::day));
+
+        Builder b = new Builder(type, dict.copy(), lo + sorted.size() + (size - hi));
+        for (int row = 0; row < lo; row++) {
+            b.copy(this, row);
+        }
+        Map<String, Integer> sameDay = new HashMap<>();
+        int currentDay = Integer.MIN_VALUE;
+        for (Filed f : sorted) {
+            WaybillDto w = f.waybill();
+            if (f.day() != currentDay) {
+                sameDay.clear();
+                currentDay = f.day();
+            }
+            Integer existing = w.getWaybillId() != null ? sameDay.get(w.getWaybillId()) : null;
+            if (existing != null) {
+                b.set(existing, w, f.day());
+            } else {
+                if (w.getWaybillId() != null) sameDay.put(w.getWaybillId(), b.size);
+                b.add(w, f.day());
+            }
+        }
+        for (int row = hi; row < size; row++) {
+            b.copy(this, row);
+        }
+        return b.build();
+    }
+
+    private record Filed(int day, WaybillDto waybill) {}
+
+    /** Every row. */
+    public Rows all() {
+        return new Rows(this, 0, size, null);
+    }
+
+    /** Rows filed under a day in [start, end]. */
+    public Rows between(LocalDate start, LocalDate end) {
+        return new Rows(this, lowerBound((int) start.toEpochDay()), lowerBound((int) end.toEpochDay() + 1), null);
+    }
+
+    /** First row whose day is {@code >= day}. */
+    private int lowerBound(int day) {
+        int lo = 0;
+        int hi = size;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (days[mid] < day) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo;
+    }
+
+    // ==================== COLUMN ACCESS ====================
+
+    public String waybillId(int row) {
+        return ids[row];
+    }
+
+    /** Date of the row, or null when RS.ge sent none. */
+    public LocalDate date(int row) {
+        return undated.get(row) ? null : LocalDate.ofEpochDay(refiled.getOrDefault(row, days[row]));
+    }
+
+    /** Epoch day the row is filed under (its date when it has one). */
+    public int epochDay(int row) {
+        return days[row];
+    }
+
+    public boolean hasAmount(int row) {
+        return tetri[row] != NO_AMOUNT;
+    }
+
+    /** Amount in tetri (1/100 GEL); 0 when the row has no amount. */
+    public long amountTetri(int row) {
+        long v = tetri[row];
+        return v == NO_AMOUNT ? 0 : v;
+    }
+
+    public Integer status(int row) {
+        byte s = statuses[row];
+        if (s != NO_STATUS) return (int) s;
+        return wideStatuses.get(row);
+    }
+
+    public boolean isAfterCutoff(int row) {
+        return afterCutoff.get(row);
+    }
+
+    /** Dictionary code of the row's customer (buyer for SALE, seller for PURCHASE); -1 when none. */
+    public int customerCode(int row) {
+        return type == WaybillType.PURCHASE ? sellerTins[row] : buyerTins[row];
+    }
+
+    public String customerId(int row) {
+        return dict.get(customerCode(row));
+    }
+
+    public String customerName(int row) {
+        return dict.get(type == WaybillType.PURCHASE ? sellerNames[row] : buyerNames[row]);
+    }
+
+    public String buyerTin(int row) {
+        return dict.get(buyerTins[row]);
+    }
+
+    public String buyerName(int row) {
+        return dict.get(buyerNames[row]);
+    }
+
+    public String sellerTin(int row) {
+        return dict.get(sellerTins[row]);
+    }
+
+    public String sellerName(int row) {
+        return dict.get(sellerNames[row]);
+    }
+
+    /** The string behind a dictionary code (e.g. {@link #customerCode}); null for -1. */
+    public String decode(int code) {
+        return dict.get(code);
+    }
+
+    /** Number of distinct dictionary codes; every code is in [0, dictionarySize()). */
+    public int dictionarySize() {
+        return dict.size();
+    }
+
+    public WaybillDto toDto(int row) {
+        long created = createdAt[row];
+        return WaybillDto.builder()
+                .waybillId(ids[row])
+                .type(type)
+                .customerId(customerId(row))
+                .customerName(customerName(row))
+                .buyerTin(buyerTin(row))
+                .buyerName(buyerName(row))
+                .date(date(row))
+                .amount(hasAmount(row) ? BigDecimal.valueOf(tetri[row], 2) : null)
+                .status(status(row))
+                .isAfterCutoff(afterCutoff.get(row))
+                .sellerTin(sellerTin(row))
+                .sellerName(sellerName(row))
+                .createdAt(created == NO_TIME ? null : LocalDateTime.ofEpochSecond(created, 0, ZoneOffset.UTC))
+                .goods(goods != null ? goods[row] : null)
+                .build();
+    }
+
+    private Map<Integer, int[]> buildPostings() {
+        int[] counts = new int[dict.size()];
+        for (int row = 0; row < size; row++) {
+            int c = customerCode(row);
+            if (c != NULL) counts[c]++;
+        }
+        Map<Integer, int[]> out = new HashMap<>();
+        int[] fill = new int[counts.length];
+        for (int row = 0; row < size; row++) {
+            int c = customerCode(row);
+            if (c == NULL) continue;
+            int[] list = out.computeIfAbsent(c, k -> new int[counts[k]]);
+            list[fill[c]++] = row;
+        }
+        return out;
+    }
+
+    // ==================== ROW SETS ====================
+
+    /**
+     * A set of rows of one table, ascending: either a contiguous range
+     * [lo, hi) or an explicit row list.
+     */
+    public static final class Rows {
+        private final WaybillTable table;
+        private final int lo;
+        private final int hi;
+        private final int[] list;
+
+        private Rows(WaybillTable table, int lo, int hi, int[] list) {
+            this.table = table;
+            this.lo = lo;
+            this.hi = hi;
+            this.list = list;
+        }
+
+        public WaybillTable table() {
+            return table;
+        }
+
+        public int size() {
+            return list != null ? list.length : hi - lo;
+        }
+
+        /** The i-th row, for {@code 0 <= i < size()}. */
+        public int row(int i) {
+            return list != null ? list[i] : lo + i;
+        }
+
+        /** Rows of the given customer (normalized TIN) among these rows, from its posting list. */
+        public Rows forCustomer(String customerId) {
+            int code = table.dict.code(customerId);
+            int[] posting = code == NULL ? null : table.postings.get(code);
+            if (posting == null) return new Rows(table, 0, 0, null);
+            if (list != null) {
+                return new Rows(table, 0, 0, Arrays.stream(list)
+                        .filter(r -> table.customerCode(r) == code).toArray());
+            }
+            int from = lowerBoundRow(posting, lo);
+            int to = lowerBoundRow(posting, hi);
+            return new Rows(table, 0, 0, Arrays.copyOfRange(posting, from, to));
+        }
+
+        /**
+         * These rows grouped by customer, customers in order of their first
+         * row. Rows without a customer are left out.
+         */
+        public Map<String, Rows> byCustomer() {
+            int[] counts = new int[table.dict.size()];
+            int[] order = new int[counts.length];
+            int customers = 0;
+            int n = size();
+            for (int i = 0; i < n; i++) {
+                int c = table.customerCode(row(i));
+                if (c == NULL) continue;
+                if (counts[c]++ == 0) order[customers++] = c;
+            }
+            Map<String, Rows> out = new LinkedHashMap<>();
+            for (int k = 0; k < customers; k++) {
+                int c = order[k];
+                int[] posting = table.postings.get(c);
+                int[] rows;
+                if (list == null) {
+                    int from = lowerBoundRow(posting, lo);
+                    rows = Arrays.copyOfRange(posting, from, from + counts[c]);
+                } else {
+                    rows = Arrays.stream(list).filter(r -> table.customerCode(r) == c).toArray();
+                }
+                out.put(table.dict.get(c), new Rows(table, 0, 0, rows));
+            }
+            return out;
+        }
+
+        /** The rows marked as after the business cutoff date. */
+        public Rows afterCutoffOnly() {
+            int n = size();
+            int[] out = new int[n];
+            int k = 0;
+            for (int i = 0; i < n; i++) {
+                int r = row(i);
+                if (table.afterCutoff.get(r)) out[k++] = r;
+            }
+            return new Rows(table, 0, 0, Arrays.copyOf(out, k));
+        }
+
+        public List<WaybillDto> toDtos() {
+            int n = size();
+            List<WaybillDto> out = new ArrayList<>(n);
+            for (int i = 0; i < n; i++) {
+                out.add(table.toDto(row(i)));
+            }
+            return out;
+        }
+
+        /** The rows as DTOs built one at a time, for writers that stream them out. */
+        public Iterator<WaybillDto> dtoIterator() {
+            return new Iterator<>() {
+                private int i;
+
+                @Override
+                public boolean hasNext() {
+                    return i < size();
+                }
+
+                @Override
+                public WaybillDto next() {
+                    if (!hasNext()) throw new NoSuchElementException();
+                    return table.toDto(row(i++));
+                }
+            };
+        }
+
+        private static int lowerBoundRow(int[] posting, int row) {
+            int idx = Arrays.binarySearch(posting, row);
+            return idx >= 0 ? idx : -idx - 1;
+        }
+    }
+
+    // ==================== BUILDING ====================
+
+    /** Append-only column builder; {@link #build()} trims the columns. */
+    private static final class Builder {
+        final WaybillType type;
+        final Dictionary dict;
+        int size;
+        String[] ids;
+        int[] days;
+        final BitSet undated = new BitSet();
+        final Map<Integer, Integer> refiled = new HashMap<>();
+        long[] tetri;
+        byte[] statuses;
+        final Map<Integer, Integer> wideStatuses = new HashMap<>();
+        final BitSet afterCutoff = new BitSet();
+        int[] buyerTins;
+        int[] buyerNames;
+        int[] sellerTins;
+        int[] sellerNames;
+        long[] createdAt;
+        List<WaybillGoodDto>[] goods;
+
+        Builder(WaybillType type, Dictionary dict, int capacity) {
+            this.type = type;
+            this.dict = dict;
+            ids = new String[capacity];
+            days = new int[capacity];
+            tetri = new long[capacity];
+            statuses = new byte[capacity];
+            buyerTins = new int[capacity];
+            buyerNames = new int[capacity];
+            sellerTins = new int[capacity];
+            sellerNames = new int[capacity];
+            createdAt = new long[capacity];
+        }
+
+        void copy(WaybillTable t, int row) {
+            int i = size++;
+            ids[i] = t.ids[row];
+            days[i] = t.days[row];
+            undated.set(i, t.undated.get(row));
+            Integer date = t.refiled.get(row);
+            if (date != null) refiled.put(i, date);
+            tetri[i] = t.tetri[row];
+            statuses[i] = t.statuses[row];
+            Integer wide = t.wideStatuses.get(row);
+            if (wide != null) wideStatuses.put(i, wide);
+            afterCutoff.set(i, t.afterCutoff.get(row));
+            // Codes stay valid: this builder's dictionary extends the table's.
+            buyerTins[i] = t.buyerTins[row];
+            buyerNames[i] = t.buyerNames[row];
+            sellerTins[i] = t.sellerTins[row];
+            sellerNames[i] = t.sellerNames[row];
+            createdAt[i] = t.createdAt[row];
+            if (t.goods != null && t.goods[row] != null) goods()[i] = t.goods[row];
+        }
+
+        void add(WaybillDto w, int day) {
+            set(size++, w, day);
+        }
+
+        void set(int i, WaybillDto w, int day) {
+            ids[i] = w.getWaybillId();
+            days[i] = day;
+            undated.set(i, w.getDate() == null);
+            refiled.remove(i);
+            if (w.getDate() != null && w.getDate().toEpochDay() != day) refiled.put(i, (int) w.getDate().toEpochDay());
+            tetri[i] = w.getAmount() != null
+                    ? w.getAmount().movePointRight(2).setScale(0, RoundingMode.HALF_UP).longValueExact()
+                    : NO_AMOUNT;
+            Integer status = w.getStatus();
+            wideStatuses.remove(i);
+            if (status != null && status > NO_STATUS && status <= Byte.MAX_VALUE) {
+                statuses[i] = status.byteValue();
+            } else {
+                statuses[i] = NO_STATUS;
+                if (status != null) wideStatuses.put(i, status);
+            }
+            afterCutoff.set(i, w.isAfterCutoff());
+            buyerTins[i] = dict.encode(w.getBuyerTin());
+            buyerNames[i] = dict.encode(w.getBuyerName());
+            sellerTins[i] = dict.encode(w.getSellerTin());
+            sellerNames[i] = dict.encode(w.getSellerName());
+            createdAt[i] = w.getCreatedAt() != null ? w.getCreatedAt().toEpochSecond(ZoneOffset.UTC) : NO_TIME;
+            if (w.getGoods() != null) goods()[i] = w.getGoods();
+            else if (goods != null) goods[i] = null;
+        }
+
+        @SuppressWarnings("unchecked")
+        private List<WaybillGoodDto>[] goods() {
+            if (goods == null) goods = new List[ids.length];
+            return goods;
+        }
+
+        WaybillTable build() {
+            return new WaybillTable(this);
+        }
+    }
+
+    /** String ↔ code dictionary; never mutated once a table built on it is published. */
+    private static final class Dictionary {
+        private final List<String> values;
+        private final Map<String, Integer> codes;
+
+        Dictionary() {
+            this(new ArrayList<>(), new HashMap<>());
+        }
+
+        private Dictionary(List<String> values, Map<String, Integer> codes) {
+            this.values = values;
+            this.codes = codes;
+        }
+
+        Dictionary copy() {
+            return new Dictionary(new ArrayList<>(values), new HashMap<>(codes));
+        }
+
+        int encode(String value) {
+            if (value == null) return NULL;
+            Integer code = codes.get(value);
+            if (code == null) {
+                code = values.size();
+                values.add(value);
+                codes.put(value, code);
+            }
+            return code;
+        }
+
+        int code(String value) {
+            if (value == null) return NULL;
+            Integer code = codes.get(value);
+            return code != null ? code : NULL;
+        }
+
+        String get(int code) {
+            return code == NULL ? null : values.get(code);
+        }
+
+        int size() {
+            return values.size();
+        }
+    }
+}
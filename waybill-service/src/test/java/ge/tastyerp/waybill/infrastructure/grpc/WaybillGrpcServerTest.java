@@ -0,0 +1,165 @@
+package ge.tastyerp.waybill.infrastructure.grpc;
+
+import ge.tastyerp.common.dto.audit.ProductMovementDto;
+import ge.tastyerp.common.dto.waybill.WaybillDto;
+import ge.tastyerp.common.dto.waybill.WaybillType;
+import ge.tastyerp.common.exception.ExternalServiceException;
+import ge.tastyerp.common.grpc.WaybillStreamGrpc;
+import ge.tastyerp.waybill.service.InventoryMovementService;
+import ge.tastyerp.waybill.service.WaybillService;
+import ge.tastyerp.waybill.service.store.WaybillTable;
+import io.grpc.CallOptions;
+import io.grpc.Grpc;
+import io.grpc.InsecureChannelCredentials;
+import io.grpc.ManagedChannel;
+import io.grpc.MethodDescriptor;
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+import io.grpc.stub.ClientCalls;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+/** Loopback gRPC server: batching, window-by-window movements, DTO fidelity and failures. */
+class WaybillGrpcServerTest {
+
+    private WaybillService waybillService;
+    private InventoryMovementService movements;
+    private WaybillGrpcServer server;
+    private ManagedChannel channel;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        waybillService = mock(WaybillService.class);
+        movements = mock(InventoryMovementService.class);
+        server = new WaybillGrpcServer(waybillService, movements);
+        ReflectionTestUtils.setField(server, "port", 0);
+        server.start();
+        channel = Grpc.newChannelBuilder("localhost:" + server.port(), InsecureChannelCredentials.create()).build();
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        channel.shutdownNow();
+        server.stop();
+    }
+
+    private <Q, T> List<List<T>> call(MethodDescriptor<Q, List<T>> method, Q request) {
+        List<List<T>> batches = new ArrayList<>();
+        Iterator<List<T>> it = ClientCalls.blockingServerStreamingCall(channel, method, CallOptions.DEFAULT, request);
+        it.forEachRemaining(batches::add);
+        return batches;
+    }
+
+    /** A movement stream serving the given windows in order. */
+    @SafeVarargs
+    private static InventoryMovementService.MovementStream windows(
+            CompletableFuture<List<ProductMovementDto>>... windows) {
+        InventoryMovementService.MovementStream stream = mock(InventoryMovementService.MovementStream.class);
+        AtomicInteger next = new AtomicInteger();
+        when(stream.hasNext()).thenAnswer(inv -> next.get() < windows.length);
+        when(stream.next()).thenAnswer(inv -> windows[next.getAndIncrement()]);
+        return stream;
+    }
+
+    private static List<ProductMovementDto> lines(int from, int to) {
+        return IntStream.range(from, to).mapToObj(i -> ProductMovementDto.builder()
+                .date(LocalDate.of(2025, 6, 1))
+                .type(WaybillType.SALE)
+                .quantityKg(new BigDecimal("1.250"))
+                .amount(new BigDecimal(i + ".99"))
+                .waybillId("w" + i)
+                .build()).toList();
+    }
+
+    @Test
+    @DisplayName("Product movements arrive in batches of BATCH_SIZE across windows, with exact amounts")
+    void movementsInBatches() {
+        InventoryMovementService.MovementStream stream = windows(
+                CompletableFuture.completedFuture(lines(0, 700)),
+                CompletableFuture.completedFuture(List.of()),
+                CompletableFuture.completedFuture(lines(700, 1201)));
+        when(movements.streamProductMovements("2025-06-01", "2025-06-30", null, null, 0)).thenReturn(stream);
+
+        List<List<ProductMovementDto>> batches = call(WaybillStreamGrpc.STREAM_PRODUCT_MOVEMENTS,
+                new WaybillStreamGrpc.MovementsRequest("2025-06-01", "2025-06-30"));
+
+        assertEquals(List.of(500, 500, 201), batches.stream().map(List::size).toList());
+        ProductMovementDto last = batches.get(2).get(200);
+        assertEquals("w1200", last.getWaybillId());
+        assertEquals(new BigDecimal("1200.99"), last.getAmount());
+        assertEquals(new BigDecimal("1.25"), last.getQuantityKg());
+    }
+
+    @Test
+    @DisplayName("The next window is read once the previous one is sent; a failure there ends the call")
+    void windowByWindow() {
+        CompletableFuture<List<ProductMovementDto>> second = new CompletableFuture<>();
+        CompletableFuture<List<ProductMovementDto>> third = new CompletableFuture<>();
+        InventoryMovementService.MovementStream stream =
+                windows(CompletableFuture.completedFuture(lines(0, 500)), second, third);
+        when(movements.streamProductMovements("2025-06-01", "2025-06-30", null, null, 0)).thenReturn(stream);
+
+        Iterator<List<ProductMovementDto>> it = ClientCalls.blockingServerStreamingCall(channel,
+                WaybillStreamGrpc.STREAM_PRODUCT_MOVEMENTS, CallOptions.DEFAULT,
+                new WaybillStreamGrpc.MovementsRequest("2025-06-01", "2025-06-30"));
+
+        assertEquals(500, it.next().size());
+        verify(stream, times(2)).next();
+
+        second.complete(lines(500, 503));
+        assertEquals(List.of("w500", "w501", "w502"),
+                it.next().stream().map(ProductMovementDto::getWaybillId).toList());
+        third.completeExceptionally(new ExternalServiceException("RS.ge", "down"));
+        StatusRuntimeException e = assertThrows(StatusRuntimeException.class, it::next);
+        assertEquals(Status.Code.UNAVAILABLE, e.getStatus().getCode());
+    }
+
+    @Test
+    @DisplayName("Waybill summaries come from the store rows with the request's filters")
+    void waybills() {
+        WaybillTable table = WaybillTable.empty(WaybillType.SALE).replaceDays(LocalDate.of(2025, 6, 1),
+                LocalDate.of(2025, 6, 1), List.of(WaybillDto.builder().waybillId("1").buyerTin("111")
+                        .amount(new BigDecimal("10.50")).date(LocalDate.of(2025, 6, 1)).build()));
+        when(waybillService.getWaybillRowsAsync(null, null, null, true, WaybillType.SALE))
+                .thenReturn(CompletableFuture.completedFuture(table.all()));
+
+        List<List<WaybillDto>> batches = call(WaybillStreamGrpc.STREAM_WAYBILLS,
+                new WaybillStreamGrpc.WaybillsRequest(null, null, null, true, WaybillType.SALE));
+
+        assertEquals(1, batches.size());
+        WaybillDto wb = batches.get(0).get(0);
+        assertEquals("111", wb.getCustomerId());
+        assertEquals(new BigDecimal("10.5"), wb.getAmount());
+    }
+
+    @Test
+    @DisplayName("A failed read ends the call with UNAVAILABLE; an empty one completes without batches")
+    void failureAndEmpty() {
+        InventoryMovementService.MovementStream failing =
+                windows(CompletableFuture.failedFuture(new ExternalServiceException("RS.ge", "down")));
+        when(movements.streamProductMovements("2025-06-01", "2025-06-02", null, null, 0)).thenReturn(failing);
+        StatusRuntimeException e = assertThrows(StatusRuntimeException.class, () -> call(
+                WaybillStreamGrpc.STREAM_PRODUCT_MOVEMENTS,
+                new WaybillStreamGrpc.MovementsRequest("2025-06-01", "2025-06-02")));
+        assertEquals(Status.Code.UNAVAILABLE, e.getStatus().getCode());
+
+        when(waybillService.getCustomerSalesTotals()).thenReturn(List.of());
+        assertTrue(call(WaybillStreamGrpc.STREAM_CUSTOMER_SALES_TOTALS,
+                new WaybillStreamGrpc.CustomerSalesTotalsRequest()).isEmpty());
+    }
+}
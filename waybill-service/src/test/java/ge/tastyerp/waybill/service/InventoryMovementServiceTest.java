@@ -0,0 +1,192 @@
+package ge.tastyerp.waybill.service;
+
+import ge.tastyerp.common.dto.audit.ProductHierarchy;
+import ge.tastyerp.common.dto.audit.ProductMovementDto;
+import ge.tastyerp.common.dto.audit.ProductMovementQuery;
+import ge.tastyerp.common.dto.waybill.WaybillDto;
+import ge.tastyerp.common.dto.waybill.WaybillType;
+import ge.tastyerp.common.exception.ValidationException;
+import ge.tastyerp.waybill.service.store.WaybillGoodsCache;
+import ge.tastyerp.waybill.service.store.WaybillTable;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+/** Filter push-down, projection, cursor paging and the off-heap cache tier of product movements. */
+class InventoryMovementServiceTest {
+
+    private static final LocalDate D1 = LocalDate.of(2025, 6, 1);
+    private static final LocalDate D2 = LocalDate.of(2025, 6, 2);
+
+    private WaybillService waybillService;
+    private InventoryMovementService service;
+
+    @BeforeEach
+    void setUp() {
+        waybillService = mock(WaybillService.class);
+        WaybillGoodsCache goods = mock(WaybillGoodsCache.class);
+        WaybillProcessingService processing = new WaybillProcessingService();
+        ReflectionTestUtils.setField(processing, "minChunk", 1024);
+        service = new InventoryMovementService(waybillService, goods, processing, new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(service, "openTtlMs", 60_000L);
+        ReflectionTestUtils.setField(service, "closedTtlMs", 60_000L);
+        ReflectionTestUtils.setField(service, "maxDays", 100);
+        ReflectionTestUtils.setField(service, "trailingDays", 7);
+        ReflectionTestUtils.setField(service, "minChunk", 1024);
+        ReflectionTestUtils.setField(service, "windowDays", 31);
+
+        // Each waybill carries one beef and one pork line.
+        when(waybillService.resolveRange("2025-06-01", "2025-06-02", false))
+                .thenReturn(new WaybillService.DateRange(D1, D2));
+        for (WaybillType type : WaybillType.values()) {
+            List<WaybillDto> list = List.of(waybill(type + "-1", D1), waybill(type + "-2", D2));
+            when(waybillService.getWaybillRowsAsync(eq(type), any(), any())).thenAnswer(inv -> {
+                LocalDate start = inv.getArgument(1);
+                LocalDate end = inv.getArgument(2);
+                List<WaybillDto> window = list.stream()
+                        .filter(w -> !w.getDate().isBefore(start) && !w.getDate().isAfter(end)).toList();
+                return CompletableFuture.completedFuture(WaybillTable.empty(type).replaceDays(start, end, window).all());
+            });
+        }
+        when(goods.getGoodsMapsAsync(anyList(), any())).thenAnswer(inv -> {
+            Map<String, Map<String, Object>> out = new HashMap<>();
+            for (String id : inv.<List<String>>getArgument(0)) {
+                out.put(id, Map.of("GOODS_LIST", Map.of("GOODS", List.of(
+                        Map.of("W_NAME", "საქონლის ხორცი", "QUANTITY_F", "2", "AMOUNT", "20", "UNIT", "კგ"),
+                        Map.of("W_NAME", "ღორის ხორცი", "QUANTITY_F", "3", "AMOUNT", "30", "UNIT", "კგ")))));
+            }
+            return CompletableFuture.completedFuture(out);
+        });
+    }
+
+    private static WaybillDto waybill(String id, LocalDate date) {
+        return WaybillDto.builder().waybillId(id).buyerTin("111").sellerTin("222").date(date)
+                .amount(new BigDecimal("50")).build();
+    }
+
+    @Test
+    @DisplayName("Category and type filters run server-side; only the admitted type is built")
+    void filters() {
+        ProductMovementQuery query = ProductMovementQuery.builder()
+                .categories(Set.of("beef")).type(WaybillType.PURCHASE).fields(Set.of("waybillId", "quantityKg"))
+                .build();
+
+        InventoryMovementService.MovementPage page =
+                service.queryProductMovementsAsync("2025-06-01", "2025-06-02", query, null, null).join();
+
+        assertEquals(List.of("PURCHASE-1", "PURCHASE-2"),
+                page.movements().stream().map(ProductMovementDto::getWaybillId).toList());
+        assertNull(page.movements().get(0).getProductName());
+        assertEquals(0, new BigDecimal("2").compareTo(page.movements().get(0).getQuantityKg()));
+        assertNull(page.nextCursor());
+        verify(waybillService, never()).getWaybillRowsAsync(eq(WaybillType.SALE), any(), any());
+    }
+
+    @Test
+    @DisplayName("Cursor pages cover the unpaged listing exactly once, in order")
+    void paging() {
+        List<ProductMovementDto> all =
+                service.queryProductMovementsAsync("2025-06-01", "2025-06-02", null, null, null).join().movements();
+        assertEquals(8, all.size());
+
+        List<ProductMovementDto> paged = new ArrayList<>();
+        String cursor = null;
+        int pages = 0;
+        do {
+            InventoryMovementService.MovementPage page =
+                    service.queryProductMovementsAsync("2025-06-01", "2025-06-02", null, cursor, 3).join();
+            paged.addAll(page.movements());
+            cursor = page.nextCursor();
+            pages++;
+        } while (cursor != null);
+
+        assertEquals(3, pages);
+        assertEquals(all, paged);
+        assertEquals(ProductHierarchy.BEEF, paged.get(0).getParentCategory());
+    }
+
+    @Test
+    @DisplayName("A stream reads one window (plus the next) at a time and yields the unpaged listing in order")
+    void windowByWindow() {
+        ReflectionTestUtils.setField(service, "windowDays", 1);
+        List<ProductMovementDto> all = service.getProductMovementsAsync(D1, D2).join();
+        clearInvocations(waybillService);
+        ReflectionTestUtils.setField(service, "cache", null);
+
+        InventoryMovementService.MovementStream stream =
+                service.streamProductMovements("2025-06-01", "2025-06-02", null, null, 0);
+        List<ProductMovementDto> streamed = new ArrayList<>(stream.next().join());
+        verify(waybillService).getWaybillRowsAsync(WaybillType.SALE, D1, D1);
+        verify(waybillService).getWaybillRowsAsync(WaybillType.SALE, D2, D2);
+        verify(waybillService, never()).getWaybillRowsAsync(eq(WaybillType.PURCHASE), any(), any());
+
+        while (stream.hasNext()) {
+            streamed.addAll(stream.next().join());
+        }
+        assertEquals(all, streamed);
+        assertNull(stream.nextCursor());
+    }
+
+    @Test
+    @DisplayName("Unknown projection fields and malformed cursors are rejected")
+    void validation() {
+        ProductMovementQuery query = ProductMovementQuery.builder().fields(Set.of("price")).build();
+        assertThrows(ValidationException.class,
+                () -> service.queryProductMovementsAsync("2025-06-01", "2025-06-02", query, null, null));
+        assertThrows(ValidationException.class,
+                () -> service.queryProductMovementsAsync("2025-06-01", "2025-06-02", null, "SALE:x:1", null));
+    }
+
+    @Test
+    @DisplayName("Idle days are served from the off-heap tier, equal to the built lists and without a rebuild")
+    void offHeapTier() {
+        ReflectionTestUtils.setField(service, "heapIdleMs", 0L);
+        ReflectionTestUtils.setField(service, "offHeapMb", 1L);
+
+        List<ProductMovementDto> built = service.getProductMovements("2025-06-01", "2025-06-02");
+        service.getProductMovements("2025-06-01", "2025-06-02");    // every day leaves the heap
+        List<ProductMovementDto> decoded = service.getProductMovements("2025-06-01", "2025-06-02");
+
+        assertEquals(built, decoded);
+        assertNotSame(built.get(0), decoded.get(0));
+        verify(waybillService, times(1)).getWaybillRowsAsync(eq(WaybillType.SALE), any(), any());
+        verify(waybillService, times(1)).getWaybillRowsAsync(eq(WaybillType.PURCHASE), any(), any());
+    }
+
+    @Test
+    @DisplayName("The off-heap codec keeps nulls, decimal scales and large values exactly")
+    void codecRoundTrip() throws Exception {
+        List<ProductMovementDto> movements = List.of(
+                ProductMovementDto.builder().date(D1).type(WaybillType.SALE).productName("ღორის ხორცი")
+                        .parentCategory(ProductHierarchy.PORK).quantityKg(new BigDecimal("1.250")).unit("კგ")
+                        .amount(new BigDecimal("123456789012345678901234.50")).waybillId("7").counterpartyId("111")
+                        .build(),
+                ProductMovementDto.builder().productName("ღორის ხორცი").build());
+        MovementListCodec codec = new MovementListCodec();
+        java.io.ByteArrayOutputStream bytes = new java.io.ByteArrayOutputStream();
+        codec.write(movements, new java.io.DataOutputStream(bytes));
+
+        List<ProductMovementDto> decoded = codec.read(
+                new java.io.DataInputStream(new java.io.ByteArrayInputStream(bytes.toByteArray())));
+
+        assertEquals(movements, decoded);
+        assertEquals(3, decoded.get(0).getQuantityKg().scale());
+    }
+}
@@ -0,0 +1,95 @@
+package ge.tastyerp.waybill.service;
+
+import ge.tastyerp.common.dto.waybill.WaybillDto;
+import ge.tastyerp.common.dto.waybill.WaybillType;
+import ge.tastyerp.waybill.service.rsge.RsGePriority;
+import ge.tastyerp.waybill.service.store.WaybillGoodsCache;
+import ge.tastyerp.waybill.service.store.WaybillStore;
+import ge.tastyerp.waybill.service.store.WaybillTable;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+/** Hot ranges of the prefetch scheduler and their warm-up at PREFETCH priority. */
+class WaybillPrefetchSchedulerTest {
+
+    private WaybillStore store;
+    private WaybillGoodsCache goods;
+    private WaybillPrefetchScheduler scheduler;
+
+    @BeforeEach
+    void setUp() {
+        store = mock(WaybillStore.class);
+        goods = mock(WaybillGoodsCache.class);
+        scheduler = new WaybillPrefetchScheduler(store, goods, new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(scheduler, "cutoffDate", "2025-04-29");
+        ReflectionTestUtils.setField(scheduler, "intervalMs", 300_000L);
+        ReflectionTestUtils.setField(scheduler, "closedIntervalMs", 3_600_000L);
+        ReflectionTestUtils.setField(scheduler, "prefetchGoods", true);
+
+        when(store.readAsync(any(), any(), any(), any())).thenAnswer(inv -> {
+            WaybillType type = inv.getArgument(0);
+            LocalDate start = inv.getArgument(1);
+            WaybillDto w = WaybillDto.builder().waybillId(type + "-" + start).date(start).build();
+            WaybillTable table = WaybillTable.empty(type).replaceDays(start, start, List.of(w));
+            return CompletableFuture.completedFuture(new WaybillStore.Snapshot(table.all(), false, 0L, null));
+        });
+        when(goods.getGoodsMapsAsync(anyList(), any())).thenReturn(CompletableFuture.completedFuture(Map.of()));
+    }
+
+    @Test
+    @DisplayName("Hot ranges: current and previous month, cutoff to today, trailing 30 days")
+    void hotRanges() {
+        LocalDate today = LocalDate.of(2026, 3, 10);
+
+        List<WaybillPrefetchScheduler.HotRange> ranges = scheduler.hotRanges(today);
+
+        assertEquals(List.of("current-month", "previous-month", "cutoff-to-today", "trailing-30-days"),
+                ranges.stream().map(WaybillPrefetchScheduler.HotRange::name).toList());
+        assertEquals(LocalDate.of(2026, 3, 1), ranges.get(0).start());
+        assertEquals(LocalDate.of(2026, 2, 1), ranges.get(1).start());
+        assertEquals(LocalDate.of(2026, 2, 28), ranges.get(1).end());
+        assertEquals(LocalDate.of(2025, 4, 30), ranges.get(2).start());
+        assertEquals(LocalDate.of(2026, 2, 8), ranges.get(3).start());
+    }
+
+    @Test
+    @DisplayName("A tick warms lists and goods at PREFETCH priority; the next tick skips ranges still fresh")
+    void warmsAtPrefetchPriority() {
+        scheduler.tick();
+
+        LocalDate today = LocalDate.now();
+        verify(store).readAsync(WaybillType.SALE, today.withDayOfMonth(1), today, RsGePriority.PREFETCH);
+        verify(store).readAsync(WaybillType.PURCHASE, today.withDayOfMonth(1), today, RsGePriority.PREFETCH);
+        verify(store, times(6)).readAsync(any(), any(), any(), eq(RsGePriority.PREFETCH));
+        verify(goods, times(4)).getGoodsMapsAsync(anyList(), eq(RsGePriority.PREFETCH));
+
+        scheduler.tick();
+        verifyNoMoreInteractions(store, goods);
+    }
+
+    @Test
+    @DisplayName("A tick that fails to build its ranges does not leave later ticks skipped")
+    void failedTickReleasesGuard() {
+        ReflectionTestUtils.setField(scheduler, "cutoffDate", "not-a-date");
+        assertThrows(RuntimeException.class, scheduler::tick);
+        verifyNoInteractions(store, goods);
+
+        ReflectionTestUtils.setField(scheduler, "cutoffDate", "2025-04-29");
+        scheduler.tick();
+        verify(store, times(6)).readAsync(any(), any(), any(), eq(RsGePriority.PREFETCH));
+    }
+}
@@ -0,0 +1,198 @@
+package ge.tastyerp.waybill.service;
+
+import ge.tastyerp.common.dto.waybill.WaybillDto;
+import ge.tastyerp.common.dto.waybill.WaybillGoodDto;
+import ge.tastyerp.common.dto.waybill.WaybillType;
+import ge.tastyerp.waybill.service.rsge.RsGeWaybill;
+import ge.tastyerp.waybill.service.rsge.WaybillFieldResolver;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/** Field resolution of raw RS.ge waybills: legacy spelling priority, learned plans and their fallbacks. */
+class WaybillProcessingServiceTest {
+
+    private WaybillProcessingService service;
+
+    @BeforeEach
+    void setUp() {
+        service = new WaybillProcessingService();
+        ReflectionTestUtils.setField(service, "cutoffDate", "2025-04-29");
+        ReflectionTestUtils.setField(service, "minChunk", 1024);
+    }
+
+    private static Map<String, Object> row(Object... kv) {
+        Map<String, Object> m = new HashMap<>();
+        for (int i = 0; i < kv.length; i += 2) {
+            m.put((String) kv[i], kv[i + 1]);
+        }
+        return m;
+    }
+
+    /** Rows as the parser hands them over, each resolved on its own. */
+    @SafeVarargs
+    private static List<RsGeWaybill> waybills(Map<String, Object>... rows) {
+        return Arrays.stream(rows).map(RsGeWaybill::of).toList();
+    }
+
+    @Test
+    @DisplayName("Uppercase RS.ge rows map to DTOs and cancelled ones are skipped")
+    void mapsUppercaseRows() {
+        List<WaybillDto> out = service.processWaybills(waybills(
+                row("ID", "1", "STATUS", "1", "BUYER_TIN", "123-456-789", "BUYER_NAME", " Shop ",
+                        "CREATE_DATE", "2025-05-01T10:15:00", "FULL_AMOUNT", "1 234,50"),
+                row("ID", "2", "STATUS", "-2", "BUYER_TIN", "123456789", "BUYER_NAME", "Shop",
+                        "CREATE_DATE", "2025-05-01T10:15:00", "FULL_AMOUNT", "10"),
+                row("ID", "3", "STATUS", "1", "BUYER_TIN", "987654321", "BUYER_NAME", "Other",
+                        "CREATE_DATE", "2025-04-29T23:59:59", "FULL_AMOUNT", "5")), WaybillType.SALE);
+
+        assertEquals(2, out.size());
+        WaybillDto first = out.get(0);
+        assertEquals("1", first.getWaybillId());
+        assertEquals("123456789", first.getCustomerId());
+        assertEquals("Shop", first.getCustomerName());
+        assertEquals(LocalDate.of(2025, 5, 1), first.getDate());
+        assertEquals(0, new BigDecimal("1234.50").compareTo(first.getAmount()));
+        assertEquals(1, first.getStatus());
+        assertTrue(first.isAfterCutoff());
+        assertFalse(out.get(1).isAfterCutoff());
+    }
+
+    @Test
+    @DisplayName("A zero amount falls through to the next amount field, as the legacy probe did")
+    void zeroAmountFallsThrough() {
+        List<WaybillDto> out = service.processWaybills(waybills(
+                row("ID", "1", "BUYER_TIN", "123456789", "CREATE_DATE", "2025-05-01",
+                        "FULL_AMOUNT", "0", "TOTAL_AMOUNT", "42.10"),
+                row("ID", "2", "BUYER_TIN", "123456789", "CREATE_DATE", "2025-05-01",
+                        "FULL_AMOUNT", "7", "TOTAL_AMOUNT", "42.10")), WaybillType.SALE);
+
+        assertEquals(0, new BigDecimal("42.10").compareTo(out.get(0).getAmount()));
+        assertEquals(0, new BigDecimal("7").compareTo(out.get(1).getAmount()));
+    }
+
+    @Test
+    @DisplayName("Rows of the same shape with another spelling still resolve")
+    void otherSpellingOfSameShape() {
+        List<WaybillDto> out = service.processWaybills(waybills(
+                row("ID", "1", "BUYER_TIN", "111111111", "CREATE_DATE", "2025-05-01", "FULL_AMOUNT", "3"),
+                row("id", "2", "buyer_tin", "222222222", "create_date", "01/05/2025", "full_amount", "4")),
+                WaybillType.SALE);
+
+        assertEquals("2", out.get(1).getWaybillId());
+        assertEquals("222222222", out.get(1).getCustomerId());
+        assertEquals(LocalDate.of(2025, 5, 1), out.get(1).getDate());
+        assertEquals(0, new BigDecimal("4").compareTo(out.get(1).getAmount()));
+    }
+
+    @Test
+    @DisplayName("Non-ISO and odd date strings keep the generic parser's result")
+    void dateFallbacks() {
+        List<WaybillDto> out = service.processWaybills(waybills(
+                row("ID", "1", "BUYER_TIN", "1", "CREATE_DATE", "2025-5-1T08:00:00"),
+                row("ID", "2", "BUYER_TIN", "1", "CREATE_DATE", " 2025-05-02T08:00:00 "),
+                row("ID", "3", "BUYER_TIN", "1", "CREATE_DATE", "2025-02-30T08:00:00")), WaybillType.SALE);
+
+        assertEquals(LocalDate.of(2025, 5, 1), out.get(0).getDate());
+        assertEquals(LocalDate.of(2025, 5, 2), out.get(1).getDate());
+        assertNull(out.get(2).getDate());
+    }
+
+    @Test
+    @DisplayName("Goods nested as GOODS_LIST -> GOODS resolve with confirmed and fallback field names")
+    void extractsNestedGoods() {
+        Map<String, Object> raw = row("ID", "1", "GOODS_LIST", row("GOODS", List.of(
+                row("W_NAME", "Milk", "QUANTITY_F", "2", "UNIT", "l", "PRICE", "1.5", "AMOUNT", "3"),
+                row("NAME", "Bread", "QUANTITY", "1", "UNIT_NAME", "pc", "UNIT_PRICE", "2", "SUM", "2"))));
+
+        List<WaybillGoodDto> goods = service.extractGoods(raw, WaybillFieldResolver.newPlans());
+
+        assertEquals(2, goods.size());
+        assertEquals("Milk", goods.get(0).getName());
+        assertEquals(0, new BigDecimal("2").compareTo(goods.get(0).getQuantity()));
+        assertEquals("l", goods.get(0).getUnit());
+        assertEquals(0, new BigDecimal("1.5").compareTo(goods.get(0).getUnitPrice()));
+        assertEquals(0, new BigDecimal("3").compareTo(goods.get(0).getTotalPrice()));
+        assertEquals("Bread", goods.get(1).getName());
+        assertEquals("pc", goods.get(1).getUnit());
+        assertEquals(0, new BigDecimal("2").compareTo(goods.get(1).getTotalPrice()));
+    }
+
+    @Test
+    @DisplayName("Goods lines sharing a key count with waybill rows do not reuse their plan")
+    void goodsAndRowsShareOnePlans() {
+        WaybillFieldResolver.Plans plans = WaybillFieldResolver.newPlans();
+        Map<String, Object> single = row("W_NAME", "Milk", "QUANTITY_F", "2");
+
+        List<WaybillGoodDto> first = service.extractGoods(row("ID", "1", "GOODS", single), plans);
+        List<WaybillGoodDto> second = service.extractGoods(row("ID", "2", "goods", List.of(single)), plans);
+
+        assertEquals("Milk", first.get(0).getName());
+        assertEquals("Milk", second.get(0).getName());
+        assertNull(second.get(0).getUnit());
+    }
+
+    /** Mixed shapes and spellings, cancelled rows and goods, as one large RS.ge response. */
+    private static List<Map<String, Object>> largeResponse(int n) {
+        List<Map<String, Object>> rows = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            String day = String.format("2025-%02d-%02d", 1 + i % 12, 1 + i % 28);
+            Map<String, Object> good = row("W_NAME", "Beef " + i % 7, "QUANTITY_F", (i % 50) + ".125",
+                    "UNIT", "kg", "AMOUNT", i + ",50");
+            rows.add(switch (i % 4) {
+                case 0 -> row("ID", "u" + i, "STATUS", String.valueOf(i % 9 - 2), "BUYER_TIN", "0" + (100000000 + i % 300),
+                        "BUYER_NAME", " Shop " + i % 300, "CREATE_DATE", day + "T10:15:00", "FULL_AMOUNT", i + ".10",
+                        "GOODS_LIST", row("GOODS", List.of(good, good)));
+                case 1 -> row("id", "l" + i, "status", 1, "buyer_tin", "12345678" + i % 10,
+                        "create_date", day.substring(8) + "/" + day.substring(5, 7) + "/2025", "full_amount", "0",
+                        "total_amount", String.valueOf(i));
+                case 2 -> row("ID", "s" + i, "SELLER_TIN", "204 567 " + i % 1000, "SELLER_NAME", "Supplier",
+                        "BEGIN_DATE", day, "GOODS", good);
+                default -> row("ID", "n" + i, "STATUS", "-1", "BUYER_TIN", "1");
+            });
+        }
+        return rows;
+    }
+
+    private List<WaybillDto> process(List<Map<String, Object>> raw, WaybillType type, int minChunk) {
+        ReflectionTestUtils.setField(service, "minChunk", minChunk);
+        List<WaybillDto> out = service.processWaybills(raw.stream().map(RsGeWaybill::of).toList(), type);
+        out.forEach(dto -> dto.setCreatedAt(null)); // wall clock at mapping time
+        return out;
+    }
+
+    @Test
+    @DisplayName("Parallel normalization returns exactly the sequential result, in input order")
+    void parallelParity() {
+        List<Map<String, Object>> raw = largeResponse(10_000);
+        // Four workers regardless of the machine's cores, so the chunks really run concurrently.
+        ReflectionTestUtils.setField(service, "pool", new ForkJoinPool(4));
+
+        for (WaybillType type : WaybillType.values()) {
+            List<WaybillDto> sequential = process(raw, type, Integer.MAX_VALUE);
+            List<WaybillDto> parallel = process(raw, type, 64);
+            assertEquals(sequential.size(), parallel.size());
+            assertEquals(sequential, parallel);
+        }
+
+        Map<String, Map<String, Object>> byId = new HashMap<>();
+        raw.forEach(r -> byId.put(String.valueOf(r.getOrDefault("ID", r.get("id"))), r));
+        ReflectionTestUtils.setField(service, "minChunk", Integer.MAX_VALUE);
+        Map<String, List<WaybillGoodDto>> sequentialGoods = service.extractGoodsByWaybill(byId);
+        ReflectionTestUtils.setField(service, "minChunk", 64);
+        assertEquals(sequentialGoods, service.extractGoodsByWaybill(byId));
+        assertEquals(5_000, sequentialGoods.size());
+    }
+}
@@ -0,0 +1,173 @@
+package ge.tastyerp.waybill.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import ge.tastyerp.common.dto.audit.ProductMovementDto;
+import ge.tastyerp.common.dto.waybill.WaybillDto;
+import ge.tastyerp.common.dto.waybill.WaybillType;
+import ge.tastyerp.waybill.service.store.WaybillTable;
+import ge.tastyerp.common.exception.ExternalServiceException;
+import ge.tastyerp.waybill.controller.WaybillController;
+import ge.tastyerp.waybill.service.rsge.RsGeSoapClient;
+import ge.tastyerp.waybill.service.rsge.RsGeWaybill;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.MediaType;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
+
+/** Streaming endpoints: SSE chunk, summary and error events, and NDJSON reads. */
+class WaybillStreamServiceTest {
+
+    private RsGeSoapClient client;
+    private WaybillProcessingService processing;
+    private WaybillService waybillService;
+    private InventoryMovementService movements;
+    private MockMvc mvc;
+
+    @BeforeEach
+    void setUp() {
+        client = mock(RsGeSoapClient.class);
+        processing = mock(WaybillProcessingService.class);
+        waybillService = mock(WaybillService.class);
+        movements = mock(InventoryMovementService.class);
+        WaybillStreamService service = new WaybillStreamService(client, processing, waybillService, movements);
+        ReflectionTestUtils.setField(service, "cutoffDate", "2025-04-29");
+        ReflectionTestUtils.setField(service, "timeoutMs", 10_000L);
+        ReflectionTestUtils.setField(service, "movementChunkDays", 7);
+        mvc = MockMvcBuilders.standaloneSetup(new WaybillController(waybillService,
+                mock(ProductSalesService.class), movements, service, new ObjectMapper())).build();
+
+        when(processing.processWaybills(anyList(), eq(WaybillType.SALE))).thenAnswer(inv -> {
+            List<RsGeWaybill> raw = inv.getArgument(0);
+            return raw.stream().map(w -> WaybillDto.builder()
+                    .waybillId(w.id())
+                    .isAfterCutoff(true)
+                    .build()).toList();
+        });
+    }
+
+    private static RsGeWaybill waybill(String id) {
+        return RsGeWaybill.of(Map.of("ID", id));
+    }
+
+    private String stream(MvcResult result) throws Exception {
+        result.getAsyncResult(5_000);
+        return result.getResponse().getContentAsString();
+    }
+
+    @Test
+    @DisplayName("Each RS.ge chunk is sent as it completes, then a summary with the blocking endpoint's counts")
+    void fetchStream() throws Exception {
+        when(client.streamWaybillsAsync(any(), any(), any(), any())).thenAnswer(inv -> {
+            RsGeSoapClient.ChunkListener listener = inv.getArgument(3);
+            listener.onChunk(LocalDate.of(2025, 6, 4), LocalDate.of(2025, 6, 6),
+                    List.of(waybill("3")), 2);
+            listener.onChunk(LocalDate.of(2025, 6, 1), LocalDate.of(2025, 6, 3),
+                    List.of(waybill("1"), waybill("2")), 2);
+            return CompletableFuture.completedFuture(null);
+        });
+
+        MvcResult result = mvc.perform(post("/api/waybills/fetch/stream")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"startDate\":\"2025-06-01\",\"endDate\":\"2025-06-06\"}"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        String body = stream(result);
+
+        assertEquals(2, body.split("event:chunk").length - 1);
+        assertTrue(body.contains("\"chunksDone\":1,\"chunksTotal\":2,\"totalCount\":1"));
+        assertTrue(body.contains("\"chunksDone\":2,\"chunksTotal\":2,\"totalCount\":3"));
+        assertTrue(body.contains("event:summary"));
+        assertTrue(body.contains("3 waybills fetched from RS.ge. 3 after cutoff date."));
+        assertTrue(body.indexOf("event:summary") > body.lastIndexOf("event:chunk"));
+    }
+
+    @Test
+    @DisplayName("A failed fetch ends the stream with an error event after the chunks already sent")
+    void fetchStreamError() throws Exception {
+        when(client.streamWaybillsAsync(any(), any(), any(), any())).thenAnswer(inv -> {
+            RsGeSoapClient.ChunkListener listener = inv.getArgument(3);
+            listener.onChunk(LocalDate.of(2025, 6, 1), LocalDate.of(2025, 6, 3), List.of(waybill("1")), 2);
+            return CompletableFuture.failedFuture(new ExternalServiceException("RS.ge", "Chunk failed"));
+        });
+
+        MvcResult result = mvc.perform(post("/api/waybills/fetch/stream")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"startDate\":\"2025-06-01\",\"endDate\":\"2025-06-06\"}"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        String body = stream(result);
+
+        assertTrue(body.contains("event:chunk"));
+        assertTrue(body.contains("event:error"));
+        assertFalse(body.contains("event:summary"));
+    }
+
+    @Test
+    @DisplayName("Product movements are streamed in day chunks of the resolved range")
+    void movementsStream() throws Exception {
+        LocalDate start = LocalDate.of(2025, 6, 1);
+        LocalDate end = LocalDate.of(2025, 6, 10);
+        when(waybillService.resolveRange("2025-06-01", "2025-06-10", false))
+                .thenReturn(new WaybillService.DateRange(start, end));
+        when(movements.getProductMovementsAsync(any(LocalDate.class), any(LocalDate.class))).thenAnswer(inv ->
+                CompletableFuture.completedFuture(List.of(ProductMovementDto.builder()
+                        .date(inv.getArgument(0)).waybillId("w").build())));
+
+        MvcResult result = mvc.perform(get("/api/waybills/product-movements/stream")
+                        .param("startDate", "2025-06-01")
+                        .param("endDate", "2025-06-10"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        String body = stream(result);
+
+        verify(movements).getProductMovementsAsync(start, LocalDate.of(2025, 6, 7));
+        verify(movements).getProductMovementsAsync(LocalDate.of(2025, 6, 8), end);
+        assertEquals(2, body.split("event:chunk").length - 1);
+        assertTrue(body.contains("2 product movements built from RS.ge. 2 after cutoff date."));
+    }
+
+    @Test
+    @DisplayName("Accept: application/x-ndjson gets one bare waybill per line instead of the ApiResponse envelope")
+    void ndjsonRead() throws Exception {
+        WaybillTable table = WaybillTable.empty(WaybillType.SALE).replaceDays(LocalDate.of(2025, 6, 1),
+                LocalDate.of(2025, 6, 1), List.of(
+                        WaybillDto.builder().waybillId("1").customerId("111").buyerTin("111").build(),
+                        WaybillDto.builder().waybillId("2").customerId("222").buyerTin("222").build()));
+        when(waybillService.getWaybillRowsAsync(null, null, null, true, WaybillType.SALE))
+                .thenReturn(CompletableFuture.completedFuture(table.all()));
+
+        MvcResult result = mvc.perform(get("/api/waybills")
+                        .param("afterCutoffOnly", "true")
+                        .param("type", "SALE")
+                        .accept(MediaType.APPLICATION_NDJSON))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        // The future's result is dispatched, then the body is written on its own async pass.
+        String body = stream(mvc.perform(asyncDispatch(result)).andReturn());
+
+        List<String> lines = body.lines().toList();
+        assertEquals(MediaType.APPLICATION_NDJSON_VALUE, result.getResponse().getContentType());
+        assertEquals(2, lines.size());
+        assertTrue(lines.get(0).startsWith("{") && lines.get(0).contains("\"waybillId\":\"1\""));
+        assertTrue(lines.get(1).contains("\"customerId\":\"222\""));
+    }
+}
@@ -0,0 +1,80 @@
+package ge.tastyerp.waybill.service.rsge;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/** Density learning, -1064 limit learning and variable-width planning of RS.ge chunks. */
+class RsGeChunkPlannerTest {
+
+    private static final String OP = "get_waybills";
+    private static final LocalDate D0 = LocalDate.of(2025, 5, 1);
+
+    private static List<RsGeWaybill> waybills(LocalDate day, int count) {
+        List<RsGeWaybill> out = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            out.add(RsGeWaybill.of(Map.of("ID", day + "-" + i, "CREATE_DATE", day + "T10:00:00")));
+        }
+        return out;
+    }
+
+    /** Teach the planner: 10 rows/day for the first 10 days, 100 rows/day for the next 10. */
+    private static RsGeChunkPlanner trained() {
+        RsGeChunkPlanner planner = new RsGeChunkPlanner(3, 0.85, 1.5);
+        for (int i = 0; i < 20; i++) {
+            LocalDate d = D0.plusDays(i);
+            planner.recordSuccess(OP, d, d, waybills(d, i < 10 ? 10 : 100));
+        }
+        // A 20-day call of 1100 rows was rejected.
+        planner.recordTooLarge(OP, D0, D0.plusDays(19), 1100);
+        return planner;
+    }
+
+    @Test
+    @DisplayName("Without history the legacy fixed 3-day windows are used")
+    void fallsBackToFixedWidth() {
+        List<RsGeChunkPlanner.Window> plan = new RsGeChunkPlanner(3, 0.85, 1.5).plan(OP, D0, D0.plusDays(7));
+
+        assertEquals(List.of(
+                new RsGeChunkPlanner.Window(D0, D0.plusDays(2)),
+                new RsGeChunkPlanner.Window(D0.plusDays(3), D0.plusDays(5)),
+                new RsGeChunkPlanner.Window(D0.plusDays(6), D0.plusDays(7))), plan);
+    }
+
+    @Test
+    @DisplayName("Quiet days get wide chunks, busy days narrow ones, all under the learned limit")
+    void variableWidth() {
+        List<RsGeChunkPlanner.Window> plan = trained().plan(OP, D0, D0.plusDays(19));
+
+        // target = min(1100 * 0.85, 100 * 1.5) = 150 rows
+        assertEquals(new RsGeChunkPlanner.Window(D0, D0.plusDays(9)), plan.get(0));
+        assertTrue(plan.stream().skip(1).allMatch(w -> w.days() == 1));
+        assertEquals(D0.plusDays(19), plan.get(plan.size() - 1).end());
+    }
+
+    @Test
+    @DisplayName("A range estimated past the rejected size skips the full call; a small one does not")
+    void knownTooLarge() {
+        RsGeChunkPlanner planner = trained();
+
+        assertTrue(planner.knownTooLarge(OP, D0, D0.plusDays(19)));
+        assertFalse(planner.knownTooLarge(OP, D0, D0.plusDays(4)));
+        assertFalse(planner.knownTooLarge("get_buyer_waybills", D0, D0.plusDays(19)));
+    }
+
+    @Test
+    @DisplayName("A rejection below a size that already succeeded is learned as a width limit")
+    void learnsWidthLimit() {
+        RsGeChunkPlanner planner = trained();
+        planner.recordTooLarge(OP, D0, D0.plusDays(5), 60);
+
+        assertTrue(planner.knownTooLarge(OP, D0.plusDays(1), D0.plusDays(6)));
+        assertTrue(planner.plan(OP, D0, D0.plusDays(9)).stream().allMatch(w -> w.days() <= 5));
+    }
+}
@@ -0,0 +1,31 @@
+package ge.tastyerp.waybill.service.rsge;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/** Per-operation latency window used to time hedged chunk requests. */
+class RsGeLatencyTrackerTest {
+
+    @Test
+    @DisplayName("No p95 until enough samples; then nearest-rank over the window")
+    void p95AfterWarmUp() {
+        RsGeLatencyTracker tracker = new RsGeLatencyTracker(100, 20);
+        for (int i = 1; i <= 19; i++) tracker.record("get_waybills", i);
+        assertEquals(-1, tracker.p95Millis("get_waybills"));
+
+        for (int i = 20; i <= 100; i++) tracker.record("get_waybills", i);
+        assertEquals(95, tracker.p95Millis("get_waybills"));
+        assertEquals(-1, tracker.p95Millis("get_buyer_waybills"), "operations are tracked separately");
+    }
+
+    @Test
+    @DisplayName("Old samples fall out of the window")
+    void slidingWindow() {
+        RsGeLatencyTracker tracker = new RsGeLatencyTracker(20, 20);
+        for (int i = 0; i < 20; i++) tracker.record("get_waybills", 10_000);
+        for (int i = 0; i < 20; i++) tracker.record("get_waybills", 100);
+        assertEquals(100, tracker.p95Millis("get_waybills"));
+    }
+}
@@ -0,0 +1,234 @@
+package ge.tastyerp.waybill.service.rsge;
+
+import ge.tastyerp.common.exception.ExternalServiceException;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletionException;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/** The real client against the offline RS.ge stand-in: -1064 chunking, -101, filters, goods replay and recording. */
+class RsGeReplayServerTest {
+
+    private static final LocalDate D0 = LocalDate.of(2025, 5, 1);
+
+    @TempDir
+    Path dir;
+
+    private final List<RsGeReplayServer> servers = new ArrayList<>();
+    private final MeterRegistry registry = new SimpleMeterRegistry();
+
+    @AfterEach
+    void tearDown() {
+        servers.forEach(RsGeReplayServer::close);
+    }
+
+    /** 30 days x 2 sale waybills, plus one recorded get_waybill with goods. */
+    private void writeFixtures(Path root) throws IOException {
+        StringBuilder rows = new StringBuilder();
+        for (int i = 0; i < 60; i++) {
+            rows.append("<WAYBILL><ID>").append(i).append("</ID><BUYER_TIN>20490035").append(i % 10)
+                    .append("</BUYER_TIN><BUYER_NAME>შპს მყიდველი ").append(i % 10).append("</BUYER_NAME>")
+                    .append("<FULL_AMOUNT>10</FULL_AMOUNT><STATUS>1</STATUS><CREATE_DATE>")
+                    .append(D0.plusDays(i / 2)).append("T10:00:00</CREATE_DATE></WAYBILL>");
+        }
+        write(root.resolve("get_waybills/2025-05-01_2025-05-31.xml"),
+                soap("get_waybills", "<WAYBILL_LIST>" + rows + "</WAYBILL_LIST>"));
+        write(root.resolve("get_waybill/5.xml"), soap("get_waybill",
+                "<WAYBILL><ID>5</ID><STATUS>2</STATUS><GOODS_LIST><GOODS><W_NAME>საქონლის ხორცი</W_NAME>"
+                        + "<QUANTITY_F>12</QUANTITY_F></GOODS></GOODS_LIST></WAYBILL>"));
+    }
+
+    private static String soap(String operation, String result) {
+        return "<?xml version=\"1.0\" encoding=\"utf-8\"?>"
+                + "<soap:Envelope xmlns:soap=\"http://schemas.xmlsoap.org/soap/envelope/\"><soap:Body>"
+                + "<" + operation + "Response xmlns=\"http://tempuri.org/\"><" + operation + "Result>" + result
+                + "</" + operation + "Result></" + operation + "Response></soap:Body></soap:Envelope>";
+    }
+
+    private static void write(Path file, String content) throws IOException {
+        Files.createDirectories(file.getParent());
+        Files.writeString(file, content, StandardCharsets.UTF_8);
+    }
+
+    private RsGeReplayServer start(Path fixtures) throws IOException {
+        RsGeReplayServer server = new RsGeReplayServer(RsGeReplayServer.Options.builder()
+                .dir(fixtures)
+                .maxListSize(20)
+                .build()).start();
+        servers.add(server);
+        return server;
+    }
+
+    private RsGeSoapClient client(RsGeReplayServer server, String username, Path recordDir) {
+        RsGeRequestGovernor governor = new RsGeRequestGovernor();
+        ReflectionTestUtils.setField(governor, "initialLimit", 4);
+        ReflectionTestUtils.setField(governor, "minLimit", 1);
+        ReflectionTestUtils.setField(governor, "maxLimit", 8);
+        ReflectionTestUtils.setField(governor, "latencyTargetMs", 60_000L);
+        ReflectionTestUtils.setField(governor, "decreaseRatio", 0.7);
+        ReflectionTestUtils.setField(governor, "decreaseCooldownMs", 0L);
+        ReflectionTestUtils.invokeMethod(governor, "init");
+
+        RsGeSoapClient client = new RsGeSoapClient(governor, new RsGeMetrics(registry, governor));
+        ReflectionTestUtils.setField(client, "endpoint", server.endpoint().toString());
+        ReflectionTestUtils.setField(client, "username", username);
+        ReflectionTestUtils.setField(client, "password", "secret");
+        ReflectionTestUtils.setField(client, "timeoutSeconds", 10);
+        ReflectionTestUtils.setField(client, "gzipEnabled", true);
+        ReflectionTestUtils.setField(client, "hedgeEnabled", false);
+        ReflectionTestUtils.setField(client, "retryMaxAttempts", 2);
+        ReflectionTestUtils.setField(client, "retryBaseDelayMs", 10L);
+        ReflectionTestUtils.setField(client, "retryMaxDelayMs", 50L);
+        if (recordDir != null) {
+            ReflectionTestUtils.setField(client, "recordEnabled", true);
+            ReflectionTestUtils.setField(client, "recordDir", recordDir.toString());
+            ReflectionTestUtils.setField(client, "recordSaltFile", dir.resolve("recorder.salt").toString());
+        }
+        ReflectionTestUtils.invokeMethod(client, "init");
+        return client;
+    }
+
+    @Test
+    @DisplayName("A range over the replayed -1064 limit is chunked and every waybill arrives once")
+    void chunksPastTheLimit() throws IOException {
+        writeFixtures(dir);
+        RsGeReplayServer server = start(dir);
+
+        List<RsGeWaybill> waybills =
+                client(server, "user:123", null).getWaybills(D0, D0.plusDays(29));
+
+        assertEquals(60, waybills.size());
+        assertEquals(60, waybills.stream().map(w -> w.id()).distinct().count());
+        assertEquals(1L, server.counters().get("status:-1064"));
+        assertTrue(server.counters().get("get_waybills") > 1);
+
+        // Metrics saw the same pipeline
+        long calls = server.counters().get("get_waybills");
+        assertEquals(calls, registry.get("rsge.soap.call").tag("operation", "get_waybills").timer().count());
+        assertEquals(1.0, registry.get("rsge.chunk.splits").tag("level", "range").counter().count());
+        assertEquals(1.0, registry.get("rsge.soap.status").tag("status", "-1064").counter().count());
+        assertEquals(calls - 1, (long) registry.get("rsge.chunks").counter().count());
+        assertEquals(60.0, registry.get("rsge.waybills.extracted").summary().totalAmount());
+        double wire = registry.get("rsge.soap.response.bytes").tag("form", "wire").summary().totalAmount();
+        double decoded = registry.get("rsge.soap.response.bytes").tag("form", "decoded").summary().totalAmount();
+        assertTrue(wire < decoded, "responses are gzipped");
+    }
+
+    @Test
+    @DisplayName("Goods come from the recorded get_waybill; a missing seller id gets -101 and the client's fallback retry")
+    void goodsAndMissingSeller() throws IOException {
+        writeFixtures(dir);
+        RsGeReplayServer server = start(dir);
+
+        Map<String, Map<String, Object>> goods =
+                client(server, "user:123", null).getWaybillGoodsMap(List.of("5", "6"));
+
+        assertTrue(goods.get("5").containsKey("GOODS_LIST"));
+        assertEquals("6", goods.get("6").get("ID"));
+        assertEquals(2, client(server, "user", null).getWaybills(D0, D0).size());
+        assertEquals(1L, server.counters().get("status:-101"));
+    }
+
+    @Test
+    @DisplayName("An RS.ge error status fails the list call instead of returning no waybills")
+    void errorStatusFails() throws IOException {
+        writeFixtures(dir);
+        RsGeReplayServer server = new RsGeReplayServer(RsGeReplayServer.Options.builder()
+                .dir(dir)
+                .listErrorStatus(-9)
+                .build()).start();
+        servers.add(server);
+        RsGeSoapClient client = client(server, "user:123", null);
+
+        CompletionException e = assertThrows(CompletionException.class,
+                () -> client.getWaybillsAsync(D0, D0.plusDays(29), RsGePriority.INTERACTIVE).join());
+        assertInstanceOf(ExternalServiceException.class, e.getCause());
+        assertTrue(e.getCause().getMessage().contains("-9"));
+    }
+
+    @Test
+    @DisplayName("Pushed-down buyer and status filters narrow per-customer lists on the RS.ge side and skip -1064 chunking; full lists stay unfiltered")
+    void filterPushdown() throws IOException {
+        writeFixtures(dir);
+        RsGeReplayServer server = start(dir);
+        RsGeSoapClient client = client(server, "user:123", dir.resolve("recorded"));
+        ReflectionTestUtils.setField(client, "pushdownEnabled", true);
+        ReflectionTestUtils.setField(client, "pushdownStatuses", ",0,1,2,8,");
+
+        List<RsGeWaybill> waybills = client.getWaybillsAsync(D0, D0.plusDays(29),
+                RsGePriority.INTERACTIVE, "204900353").join();
+
+        assertEquals(6, waybills.size());
+        assertTrue(waybills.stream().allMatch(w -> "204900353".equals(w.buyerTin())));
+        assertEquals(1L, server.counters().get("get_waybills"));
+        assertNull(server.counters().get("status:-1064"));
+        assertFalse(Files.exists(dir.resolve("recorded/get_waybills")), "filtered lists are not recorded");
+
+        ReflectionTestUtils.setField(client, "pushdownStatuses", ",-1,-2,");
+        assertTrue(client.getWaybillsAsync(D0, D0.plusDays(29), RsGePriority.INTERACTIVE, "204900353")
+                .join().isEmpty());
+        // Full lists (store, VAT, debt) are never status-filtered.
+        assertTrue(client.getWaybillsAsync(D0, D0.plusDays(29), RsGePriority.INTERACTIVE).join().size() > 6);
+    }
+
+    @Test
+    @DisplayName("Recorded responses are anonymised and replay to the same waybills")
+    void recordThenReplay() throws IOException {
+        Path live = dir.resolve("live");
+        Path recorded = dir.resolve("recorded");
+        writeFixtures(live);
+        RsGeReplayServer liveServer = start(live);
+        client(liveServer, "user:123", recorded).getWaybills(D0, D0.plusDays(29));
+
+        String sample;
+        try (var files = Files.list(recorded.resolve("get_waybills"))) {
+            sample = Files.readString(files.findFirst().orElseThrow(), StandardCharsets.UTF_8);
+        }
+        assertFalse(sample.contains("204900350"));
+        assertFalse(sample.contains("მყიდველი"));
+
+        List<RsGeWaybill> replayed =
+                client(start(recorded), "user:123", null).getWaybills(D0, D0.plusDays(29));
+        assertEquals(60, replayed.size());
+        Set<String> buyers = replayed.stream().map(RsGeWaybill::buyerTin).collect(Collectors.toSet());
+        assertEquals(10, buyers.size());
+    }
+
+    @Test
+    @DisplayName("When recordings overlap, the latest one's status and amount are replayed")
+    void latestRecordingWins() throws IOException {
+        Path fixtures = dir.resolve("fixtures");
+        Path older = fixtures.resolve("get_waybills/2025-05-01_2025-05-31.xml");
+        Path newer = fixtures.resolve("get_waybills/2025-05-01_2025-05-02.xml");
+        write(older, soap("get_waybills", "<WAYBILL_LIST><WAYBILL><ID>1</ID><FULL_AMOUNT>10</FULL_AMOUNT>"
+                + "<STATUS>1</STATUS><CREATE_DATE>2025-05-01T10:00:00</CREATE_DATE></WAYBILL></WAYBILL_LIST>"));
+        write(newer, soap("get_waybills", "<WAYBILL_LIST><WAYBILL><ID>1</ID><FULL_AMOUNT>12</FULL_AMOUNT>"
+                + "<STATUS>2</STATUS><CREATE_DATE>2025-05-01T10:00:00</CREATE_DATE></WAYBILL></WAYBILL_LIST>"));
+        Files.setLastModifiedTime(older, java.nio.file.attribute.FileTime.fromMillis(2_000_000_000_000L));
+        Files.setLastModifiedTime(newer, java.nio.file.attribute.FileTime.fromMillis(2_000_000_060_000L));
+
+        List<RsGeWaybill> replayed =
+                client(start(fixtures), "user:123", null).getWaybills(D0, D0.plusDays(1));
+
+        assertEquals(1, replayed.size());
+        assertEquals("12", replayed.get(0).amounts().get(0));
+        assertEquals("2", replayed.get(0).status());
+    }
+}
@@ -0,0 +1,76 @@
+package ge.tastyerp.waybill.service.rsge;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/** Priority ordering and AIMD limit adaptation of the RS.ge request governor. */
+class RsGeRequestGovernorTest {
+
+    private RsGeRequestGovernor governor;
+
+    @BeforeEach
+    void setUp() {
+        governor = new RsGeRequestGovernor();
+        ReflectionTestUtils.setField(governor, "initialLimit", 2);
+        ReflectionTestUtils.setField(governor, "minLimit", 1);
+        ReflectionTestUtils.setField(governor, "maxLimit", 4);
+        ReflectionTestUtils.setField(governor, "latencyTargetMs", 60_000L);
+        ReflectionTestUtils.setField(governor, "decreaseRatio", 0.5);
+        ReflectionTestUtils.setField(governor, "decreaseCooldownMs", 0L);
+        ReflectionTestUtils.invokeMethod(governor, "init");
+    }
+
+    @Test
+    @DisplayName("Waiters are granted interactive first, then goods, then prefetch")
+    void grantsByPriority() {
+        RsGeRequestGovernor.Permit a = governor.acquire(RsGePriority.INTERACTIVE).join();
+        RsGeRequestGovernor.Permit b = governor.acquire(RsGePriority.INTERACTIVE).join();
+
+        List<RsGePriority> order = new ArrayList<>();
+        CompletableFuture<RsGeRequestGovernor.Permit> prefetch = governor.acquire(RsGePriority.PREFETCH);
+        CompletableFuture<RsGeRequestGovernor.Permit> goods = governor.acquire(RsGePriority.GOODS);
+        CompletableFuture<RsGeRequestGovernor.Permit> interactive = governor.acquire(RsGePriority.INTERACTIVE);
+        prefetch.thenRun(() -> order.add(RsGePriority.PREFETCH));
+        goods.thenRun(() -> order.add(RsGePriority.GOODS));
+        interactive.thenRun(() -> order.add(RsGePriority.INTERACTIVE));
+        assertEquals(3, governor.queued());
+
+        a.release(RsGeRequestGovernor.Outcome.FAILURE);
+        interactive.join().release(RsGeRequestGovernor.Outcome.FAILURE);
+        goods.join().release(RsGeRequestGovernor.Outcome.FAILURE);
+        b.release(RsGeRequestGovernor.Outcome.FAILURE);
+        prefetch.join().release(RsGeRequestGovernor.Outcome.FAILURE);
+
+        assertEquals(List.of(RsGePriority.INTERACTIVE, RsGePriority.GOODS, RsGePriority.PREFETCH), order);
+        assertEquals(0, governor.inFlight());
+    }
+
+    @Test
+    @DisplayName("Overload halves the limit; sustained fast successes grow it back up to the cap")
+    void adaptsLimit() {
+        governor.acquire(RsGePriority.INTERACTIVE).join().release(RsGeRequestGovernor.Outcome.OVERLOAD);
+        assertEquals(1, governor.currentLimit());
+
+        for (int i = 0; i < 50; i++) {
+            governor.acquire(RsGePriority.INTERACTIVE).join().release(RsGeRequestGovernor.Outcome.SUCCESS);
+        }
+        assertEquals(4, governor.currentLimit());
+    }
+
+    @Test
+    @DisplayName("Releasing a permit twice frees only one slot")
+    void releaseIsIdempotent() {
+        RsGeRequestGovernor.Permit p = governor.acquire(RsGePriority.GOODS).join();
+        p.release(RsGeRequestGovernor.Outcome.SUCCESS);
+        p.release(RsGeRequestGovernor.Outcome.SUCCESS);
+        assertEquals(0, governor.inFlight());
+    }
+}
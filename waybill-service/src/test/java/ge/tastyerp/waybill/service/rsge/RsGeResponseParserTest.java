@@ -0,0 +1,224 @@
+package ge.tastyerp.waybill.service.rsge;
+
+import ge.tastyerp.common.exception.ExternalServiceException;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/** Streaming RS.ge response parser: extraction, de-duplication and status handling. */
+class RsGeResponseParserTest {
+
+    private final RsGeResponseParser parser = new RsGeResponseParser();
+
+    private static String envelope(String operation, String resultBody) {
+        return """
+                <?xml version="1.0" encoding="utf-8"?>
+                <soap:Envelope xmlns:soap="http://schemas.xmlsoap.org/soap/envelope/">
+                  <soap:Body>
+                    <%sResponse xmlns="http://tempuri.org/">
+                      <%sResult>%s</%sResult>
+                    </%sResponse>
+                  </soap:Body>
+                </soap:Envelope>
+                """.formatted(operation, operation, resultBody, operation, operation);
+    }
+
+    @Test
+    @DisplayName("List response: every WAYBILL becomes one typed row with its spellings resolved")
+    void extractsWaybills() {
+        String xml = envelope("get_waybills", """
+                <WAYBILL_LIST>
+                  <WAYBILL><ID>1</ID><BUYER_TIN>204900358</BUYER_TIN><FULL_AMOUNT>100.50</FULL_AMOUNT>
+                    <CREATE_DATE>2025-05-01T10:00:00</CREATE_DATE><STATUS>1</STATUS></WAYBILL>
+                  <WAYBILL><ID>2</ID><BUYER_TIN>402297787</BUYER_TIN><FULL_AMOUNT>20</FULL_AMOUNT>
+                    <CREATE_DATE>2025-05-02T10:00:00</CREATE_DATE><STATUS>-2</STATUS></WAYBILL>
+                </WAYBILL_LIST>""");
+
+        RsGeResponseParser.WaybillListResult result = parser.parseWaybillList(new StringReader(xml), "get_waybills");
+
+        assertTrue(result.resultFound());
+        assertEquals(0, result.statusCode());
+        assertEquals(2, result.waybills().size());
+        RsGeWaybill first = result.waybills().get(0);
+        assertEquals("1", first.id());
+        assertEquals("204900358", first.buyerTin());
+        assertEquals(List.of("100.50"), first.amounts());
+        assertEquals("2025-05-01T10:00:00", first.date());
+        assertEquals("1", first.status());
+        assertNull(first.goods());
+        assertEquals("-2", result.waybills().get(1).status());
+    }
+
+    @Test
+    @DisplayName("Amount spellings are kept in priority order and lowercase keys resolve like uppercase ones")
+    void typedRowFields() {
+        String xml = envelope("get_buyer_waybills", """
+                <WAYBILL_LIST>
+                  <WAYBILL><id>3</id><seller_tin> 204567890 </seller_tin><seller_name>Supplier</seller_name>
+                    <total_amount>42.10</total_amount><full_amount>0</full_amount>
+                    <create_date>2025-05-04</create_date></WAYBILL>
+                </WAYBILL_LIST>""");
+
+        RsGeWaybill row = parser.parseWaybillList(new StringReader(xml), "get_buyer_waybills").waybills().get(0);
+
+        assertEquals("3", row.id());
+        assertEquals("204567890", row.sellerTin());
+        assertEquals("Supplier", row.sellerName());
+        assertEquals(List.of("0", "42.10"), row.amounts());
+        assertEquals("2025-05-04", row.date());
+        assertNull(row.buyerTin());
+        assertNull(row.status());
+    }
+
+    @Test
+    @DisplayName("The replay path still gets the flat field maps, as RS.ge sent them")
+    void replayKeepsFieldMaps() {
+        String xml = envelope("get_waybills", """
+                <WAYBILL_LIST>
+                  <WAYBILL><ID>1</ID><BUYER_TIN>204900358</BUYER_TIN><FULL_AMOUNT>100.50</FULL_AMOUNT></WAYBILL>
+                </WAYBILL_LIST>""");
+
+        List<Map<String, Object>> maps = parser.parseWaybillMaps(
+                new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8)), "get_waybills");
+
+        assertEquals(List.of(Map.of("ID", "1", "BUYER_TIN", "204900358", "FULL_AMOUNT", "100.50")), maps);
+    }
+
+    @Test
+    @DisplayName("Shallow and detailed copies of the same ID resolve to the richer one")
+    void resolvesRicherDuplicate() {
+        String xml = envelope("get_waybills", """
+                <WAYBILL_LIST>
+                  <WAYBILL><ID>7</ID><STATUS>1</STATUS></WAYBILL>
+                </WAYBILL_LIST>
+                <DETAILS>
+                  <WAYBILL><ID>7</ID><STATUS>1</STATUS><FULL_AMOUNT>55.00</FULL_AMOUNT>
+                    <CREATE_DATE>2025-05-03T09:00:00</CREATE_DATE></WAYBILL>
+                </DETAILS>""");
+
+        List<RsGeWaybill> waybills =
+                parser.parseWaybillList(new StringReader(xml), "get_waybills").waybills();
+
+        assertEquals(1, waybills.size());
+        assertEquals(List.of("55.00"), waybills.get(0).amounts());
+    }
+
+    @Test
+    @DisplayName("Status is read from STATUS or RESULT/STATUS (e.g. -1064 range too large)")
+    void readsStatus() {
+        String direct = envelope("get_waybills", "<STATUS>-1064</STATUS>");
+        String wrapped = envelope("get_buyer_waybills", "<RESULT><STATUS>-101</STATUS></RESULT>");
+
+        assertEquals(-1064, parser.parseWaybillList(new StringReader(direct), "get_waybills").statusCode());
+        assertEquals(-101, parser.parseWaybillList(new StringReader(wrapped), "get_buyer_waybills").statusCode());
+    }
+
+    @Test
+    @DisplayName("get_waybill tree keeps goods nested under WAYBILL/GOODS_LIST")
+    void treeKeepsGoodsNested() {
+        String xml = envelope("get_waybill", """
+                <WAYBILL><ID>9</ID><STATUS>2</STATUS>
+                  <GOODS_LIST>
+                    <GOODS><ID>91</ID><W_NAME>საქონლის ხორცი</W_NAME><QUANTITY_F>12.5</QUANTITY_F><AMOUNT>250</AMOUNT></GOODS>
+                    <GOODS><ID>92</ID><W_NAME>ღორის ხორცი</W_NAME><QUANTITY_F>3</QUANTITY_F><AMOUNT>45</AMOUNT></GOODS>
+                  </GOODS_LIST>
+                </WAYBILL>""");
+
+        Map<String, Object> result = parser.parseTree(new StringReader(xml), "get_waybill").result();
+
+        @SuppressWarnings("unchecked")
+        Map<String, Object> waybill = (Map<String, Object>) result.get("WAYBILL");
+        @SuppressWarnings("unchecked")
+        Map<String, Object> goodsList = (Map<String, Object>) waybill.get("GOODS_LIST");
+        assertEquals(2, ((List<?>) goodsList.get("GOODS")).size());
+    }
+
+    @Test
+    @DisplayName("Candidates nested in a listed waybill are emitted too and stay attached, like the deep traversal")
+    void nestedCandidatesStayAttached() {
+        String xml = envelope("get_waybills", """
+                <WAYBILL_LIST>
+                  <WAYBILL><ID>1</ID><FULL_AMOUNT>10</FULL_AMOUNT>
+                    <GOODS_LIST><GOODS><ID>11</ID><AMOUNT>10</AMOUNT></GOODS></GOODS_LIST>
+                  </WAYBILL>
+                </WAYBILL_LIST>""");
+
+        List<RsGeWaybill> waybills =
+                parser.parseWaybillList(new StringReader(xml), "get_waybills").waybills();
+
+        assertEquals(List.of("11", "1"), waybills.stream().map(RsGeWaybill::id).toList());
+        assertNotNull(waybills.get(1).goods());
+    }
+
+    @Test
+    @DisplayName("A shallow waybill wrapping a richer copy of itself resolves to the richer one, in either field order")
+    void nestedRicherDuplicate() {
+        String inner = """
+                <DETAIL><WAYBILL><ID>7</ID><STATUS>1</STATUS><FULL_AMOUNT>55.00</FULL_AMOUNT>
+                  <CREATE_DATE>2025-05-03T09:00:00</CREATE_DATE><BUYER_TIN>204900358</BUYER_TIN></WAYBILL></DETAIL>""";
+        String idFirst = envelope("get_waybills",
+                "<WAYBILL_LIST><WAYBILL><ID>7</ID><STATUS>1</STATUS>" + inner + "</WAYBILL></WAYBILL_LIST>");
+        String idLast = envelope("get_waybills",
+                "<WAYBILL_LIST><WAYBILL>" + inner + "<STATUS>1</STATUS><ID>7</ID></WAYBILL></WAYBILL_LIST>");
+
+        for (String xml : List.of(idFirst, idLast)) {
+            List<RsGeWaybill> waybills =
+                    parser.parseWaybillList(new StringReader(xml), "get_waybills").waybills();
+
+            assertEquals(1, waybills.size());
+            assertEquals(List.of("55.00"), waybills.get(0).amounts());
+            assertEquals("204900358", waybills.get(0).buyerTin());
+        }
+    }
+
+    @Test
+    @DisplayName("SOAP fault surfaces as ExternalServiceException; missing Result is empty, not an error")
+    void faultsAndMissingResult() {
+        String fault = """
+                <soap:Envelope xmlns:soap="http://schemas.xmlsoap.org/soap/envelope/"><soap:Body>
+                <soap:Fault><faultcode>soap:Server</faultcode><faultstring>boom</faultstring></soap:Fault>
+                </soap:Body></soap:Envelope>""";
+        assertThrows(ExternalServiceException.class,
+                () -> parser.parseWaybillList(new StringReader(fault), "get_waybills"));
+
+        String empty = "<soap:Envelope xmlns:soap=\"http://schemas.xmlsoap.org/soap/envelope/\"><soap:Body/></soap:Envelope>";
+        RsGeResponseParser.WaybillListResult result =
+                parser.parseWaybillList(new StringReader(empty), "get_waybills");
+        assertFalse(result.resultFound());
+        assertTrue(result.waybills().isEmpty());
+    }
+
+    @Test
+    @DisplayName("A gzipped UTF-8 byte stream parses like the decoded text")
+    void parsesGzippedBytes() throws Exception {
+        String xml = envelope("get_waybill", """
+                <WAYBILL><ID>9</ID><STATUS>2</STATUS>
+                  <GOODS_LIST><GOODS><ID>91</ID><W_NAME>საქონლის ხორცი</W_NAME></GOODS></GOODS_LIST>
+                </WAYBILL>""");
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzip = new GZIPOutputStream(compressed)) {
+            gzip.write(xml.getBytes(StandardCharsets.UTF_8));
+        }
+
+        Map<String, Object> result = parser.parseTree(
+                new GZIPInputStream(new ByteArrayInputStream(compressed.toByteArray())), "get_waybill").result();
+
+        @SuppressWarnings("unchecked")
+        Map<String, Object> waybill = (Map<String, Object>) result.get("WAYBILL");
+        @SuppressWarnings("unchecked")
+        Map<String, Object> goodsList = (Map<String, Object>) waybill.get("GOODS_LIST");
+        @SuppressWarnings("unchecked")
+        Map<String, Object> goods = (Map<String, Object>) goodsList.get("GOODS");
+        assertEquals("საქონლის ხორცი", goods.get("W_NAME"));
+    }
+}
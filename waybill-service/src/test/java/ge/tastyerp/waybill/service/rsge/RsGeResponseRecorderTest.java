@@ -0,0 +1,47 @@
+package ge.tastyerp.waybill.service.rsge;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/** Pseudonymisation of recorded RS.ge responses and where its salt may live. */
+class RsGeResponseRecorderTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    @DisplayName("TINs keep their length, names become stable pseudonyms, other fields are untouched")
+    void anonymises() throws Exception {
+        RsGeResponseRecorder recorder = new RsGeResponseRecorder(dir.resolve("fixtures"), dir.resolve("recorder.salt"));
+        String xml = "<WAYBILL><ID>1</ID><BUYER_TIN>204900358</BUYER_TIN><BUYER_NAME>შპს ტესტი</BUYER_NAME>"
+                + "<FULL_AMOUNT>10.50</FULL_AMOUNT></WAYBILL><WAYBILL><ID>2</ID><BUYER_TIN>204900358</BUYER_TIN></WAYBILL>";
+
+        String out = recorder.anonymise(xml);
+
+        assertFalse(out.contains("204900358"));
+        assertFalse(out.contains("ტესტი"));
+        assertTrue(out.contains("<FULL_AMOUNT>10.50</FULL_AMOUNT>"));
+        assertTrue(out.matches(".*<BUYER_TIN>(\\d{9})</BUYER_TIN>.*<BUYER_TIN>\\1</BUYER_TIN>.*"));
+        assertTrue(out.contains("<BUYER_NAME>BUYER_NAME-"));
+        assertFalse(java.nio.file.Files.exists(dir.resolve("fixtures/.salt")));
+        // Same salt file, same pseudonyms
+        assertEquals(out, new RsGeResponseRecorder(dir.resolve("fixtures"), dir.resolve("recorder.salt")).anonymise(xml));
+    }
+
+    @Test
+    @DisplayName("A salt inside the fixture directory, or one left there by an older version, is refused")
+    void saltStaysOutsideFixtures() throws Exception {
+        Path fixtures = dir.resolve("fixtures");
+
+        assertThrows(java.io.IOException.class, () -> new RsGeResponseRecorder(fixtures, fixtures.resolve("x.salt")));
+
+        java.nio.file.Files.createDirectories(fixtures);
+        java.nio.file.Files.write(fixtures.resolve(".salt"), new byte[32]);
+        assertThrows(java.io.IOException.class, () -> new RsGeResponseRecorder(fixtures, dir.resolve("recorder.salt")));
+    }
+}
@@ -0,0 +1,55 @@
+package ge.tastyerp.waybill.service.rsge;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/** Byte-template SOAP envelopes: layout, escaping and UTF-8 encoding of parameter values. */
+class RsGeSoapEnvelopeTest {
+
+    @Test
+    @DisplayName("Parameters are written between the cached envelope head and tail")
+    void layout() {
+        Map<String, String> params = new LinkedHashMap<>();
+        params.put("su", "user:123");
+        params.put("waybill_id", "42");
+
+        String xml = new String(RsGeSoapEnvelope.encode("get_waybill", params), StandardCharsets.UTF_8);
+
+        assertTrue(xml.startsWith("<?xml version=\"1.0\" encoding=\"utf-8\"?><soap:Envelope"));
+        assertTrue(xml.contains("<soap:Body><get_waybill xmlns=\"http://tempuri.org/\">"
+                + "<su>user:123</su><waybill_id>42</waybill_id></get_waybill></soap:Body>"));
+        assertTrue(xml.endsWith("</soap:Envelope>"));
+        assertEquals("\"http://tempuri.org/get_waybill\"", RsGeSoapEnvelope.soapAction("get_waybill"));
+    }
+
+    @Test
+    @DisplayName("Values are XML-escaped, control characters dropped, and Georgian and emoji encoded as UTF-8")
+    void escapesAndEncodes() {
+        String value = "a&b<c>\"d'\u0001 საქონელი 😀";
+
+        byte[] bytes = RsGeSoapEnvelope.encode("op", Map.of("v", value));
+
+        String xml = new String(bytes, StandardCharsets.UTF_8);
+        assertTrue(xml.contains("<v>a&amp;b&lt;c&gt;&quot;d&apos; საქონელი 😀</v>"));
+        // Valid UTF-8: a lossy decode would re-encode to different bytes
+        assertArrayEquals(xml.getBytes(StandardCharsets.UTF_8), bytes);
+    }
+
+    @Test
+    @DisplayName("The encoded envelope is well-formed and round-trips through the response parser")
+    void wellFormed() {
+        byte[] bytes = RsGeSoapEnvelope.encode("get_waybill", Map.of("waybill_id", "ხორცი & co"));
+
+        RsGeResponseParser.TreeResult result =
+                new RsGeResponseParser().parseTree(new ByteArrayInputStream(bytes), "get_waybill");
+
+        assertFalse(result.resultFound());
+    }
+}
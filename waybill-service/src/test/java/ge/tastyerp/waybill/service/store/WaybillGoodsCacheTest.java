@@ -0,0 +1,120 @@
+package ge.tastyerp.waybill.service.store;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import ge.tastyerp.waybill.service.rsge.RsGePriority;
+import ge.tastyerp.waybill.service.rsge.RsGeSoapClient;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+/** Status-aware invalidation, persistence and in-flight de-duplication of the goods cache. */
+class WaybillGoodsCacheTest {
+
+    @TempDir
+    Path dir;
+
+    private RsGeSoapClient client;
+
+    /** Fake RS.ge: waybill id → STATUS. */
+    private final Map<String, Integer> statuses = new HashMap<>();
+
+    @BeforeEach
+    void setUp() {
+        client = mock(RsGeSoapClient.class);
+        when(client.getWaybillGoodsMapAsync(anyList(), any())).thenAnswer(inv -> {
+            Map<String, Map<String, Object>> out = new HashMap<>();
+            for (String id : inv.<List<String>>getArgument(0)) {
+                out.put(id, waybill(id, statuses.get(id)));
+            }
+            return CompletableFuture.completedFuture(out);
+        });
+    }
+
+    private WaybillGoodsCache newCache(long openTtlMs) {
+        WaybillGoodsCache cache = new WaybillGoodsCache(client, new ObjectMapper());
+        ReflectionTestUtils.setField(cache, "enabled", true);
+        ReflectionTestUtils.setField(cache, "storeDir", dir.toString());
+        ReflectionTestUtils.setField(cache, "openTtlMs", openTtlMs);
+        return cache;
+    }
+
+    private static Map<String, Object> waybill(String id, int status) {
+        Map<String, Object> goods = new HashMap<>();
+        goods.put("W_NAME", "საქონლის ხორცი");
+        goods.put("QUANTITY_F", "10");
+        Map<String, Object> wb = new HashMap<>();
+        wb.put("ID", id);
+        wb.put("STATUS", String.valueOf(status));
+        wb.put("GOODS_LIST", Map.of("GOODS", goods));
+        return wb;
+    }
+
+    @Test
+    @DisplayName("Closed waybills are fetched once; open ones are re-fetched after the TTL")
+    void closedForeverOpenRefreshed() {
+        statuses.put("closed", 2);
+        statuses.put("open", 1);
+        WaybillGoodsCache cache = newCache(0);
+
+        cache.getGoodsMaps(List.of("closed", "open"), RsGePriority.GOODS);
+        Map<String, Map<String, Object>> second = cache.getGoodsMaps(List.of("closed", "open"), RsGePriority.GOODS);
+
+        assertEquals(2, second.size());
+        verify(client).getWaybillGoodsMapAsync(argThat(ids -> ids.size() == 2), eq(RsGePriority.GOODS));
+        verify(client).getWaybillGoodsMapAsync(eq(List.of("open")), eq(RsGePriority.GOODS));
+        verifyNoMoreInteractions(client);
+    }
+
+    @Test
+    @DisplayName("Closed entries survive a restart; open ones are not persisted")
+    void persistsClosedOnly() {
+        statuses.put("closed", -2);
+        statuses.put("open", 0);
+        newCache(60_000).getGoodsMaps(List.of("closed", "open"), RsGePriority.GOODS);
+        clearInvocations(client);
+
+        Map<String, Map<String, Object>> afterRestart =
+                newCache(60_000).getGoodsMaps(List.of("closed", "open"), RsGePriority.GOODS);
+
+        assertEquals(Set.of("closed", "open"), afterRestart.keySet());
+        assertEquals("-2", afterRestart.get("closed").get("STATUS"));
+        verify(client).getWaybillGoodsMapAsync(eq(List.of("open")), any());
+        verifyNoMoreInteractions(client);
+    }
+
+    @Test
+    @DisplayName("Concurrent callers asking for the same ID share one get_waybill lookup")
+    void deduplicatesInFlight() throws Exception {
+        CompletableFuture<Map<String, Map<String, Object>>> lookup = new CompletableFuture<>();
+        reset(client);
+        when(client.getWaybillGoodsMapAsync(anyList(), any())).thenReturn(lookup);
+        WaybillGoodsCache cache = newCache(60_000);
+
+        CompletableFuture<Map<String, Map<String, Object>>> first =
+                cache.getGoodsMapsAsync(List.of("a"), RsGePriority.GOODS);
+        CompletableFuture<Map<String, Map<String, Object>>> second =
+                cache.getGoodsMapsAsync(List.of("a"), RsGePriority.INTERACTIVE);
+        assertFalse(first.isDone());
+        lookup.complete(Map.of("a", waybill("a", 2)));
+
+        assertEquals("a", first.get(5, TimeUnit.SECONDS).get("a").get("ID"));
+        assertEquals("a", second.get(5, TimeUnit.SECONDS).get("a").get("ID"));
+        verify(client, times(1)).getWaybillGoodsMapAsync(anyList(), any());
+    }
+}
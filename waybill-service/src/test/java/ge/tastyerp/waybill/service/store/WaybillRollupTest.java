@@ -0,0 +1,261 @@
+package ge.tastyerp.waybill.service.store;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import ge.tastyerp.common.dto.audit.ProductHierarchy;
+import ge.tastyerp.common.dto.waybill.WaybillDto;
+import ge.tastyerp.common.dto.waybill.WaybillType;
+import ge.tastyerp.waybill.service.WaybillProcessingService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.math.BigDecimal;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+/** Day totals, freezing of closed days, warm restart and goods completeness of the daily rollup. */
+class WaybillRollupTest {
+
+    @TempDir
+    Path dir;
+
+    private final ObjectMapper mapper = new ObjectMapper()
+            .registerModule(new JavaTimeModule())
+            .disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
+
+    private final LocalDate today = LocalDate.now();
+    private final LocalDate closed = today.minusDays(30);
+    private WaybillTable table;
+    private WaybillGoodsCache goods;
+    private final Map<String, Map<String, Object>> rawGoods = new HashMap<>();
+    /** Fake store change log behind cursors "<epoch>:<seq>"; a cursor of another epoch gets a reset. */
+    private final List<WaybillStore.Change> storeChanges = new ArrayList<>();
+    private String storeEpoch = "e";
+    private boolean stale;
+
+    @BeforeEach
+    void setUp() {
+        table = WaybillTable.empty(WaybillType.SALE).replaceDays(closed, today, List.of(
+                waybill("1", closed, "111", "10.00", true),
+                waybill("2", closed, "111", "-2.00", true),
+                waybill("3", closed, "222", "5.50", false),
+                waybill("4", today, "222", "1.00", true)));
+        goods = mock(WaybillGoodsCache.class);
+        when(goods.getGoodsMapsAsync(anyList(), any())).thenAnswer(inv -> {
+            Map<String, Map<String, Object>> out = new HashMap<>();
+            for (String id : inv.<List<String>>getArgument(0)) {
+                if (rawGoods.containsKey(id)) out.put(id, rawGoods.get(id));
+            }
+            return CompletableFuture.completedFuture(out);
+        });
+    }
+
+    private static WaybillDto waybill(String id, LocalDate date, String buyer, String amount, boolean afterCutoff) {
+        return WaybillDto.builder().waybillId(id).type(WaybillType.SALE).buyerTin(buyer).buyerName("Shop " + buyer)
+                .date(date).amount(new BigDecimal(amount)).isAfterCutoff(afterCutoff).build();
+    }
+
+    private WaybillStore storeOver(LocalDate closedThrough) {
+        WaybillStore store = mock(WaybillStore.class);
+        when(store.readAsync(eq(WaybillType.SALE), any(), any(), any())).thenAnswer(inv ->
+                CompletableFuture.completedFuture(new WaybillStore.Snapshot(
+                        table.between(inv.getArgument(1), inv.getArgument(2)), stale, 0L, closedThrough)));
+        when(store.changesSince(eq(WaybillType.SALE), any())).thenAnswer(inv -> changesSince(inv.getArgument(1)));
+        return store;
+    }
+
+    private WaybillStore.Changes changesSince(String cursor) {
+        String current = storeEpoch + ":" + storeChanges.size();
+        if (cursor == null || !cursor.startsWith(storeEpoch + ":")) {
+            return new WaybillStore.Changes(current, true, List.of());
+        }
+        long after = Long.parseLong(cursor.substring(storeEpoch.length() + 1));
+        return new WaybillStore.Changes(current, false,
+                storeChanges.stream().filter(c -> c.seq() > after).toList());
+    }
+
+    private void changeInStore(LocalDate day, WaybillDto... waybills) {
+        table = table.replaceDays(day, day, List.of(waybills));
+        storeChanges.add(new WaybillStore.Change(storeChanges.size() + 1, day, day));
+    }
+
+    private WaybillRollup newRollup(WaybillStore store) {
+        WaybillProcessingService processing = new WaybillProcessingService();
+        ReflectionTestUtils.setField(processing, "minChunk", 1024);
+        WaybillRollup rollup = new WaybillRollup(store, goods, processing, mapper);
+        ReflectionTestUtils.setField(rollup, "enabled", true);
+        ReflectionTestUtils.setField(rollup, "storeDir", dir.toString());
+        return rollup;
+    }
+
+    private static Map<String, Object> goodsOf(String name, String qty, String amount) {
+        return Map.of("GOODS_LIST", Map.of("GOODS", List.of(
+                Map.of("W_NAME", name, "QUANTITY_F", qty, "AMOUNT", amount))));
+    }
+
+    private static Map<String, Object> line(String name, String qty, String unit, String amount) {
+        return Map.of("W_NAME", name, "QUANTITY_F", qty, "UNIT", unit, "AMOUNT", amount);
+    }
+
+    @Test
+    @DisplayName("A day rolls up VAT gross (positive amounts only), the cutoff split and counterparties in order")
+    void dayTotals() {
+        WaybillRollup.Totals totals = newRollup(storeOver(today.minusDays(7)))
+                .readAsync(WaybillType.SALE, closed, closed, false).join();
+
+        WaybillRollup.Day day = totals.days().get(0);
+        assertEquals(3, day.waybills());
+        assertEquals(2, day.positive());
+        assertEquals(1550, day.positiveTetri());
+        assertEquals(2, day.cutoffWaybills());
+        assertEquals(1, day.cutoffPositive());
+        assertEquals(1000, day.cutoffPositiveTetri());
+        assertEquals(List.of("111", "222"), List.copyOf(day.counterparties().keySet()));
+        assertEquals(new WaybillRollup.Counterparty("Shop 111", 800, 2, true), day.counterparties().get("111"));
+        assertNull(day.categories());
+    }
+
+    @Test
+    @DisplayName("Closed days are frozen and survive a restart; only open days go back to the store")
+    void closedDaysFrozen() {
+        WaybillStore store = storeOver(today.minusDays(7));
+        WaybillRollup rollup = newRollup(store);
+
+        WaybillRollup.Totals all = rollup.readAsync(WaybillType.SALE, closed, today, false).join();
+        assertEquals(31, all.days().size());
+        assertEquals(1, all.days().get(30).waybills());
+
+        rollup.readAsync(WaybillType.SALE, closed, today.minusDays(8), false).join();
+        rollup.readAsync(WaybillType.SALE, closed, today, false).join();
+        verify(store).readAsync(eq(WaybillType.SALE), eq(closed), eq(today), any());
+        // The second full read only re-reads the open tail.
+        verify(store).readAsync(eq(WaybillType.SALE), eq(today.minusDays(6)), eq(today), any());
+        verify(store, times(2)).readAsync(any(), any(), any(), any());
+
+        WaybillStore restarted = storeOver(today.minusDays(7));
+        WaybillRollup.Totals warm = newRollup(restarted)
+                .readAsync(WaybillType.SALE, closed, closed.plusDays(2), false).join();
+        assertEquals(1550, warm.days().get(0).positiveTetri());
+        assertEquals(new WaybillRollup.Counterparty("Shop 222", 550, 1, true),
+                warm.days().get(0).counterparties().get("222"));
+        verify(restarted, never()).readAsync(any(), any(), any(), any());
+    }
+
+    @Test
+    @DisplayName("A stale snapshot freezes nothing, so closed days are read again once RS.ge is back")
+    void staleSnapshotNotFrozen() {
+        stale = true;
+        WaybillStore store = storeOver(today.minusDays(7));
+        WaybillRollup rollup = newRollup(store);
+
+        assertTrue(rollup.readAsync(WaybillType.SALE, closed, today, false).join().stale());
+        rollup.readAsync(WaybillType.SALE, closed, today, false).join();
+
+        verify(store, times(2)).readAsync(eq(WaybillType.SALE), eq(closed), eq(today), any());
+    }
+
+    @Test
+    @DisplayName("Frozen days the store reports changed are rebuilt, also across a restart; a reset unfreezes all")
+    void changedDaysUnfrozen() {
+        WaybillStore store = storeOver(today.minusDays(7));
+        WaybillRollup rollup = newRollup(store);
+        rollup.readAsync(WaybillType.SALE, closed, today, false).join();
+
+        changeInStore(closed, waybill("1", closed, "111", "20.00", true));
+        WaybillRollup.Totals changed = rollup.readAsync(WaybillType.SALE, closed, closed.plusDays(2), false).join();
+        assertEquals(2000, changed.days().get(0).positiveTetri());
+        verify(store).readAsync(eq(WaybillType.SALE), eq(closed), eq(closed), any());
+
+        changeInStore(closed.plusDays(1), waybill("5", closed.plusDays(1), "333", "3.00", true));
+        WaybillStore restarted = storeOver(today.minusDays(7));
+        WaybillRollup warm = newRollup(restarted);
+        assertEquals(300, warm.readAsync(WaybillType.SALE, closed, closed.plusDays(2), false).join()
+                .days().get(1).positiveTetri());
+        verify(restarted).readAsync(eq(WaybillType.SALE), eq(closed.plusDays(1)), eq(closed.plusDays(1)), any());
+        verify(restarted, times(1)).readAsync(any(), any(), any(), any());
+
+        storeEpoch = "f";
+        warm.readAsync(WaybillType.SALE, closed, closed.plusDays(2), false).join();
+        verify(restarted).readAsync(eq(WaybillType.SALE), eq(closed), eq(closed.plusDays(2)), any());
+    }
+
+    @Test
+    @DisplayName("Categories are frozen only once goods of every waybill of the day were available")
+    void categoriesNeedCompleteGoods() {
+        rawGoods.put("1", goodsOf("საქონლის ხორცი (რბილი)", "2.5", "30"));
+        rawGoods.put("2", goodsOf("ღორის ხორცი", "1.25", "12.40"));
+        WaybillStore store = storeOver(today.minusDays(7));
+        WaybillRollup rollup = newRollup(store);
+
+        WaybillRollup.Totals partial = rollup.readAsync(WaybillType.SALE, closed, closed, true).join();
+        assertFalse(partial.goodsComplete());
+        assertEquals(new WaybillRollup.Category(2500, 3000, 1, 0),
+                partial.days().get(0).categories().get(ProductHierarchy.BEEF));
+
+        rawGoods.put("3", goodsOf("საქონლის ხორცი", "0.5", "6"));
+        WaybillRollup.Totals complete = rollup.readAsync(WaybillType.SALE, closed, closed, true).join();
+        assertTrue(complete.goodsComplete());
+        assertEquals(new WaybillRollup.Category(3000, 3600, 2, 0),
+                complete.days().get(0).categories().get(ProductHierarchy.BEEF));
+        assertEquals(new WaybillRollup.Category(1250, 1240, 1, 0),
+                complete.days().get(0).categories().get(ProductHierarchy.PORK));
+
+        rollup.readAsync(WaybillType.SALE, closed, closed, true).join();
+        verify(store, times(2)).readAsync(eq(WaybillType.SALE), eq(closed), eq(closed), any());
+    }
+
+    @Test
+    @DisplayName("Only kilogram lines add to a category's kg; lines in other units are counted apart")
+    void mixedUnits() {
+        rawGoods.put("1", Map.of("GOODS_LIST", Map.of("GOODS", List.of(
+                line("საქონლის ხორცი", "2.5", "კგ", "30"),
+                line("საქონლის ხორცი", "10", "ცალი", "20"),
+                line("საქონლის ხორცი", "0.5", "kg", "6")))));
+        rawGoods.put("2", goodsOf("საქონლის ხორცი", "1", "12"));
+        rawGoods.put("3", Map.of("GOODS_LIST", Map.of("GOODS", List.of(
+                line("საქონლის ხორცი", "3", "ლიტრი", "9")))));
+
+        WaybillRollup.Totals totals = newRollup(storeOver(today.minusDays(7)))
+                .readAsync(WaybillType.SALE, closed, closed, true).join();
+
+        // 2.5 kg + 0.5 kg + 1 (no unit = kg); the 10 pieces and 3 liters are not kilograms.
+        assertEquals(new WaybillRollup.Category(4000, 7700, 5, 2),
+                totals.days().get(0).categories().get(ProductHierarchy.BEEF));
+    }
+
+    @Test
+    @DisplayName("Categories frozen by an older file format are rebuilt; the rest of the day is kept")
+    void olderFormatRebuildsCategories() throws Exception {
+        WaybillRollup.Day old = new WaybillRollup.Day(1, 1, 100, 0, 0, 0, Map.of(),
+                Map.of(ProductHierarchy.BEEF, new WaybillRollup.Category(99_000, 100, 1, 0)));
+        int day = (int) closed.toEpochDay();
+        mapper.writeValue(dir.resolve("rollup.json").toFile(), Map.of(
+                "days", Map.of(WaybillType.SALE, Map.of(day, old)),
+                "cursors", Map.of(WaybillType.SALE, "e:0")));
+        WaybillStore store = storeOver(today.minusDays(7));
+        WaybillRollup rollup = newRollup(store);
+
+        assertEquals(100, rollup.readAsync(WaybillType.SALE, closed, closed, false).join()
+                .days().get(0).positiveTetri());
+        verify(store, never()).readAsync(any(), any(), any(), any());
+
+        rawGoods.put("1", goodsOf("საქონლის ხორცი", "2", "30"));
+        rollup.readAsync(WaybillType.SALE, closed, closed, true).join();
+        verify(store).readAsync(eq(WaybillType.SALE), eq(closed), eq(closed), any());
+    }
+}
@@ -0,0 +1,321 @@
+package ge.tastyerp.waybill.service.store;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import ge.tastyerp.common.dto.waybill.WaybillDto;
+import ge.tastyerp.common.dto.waybill.WaybillType;
+import ge.tastyerp.common.exception.ExternalServiceException;
+import ge.tastyerp.waybill.service.WaybillProcessingService;
+import ge.tastyerp.waybill.service.rsge.RsGePriority;
+import ge.tastyerp.waybill.service.rsge.RsGeSoapClient;
+import ge.tastyerp.waybill.service.rsge.RsGeWaybill;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+/** Incremental watermark sync, cancellation pickup, stale serving and warm restart of the waybill store. */
+class WaybillStoreTest {
+
+    @TempDir
+    Path dir;
+
+    private RsGeSoapClient client;
+    private WaybillProcessingService processing;
+    private final ObjectMapper mapper = new ObjectMapper()
+            .registerModule(new JavaTimeModule())
+            .disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
+
+    /** Fake RS.ge: waybills by id; status -2 means cancelled. */
+    private final Map<String, Map<String, Object>> rsge = new HashMap<>();
+
+    @BeforeEach
+    void setUp() {
+        client = mock(RsGeSoapClient.class);
+        processing = new WaybillProcessingService();
+        ReflectionTestUtils.setField(processing, "cutoffDate", "2025-04-29");
+        when(client.getWaybillsAsync(any(), any(), any())).thenAnswer(inv ->
+                CompletableFuture.completedFuture(rangeOf(inv.getArgument(0), inv.getArgument(1))));
+    }
+
+    private WaybillStore newStore(long syncIntervalMs) {
+        WaybillStore store = new WaybillStore(client, processing, mapper);
+        ReflectionTestUtils.setField(store, "enabled", true);
+        ReflectionTestUtils.setField(store, "storeDir", dir.toString());
+        ReflectionTestUtils.setField(store, "trailingDays", 7);
+        ReflectionTestUtils.setField(store, "syncIntervalMs", syncIntervalMs);
+        return store;
+    }
+
+    private List<RsGeWaybill> rangeOf(LocalDate start, LocalDate end) {
+        List<RsGeWaybill> out = new ArrayList<>();
+        for (Map<String, Object> wb : rsge.values()) {
+            LocalDate d = LocalDate.parse(wb.get("CREATE_DATE").toString().substring(0, 10));
+            if (!d.isBefore(start) && !d.isAfter(end)) out.add(RsGeWaybill.of(wb));
+        }
+        return out;
+    }
+
+    private void put(String id, LocalDate date, String amount, int status) {
+        Map<String, Object> wb = new HashMap<>();
+        wb.put("ID", id);
+        wb.put("BUYER_TIN", "204900358");
+        wb.put("CREATE_DATE", date + "T10:00:00");
+        wb.put("FULL_AMOUNT", amount);
+        wb.put("STATUS", String.valueOf(status));
+        rsge.put(id, wb);
+    }
+
+    private static List<String> ids(WaybillStore.Snapshot s) {
+        return s.waybills().stream().map(WaybillDto::getWaybillId).sorted().toList();
+    }
+
+    @Test
+    @DisplayName("Second read only re-fetches the open trailing window, and picks up cancellations there")
+    void incrementalSync() {
+        LocalDate today = LocalDate.now();
+        put("old", today.minusDays(40), "100", 1);
+        put("recent", today.minusDays(2), "50", 1);
+        WaybillStore store = newStore(0);
+
+        assertEquals(List.of("old", "recent"), ids(store.read(WaybillType.SALE, today.minusDays(60), today)));
+        verify(client).getWaybillsAsync(eq(today.minusDays(60)), eq(today), any());
+
+        put("recent", today.minusDays(2), "50", -2);  // cancelled on RS.ge
+        put("new", today, "10", 1);
+
+        assertEquals(List.of("new", "old"), ids(store.read(WaybillType.SALE, today.minusDays(60), today)));
+        verify(client).getWaybillsAsync(eq(today.minusDays(6)), eq(today), any());
+        verifyNoMoreInteractions(client);
+    }
+
+    @Test
+    @DisplayName("The change feed lists only days whose rows a sync changed; unknown cursors get a reset")
+    void changesSince() {
+        LocalDate today = LocalDate.now();
+        put("old", today.minusDays(40), "100", 1);
+        put("recent", today.minusDays(2), "50", 1);
+        WaybillStore store = newStore(0);
+
+        WaybillStore.Changes first = store.changesSince(WaybillType.SALE, null);
+        assertTrue(first.reset());
+        store.read(WaybillType.SALE, today.minusDays(60), today);
+        WaybillStore.Changes initial = store.changesSince(WaybillType.SALE, first.cursor());
+        assertFalse(initial.reset());
+        assertEquals(List.of(today.minusDays(40), today.minusDays(2)),
+                initial.days().stream().map(WaybillStore.Change::from).toList());
+
+        // A refresh of the open window that fetched the same rows logs nothing.
+        store.read(WaybillType.SALE, today.minusDays(60), today);
+        WaybillStore.Changes unchanged = store.changesSince(WaybillType.SALE, initial.cursor());
+        assertEquals(List.of(), unchanged.days());
+        assertEquals(initial.cursor(), unchanged.cursor());
+
+        put("recent", today.minusDays(2), "55", 1);
+        put("new", today, "10", 1);
+        store.read(WaybillType.SALE, today.minusDays(60), today);
+        WaybillStore.Changes changed = store.changesSince(WaybillType.SALE, unchanged.cursor());
+        assertEquals(List.of(new WaybillStore.Change(3, today.minusDays(2), today.minusDays(2)),
+                new WaybillStore.Change(4, today, today)), changed.days());
+
+        assertTrue(store.changesSince(WaybillType.SALE, "other-process:3").reset());
+    }
+
+    @Test
+    @DisplayName("Change cursors stay valid across a restart")
+    void changesSinceAfterRestart() {
+        LocalDate today = LocalDate.now();
+        put("a", today.minusDays(2), "50", 1);
+        WaybillStore store = newStore(0);
+        store.read(WaybillType.SALE, today.minusDays(10), today);
+        String cursor = store.changesSince(WaybillType.SALE, null).cursor();
+        put("a", today.minusDays(2), "55", 1);
+        store.read(WaybillType.SALE, today.minusDays(10), today);
+
+        WaybillStore.Changes changes = newStore(0).changesSince(WaybillType.SALE, cursor);
+
+        assertFalse(changes.reset());
+        assertEquals(List.of(new WaybillStore.Change(2, today.minusDays(2), today.minusDays(2))), changes.days());
+        verify(client, times(2)).getWaybillsAsync(any(), any(), any());
+    }
+
+    @Test
+    @DisplayName("Closed history is served without any RS.ge call; earlier ranges are backfilled once")
+    void closedDaysAndBackfill() {
+        LocalDate today = LocalDate.now();
+        put("a", today.minusDays(30), "1", 1);
+        put("b", today.minusDays(90), "2", 1);
+        WaybillStore store = newStore(60_000);
+
+        store.read(WaybillType.SALE, today.minusDays(60), today);
+        assertEquals(List.of("a"), ids(store.read(WaybillType.SALE, today.minusDays(45), today.minusDays(20))));
+        assertEquals(List.of("a", "b"), ids(store.read(WaybillType.SALE, today.minusDays(120), today.minusDays(20))));
+
+        verify(client).getWaybillsAsync(eq(today.minusDays(60)), eq(today), any());
+        verify(client).getWaybillsAsync(eq(today.minusDays(120)), eq(today.minusDays(61)), any());
+        verifyNoMoreInteractions(client);
+    }
+
+    @Test
+    @DisplayName("RS.ge outage: covered range is served from the store and marked stale")
+    void staleOnOutage() {
+        LocalDate today = LocalDate.now();
+        put("a", today.minusDays(1), "1", 1);
+        WaybillStore store = newStore(0);
+        store.read(WaybillType.SALE, today.minusDays(10), today);
+
+        doReturn(CompletableFuture.failedFuture(new ExternalServiceException("RS.ge", "down")))
+                .when(client).getWaybillsAsync(any(), any(), any());
+
+        WaybillStore.Snapshot s = store.read(WaybillType.SALE, today.minusDays(10), today);
+        assertTrue(s.stale());
+        assertTrue(store.isServingStale());
+        assertEquals(List.of("a"), ids(s));
+
+        assertThrows(ExternalServiceException.class,
+                () -> store.read(WaybillType.SALE, today.minusDays(30), today), "uncovered range must still fail");
+    }
+
+    @Test
+    @DisplayName("An RS.ge error status commits nothing: stored open days survive, on disk too, and no change is logged")
+    void errorStatusKeepsStoredDays() {
+        LocalDate today = LocalDate.now();
+        put("a", today.minusDays(1), "1", 1);
+        put("b", today.minusDays(3), "2", 1);
+        WaybillStore store = newStore(0);
+        store.read(WaybillType.SALE, today.minusDays(10), today);
+        String cursor = store.changesSince(WaybillType.SALE, null).cursor();
+
+        // What RsGeSoapClient now does for a non-0/1 status instead of answering an empty list.
+        doReturn(CompletableFuture.failedFuture(new ExternalServiceException("RS.ge", "Status -9 for get_waybills")))
+                .when(client).getWaybillsAsync(any(), any(), any());
+
+        WaybillStore.Snapshot s = store.read(WaybillType.SALE, today.minusDays(10), today);
+        assertTrue(s.stale());
+        assertEquals(List.of("a", "b"), ids(s));
+        assertEquals(List.of(), store.changesSince(WaybillType.SALE, cursor).days());
+
+        WaybillStore restarted = newStore(60_000);
+        assertEquals(List.of("a", "b"), ids(restarted.read(WaybillType.SALE, today.minusDays(3), today.minusDays(1))));
+    }
+
+    @Test
+    @DisplayName("Restart warm-starts from disk without refetching closed days")
+    void persistsAcrossRestart() {
+        LocalDate today = LocalDate.now();
+        put("a", today.minusDays(50), "12.34", 1);
+        newStore(60_000).read(WaybillType.SALE, today.minusDays(60), today.minusDays(30));
+        clearInvocations(client);
+
+        WaybillStore restarted = newStore(60_000);
+        WaybillStore.Snapshot s = restarted.read(WaybillType.SALE, today.minusDays(60), today.minusDays(30));
+
+        assertEquals(List.of("a"), ids(s));
+        assertEquals(0, s.waybills().get(0).getAmount().compareTo(new BigDecimal("12.34")));
+        verifyNoInteractions(client);
+    }
+
+    @Test
+    @DisplayName("A refresh of the open days rewrites only the month segments whose rows changed")
+    void persistsOnlyChangedSegments() throws Exception {
+        LocalDate today = LocalDate.now();
+        put("a", today.minusDays(120), "1", 1);
+        put("b", today.minusDays(1), "2", 1);
+        WaybillStore store = newStore(0);
+        store.read(WaybillType.SALE, today.minusDays(150), today);
+
+        Path closed = dir.resolve("get_waybills").resolve(YearMonth.from(today.minusDays(120)) + ".json");
+        Path open = dir.resolve("get_waybills").resolve(YearMonth.from(today.minusDays(1)) + ".json");
+        FileTime old = FileTime.fromMillis(0);
+        Files.setLastModifiedTime(closed, old);
+        Files.setLastModifiedTime(open, old);
+
+        put("b", today.minusDays(1), "3", 1);
+        store.read(WaybillType.SALE, today.minusDays(150), today);
+
+        assertEquals(old, Files.getLastModifiedTime(closed));
+        assertNotEquals(old, Files.getLastModifiedTime(open));
+        WaybillStore restarted = newStore(60_000);
+        WaybillStore.Snapshot s = restarted.read(WaybillType.SALE, today.minusDays(150), today.minusDays(1));
+        assertEquals(List.of("a", "b"), ids(s));
+        assertEquals(0, s.waybills().stream().filter(w -> w.getWaybillId().equals("b")).findFirst()
+                .orElseThrow().getAmount().compareTo(new BigDecimal("3")));
+    }
+
+    @Test
+    @DisplayName("A single-file partition from an earlier version is loaded and migrated to segments")
+    void migratesLegacyFile() throws Exception {
+        LocalDate today = LocalDate.now();
+        put("a", today.minusDays(50), "1", 1);
+        List<WaybillDto> waybills = processing.processWaybills(
+                rangeOf(today.minusDays(60), today.minusDays(30)), WaybillType.SALE);
+        Path legacy = dir.resolve("get_waybills.json");
+        mapper.writeValue(legacy.toFile(), new WaybillStore.StoredPartition("get_waybills",
+                today.minusDays(60), today.minusDays(30), today, System.currentTimeMillis(), waybills));
+
+        WaybillStore restarted = newStore(60_000);
+
+        assertEquals(List.of("a"), ids(restarted.read(WaybillType.SALE, today.minusDays(55), today.minusDays(40))));
+        verifyNoInteractions(client);
+        assertFalse(Files.exists(legacy));
+        assertTrue(Files.exists(dir.resolve("get_waybills").resolve("meta.json")));
+    }
+
+    @Test
+    @DisplayName("After a restart, coverage is answered from the persisted partition before any sync")
+    void coversAfterRestart() {
+        LocalDate today = LocalDate.now();
+        put("a", today.minusDays(50), "1", 1);
+        newStore(60_000).read(WaybillType.SALE, today.minusDays(60), today.minusDays(30));
+        clearInvocations(client);
+
+        WaybillStore restarted = newStore(60_000);
+
+        assertTrue(restarted.covers(WaybillType.SALE, today.minusDays(55), today.minusDays(40)));
+        assertFalse(restarted.covers(WaybillType.SALE, today.minusDays(70), today.minusDays(40)));
+        assertFalse(restarted.covers(WaybillType.PURCHASE, today.minusDays(55), today.minusDays(40)));
+        verifyNoInteractions(client);
+    }
+
+    @Test
+    @DisplayName("A covered, fresh interactive read does not wait behind an in-flight prefetch backfill")
+    void freshReadSkipsSyncChain() {
+        LocalDate today = LocalDate.now();
+        put("a", today.minusDays(20), "1", 1);
+        WaybillStore store = newStore(60_000);
+        store.read(WaybillType.SALE, today.minusDays(30), today);
+
+        CompletableFuture<List<RsGeWaybill>> slow = new CompletableFuture<>();
+        doReturn(slow).when(client).getWaybillsAsync(any(), any(), eq(RsGePriority.PREFETCH));
+        CompletableFuture<WaybillStore.Snapshot> prefetch =
+                store.readAsync(WaybillType.SALE, today.minusDays(90), today, RsGePriority.PREFETCH);
+
+        CompletableFuture<WaybillStore.Snapshot> interactive =
+                store.readAsync(WaybillType.SALE, today.minusDays(25), today, RsGePriority.INTERACTIVE);
+        assertTrue(interactive.isDone(), "fresh covered read must not join the sync chain");
+        assertEquals(List.of("a"), ids(interactive.join()));
+        assertFalse(prefetch.isDone());
+
+        slow.complete(List.of());
+        assertEquals(List.of("a"), ids(prefetch.join()));
+    }
+}
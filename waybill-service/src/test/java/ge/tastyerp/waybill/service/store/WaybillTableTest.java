@@ -0,0 +1,122 @@
+package ge.tastyerp.waybill.service.store;
+
+import ge.tastyerp.common.dto.waybill.WaybillDto;
+import ge.tastyerp.common.dto.waybill.WaybillGoodDto;
+import ge.tastyerp.common.dto.waybill.WaybillType;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/** Columnar waybill table: DTO round trip, day replacement, and day-range and per-customer reads. */
+class WaybillTableTest {
+
+    private static final LocalDate D = LocalDate.of(2025, 6, 1);
+
+    private static WaybillDto sale(String id, LocalDate date, String buyer, String amount) {
+        return WaybillDto.builder()
+                .waybillId(id)
+                .type(WaybillType.SALE)
+                .customerId(buyer)
+                .customerName(buyer != null ? "Name " + buyer : null)
+                .buyerTin(buyer)
+                .buyerName(buyer != null ? "Name " + buyer : null)
+                .sellerTin("206322102")
+                .sellerName("Us")
+                .date(date)
+                .amount(amount != null ? new BigDecimal(amount) : null)
+                .status(1)
+                .isAfterCutoff(true)
+                .build();
+    }
+
+    private static List<String> ids(WaybillTable.Rows rows) {
+        return rows.toDtos().stream().map(WaybillDto::getWaybillId).toList();
+    }
+
+    @Test
+    @DisplayName("Rows materialize back to equal DTOs")
+    void roundTrip() {
+        WaybillDto w = sale("1", D, "123456789", "1234.56");
+        w.setCreatedAt(LocalDateTime.of(2025, 6, 1, 10, 15, 30));
+        w.setGoods(List.of(WaybillGoodDto.builder().name("Beef").quantity(BigDecimal.ONE).build()));
+        WaybillDto undated = sale("2", null, null, null);
+        undated.setStatus(1000);
+
+        WaybillTable t = WaybillTable.empty(WaybillType.SALE).replaceDays(D, D, List.of(w, undated));
+
+        assertEquals(List.of(w, undated), t.all().toDtos());
+        assertEquals(123456, t.amountTetri(0));
+        assertNull(t.date(1));
+        assertEquals(D.toEpochDay(), t.epochDay(1));
+    }
+
+    @Test
+    @DisplayName("Replacing days keeps other days, sorts by day and dedups ids within a day")
+    void replaceDays() {
+        WaybillTable t = WaybillTable.empty(WaybillType.SALE).replaceDays(D, D.plusDays(2), List.of(
+                sale("c", D.plusDays(2), "1", "3"),
+                sale("a", D, "1", "1"),
+                sale("b", D.plusDays(1), "2", "2")));
+
+        WaybillTable next = t.replaceDays(D.plusDays(1), D.plusDays(1), List.of(
+                sale("x", D.plusDays(1), "3", "5"),
+                sale("y", D.plusDays(1), "3", "6"),
+                sale("x", D.plusDays(1), "3", "7")));
+
+        assertEquals(List.of("a", "b", "c"), ids(t.all()));
+        assertEquals(List.of("a", "x", "y", "c"), ids(next.all()));
+        assertEquals(700, next.amountTetri(1));
+        assertEquals(List.of("x", "y"), ids(next.between(D.plusDays(1), D.plusDays(1))));
+    }
+
+    @Test
+    @DisplayName("Rows dated outside the replaced window are filed under its nearest day, keeping days sorted")
+    void outOfWindowRowsClamped() {
+        WaybillTable t = WaybillTable.empty(WaybillType.SALE).replaceDays(D, D.plusDays(3), List.of(
+                sale("x", D, "1", "1"),
+                sale("y", D.plusDays(3), "1", "1")));
+
+        WaybillTable next = t.replaceDays(D.plusDays(1), D.plusDays(2), List.of(
+                sale("c", D.plusDays(9), "1", "3"),
+                sale("a", D.minusDays(4), "1", "1"),
+                sale("b", D.plusDays(1), "1", "2")));
+
+        assertEquals(List.of("x", "a", "b", "c", "y"), ids(next.all()));
+        assertEquals(List.of("a", "b"), ids(next.between(D.plusDays(1), D.plusDays(1))));
+        assertEquals(List.of("c"), ids(next.between(D.plusDays(2), D.plusDays(2))));
+        assertEquals(D.plusDays(9), next.date(3));
+        assertEquals(D.plusDays(2).toEpochDay(), next.epochDay(3));
+        assertEquals(List.of("x", "a", "b", "c", "y"), ids(next.all().forCustomer("1")));
+
+        // Refetching the window replaces the clamped rows instead of duplicating them.
+        WaybillTable again = next.replaceDays(D.plusDays(1), D.plusDays(2), List.of(sale("c", D.plusDays(9), "1", "3")));
+        assertEquals(List.of("x", "c", "y"), ids(again.all()));
+    }
+
+    @Test
+    @DisplayName("Per-customer reads come from the posting lists, clipped to the day range")
+    void customerReads() {
+        WaybillTable t = WaybillTable.empty(WaybillType.SALE).replaceDays(D, D.plusDays(3), List.of(
+                sale("1", D, "111", "1"),
+                sale("2", D.plusDays(1), "222", "2"),
+                sale("3", D.plusDays(2), "111", "3"),
+                sale("4", D.plusDays(3), "111", "4"),
+                sale("5", D.plusDays(3), null, "5")));
+
+        WaybillTable.Rows range = t.between(D.plusDays(1), D.plusDays(3));
+        assertEquals(List.of("3", "4"), ids(range.forCustomer("111")));
+        assertEquals(0, range.forCustomer("999").size());
+
+        Map<String, WaybillTable.Rows> byCustomer = range.byCustomer();
+        assertEquals(List.of("222", "111"), List.copyOf(byCustomer.keySet()));
+        assertEquals(List.of("3", "4"), ids(byCustomer.get("111")));
+        assertEquals(List.of("3", "4"), ids(range.afterCutoffOnly().forCustomer("111")));
+    }
+}